@@ -37,7 +37,7 @@ import de.zib.scalaris.operations.WriteOp;
  * @param <ResL> {@link ResultList} type
  *
  * @author Nico Kruber, kruber@zib.de
- * @version 3.18
+ * @version 3.21
  * @since 3.14
  */
 public abstract class AbstractTransaction<ReqL extends RequestList, ResL extends ResultList> {
@@ -54,6 +54,14 @@ public abstract class AbstractTransaction<ReqL extends RequestList, ResL extends
      */
     protected boolean compressed = true;
 
+    /**
+     * Maximum number of operations per request of bulk operations like
+     * <tt>readMany</tt>.
+     *
+     * @since 3.21
+     */
+    protected int bulkChunkSize = 100;
+
     /**
      * Constructor, uses the default connection returned by
      * {@link ConnectionFactory#createConnection()}.
@@ -554,4 +562,31 @@ public abstract class AbstractTransaction<ReqL extends RequestList, ResL extends
         this.compressed = compressed;
     }
 
-}
\ No newline at end of file
+    /**
+     * Gets the maximum number of operations per request of bulk operations
+     * like <tt>readMany</tt>.
+     *
+     * @return the chunk size
+     *
+     * @since 3.21
+     */
+    public int getBulkChunkSize() {
+        return bulkChunkSize;
+    }
+
+    /**
+     * Sets the maximum number of operations per request of bulk operations
+     * like <tt>readMany</tt>.
+     *
+     * @param bulkChunkSize
+     *            the chunk size (&gt; 0)
+     *
+     * @since 3.21
+     */
+    public void setBulkChunkSize(final int bulkChunkSize) {
+        if (bulkChunkSize <= 0) {
+            throw new IllegalArgumentException("bulkChunkSize must be > 0");
+        }
+        this.bulkChunkSize = bulkChunkSize;
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.zib.scalaris.operations.Operation;
+import de.zib.scalaris.operations.ReadOp;
+import de.zib.scalaris.operations.WriteOp;
+
+/**
+ * Results of a bulk operation on many keys, e.g.
+ * {@link TransactionSingleOp#readMany(java.util.Collection)}.
+ *
+ * Each key either has a value (see {@link #getValues()}) or an error (see
+ * {@link #getErrors()}). Bulk writes do not have values - the keys which
+ * were written successfully map to <tt>null</tt>.
+ *
+ * @param <V>
+ *            the type of the values
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.21
+ * @since 3.21
+ */
+public class BulkResult<V> {
+    private final Map<String, V> values = new LinkedHashMap<String, V>();
+    private final Map<String, Exception> errors = new LinkedHashMap<String, Exception>();
+
+    /**
+     * Creates an empty result.
+     */
+    BulkResult() {
+    }
+
+    /**
+     * Gets the values of all keys without an error.
+     *
+     * @return an unmodifiable map of keys to values
+     */
+    public Map<String, V> getValues() {
+        return Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * Gets the errors of all keys which failed, e.g. with a
+     * {@link NotFoundException}, an {@link AbortException} or a
+     * {@link ConnectionException} if the request containing the key failed.
+     *
+     * @return an unmodifiable map of keys to errors
+     */
+    public Map<String, Exception> getErrors() {
+        return Collections.unmodifiableMap(errors);
+    }
+
+    /**
+     * Checks whether all keys were processed successfully.
+     *
+     * @return <tt>true</tt> if there are no errors
+     */
+    public boolean isSuccessful() {
+        return errors.isEmpty();
+    }
+
+    /**
+     * Gets the number of keys in this result.
+     *
+     * @return number of keys (with values or errors)
+     */
+    public int size() {
+        return values.size() + errors.size();
+    }
+
+    void addValue(final String key, final V value) {
+        values.put(key, value);
+    }
+
+    void addError(final String key, final Exception error) {
+        errors.put(key, error);
+    }
+
+    /**
+     * Adds the error to all keys of the given operations.
+     *
+     * @param ops
+     *            the failed operations
+     * @param error
+     *            the error
+     */
+    void addErrors(final List<? extends Operation> ops,
+            final Exception error) {
+        for (final Operation op : ops) {
+            errors.put(op.getKey().stringValue(), error);
+        }
+    }
+
+    /**
+     * Adds the results of the given (executed) read operations.
+     *
+     * @param result
+     *            the result to add to
+     * @param ops
+     *            the read operations
+     */
+    static void addReads(final BulkResult<ErlangValue> result, final List<ReadOp> ops) {
+        for (final ReadOp op : ops) {
+            final String key = op.getKey().stringValue();
+            try {
+                result.addValue(key, op.processResult());
+            } catch (final NotFoundException e) {
+                result.addError(key, e);
+            } catch (final UnknownException e) {
+                result.addError(key, e);
+            }
+        }
+    }
+
+    /**
+     * Adds the results of the given (executed) write operations which were
+     * committed individually.
+     *
+     * @param result
+     *            the result to add to
+     * @param ops
+     *            the write operations
+     */
+    static void addWrites(final BulkResult<Object> result, final List<WriteOp> ops) {
+        for (final WriteOp op : ops) {
+            final String key = op.getKey().stringValue();
+            try {
+                op.processResultSingle();
+                result.addValue(key, null);
+            } catch (final AbortException e) {
+                result.addError(key, e);
+            } catch (final UnknownException e) {
+                result.addError(key, e);
+            }
+        }
+    }
+}
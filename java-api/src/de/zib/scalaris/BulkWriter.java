@@ -0,0 +1,461 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.zib.scalaris.operations.WriteOp;
+
+/**
+ * Writes a stream of key/value pairs to Scalaris, e.g. during an import.
+ *
+ * Pairs are collected into batches of {@link #getBatchSize()} writes which
+ * are sent as a single
+ * {@link TransactionSingleOp#req_list(TransactionSingleOp.RequestList)} call
+ * (<tt>api_tx:req_list_commit_each/1</tt>), i.e. each write is committed in
+ * its own transaction. Up to <tt>maxInFlight</tt> batches are sent in
+ * parallel on connections from the given {@link ConnectionPool}. If this
+ * limit is reached, {@link #write(String, Object)} blocks until a batch has
+ * been completed so that the memory used by pending writes stays bounded.
+ *
+ * Writes which fail (because of an abort or connection problems) are retried
+ * up to {@link #getMaxRetries()} times after {@link #getRetryDelay()}
+ * milliseconds. Writes which still fail are reported by
+ * {@link #getFailures()}.
+ *
+ * Note: batches (and their retries) are sent in parallel, i.e. there is no
+ * order among writes of different batches. Each key must therefore only be
+ * written once per writer - otherwise an older value, e.g. from a retried
+ * write, may overwrite a newer one.
+ *
+ * <h3>Example:</h3>
+ * <pre>
+ * <code style="white-space:pre;">
+ *   BulkWriter writer = new BulkWriter(pool, 4);
+ *   try {
+ *       for (...) {
+ *           writer.write(key, value);
+ *       }
+ *       writer.flush();
+ *   } finally {
+ *       writer.close();
+ *   }
+ * </code>
+ * </pre>
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.21
+ * @since 3.21
+ */
+public class BulkWriter {
+    /**
+     * Pool to get connections from.
+     */
+    protected final ConnectionPool cPool;
+
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final ExecutorService executor;
+
+    private volatile int batchSize = 100;
+    private volatile int maxRetries = 3;
+    private volatile long retryDelay = 100;
+    private volatile long connectionTimeout = 10000;
+
+    private List<WriteOp> batch = new ArrayList<WriteOp>();
+    private volatile boolean closed = false;
+
+    private final long startTime = System.currentTimeMillis();
+    private final AtomicLong written = new AtomicLong(0);
+    private final AtomicLong failed = new AtomicLong(0);
+    private final AtomicLong retried = new AtomicLong(0);
+    private final AtomicLong batches = new AtomicLong(0);
+    private final ConcurrentHashMap<String, Exception> failures = new ConcurrentHashMap<String, Exception>();
+
+    /**
+     * Creates a writer.
+     *
+     * @param cPool
+     *            the connection pool to use
+     * @param maxInFlight
+     *            the maximum number of batches being sent at the same time
+     *            (&gt; 0)
+     */
+    public BulkWriter(final ConnectionPool cPool, final int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be > 0");
+        }
+        this.cPool = cPool;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.executor = Executors.newFixedThreadPool(maxInFlight, new ThreadFactory() {
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, "BulkWriter worker");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Adds the given key/value pair to the current batch. Sends the batch if
+     * it is full. Blocks if too many batches are still being sent.
+     *
+     * @param <T>
+     *            the type of the <tt>value</tt>
+     * @param key
+     *            the key to store the value for
+     * @param value
+     *            the value to store
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting for a batch to complete
+     * @throws IllegalStateException
+     *             if the writer has been closed
+     */
+    public synchronized <T> void write(final String key, final T value)
+            throws InterruptedException, IllegalStateException {
+        if (closed) {
+            throw new IllegalStateException("writer has been closed");
+        }
+        batch.add(new WriteOp(key, value));
+        if (batch.size() >= batchSize) {
+            sendBatch();
+        }
+    }
+
+    /**
+     * Adds all given key/value pairs (see {@link #write(String, Object)}).
+     *
+     * @param <T>
+     *            the type of the values
+     * @param values
+     *            the key/value pairs to store
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting for a batch to complete
+     * @throws IllegalStateException
+     *             if the writer has been closed
+     */
+    public <T> void writeAll(final Map<String, T> values)
+            throws InterruptedException, IllegalStateException {
+        for (final Map.Entry<String, T> entry : values.entrySet()) {
+            write(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Sends the current batch and waits for all batches to complete.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    public void flush() throws InterruptedException {
+        synchronized (this) {
+            if (!batch.isEmpty()) {
+                sendBatch();
+            }
+        }
+        inFlight.acquire(maxInFlight);
+        inFlight.release(maxInFlight);
+    }
+
+    /**
+     * Sends all pending writes, waits for them and stops the worker threads.
+     * Further writes are not accepted.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting (writes which could not be
+     *             sent are reported by {@link #getFailures()})
+     */
+    public void close() throws InterruptedException {
+        try {
+            synchronized (this) {
+                // no write may slip in after the last batch has been sent
+                closed = true;
+                if (!batch.isEmpty()) {
+                    try {
+                        sendBatch();
+                    } catch (final InterruptedException e) {
+                        for (final WriteOp op : batch) {
+                            failures.put(op.getKey().stringValue(), e);
+                        }
+                        failed.addAndGet(batch.size());
+                        batch.clear();
+                        throw e;
+                    }
+                }
+            }
+            inFlight.acquire(maxInFlight);
+            inFlight.release(maxInFlight);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Hands the current batch to a worker (called with the lock held).
+     */
+    private void sendBatch() throws InterruptedException {
+        final List<WriteOp> toSend = batch;
+        inFlight.acquire();
+        batch = new ArrayList<WriteOp>(batchSize);
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        execute(toSend);
+                    } finally {
+                        inFlight.release();
+                    }
+                }
+            });
+        } catch (final RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Sends the given writes, retrying failed ones.
+     *
+     * @param writes
+     *            the writes to send
+     */
+    private void execute(final List<WriteOp> writes) {
+        List<WriteOp> pending = writes;
+        for (int attempt = 0;; ++attempt) {
+            final Map<WriteOp, Exception> errors = send(pending);
+            if (errors.isEmpty()) {
+                return;
+            }
+            if (attempt >= maxRetries || Thread.currentThread().isInterrupted()) {
+                for (final Map.Entry<WriteOp, Exception> error : errors.entrySet()) {
+                    failures.put(error.getKey().getKey().stringValue(), error.getValue());
+                }
+                failed.addAndGet(errors.size());
+                return;
+            }
+            retried.addAndGet(errors.size());
+            pending = new ArrayList<WriteOp>(errors.keySet());
+            if (retryDelay > 0) {
+                try {
+                    Thread.sleep(retryDelay);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the given writes in a single request.
+     *
+     * @param writes
+     *            the writes to send
+     *
+     * @return the failed writes and their errors
+     */
+    private Map<WriteOp, Exception> send(final List<WriteOp> writes) {
+        final TransactionSingleOp.RequestList req = new TransactionSingleOp.RequestList();
+        for (final WriteOp op : writes) {
+            req.addOp(op);
+        }
+        final Map<WriteOp, Exception> errors = new HashMap<WriteOp, Exception>();
+        Connection conn = null;
+        try {
+            conn = cPool.getConnection(connectionTimeout);
+            if (conn == null) {
+                throw new ConnectionException("no connection available in the pool");
+            }
+            new TransactionSingleOp(conn).req_list(req);
+            batches.incrementAndGet();
+        } catch (final ConnectionException e) {
+            for (final WriteOp op : writes) {
+                errors.put(op, e);
+            }
+            return errors;
+        } catch (final UnknownException e) {
+            for (final WriteOp op : writes) {
+                errors.put(op, e);
+            }
+            return errors;
+        } finally {
+            if (conn != null) {
+                cPool.releaseConnection(conn);
+            }
+        }
+        for (final WriteOp op : writes) {
+            try {
+                op.processResultSingle();
+                written.incrementAndGet();
+            } catch (final AbortException e) {
+                errors.put(op, e);
+            } catch (final UnknownException e) {
+                errors.put(op, e);
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Gets the number of successful writes.
+     *
+     * @return number of written key/value pairs
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * Gets the number of writes which failed (after all retries).
+     *
+     * @return number of failed key/value pairs
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Gets the number of retried writes.
+     *
+     * @return number of retries
+     */
+    public long getRetried() {
+        return retried.get();
+    }
+
+    /**
+     * Gets the number of requests sent successfully.
+     *
+     * @return number of batches
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * Gets the average number of successful writes per second since the
+     * writer was created.
+     *
+     * @return writes per second
+     */
+    public double getThroughput() {
+        final long duration = System.currentTimeMillis() - startTime;
+        return duration <= 0 ? 0.0 : written.get() * 1000.0 / duration;
+    }
+
+    /**
+     * Gets the keys of all failed writes and their (last) errors.
+     *
+     * @return an unmodifiable map of keys to errors
+     */
+    public Map<String, Exception> getFailures() {
+        return Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * Gets the maximum number of writes per request.
+     *
+     * @return the batch size
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the maximum number of writes per request.
+     *
+     * @param batchSize
+     *            the batch size (&gt; 0)
+     */
+    public void setBatchSize(final int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be > 0");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Gets the maximum number of retries of a failed write.
+     *
+     * @return the maximum number of retries
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Sets the maximum number of retries of a failed write.
+     *
+     * @param maxRetries
+     *            the maximum number of retries (&gt;= 0)
+     */
+    public void setMaxRetries(final int maxRetries) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries must be >= 0");
+        }
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Gets the time to wait before retrying failed writes.
+     *
+     * @return the delay in milliseconds
+     */
+    public long getRetryDelay() {
+        return retryDelay;
+    }
+
+    /**
+     * Sets the time to wait before retrying failed writes.
+     *
+     * @param retryDelay
+     *            the delay in milliseconds
+     */
+    public void setRetryDelay(final long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+    /**
+     * Gets the maximum time to wait for a connection from the pool.
+     *
+     * @return the timeout in milliseconds
+     */
+    public long getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    /**
+     * Sets the maximum time to wait for a connection from the pool.
+     *
+     * @param connectionTimeout
+     *            the timeout in milliseconds (<tt>0</tt> to wait forever)
+     */
+    public void setConnectionTimeout(final long connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+    }
+}
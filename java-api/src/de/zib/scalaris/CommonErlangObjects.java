@@ -15,7 +15,6 @@
  */
 package de.zib.scalaris;
 
-import java.io.IOException;
 import java.util.List;
 
 import com.ericsson.otp.erlang.OtpErlangAtom;
@@ -26,9 +25,6 @@ import com.ericsson.otp.erlang.OtpErlangDouble;
 import com.ericsson.otp.erlang.OtpErlangLong;
 import com.ericsson.otp.erlang.OtpErlangObject;
 import com.ericsson.otp.erlang.OtpErlangTuple;
-import com.ericsson.otp.erlang.OtpExternal;
-import com.ericsson.otp.erlang.OtpInputStream;
-import com.ericsson.otp.erlang.OtpOutputStream;
 
 /**
  * Contains some often used objects as static objects as static members in
@@ -36,7 +32,7 @@ import com.ericsson.otp.erlang.OtpOutputStream;
  *
  * @author Nico Kruber, kruber@zib.de
  *
- * @version 3.14
+ * @version 3.21
  * @since 2.5
  */
 @SuppressWarnings("javadoc")
@@ -44,6 +40,7 @@ public final class CommonErlangObjects {
     public static final OtpErlangAtom readAtom = new OtpErlangAtom("read");
     public static final OtpErlangAtom writeAtom = new OtpErlangAtom("write");
     public static final OtpErlangAtom addDelOnListAtom = new OtpErlangAtom("add_del_on_list");
+    public static final OtpErlangAtom addIfAbsentOnListAtom = new OtpErlangAtom("add_if_absent_on_list");
     public static final OtpErlangAtom testAndSetAtom = new OtpErlangAtom("test_and_set");
     public static final OtpErlangAtom addOnNrAtom = new OtpErlangAtom("add_on_nr");
     public static final OtpErlangAtom okAtom = new OtpErlangAtom("ok");
@@ -71,6 +68,10 @@ public final class CommonErlangObjects {
      * Encoded the given erlang object to a binary the same way as
      * <tt>rdht_tx:encode_value/1</tt>.
      *
+     * Note: buffers are re-used per thread, i.e. only the resulting binary
+     * is allocated. Values are compressed according to the current
+     * {@link ValueCompression} settings.
+     *
      * @param value
      *            the decoded value
      *
@@ -86,27 +87,9 @@ public final class CommonErlangObjects {
         } else if (value instanceof OtpErlangDouble) {
             return value;
         } else if (value instanceof OtpErlangBinary) {
-            final OtpOutputStream oos = new OtpOutputStream();
-            oos.write1(OtpExternal.versionTag);
-            oos.write_any(value);
-            final byte[] encoded = oos.toByteArray();
-            final OtpErlangBinary result = new OtpErlangBinary(encoded);
-            try {
-                oos.close();
-            } catch (final IOException e) {
-            }
-            return result;
+            return ValueCodec.encodeBinary((OtpErlangBinary) value);
         } else {
-            final OtpOutputStream oos = new OtpOutputStream();
-            oos.write1(OtpExternal.versionTag);
-            oos.write_compressed(value);
-            final byte[] encoded = oos.toByteArray();
-            final OtpErlangBinary result = new OtpErlangBinary(encoded);
-            try {
-                oos.close();
-            } catch (final IOException e) {
-            }
-            return result;
+            return ValueCodec.encodeCompressed(value);
         }
     }
 
@@ -125,21 +108,24 @@ public final class CommonErlangObjects {
     public static OtpErlangObject decode(final OtpErlangObject value)
             throws OtpErlangDecodeException {
         if (value instanceof OtpErlangBinary) {
-            final OtpErlangBinary valueBin = (OtpErlangBinary) value;
-            final OtpInputStream ois = new OtpInputStream(valueBin.binaryValue());
-            try {
-                return ois.read_any();
-            } finally {
-                try {
-                    ois.close();
-                } catch (final IOException e) {
-                }
-            }
+            return ValueCodec.decodeBinary((OtpErlangBinary) value);
         } else {
             return value;
         }
     }
 
+    /**
+     * Frees the buffers and the native (zlib) memory the current thread uses
+     * to encode and decode values, e.g. before a thread of a pool which no
+     * longer talks to Scalaris is returned. They are re-created if the
+     * thread encodes or decodes values again.
+     *
+     * @since 3.21
+     */
+    public static void releaseThreadResources() {
+        ValueCodec.releaseThreadResources();
+    }
+
     /**
      * Processes the <tt>received_raw</tt> term from erlang and if it is a
      * <tt>{fail, abort, KeyList}</tt>, issues an {@link AbortException}.
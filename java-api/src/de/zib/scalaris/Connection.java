@@ -19,10 +19,12 @@ import java.io.IOException;
 import java.net.UnknownHostException;
 
 import com.ericsson.otp.erlang.OtpAuthException;
+import com.ericsson.otp.erlang.OtpErlangAtom;
 import com.ericsson.otp.erlang.OtpConnection;
 import com.ericsson.otp.erlang.OtpErlangExit;
 import com.ericsson.otp.erlang.OtpErlangList;
 import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangTuple;
 import com.ericsson.otp.erlang.OtpSelf;
 
 /**
@@ -31,10 +33,15 @@ import com.ericsson.otp.erlang.OtpSelf;
  *
  * @author Nico Kruber, kruber@zib.de
  *
- * @version 3.14
+ * @version 3.21
  * @since 2.3
  */
 public class Connection {
+    /**
+     * The name of the Erlang server handling RPCs.
+     */
+    private static final OtpErlangAtom rexAtom = new OtpErlangAtom("rex");
+
     /**
      * The connection this object wraps.
      */
@@ -52,6 +59,13 @@ public class Connection {
      * reconnect on failures.
      */
     ConnectionPolicy connectionPolicy;
+    /**
+     * The time (see {@link System#currentTimeMillis()}) after which
+     * {@link #connect()} does not try any further node, <tt>0</tt> for no
+     * limit (set during a
+     * {@link #doRPC(String, String, OtpErlangList, long)} with a timeout).
+     */
+    private long connectDeadline = 0;
 
     /**
      * Creates a new connection using the given nodes and a default connection
@@ -110,9 +124,10 @@ public class Connection {
     /**
      * Tries connecting to the current {@link #remote} node. If this fails, it
      * will try re-connecting to a node the {@link #connectionPolicy} chooses as
-     * long as this does not throw an exception. The {@link #remote} node will
-     * be set to the node the connection has been established with (or the last
-     * tried node).
+     * long as this does not throw an exception (or the timeout of the current
+     * {@link #doRPC(String, String, OtpErlangList, long)} call has passed).
+     * The {@link #remote} node will be set to the node the connection has been
+     * established with (or the last tried node).
      *
      * @throws UnknownHostException
      *             if the remote host could not be found
@@ -121,7 +136,7 @@ public class Connection {
      * @throws OtpAuthException
      *             if the connection was refused by the remote node
      */
-    private void connect() throws UnknownHostException,
+    protected void connect() throws UnknownHostException,
     IOException, OtpAuthException {
         boolean success = false;
         int retry = 0;
@@ -132,20 +147,45 @@ public class Connection {
                 success = true;
             } catch (final UnknownHostException e) {
                 connectionPolicy.nodeFailed(remote);
+                if (isPastConnectDeadline()) {
+                    throw e;
+                }
                 remote = connectionPolicy.selectNode(++retry, remote, e);
             } catch (final OtpAuthException e) {
                 connectionPolicy.nodeFailed(remote);
+                if (isPastConnectDeadline()) {
+                    throw e;
+                }
                 remote = connectionPolicy.selectNode(++retry, remote, e);
             } catch (final IOException e) {
                 connectionPolicy.nodeFailed(remote);
+                if (isPastConnectDeadline()) {
+                    throw e;
+                }
                 remote = connectionPolicy.selectNode(++retry, remote, e);
             }
         }
     }
 
-    private void reconnect() throws UnknownHostException, IOException,
+    private boolean isPastConnectDeadline() {
+        final long deadline = connectDeadline;
+        return (deadline > 0) && (System.currentTimeMillis() >= deadline);
+    }
+
+    /**
+     * Closes the current connection and connects to the {@link #remote} node
+     * again (see {@link #connect()}).
+     *
+     * @throws UnknownHostException
+     *             if the remote host could not be found
+     * @throws IOException
+     *             if it was not possible to connect to the remote node
+     * @throws OtpAuthException
+     *             if the connection was refused by the remote node
+     */
+    protected void reconnect() throws UnknownHostException, IOException,
             OtpAuthException {
-        close();
+        connection.close();
         connect();
     }
 
@@ -169,13 +209,75 @@ public class Connection {
      */
     public OtpErlangObject doRPC(final String mod, final String fun, final OtpErlangList args)
             throws ConnectionException {
+        try {
+            return doRPC(mod, fun, args, 0);
+        } catch (final TimeoutException e) {
+            // this should not happen without a timeout
+            throw new InternalError();
+        }
+    }
+
+    /**
+     * Sends the given RPC and waits at most <tt>timeout</tt> milliseconds for
+     * a result.
+     *
+     * If no result arrives in time, the connection is closed so that a late
+     * reply can not be mistaken for the result of the next RPC and the node
+     * is reported as failed to the {@link #connectionPolicy}. The next RPC
+     * will then re-connect to a node selected by the policy.
+     *
+     * Terms which are sent repeatedly can be pre-encoded once using
+     * {@link EncodedErlangObject} and then be used (also inside other terms)
+     * in <tt>args</tt> without serialising them again.
+     *
+     * @param mod
+     *            the module of the function to call
+     * @param fun
+     *            the function to call
+     * @param args
+     *            the function's arguments
+     * @param timeout
+     *            the maximum time (in milliseconds) to wait for the result
+     *            including any re-connects (<tt>0</tt> to wait forever) - the
+     *            remaining time is checked before each re-connect attempt but
+     *            a single connection attempt which is in progress is not
+     *            aborted
+     *
+     * @return the result of the call
+     *
+     * @throws ConnectionException
+     *             if the connection is not active, a communication error
+     *             occurs, an exit signal is received from a process on the
+     *             peer node, the remote node sends a message containing an
+     *             invalid cookie or the current thread was interrupted
+     * @throws TimeoutException
+     *             if no result was received within the given time (also if
+     *             the time is up before re-connecting)
+     *
+     * @since 3.21
+     */
+    public OtpErlangObject doRPC(final String mod, final String fun,
+            final OtpErlangList args, final long timeout)
+            throws ConnectionException, TimeoutException {
+        final long deadline = System.currentTimeMillis() + timeout;
+        if (timeout > 0) {
+            connectDeadline = deadline;
+        }
         try {
             boolean success = false;
             final boolean isConnected = connection.isConnected();
             while(!success) {
+                final PeerNode node = remote;
+                final long start = System.nanoTime();
+                connectionPolicy.nodeRequestStarted(node);
                 try {
                     connection.sendRPC(mod, fun, args);
-                    final OtpErlangObject result = connection.receiveRPC();
+                    final OtpErlangObject result;
+                    if (timeout > 0) {
+                        result = receiveRPC(deadline, timeout);
+                    } else {
+                        result = connection.receiveRPC();
+                    }
                     // result may be null but this should not happen and is an error anyway!
                     if (result != null) {
                         success = true;
@@ -186,12 +288,14 @@ public class Connection {
                     // first re-try (connection was the first contact)
                     remote = connectionPolicy.selectNode(1, remote, e);
                     // reconnect (and then re-try the operation) if no exception was thrown:
+                    checkReconnectTime(deadline, timeout);
                     reconnect();
                 } catch (final OtpAuthException e) {
                     connectionPolicy.nodeFailed(remote);
                     // first re-try (connection was the first contact)
                     remote = connectionPolicy.selectNode(1, remote, e);
                     // reconnect (and then re-try the operation) if no exception was thrown:
+                    checkReconnectTime(deadline, timeout);
                     reconnect();
                 } catch (final IOException e) {
                     // don't count RPC requests on closed connections as a failing node:
@@ -201,7 +305,10 @@ public class Connection {
                     // first re-try (connection was the first contact)
                     remote = connectionPolicy.selectNode(1, remote, e);
                     // reconnect (and then re-try the operation) if no exception was thrown:
+                    checkReconnectTime(deadline, timeout);
                     reconnect();
+                } finally {
+                    connectionPolicy.nodeRequestFinished(node, System.nanoTime() - start, success);
                 }
             }
             // this should not happen as there is only one way out of the while
@@ -216,7 +323,71 @@ public class Connection {
         } catch (final IOException e) {
             // e.printStackTrace();
             throw new ConnectionException(e);
+        } finally {
+            connectDeadline = 0;
+        }
+    }
+
+    /**
+     * Throws a {@link TimeoutException} if there is no time left for
+     * re-connecting (and re-trying) within the timeout of a
+     * {@link #doRPC(String, String, OtpErlangList, long)} call.
+     *
+     * @param deadline
+     *            the time to wait until (see {@link System#currentTimeMillis()})
+     * @param timeout
+     *            the original timeout (<tt>0</tt> to wait forever)
+     */
+    private void checkReconnectTime(final long deadline, final long timeout)
+            throws TimeoutException {
+        if ((timeout > 0) && (System.currentTimeMillis() >= deadline)) {
+            throw new TimeoutException("no reply from " + remote + " within "
+                    + timeout + "ms (before re-connecting)");
+        }
+    }
+
+    /**
+     * Waits for the reply of the rex server until the given deadline. Closes
+     * the connection if no reply arrives in time.
+     *
+     * @param deadline
+     *            the time to wait until (see {@link System#currentTimeMillis()})
+     * @param timeout
+     *            the original timeout (for the exception message)
+     *
+     * @return the result of the call or <tt>null</tt> if an unexpected
+     *         message was received
+     */
+    private OtpErlangObject receiveRPC(final long deadline, final long timeout)
+            throws IOException, OtpErlangExit, OtpAuthException,
+            ConnectionException, TimeoutException {
+        final OtpErlangObject msg;
+        try {
+            final long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new InterruptedException();
+            }
+            msg = connection.receive(remaining);
+        } catch (final InterruptedException e) {
+            // the reply may still arrive -> tear down the connection
+            connection.close();
+            // OtpConnection signals a timeout with this exception
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new ConnectionException(e);
+            }
+            connectionPolicy.nodeFailed(remote);
+            throw new TimeoutException("no reply from " + remote + " within "
+                    + timeout + "ms");
         }
+        // expected reply: {rex, Result}
+        if (msg instanceof OtpErlangTuple) {
+            final OtpErlangTuple reply = (OtpErlangTuple) msg;
+            if (reply.arity() == 2 && reply.elementAt(0).equals(rexAtom)) {
+                return reply.elementAt(1);
+            }
+        }
+        return null;
     }
 
     /**
@@ -244,6 +415,41 @@ public class Connection {
         return doRPC(mod, fun, new OtpErlangList(args));
     }
 
+    /**
+     * Sends the given RPC and waits at most <tt>timeout</tt> milliseconds for
+     * a result.
+     *
+     * Provided for convenience.
+     *
+     * @param mod
+     *            the module of the function to call
+     * @param fun
+     *            the function to call
+     * @param args
+     *            the function's arguments
+     * @param timeout
+     *            the maximum time (in milliseconds) to wait for the result
+     *            (<tt>0</tt> to wait forever)
+     *
+     * @return the result of the call
+     *
+     * @throws ConnectionException
+     *             if the connection is not active, a communication error
+     *             occurs, an exit signal is received from a process on the
+     *             peer node or the remote node sends a message containing an
+     *             invalid cookie
+     * @throws TimeoutException
+     *             if no result was received within the given time
+     *
+     * @see #doRPC(String, String, OtpErlangList, long)
+     * @since 3.21
+     */
+    public OtpErlangObject doRPC(final String mod, final String fun,
+            final OtpErlangObject[] args, final long timeout)
+            throws ConnectionException, TimeoutException {
+        return doRPC(mod, fun, new OtpErlangList(args), timeout);
+    }
+
     /**
      * Sends the given RPC and returns immediately.
      *
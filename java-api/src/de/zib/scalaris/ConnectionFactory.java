@@ -15,6 +15,7 @@
  */
 package de.zib.scalaris;
 
+import java.io.IOException;
 import java.io.PrintStream;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
@@ -22,6 +23,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import com.ericsson.otp.erlang.OtpSelf;
@@ -55,6 +60,13 @@ import de.zib.tools.PropertyLoader;
  * <li><tt>scalaris.client.appendUUID = "true"</tt></li>
  * </ul>
  *
+ * Optionally, the (client-side) compression of values can be configured
+ * with the <tt>scalaris.compression.*</tt> properties described in
+ * {@link ValueCompression}. Since these settings are global, i.e. apply to
+ * all values encoded in this JVM, they are not activated by the factory -
+ * use {@link ValueCompression#setDefault(ValueCompression)} with
+ * {@link #getValueCompression()} for this.
+ *
  * Note: {@code scalaris.node} can be a whitespace, ',' or ';' separated list of
  * available nodes. See {@link DefaultConnectionPolicy} about how this list is
  * used when connections are setup or when existing connections fail.
@@ -72,7 +84,7 @@ import de.zib.tools.PropertyLoader;
  * default, {@link DefaultConnectionPolicy} is used.
  *
  * @author Nico Kruber, kruber@zib.de
- * @version 3.20
+ * @version 3.21
  * @since 2.0
  */
 public class ConnectionFactory {
@@ -118,6 +130,11 @@ public class ConnectionFactory {
      */
     private String configFileUsed;
 
+    /**
+     * Value compression settings read from the properties (not activated).
+     */
+    private ValueCompression valueCompression = ValueCompression.DEFAULT;
+
     /**
      * Static instance of a connection factory.
      */
@@ -131,6 +148,14 @@ public class ConnectionFactory {
      */
     private ConnectionPolicy connectionPolicy = new DefaultConnectionPolicy(nodes);
 
+    /**
+     * The connection returned by {@link #getSharedConnection()}.
+     *
+     * @since 3.21
+     */
+    private SharedConnection sharedConnection = null;
+    private final Object sharedConnectionLock = new Object();
+
     /**
      * Returns the static instance of a connection factory.
      *
@@ -168,7 +193,8 @@ public class ConnectionFactory {
         }
 //        System.out.println("loading config file: " + configFile);
         PropertyLoader.loadProperties(properties, configFile, true, false,
-                new String[] {"scalaris.node", "scalaris.cookie", "scalaris.client.name", "scalaris.client.appendUUID"});
+                new String[] {"scalaris.node", "scalaris.cookie", "scalaris.client.name", "scalaris.client.appendUUID",
+                        "scalaris.compression.codec", "scalaris.compression.level", "scalaris.compression.threshold"});
         setProperties(properties);
     }
 
@@ -205,10 +231,17 @@ public class ConnectionFactory {
      * <li><tt>scalaris.client.appendUUID = "true"</tt></li>
      * </ul>
      *
+     * The <tt>scalaris.compression.*</tt> properties are read into
+     * {@link #getValueCompression()} but the global {@link ValueCompression}
+     * settings are not changed.
+     *
      * NOTE: Existing connections are not changed!
      *
      * @param properties
      *            the object to get the connection parameters from
+     *
+     * @throws IllegalArgumentException
+     *             if the compression settings are invalid
      */
     public void setProperties(final Properties properties) {
         final String[] nodesTemp = properties.getProperty("scalaris.node", "node1@localhost").split("[\\s,;]");
@@ -225,6 +258,7 @@ public class ConnectionFactory {
             clientNameAppendUUID = false;
         }
         configFileUsed = properties.getProperty("PropertyLoader.loadedfile", "");
+        valueCompression = ValueCompression.fromProperties(properties);
 
         //System.out.println("node: " + node);
     }
@@ -253,15 +287,11 @@ public class ConnectionFactory {
      *
      * @since 2.3
      */
-    public Connection createConnection(String clientName,
+    public Connection createConnection(final String clientName,
             final boolean clientNameAppendUUID, final ConnectionPolicy connectionPolicy)
             throws ConnectionException {
-        if (clientNameAppendUUID) {
-            clientName = clientName + "_" + clientNameUUID.getAndIncrement();
-        }
         try {
-            final OtpSelf self = new OtpSelf(clientName + "@" + getLocalhostName(), cookie);
-            return new Connection(self, connectionPolicy);
+            return new Connection(createSelf(clientName, clientNameAppendUUID), connectionPolicy);
         } catch (final Exception e) {
 //                 e.printStackTrace();
             throw new ConnectionException(e);
@@ -350,6 +380,109 @@ public class ConnectionFactory {
         return createConnection(clientName);
     }
 
+    /**
+     * Creates a {@link PipelinedConnection} to a scalaris erlang node, i.e. a
+     * connection allowing multiple outstanding RPCs, using the given client
+     * name and connection policy.
+     *
+     * If <tt>clientNameAppendUUID</tt> is specified a pseudo UUID is appended
+     * to the given name. BEWARE that scalaris nodes accept only one connection
+     * per client name!
+     *
+     * @param clientName
+     *            the name that identifies the java client
+     * @param clientNameAppendUUID
+     *            override the object's setting for
+     *            {@link #clientNameAppendUUID}
+     * @param connectionPolicy
+     *            override the connection policy that will be used for the new
+     *            connection
+     *
+     * @return the created connection
+     *
+     * @throws ConnectionException
+     *             if the connection fails
+     *
+     * @since 3.21
+     */
+    public PipelinedConnection createPipelinedConnection(final String clientName,
+            final boolean clientNameAppendUUID, final ConnectionPolicy connectionPolicy)
+            throws ConnectionException {
+        try {
+            return new PipelinedConnection(createSelf(clientName, clientNameAppendUUID), connectionPolicy);
+        } catch (final Exception e) {
+            throw new ConnectionException(e);
+        }
+    }
+
+    /**
+     * Creates a {@link PipelinedConnection} to a scalaris erlang node, i.e. a
+     * connection allowing multiple outstanding RPCs.
+     *
+     * @return the created connection
+     *
+     * @throws ConnectionException
+     *             if the connection fails
+     *
+     * @since 3.21
+     */
+    public PipelinedConnection createPipelinedConnection() throws ConnectionException {
+        return createPipelinedConnection(clientName, clientNameAppendUUID, connectionPolicy);
+    }
+
+    /**
+     * Gets a {@link SharedConnection} which is shared by all callers of this
+     * method, creating a new one if there is none yet or the previous one has
+     * been closed. Each call adds a reference to the connection which must be
+     * removed with {@link SharedConnection#close()} (or
+     * {@link AbstractTransaction#closeConnection()}) once the caller does not
+     * need the connection anymore.
+     *
+     * @return the shared connection
+     *
+     * @throws ConnectionException
+     *             if the connection fails
+     *
+     * @since 3.21
+     */
+    public SharedConnection getSharedConnection() throws ConnectionException {
+        synchronized (sharedConnectionLock) {
+            if (sharedConnection == null || !sharedConnection.tryAcquire()) {
+                try {
+                    sharedConnection = new SharedConnection(createSelf(
+                            clientName, clientNameAppendUUID), connectionPolicy);
+                } catch (final Exception e) {
+                    throw new ConnectionException(e);
+                }
+            }
+            return sharedConnection;
+        }
+    }
+
+    /**
+     * Creates the local node for a new connection.
+     *
+     * If <tt>clientNameAppendUUID</tt> is specified a pseudo UUID is appended
+     * to the given name.
+     *
+     * @param clientName
+     *            the name that identifies the java client
+     * @param clientNameAppendUUID
+     *            whether to append a pseudo UUID
+     *
+     * @return the local node
+     *
+     * @throws IOException
+     *             if the local host name could not be determined
+     */
+    private OtpSelf createSelf(String clientName,
+            final boolean clientNameAppendUUID) throws IOException {
+        if (clientNameAppendUUID) {
+            clientName = clientName + "_" + clientNameUUID.getAndIncrement();
+        }
+        return new OtpSelf(clientName + "@" + getLocalhostName(), cookie);
+    }
+
     /**
      * Replaces <tt>localhost</tt> in the node's name to the machine's real host
      * name.
@@ -428,6 +561,7 @@ public class ConnectionFactory {
         out.println("  scalaris.cookie            = " + cookie);
         out.println("  scalaris.client.name       = " + clientName);
         out.println("  scalaris.client.appendUUID = " + clientNameAppendUUID);
+        out.println("  value compression          = " + valueCompression);
     }
 
     /**
@@ -552,24 +686,62 @@ public class ConnectionFactory {
 
     /**
      * (Re-)evaluates all currently set nodes by trying to establish a
-     * connection to each of them.
+     * connection to each of them. The nodes are tested in parallel.
      *
      * Note: This resets all {@link PeerNode} statistics collected before.
      *
      * @since 3.20
      */
     public void testAllNodes() {
+        final List<PeerNode> nodesCopy = getNodes();
         connectionPolicy.availableNodesReset();
-        for (final PeerNode node: nodes) {
-            node.resetFailureCount();
+        if (!nodesCopy.isEmpty()) {
+            final ExecutorService executor = Executors.newFixedThreadPool(
+                    Math.min(nodesCopy.size(), 32), new ThreadFactory() {
+                        public Thread newThread(final Runnable r) {
+                            final Thread t = new Thread(r, "ConnectionFactory node test");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            for (final PeerNode node: nodesCopy) {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        node.resetFailureCount();
+                        try {
+                            createConnection(new FixedNodeConnectionPolicy(node)).close();
+                        } catch (final ConnectionException e) {
+                        }
+                    }
+                });
+            }
+            executor.shutdown();
             try {
-                createConnection(new FixedNodeConnectionPolicy(node)).close();
-            } catch (final ConnectionException e) {
+                while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
+        }
+        // add the nodes in their original order once all are evaluated:
+        for (final PeerNode node: nodesCopy) {
             connectionPolicy.availableNodeAdded(node);
         }
     }
 
+    /**
+     * Gets the value compression settings from the properties this factory
+     * was configured with. They can be activated with
+     * {@link ValueCompression#setDefault(ValueCompression)}.
+     *
+     * @return compression settings
+     *
+     * @since 3.21
+     */
+    public ValueCompression getValueCompression() {
+        return valueCompression;
+    }
+
     /**
      * Returns the cookie name to use for connections.
      *
@@ -123,6 +123,31 @@ public abstract class ConnectionPolicy {
         }
     }
 
+    /**
+     * Signals the connection policy that an RPC has been sent to the given
+     * node.
+     *
+     * @param node the node
+     *
+     * @since 3.21
+     */
+    public void nodeRequestStarted(final PeerNode node) {
+    }
+
+    /**
+     * Signals the connection policy that an RPC to the given node (see
+     * {@link #nodeRequestStarted(PeerNode)}) has finished.
+     *
+     * @param node the node
+     * @param latency the time (in nanoseconds) the RPC took
+     * @param success whether a result has been received
+     *
+     * @since 3.21
+     */
+    public void nodeRequestFinished(final PeerNode node, final long latency,
+            final boolean success) {
+    }
+
     /**
      * Selects the node to connect with when establishing a connection (no
      * failed node, no exception that has already been thrown).
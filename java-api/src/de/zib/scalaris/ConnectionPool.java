@@ -15,16 +15,48 @@
  */
 package de.zib.scalaris;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import com.ericsson.otp.erlang.OtpErlangObject;
 
 /**
- * Implements a simple (thread-safe) connection pool for Scalaris connections.
+ * Implements a (thread-safe) connection pool for Scalaris connections.
+ *
+ * Available connections are kept in one sub-pool per {@link PeerNode}. When
+ * checking out a connection, the sub-pool of the node selected by the
+ * connection factory's {@link ConnectionPolicy} is tried first. No global lock
+ * is involved: capacity is tracked with atomic counters and threads waiting
+ * for a connection are queued in FIFO order. A released connection is handed
+ * directly to the longest waiting thread which is the only one being woken
+ * up.
+ *
+ * Optionally, connections can be closed after a maximum lifetime (see
+ * {@link #setMaxLifetime(long)}) or after being idle for too long (see
+ * {@link #setMaxIdleTime(long)}) and idle connections can be validated
+ * periodically (see {@link #setValidationInterval(long)}). These tasks run in
+ * a background thread started by {@link #startMaintenance(long, TimeUnit)}.
  *
  * @author Nico Kruber, kruber@zib.de
- * @version 3.7
+ * @version 3.21
  * @since 3.7
  */
 public class ConnectionPool {
@@ -38,13 +70,59 @@ public class ConnectionPool {
      */
     protected int maxConnections;
     /**
-     * All available connections not checked out yet.
+     * All available connections not checked out yet, by the node they are
+     * connected to.
+     *
+     * @since 3.21
+     */
+    protected final ConcurrentHashMap<PeerNode, SubPool> subPools =
+            new ConcurrentHashMap<PeerNode, SubPool>();
+    /**
+     * All connections owned by this pool (checked out and available).
+     *
+     * @since 3.21
+     */
+    protected final ConcurrentHashMap<Connection, PooledConnection> connections =
+            new ConcurrentHashMap<Connection, PooledConnection>();
+    /**
+     * Number of connections owned by this pool including connections currently
+     * being created.
      */
-    protected LinkedList<Connection> availableConns;
+    private final AtomicInteger totalConns = new AtomicInteger(0);
     /**
      * Number of checked out connections.
      */
-    protected int checkedOut = 0;
+    private final AtomicInteger checkedOut = new AtomicInteger(0);
+    /**
+     * Threads waiting for a connection (FIFO).
+     */
+    private final ConcurrentLinkedQueue<Waiter> waiters =
+            new ConcurrentLinkedQueue<Waiter>();
+
+    private volatile long maxLifetime = 0;
+    private volatile long maxIdleTime = 0;
+    private volatile long validationInterval = 0;
+    private ScheduledExecutorService maintenanceExecutor = null;
+    private ScheduledFuture<?> maintenanceTask = null;
+
+    private final long startTime = System.currentTimeMillis();
+    private final AtomicLong created = new AtomicLong(0);
+    private final AtomicLong destroyed = new AtomicLong(0);
+    private final AtomicLong validationFailures = new AtomicLong(0);
+    private final AtomicLong waitCount = new AtomicLong(0);
+    private final AtomicLong waitTimeouts = new AtomicLong(0);
+    private final AtomicLong totalWaitTime = new AtomicLong(0);
+    private final AtomicLong maxWaitTime = new AtomicLong(0);
+
+    /**
+     * Wake-up token for a waiting thread telling it to re-try getting a
+     * connection (capacity is available).
+     */
+    private static final Object RETRY = new Object();
+    /**
+     * Token marking a waiter which is not waiting anymore.
+     */
+    private static final Object CANCELLED = new Object();
 
     /**
      * Creates a new connection pool.
@@ -58,7 +136,6 @@ public class ConnectionPool {
             final int maxConnections) {
         this.cFactory = cFactory;
         this.maxConnections = maxConnections;
-        availableConns = new LinkedList<Connection>();
     }
 
     /**
@@ -72,17 +149,15 @@ public class ConnectionPool {
      * @throws ConnectionException
      *             if creating the connection fails
      */
-    public synchronized Connection getConnection() throws ConnectionException {
-        Connection conn = null;
-        // use first available connection (if any):
-        if (!availableConns.isEmpty()) {
-            conn = availableConns.remove();
-            ++checkedOut;
-        } else if ((maxConnections == 0) || (checkedOut < maxConnections)) {
-            conn = cFactory.createConnection();
-            ++checkedOut;
+    public Connection getConnection() throws ConnectionException {
+        PooledConnection pc = pollAvailable();
+        if (pc == null) {
+            if (!reserveCapacity()) {
+                return null;
+            }
+            pc = create(cFactory.getConnectionPolicy());
         }
-        return conn;
+        return checkOut(pc);
     }
 
     /**
@@ -91,6 +166,10 @@ public class ConnectionPool {
      * the maximum number of connections has not been hit yet. If the timeout is
      * hit and no connection is available, <tt>null</tt> is returned.
      *
+     * Waiting threads are served in FIFO order. If the waiting thread is
+     * interrupted, <tt>null</tt> is returned (with the thread's interrupt
+     * status set).
+     *
      * @param timeout
      *            number of milliseconds to wait at most for a valid connection
      *            to appear (<tt>0</tt> to wait forever)
@@ -102,34 +181,305 @@ public class ConnectionPool {
      *             if creating the connection fails
      */
     public Connection getConnection(final long timeout) throws ConnectionException {
-        final long timeAtStart = System.currentTimeMillis();
-        Connection conn;
-        while ((conn = getConnection()) == null) {
-            try {
-                synchronized (this) {
-                    wait(timeout);
+        Connection conn = getConnection();
+        if (conn != null) {
+            return conn;
+        }
+        final long waitStart = System.nanoTime();
+        final long deadline = waitStart + TimeUnit.MILLISECONDS.toNanos(timeout);
+        final Thread self = Thread.currentThread();
+        try {
+            while (true) {
+                final Waiter w = new Waiter(self);
+                waiters.add(w);
+                // re-check after enqueuing so that no release is missed
+                try {
+                    conn = getConnection();
+                } catch (final ConnectionException e) {
+                    forward(cancel(w));
+                    throw e;
+                }
+                if (conn != null) {
+                    forward(cancel(w));
+                    return conn;
+                }
+                while (w.slot.get() == null) {
+                    if (self.isInterrupted()) {
+                        break;
+                    }
+                    if (timeout == 0) {
+                        LockSupport.park(this);
+                    } else {
+                        final long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        LockSupport.parkNanos(this, remaining);
+                    }
+                }
+                final Object handedOver = cancel(w);
+                if (handedOver instanceof PooledConnection) {
+                    return checkOut((PooledConnection) handedOver);
+                } else if (handedOver == null) {
+                    // timeout or interrupted
+                    waitTimeouts.incrementAndGet();
+                    return null;
+                }
+                // RETRY -> capacity available, try again
+            }
+        } finally {
+            final long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - waitStart);
+            waitCount.incrementAndGet();
+            totalWaitTime.addAndGet(waited);
+            long max;
+            while (waited > (max = maxWaitTime.get()) && !maxWaitTime.compareAndSet(max, waited)) {
+            }
+        }
+    }
+
+    /**
+     * Tries to get a connection to the given node from the pool waiting at
+     * most <tt>timeout</tt> milliseconds. If there is no available connection
+     * to this node, a new connection is created (see
+     * {@link PreferredNodeConnectionPolicy}), possibly replacing an available
+     * connection to another node if the maximum number of connections has been
+     * hit. If this is not possible either, behaves like
+     * {@link #getConnection(long)}, i.e. the returned connection may be
+     * connected to any node.
+     *
+     * @param node
+     *            the node to connect to
+     * @param timeout
+     *            number of milliseconds to wait at most for a valid connection
+     *            to appear (<tt>0</tt> to wait forever)
+     *
+     * @return a connection to Scalaris or <tt>null</tt> if the timeout has been
+     *         hit
+     *
+     * @throws ConnectionException
+     *             if creating the connection fails
+     *
+     * @since 3.21
+     */
+    public Connection getConnection(final PeerNode node, final long timeout)
+            throws ConnectionException {
+        final SubPool subPool = subPools.get(node);
+        if (subPool != null) {
+            final PooledConnection pc = pollAvailable(subPool);
+            if (pc != null) {
+                return checkOut(pc);
+            }
+        }
+        while (!reserveCapacity()) {
+            final PooledConnection other = pollAvailable();
+            if (other == null) {
+                return getConnection(timeout);
+            }
+            if (node.equals(other.conn.getRemote())) {
+                return checkOut(other);
+            }
+            // replace the other connection (keeping its capacity)
+            if (connections.remove(other.conn) != null) {
+                other.conn.close();
+                destroyed.incrementAndGet();
+                break;
+            }
+            // already removed by another thread (with its capacity) -> re-try
+        }
+        return checkOut(create(new PreferredNodeConnectionPolicy(node,
+                cFactory.getConnectionPolicy())));
+    }
+
+    /**
+     * Opens <tt>connectionsPerNode</tt> connections to each node of the
+     * connection factory in parallel, validates them with a cheap RPC and
+     * adds them to the pool. Call this before accepting traffic so that the
+     * first requests do not have to pay for connection setups.
+     *
+     * Connections are only created as long as the maximum number of
+     * connections has not been hit. Like connections from
+     * {@link #getConnection(PeerNode, long)}, they use the factory's
+     * connection policy if their node fails. Connections which could not be
+     * established or validated within the timeout are dropped.
+     *
+     * @param connectionsPerNode
+     *            number of connections to open to each node
+     * @param timeout
+     *            maximum time (in milliseconds) to wait for all connections
+     *            (<tt>0</tt> to wait forever)
+     *
+     * @return the number of connections added to the pool
+     *
+     * @since 3.21
+     */
+    public int warmUp(final int connectionsPerNode, final long timeout) {
+        final Map<PeerNode, Integer> counts = new LinkedHashMap<PeerNode, Integer>();
+        for (final PeerNode node : cFactory.getNodes()) {
+            counts.put(node, connectionsPerNode);
+        }
+        return fill(counts, timeout);
+    }
+
+    /**
+     * Spreads the available (idle) connections evenly across the nodes of
+     * the connection factory, e.g. after new nodes have joined. Idle
+     * connections to over-represented nodes are closed and replaced by new
+     * connections to under-represented nodes which are validated before being
+     * added to the pool (see {@link #warmUp(int, long)}). Checked out
+     * connections are not affected.
+     *
+     * @param timeout
+     *            maximum time (in milliseconds) to wait for the new
+     *            connections (<tt>0</tt> to wait forever)
+     *
+     * @return the number of connections moved to other nodes, i.e. closed on
+     *         over-represented nodes and replaced by a connection to an
+     *         under-represented node
+     *
+     * @since 3.21
+     */
+    public int rebalance(final long timeout) {
+        final List<PeerNode> nodes = cFactory.getNodes();
+        if (nodes.isEmpty()) {
+            return 0;
+        }
+        int available = 0;
+        for (final SubPool subPool : subPools.values()) {
+            available += subPool.available.size();
+        }
+        // every node should get at least floor(available / nodes) connections
+        final int target = available / nodes.size();
+        final int maxPerNode = (available + nodes.size() - 1) / nodes.size();
+        final Map<PeerNode, Integer> missing = new LinkedHashMap<PeerNode, Integer>();
+        int toMove = 0;
+        for (final PeerNode node : nodes) {
+            final int deficit = target - getAvailable(node);
+            if (deficit > 0) {
+                missing.put(node, deficit);
+                toMove += deficit;
+            }
+        }
+        if (toMove == 0) {
+            return 0;
+        }
+        // close least recently used connections of over-represented nodes:
+        int closed = 0;
+        for (final SubPool subPool : subPools.values()) {
+            while ((toMove > 0) && (subPool.available.size() > maxPerNode)) {
+                final PooledConnection pc = subPool.available.pollLast();
+                if (pc == null) {
+                    break;
                 }
-            } catch (final InterruptedException e) {
+                destroy(pc);
+                --toMove;
+                ++closed;
             }
-            final long timeAtEnd = System.currentTimeMillis();
-            if ((timeAtEnd - timeAtStart) >= timeout) {
-                return null; // timeout
+        }
+        // (additional connections may be created if there is free capacity)
+        return Math.min(closed, fill(missing, timeout));
+    }
+
+    /**
+     * Opens the given number of connections to each of the given nodes in
+     * parallel, validates them and adds them to the pool as long as the
+     * maximum number of connections has not been hit.
+     *
+     * @return the number of connections added to the pool
+     */
+    private int fill(final Map<PeerNode, Integer> counts, final long timeout) {
+        int tasks = 0;
+        for (final Integer count : counts.values()) {
+            tasks += count;
+        }
+        if (tasks <= 0) {
+            return 0;
+        }
+        final AtomicInteger added = new AtomicInteger(0);
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(tasks, 32), new ThreadFactory() {
+                    public Thread newThread(final Runnable r) {
+                        final Thread t = new Thread(r, "ConnectionPool warm-up");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        final long deadline = System.currentTimeMillis() + timeout;
+        for (final Map.Entry<PeerNode, Integer> entry : counts.entrySet()) {
+            final PeerNode node = entry.getKey();
+            for (int i = 0; i < entry.getValue(); ++i) {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        if (!reserveCapacity()) {
+                            return;
+                        }
+                        final PooledConnection pc;
+                        try {
+                            pc = create(new PreferredNodeConnectionPolicy(node,
+                                    cFactory.getConnectionPolicy()));
+                        } catch (final ConnectionException e) {
+                            return;
+                        }
+                        final long remaining = (timeout == 0) ? 0
+                                : Math.max(1, deadline - System.currentTimeMillis());
+                        if (validate(pc, remaining)) {
+                            added.incrementAndGet();
+                            pc.lastUsed = System.currentTimeMillis();
+                            addAvailable(pc);
+                        } else {
+                            destroy(pc);
+                        }
+                    }
+                });
+            }
+        }
+        executor.shutdown();
+        try {
+            if (timeout == 0) {
+                while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                }
+            } else {
+                executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
             }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        return conn;
+        return added.get();
     }
 
     /**
      * Puts the given connection back into the pool.
      *
+     * Connections which have been closed, e.g. after an RPC timeout (see
+     * {@link Connection#doRPC(String, String, com.ericsson.otp.erlang.OtpErlangList, long)}),
+     * and connections to nodes removed by {@link #closeAllBut(Collection)}
+     * are not pooled again.
+     *
      * @param conn
      *            the connection to release
      */
-    public synchronized void releaseConnection(final Connection conn) {
-        availableConns.add(conn);
-        --checkedOut;
-        // need to notify all waiting threads so they do not exceed their timeouts
-        notifyAll();
+    public void releaseConnection(final Connection conn) {
+        PooledConnection pc = connections.get(conn);
+        if (pc == null) {
+            // not created by this pool - adopt it
+            pc = new PooledConnection(conn);
+            if (connections.putIfAbsent(conn, pc) == null) {
+                totalConns.incrementAndGet();
+            } else {
+                pc = connections.get(conn);
+            }
+        } else {
+            checkedOut.decrementAndGet();
+        }
+        if (pc.removed || isExpired(pc, System.currentTimeMillis())
+                || !conn.getConnection().isConnected()) {
+            // node removed, expired or torn down, e.g. after an RPC timeout
+            destroy(pc);
+            return;
+        }
+        pc.lastUsed = System.currentTimeMillis();
+        if (!handOver(pc)) {
+            addAvailable(pc);
+        }
     }
 
     /**
@@ -137,34 +487,47 @@ public class ConnectionPool {
      *
      * NOTE: This does not include any checked out connections!
      */
-    public synchronized void closeAll() {
-        for (final Connection conn : availableConns) {
-            conn.close();
+    public void closeAll() {
+        for (final SubPool subPool : subPools.values()) {
+            PooledConnection pc;
+            while ((pc = subPool.available.pollLast()) != null) {
+                destroy(pc);
+            }
         }
-        availableConns.clear();
     }
 
     /**
      * Closes all available pooled connections to any node not in the given
      * collection.
      *
-     * NOTE: This does not include any checked out connections!
+     * NOTE: This does not include any checked out connections! They will be
+     * closed when being released though.
      *
      * @param remainingNodes
      *            a set of nodes to which connections should remain (fast access
      *            to {@link Collection#contains(Object)} is preferable, e.g. use
      *            {@link Set})
      */
-    public synchronized void closeAllBut(
+    public void closeAllBut(
             final Collection<PeerNode> remainingNodes) {
-        for (final Iterator<Connection> iterator = availableConns.iterator();
-                iterator.hasNext();) {
-            final Connection conn = iterator.next();
-            if (!remainingNodes.contains(conn.getRemote())) {
-                conn.close();
+        for (final Iterator<Map.Entry<PeerNode, SubPool>> iterator = subPools
+                .entrySet().iterator(); iterator.hasNext();) {
+            final Map.Entry<PeerNode, SubPool> entry = iterator.next();
+            if (!remainingNodes.contains(entry.getKey())) {
+                final SubPool subPool = entry.getValue();
+                subPool.removed = true;
                 iterator.remove();
+                PooledConnection pc;
+                while ((pc = subPool.available.pollLast()) != null) {
+                    destroy(pc);
+                }
+            }
+        }
+        // checked out connections are closed in releaseConnection():
+        for (final PooledConnection pc : connections.values()) {
+            if (!remainingNodes.contains(pc.conn.getRemote())) {
+                pc.removed = true;
             }
-
         }
     }
 
@@ -173,6 +536,7 @@ public class ConnectionPool {
      */
     @Override
     protected void finalize() throws Throwable {
+        stopMaintenance();
         closeAll();
         super.finalize();
     }
@@ -186,4 +550,584 @@ public class ConnectionPool {
         return cFactory;
     }
 
+    /**
+     * Gets the maximum lifetime of a connection.
+     *
+     * @return the maximum lifetime in milliseconds (<tt>0</tt> for no limit)
+     *
+     * @since 3.21
+     */
+    public long getMaxLifetime() {
+        return maxLifetime;
+    }
+
+    /**
+     * Sets the maximum lifetime of a connection. Older connections are closed
+     * when being released or by the maintenance task (see
+     * {@link #startMaintenance(long, TimeUnit)}).
+     *
+     * @param maxLifetime
+     *            the maximum lifetime in milliseconds (<tt>0</tt> for no
+     *            limit)
+     *
+     * @since 3.21
+     */
+    public void setMaxLifetime(final long maxLifetime) {
+        this.maxLifetime = maxLifetime;
+    }
+
+    /**
+     * Gets the maximum time a connection may stay unused in the pool.
+     *
+     * @return the maximum idle time in milliseconds (<tt>0</tt> for no limit)
+     *
+     * @since 3.21
+     */
+    public long getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    /**
+     * Sets the maximum time a connection may stay unused in the pool before
+     * the maintenance task (see {@link #startMaintenance(long, TimeUnit)})
+     * closes it.
+     *
+     * @param maxIdleTime
+     *            the maximum idle time in milliseconds (<tt>0</tt> for no
+     *            limit)
+     *
+     * @since 3.21
+     */
+    public void setMaxIdleTime(final long maxIdleTime) {
+        this.maxIdleTime = maxIdleTime;
+    }
+
+    /**
+     * Gets the interval at which idle connections are validated.
+     *
+     * @return the validation interval in milliseconds (<tt>0</tt> for no
+     *         validation)
+     *
+     * @since 3.21
+     */
+    public long getValidationInterval() {
+        return validationInterval;
+    }
+
+    /**
+     * Sets the interval at which the maintenance task (see
+     * {@link #startMaintenance(long, TimeUnit)}) validates idle connections by
+     * requesting the Scalaris version of the remote VM. Connections failing
+     * this test are closed.
+     *
+     * @param validationInterval
+     *            the validation interval in milliseconds (<tt>0</tt> for no
+     *            validation)
+     *
+     * @since 3.21
+     */
+    public void setValidationInterval(final long validationInterval) {
+        this.validationInterval = validationInterval;
+    }
+
+    /**
+     * Starts a background thread evicting and validating available
+     * connections at the given rate (see {@link #setMaxLifetime(long)},
+     * {@link #setMaxIdleTime(long)} and {@link #setValidationInterval(long)}).
+     *
+     * @param period
+     *            the period between two maintenance runs
+     * @param unit
+     *            the time unit of the period parameter
+     *
+     * @since 3.21
+     */
+    public synchronized void startMaintenance(final long period, final TimeUnit unit) {
+        if (maintenanceExecutor == null) {
+            maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(final Runnable r) {
+                    final Thread t = new Thread(r, "ConnectionPool maintenance");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        if (maintenanceTask != null) {
+            maintenanceTask.cancel(false);
+        }
+        maintenanceTask = maintenanceExecutor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                maintain();
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Stops the background maintenance thread (if started).
+     *
+     * @since 3.21
+     */
+    public synchronized void stopMaintenance() {
+        if (maintenanceExecutor != null) {
+            maintenanceExecutor.shutdownNow();
+            maintenanceExecutor = null;
+            maintenanceTask = null;
+        }
+    }
+
+    /**
+     * Evicts expired and idle connections and validates the remaining
+     * available connections (if set up to do so). This is run periodically
+     * by {@link #startMaintenance(long, TimeUnit)}.
+     *
+     * @since 3.21
+     */
+    public void maintain() {
+        for (final SubPool subPool : subPools.values()) {
+            // copy since we are removing elements while iterating
+            final List<PooledConnection> candidates = new ArrayList<PooledConnection>(subPool.available);
+            for (final PooledConnection pc : candidates) {
+                final long now = System.currentTimeMillis();
+                final boolean evict = isExpired(pc, now)
+                        || ((maxIdleTime > 0) && ((now - pc.lastUsed) >= maxIdleTime));
+                final boolean validate = !evict && (validationInterval > 0)
+                        && ((now - pc.lastValidated) >= validationInterval);
+                if ((evict || validate) && subPool.available.remove(pc)) {
+                    if (evict) {
+                        destroy(pc);
+                    } else if (validate(pc)) {
+                        if (!handOver(pc)) {
+                            addAvailable(pc);
+                        }
+                    } else {
+                        validationFailures.incrementAndGet();
+                        destroy(pc);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the number of connections currently checked out.
+     *
+     * @return number of checked out connections
+     *
+     * @since 3.21
+     */
+    public int getCheckedOut() {
+        return checkedOut.get();
+    }
+
+    /**
+     * Gets the number of available (pooled) connections to the given node.
+     *
+     * @param node
+     *            the node to check
+     *
+     * @return number of available connections
+     *
+     * @since 3.21
+     */
+    public int getAvailable(final PeerNode node) {
+        final SubPool subPool = subPools.get(node);
+        return (subPool == null) ? 0 : subPool.available.size();
+    }
+
+    /**
+     * Gets some statistics about the pool.
+     *
+     * @return a snapshot of the pool's statistics
+     *
+     * @since 3.21
+     */
+    public Statistics getStatistics() {
+        int available = 0;
+        for (final SubPool subPool : subPools.values()) {
+            available += subPool.available.size();
+        }
+        return new Statistics(checkedOut.get(), available, waiters.size(),
+                created.get(), destroyed.get(), validationFailures.get(),
+                waitCount.get(), waitTimeouts.get(), totalWaitTime.get(),
+                maxWaitTime.get(), System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Tries to get an available connection, preferring connections to the node
+     * the {@link ConnectionPolicy} selects. Closes expired connections on the
+     * way.
+     *
+     * @return an available connection or <tt>null</tt>
+     */
+    private PooledConnection pollAvailable() {
+        if (subPools.isEmpty()) {
+            return null;
+        }
+        try {
+            final SubPool preferred = subPools.get(cFactory.getConnectionPolicy().selectNode());
+            if (preferred != null) {
+                final PooledConnection pc = pollAvailable(preferred);
+                if (pc != null) {
+                    return pc;
+                }
+            }
+        } catch (final UnsupportedOperationException e) {
+            // no node to select -> use any connection
+        }
+        for (final SubPool subPool : subPools.values()) {
+            final PooledConnection pc = pollAvailable(subPool);
+            if (pc != null) {
+                return pc;
+            }
+        }
+        return null;
+    }
+
+    private PooledConnection pollAvailable(final SubPool subPool) {
+        PooledConnection pc;
+        // most recently used connections first (LIFO)
+        while ((pc = subPool.available.pollFirst()) != null) {
+            if (!isExpired(pc, System.currentTimeMillis())) {
+                return pc;
+            }
+            destroy(pc);
+        }
+        return null;
+    }
+
+    /**
+     * Adds the given connection to the sub-pool of its remote node. Waiting
+     * threads which may have missed the connection are served afterwards.
+     */
+    private void addAvailable(final PooledConnection pc) {
+        final PeerNode node = pc.conn.getRemote();
+        SubPool subPool = subPools.get(node);
+        if (subPool == null) {
+            final SubPool newSubPool = new SubPool();
+            subPool = subPools.putIfAbsent(node, newSubPool);
+            if (subPool == null) {
+                subPool = newSubPool;
+            }
+        }
+        subPool.available.offerFirst(pc);
+        if (subPool.removed || pc.removed) {
+            // node has been removed concurrently (see closeAllBut())
+            if (subPool.available.remove(pc)) {
+                destroy(pc);
+            }
+            return;
+        }
+        // a thread may have started waiting before we added the connection
+        while (!waiters.isEmpty()) {
+            final PooledConnection next = pollAvailable(subPool);
+            if (next == null) {
+                break;
+            }
+            if (!handOver(next)) {
+                subPool.available.offerFirst(next);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Hands the given connection to the longest waiting thread.
+     *
+     * @return whether there was a waiting thread
+     */
+    private boolean handOver(final Object token) {
+        Waiter w;
+        while ((w = waiters.poll()) != null) {
+            if (w.slot.compareAndSet(null, token)) {
+                LockSupport.unpark(w.thread);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the given waiter from the queue.
+     *
+     * @return what has been handed over to the waiter (<tt>null</tt> if
+     *         nothing)
+     */
+    private Object cancel(final Waiter w) {
+        if (w.slot.compareAndSet(null, CANCELLED)) {
+            waiters.remove(w);
+            return null;
+        }
+        return w.slot.get();
+    }
+
+    /**
+     * Passes something handed over to a thread which does not need it
+     * anymore to the next waiting thread (or back to the pool).
+     */
+    private void forward(final Object handedOver) {
+        if (handedOver instanceof PooledConnection) {
+            final PooledConnection pc = (PooledConnection) handedOver;
+            if (!handOver(pc)) {
+                addAvailable(pc);
+            }
+        } else if (handedOver == RETRY) {
+            handOver(RETRY);
+        }
+    }
+
+    private boolean reserveCapacity() {
+        int total;
+        do {
+            total = totalConns.get();
+            if ((maxConnections != 0) && (total >= maxConnections)) {
+                return false;
+            }
+        } while (!totalConns.compareAndSet(total, total + 1));
+        return true;
+    }
+
+    /**
+     * Creates a new connection (after reserving capacity for it).
+     */
+    private PooledConnection create(final ConnectionPolicy connectionPolicy)
+            throws ConnectionException {
+        final Connection conn;
+        try {
+            conn = cFactory.createConnection(connectionPolicy);
+        } catch (final ConnectionException e) {
+            capacityFreed();
+            throw e;
+        } catch (final RuntimeException e) {
+            capacityFreed();
+            throw e;
+        }
+        created.incrementAndGet();
+        final PooledConnection pc = new PooledConnection(conn);
+        connections.put(conn, pc);
+        return pc;
+    }
+
+    private Connection checkOut(final PooledConnection pc) {
+        checkedOut.incrementAndGet();
+        return pc.conn;
+    }
+
+    private void destroy(final PooledConnection pc) {
+        if (connections.remove(pc.conn) != null) {
+            pc.conn.close();
+            destroyed.incrementAndGet();
+            capacityFreed();
+        }
+    }
+
+    private void capacityFreed() {
+        totalConns.decrementAndGet();
+        handOver(RETRY);
+    }
+
+    private boolean isExpired(final PooledConnection pc, final long now) {
+        return (maxLifetime > 0) && ((now - pc.created) >= maxLifetime);
+    }
+
+    private boolean validate(final PooledConnection pc) {
+        return validate(pc, 0);
+    }
+
+    /**
+     * Checks the given connection with a cheap RPC (api_vm:get_version)
+     * waiting at most <tt>timeout</tt> milliseconds (<tt>0</tt> to wait
+     * forever).
+     */
+    private boolean validate(final PooledConnection pc, final long timeout) {
+        try {
+            final OtpErlangObject version = pc.conn.doRPC("api_vm", "get_version",
+                    new OtpErlangObject[] {}, timeout);
+            new ErlangValue(version).stringValue();
+            pc.lastValidated = System.currentTimeMillis();
+            return true;
+        } catch (final ConnectionException e) {
+            return false;
+        } catch (final TimeoutException e) {
+            return false;
+        } catch (final ClassCastException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Available connections to a single node.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.21
+     * @since 3.21
+     */
+    protected static class SubPool {
+        /**
+         * Available connections, most recently used first.
+         */
+        final LinkedBlockingDeque<PooledConnection> available =
+                new LinkedBlockingDeque<PooledConnection>();
+        /**
+         * Whether the node has been removed from the pool.
+         */
+        volatile boolean removed = false;
+    }
+
+    /**
+     * A connection owned by the pool with some meta data.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.21
+     * @since 3.21
+     */
+    protected static class PooledConnection {
+        final Connection conn;
+        final long created;
+        volatile long lastUsed;
+        volatile long lastValidated;
+        /**
+         * Whether the remote node has been removed by
+         * {@link ConnectionPool#closeAllBut(Collection)}.
+         */
+        volatile boolean removed = false;
+
+        PooledConnection(final Connection conn) {
+            this.conn = conn;
+            this.created = System.currentTimeMillis();
+            this.lastUsed = this.created;
+            this.lastValidated = this.created;
+        }
+    }
+
+    /**
+     * A thread waiting for a connection.
+     */
+    private static class Waiter {
+        final Thread thread;
+        /**
+         * The connection (or {@link ConnectionPool#RETRY}) handed over to the
+         * waiting thread or {@link ConnectionPool#CANCELLED}.
+         */
+        final AtomicReference<Object> slot = new AtomicReference<Object>(null);
+
+        Waiter(final Thread thread) {
+            this.thread = thread;
+        }
+    }
+
+    /**
+     * Plain old data object for results of
+     * {@link ConnectionPool#getStatistics()}.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.21
+     * @since 3.21
+     */
+    public static class Statistics {
+        /**
+         * Number of connections currently checked out.
+         */
+        public final int checkedOut;
+        /**
+         * Number of available connections in the pool.
+         */
+        public final int available;
+        /**
+         * Number of threads currently waiting for a connection.
+         */
+        public final int waiting;
+        /**
+         * Number of connections created so far.
+         */
+        public final long created;
+        /**
+         * Number of connections closed by the pool so far.
+         */
+        public final long closed;
+        /**
+         * Number of connections failing validation so far.
+         */
+        public final long validationFailures;
+        /**
+         * Number of threads which had to wait for a connection so far.
+         */
+        public final long waitCount;
+        /**
+         * Number of threads which did not get a connection in time.
+         */
+        public final long waitTimeouts;
+        /**
+         * Accumulated time (in milliseconds) threads spent waiting.
+         */
+        public final long totalWaitTime;
+        /**
+         * Maximum time (in milliseconds) a thread spent waiting.
+         */
+        public final long maxWaitTime;
+        /**
+         * Time (in milliseconds) since the pool has been created.
+         */
+        public final long uptime;
+
+        /**
+         * @param checkedOut
+         *            number of checked out connections
+         * @param available
+         *            number of available connections
+         * @param waiting
+         *            number of waiting threads
+         * @param created
+         *            number of created connections
+         * @param closed
+         *            number of closed connections
+         * @param validationFailures
+         *            number of failed validations
+         * @param waitCount
+         *            number of threads that had to wait
+         * @param waitTimeouts
+         *            number of threads that did not get a connection in time
+         * @param totalWaitTime
+         *            accumulated wait time
+         * @param maxWaitTime
+         *            maximum wait time
+         * @param uptime
+         *            time since the pool has been created
+         */
+        public Statistics(final int checkedOut, final int available,
+                final int waiting, final long created, final long closed,
+                final long validationFailures, final long waitCount,
+                final long waitTimeouts, final long totalWaitTime,
+                final long maxWaitTime, final long uptime) {
+            this.checkedOut = checkedOut;
+            this.available = available;
+            this.waiting = waiting;
+            this.created = created;
+            this.closed = closed;
+            this.validationFailures = validationFailures;
+            this.waitCount = waitCount;
+            this.waitTimeouts = waitTimeouts;
+            this.totalWaitTime = totalWaitTime;
+            this.maxWaitTime = maxWaitTime;
+            this.uptime = uptime;
+        }
+
+        /**
+         * Gets the average time a thread spent waiting for a connection.
+         *
+         * @return average wait time in milliseconds
+         */
+        public double getAvgWaitTime() {
+            return (waitCount == 0) ? 0.0 : ((double) totalWaitTime / waitCount);
+        }
+
+        /**
+         * Gets the number of connections created per second (since the pool
+         * has been created).
+         *
+         * @return connection creation rate
+         */
+        public double getCreationRate() {
+            return (uptime == 0) ? 0.0 : ((1000.0 * created) / uptime);
+        }
+    }
 }
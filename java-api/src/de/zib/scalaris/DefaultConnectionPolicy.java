@@ -49,6 +49,14 @@ import com.ericsson.otp.erlang.OtpAuthException;
  * ) - the number of the current attempt will not be cached in this class. Set
  * the maximal number of retries using {@link #setMaxRetries(int)}.
  *
+ * Optionally, a circuit breaker can be enabled with
+ * {@link #setCircuitBreakerThreshold(int)}: nodes which failed this many times
+ * in a row are not selected at all anymore ("open circuit") so that requests
+ * fail fast instead of trying to connect to a known-dead node. Such nodes need
+ * to be probed in the background, e.g. by a {@link NodeProber}, which closes
+ * the circuit again by reporting a successful connection (see
+ * {@link #nodeConnectSuccess(PeerNode)}).
+ *
  * Attention: All member's functions are synchronised as there can be a single
  * connection policy object used by many threads and the access to the
  * {@link #goodNodes} and {@link #badNodes} members are logically linked
@@ -59,7 +67,7 @@ import com.ericsson.otp.erlang.OtpAuthException;
  *
  * @author Nico Kruber, kruber@zib.de
  *
- * @version 2.3
+ * @version 3.21
  * @since 2.3
  */
 public class DefaultConnectionPolicy extends ConnectionPolicy {
@@ -89,6 +97,12 @@ public class DefaultConnectionPolicy extends ConnectionPolicy {
      */
     private int maxRetries = 3;
 
+    /**
+     * The number of consecutive failures after which a node is not selected
+     * anymore (<tt>0</tt> to disable the circuit breaker).
+     */
+    private volatile int circuitBreakerThreshold = 0;
+
     /**
      * Creates a new connection policy working with the given remote node.
      *
@@ -252,7 +266,11 @@ public class DefaultConnectionPolicy extends ConnectionPolicy {
      *
      * Throws an exception if {@code retry > maxRetries} and thus stops further
      * node connection attempts. Otherwise chooses a random good node or (if
-     * there are no good nodes) the least recently failed bad node.
+     * there are no good nodes) the least recently failed bad node whose
+     * circuit is not open (see {@link #isCircuitOpen(PeerNode)}). If the
+     * circuits of all nodes are open, no connection attempt is made: the
+     * given exception is thrown or, if there is none, an
+     * {@link UnsupportedOperationException}.
      *
      * @param <E>
      *            the type of the exception that came from the failed connection
@@ -291,8 +309,20 @@ public class DefaultConnectionPolicy extends ConnectionPolicy {
                         "Can not choose a node from an empty list.");
             } else if (goodNodes.size() > 0) {
                 return getGoodNode();
-            } else {
+            } else if (circuitBreakerThreshold == 0) {
                 return badNodes.first();
+            } else {
+                for (final PeerNode node : badNodes) {
+                    if (!isCircuitOpen(node)) {
+                        return node;
+                    }
+                }
+                // all circuits are open -> fail fast
+                if (e != null) {
+                    throw e;
+                }
+                throw new UnsupportedOperationException(
+                        "All nodes are unavailable (open circuit): " + badNodes.toString());
             }
         } else {
             final String newMessage = e.getMessage() + ", bad nodes: " + badNodes.toString() + ", good nodes: " + goodNodes.toString() + ", retries: " + (retry - 1);
@@ -332,6 +362,54 @@ public class DefaultConnectionPolicy extends ConnectionPolicy {
         this.maxRetries = maxRetries;
     }
 
+    /**
+     * Gets the number of consecutive failures after which a node is not
+     * selected anymore.
+     *
+     * @return the threshold (<tt>0</tt> if the circuit breaker is disabled)
+     *
+     * @since 3.21
+     */
+    public int getCircuitBreakerThreshold() {
+        return circuitBreakerThreshold;
+    }
+
+    /**
+     * Sets the number of consecutive failures after which a node is not
+     * selected anymore until a successful connection to it has been reported
+     * (see {@link NodeProber}).
+     *
+     * @param circuitBreakerThreshold
+     *            the threshold (&gt;= 0, <tt>0</tt> disables the circuit
+     *            breaker)
+     *
+     * @since 3.21
+     */
+    public void setCircuitBreakerThreshold(final int circuitBreakerThreshold) {
+        if (circuitBreakerThreshold < 0) {
+            throw new IllegalArgumentException("circuitBreakerThreshold must be >= 0");
+        }
+        this.circuitBreakerThreshold = circuitBreakerThreshold;
+    }
+
+    /**
+     * Checks whether the circuit of the given node is open, i.e. whether it
+     * failed at least {@link #getCircuitBreakerThreshold()} times in a row.
+     *
+     * Attention: This method synchronises on the node.
+     *
+     * @param node
+     *            the node to check
+     *
+     * @return <tt>true</tt> if the node is not selected for connections
+     *
+     * @since 3.21
+     */
+    public boolean isCircuitOpen(final PeerNode node) {
+        final int threshold = circuitBreakerThreshold;
+        return (threshold > 0) && (node.getFailureCount() >= threshold);
+    }
+
     /**
      * Gets a copy of the list of good nodes (contains references to the
      * {@link PeerNode} objects).
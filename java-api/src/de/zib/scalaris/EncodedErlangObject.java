@@ -0,0 +1,126 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.util.Arrays;
+
+import com.ericsson.otp.erlang.OtpErlangDecodeException;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpInputStream;
+import com.ericsson.otp.erlang.OtpOutputStream;
+
+/**
+ * An Erlang term which has already been converted to the external term
+ * format.
+ *
+ * Encoding this object only copies the stored bytes, i.e. it can be sent
+ * (also as part of other terms, e.g. in the arguments of
+ * {@link Connection#doRPC(String, String, com.ericsson.otp.erlang.OtpErlangList)})
+ * any number of times without serialising the original term again.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.21
+ * @since 3.21
+ */
+public class EncodedErlangObject extends OtpErlangObject {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The encoded term (without the version tag).
+     */
+    private final byte[] encoded;
+
+    /**
+     * The original term (may be <tt>null</tt>).
+     */
+    private final OtpErlangObject term;
+
+    /**
+     * Encodes the given term.
+     *
+     * @param term
+     *            the term to encode
+     */
+    public EncodedErlangObject(final OtpErlangObject term) {
+        final OtpOutputStream oos = new OtpOutputStream(term);
+        this.encoded = oos.toByteArray();
+        this.term = term;
+    }
+
+    /**
+     * Creates an object from an already encoded term.
+     *
+     * @param encoded
+     *            the term in the external term format without the version tag
+     *            (will not be copied!)
+     */
+    public EncodedErlangObject(final byte[] encoded) {
+        this.encoded = encoded;
+        this.term = null;
+    }
+
+    /**
+     * Gets the original term if available, otherwise decodes the stored
+     * bytes.
+     *
+     * @return the term
+     *
+     * @throws OtpErlangDecodeException
+     *             if decoding fails
+     */
+    public OtpErlangObject getTerm() throws OtpErlangDecodeException {
+        if (term != null) {
+            return term;
+        }
+        return new OtpInputStream(encoded).read_any();
+    }
+
+    /**
+     * Gets the size of the encoded term.
+     *
+     * @return number of bytes
+     */
+    public int size() {
+        return encoded.length;
+    }
+
+    @Override
+    public void encode(final OtpOutputStream buf) {
+        buf.write(encoded);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (o instanceof EncodedErlangObject) {
+            return Arrays.equals(encoded, ((EncodedErlangObject) o).encoded);
+        }
+        return false;
+    }
+
+    @Override
+    protected int doHashCode() {
+        return Arrays.hashCode(encoded);
+    }
+
+    @Override
+    public String toString() {
+        try {
+            return getTerm().toString();
+        } catch (final OtpErlangDecodeException e) {
+            return "<" + encoded.length + " encoded bytes>";
+        }
+    }
+}
@@ -15,7 +15,10 @@
  */
 package de.zib.scalaris;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -24,6 +27,7 @@ import java.util.Map;
 import com.ericsson.otp.erlang.OtpErlangAtom;
 import com.ericsson.otp.erlang.OtpErlangBinary;
 import com.ericsson.otp.erlang.OtpErlangBoolean;
+import com.ericsson.otp.erlang.OtpErlangDecodeException;
 import com.ericsson.otp.erlang.OtpErlangDouble;
 import com.ericsson.otp.erlang.OtpErlangException;
 import com.ericsson.otp.erlang.OtpErlangList;
@@ -38,14 +42,21 @@ import com.ericsson.otp.erlang.OtpErlangTuple;
  * See {@link #ErlangValue(Object)} for a list of compatible types.
  *
  * @author Nico Kruber, kruber@zib.de
- * @version 3.19
+ * @version 3.21
  * @since 3.0
  */
 public class ErlangValue implements Comparable<ErlangValue> {
     /**
-     * The (internal representation of the) wrapped erlang value.
+     * The (internal representation of the) wrapped erlang value
+     * (<tt>null</tt> until {@link #encoded} has been decoded).
      */
-    private final OtpErlangObject value;
+    private volatile OtpErlangObject value;
+
+    /**
+     * The encoded value if it has not been decoded yet (see
+     * {@link #fromEncoded(OtpErlangObject)}), otherwise <tt>null</tt>.
+     */
+    private volatile OtpErlangBinary encoded = null;
 
     /**
      * Creates a new object wrapping the given erlang value.
@@ -57,6 +68,29 @@ public class ErlangValue implements Comparable<ErlangValue> {
         this.value = value;
     }
 
+    /**
+     * Creates a new object wrapping the given encoded value (see
+     * {@link CommonErlangObjects#encode(OtpErlangObject)}) which is only
+     * decoded on first access. Binaries can be accessed via
+     * {@link #binaryBuffer()} and {@link #binaryInputStream()} without
+     * decoding (or copying) them at all.
+     *
+     * @param encoded
+     *            an encoded value from erlang
+     *
+     * @return the (lazy) value
+     *
+     * @since 3.21
+     */
+    public static ErlangValue fromEncoded(final OtpErlangObject encoded) {
+        if (encoded instanceof OtpErlangBinary) {
+            final ErlangValue result = new ErlangValue((OtpErlangObject) null);
+            result.encoded = (OtpErlangBinary) encoded;
+            return result;
+        }
+        return new ErlangValue(encoded);
+    }
+
     /**
      * Creates a new object from a given set of Java types. The following types
      * are supported:
@@ -131,6 +165,14 @@ public class ErlangValue implements Comparable<ErlangValue> {
             return new OtpErlangString((String) value);
         } else if (value instanceof byte[]) {
             return new OtpErlangBinary((byte[]) value);
+        } else if (value instanceof long[]) {
+            return new PrimitiveErlangList((long[]) value);
+        } else if (value instanceof int[]) {
+            return new PrimitiveErlangList((int[]) value);
+        } else if (value instanceof double[]) {
+            return new PrimitiveErlangList((double[]) value);
+        } else if (value instanceof byte[][]) {
+            return new PrimitiveErlangList((byte[][]) value);
         } else if (value instanceof Collection<?>) {
             // support collection types (represented internally as a list)
             final Collection<?> list = (Collection<?>) value;
@@ -176,9 +218,9 @@ public class ErlangValue implements Comparable<ErlangValue> {
      * @since 3.3
      */
     public boolean boolValue() throws ClassCastException {
-        if (value.equals(CommonErlangObjects.falseAtom)) {
+        if (value().equals(CommonErlangObjects.falseAtom)) {
             return false;
-        } else if (value.equals(CommonErlangObjects.trueAtom)) {
+        } else if (value().equals(CommonErlangObjects.trueAtom)) {
             return true;
         } else {
             throw new ClassCastException("No boolean.");
@@ -196,7 +238,7 @@ public class ErlangValue implements Comparable<ErlangValue> {
      */
     public int intValue() throws ClassCastException {
         try {
-            return ((OtpErlangLong) value).intValue();
+            return ((OtpErlangLong) value()).intValue();
         } catch (final OtpErlangRangeException e) {
             throw new ClassCastException("Cannot cast to int - value is too big (use longValue() or bigIntValue() instead).");
         }
@@ -212,7 +254,7 @@ public class ErlangValue implements Comparable<ErlangValue> {
      *             not supported or the value is too big
      */
     public long longValue() throws ClassCastException {
-        final OtpErlangLong longValue = (OtpErlangLong) value;
+        final OtpErlangLong longValue = (OtpErlangLong) value();
         if (longValue.isLong()) {
             return longValue.longValue();
         } else {
@@ -230,7 +272,7 @@ public class ErlangValue implements Comparable<ErlangValue> {
      *             not supported
      */
     public BigInteger bigIntValue() throws ClassCastException {
-        return ((OtpErlangLong) value).bigIntegerValue();
+        return ((OtpErlangLong) value()).bigIntegerValue();
     }
 
     /**
@@ -243,7 +285,7 @@ public class ErlangValue implements Comparable<ErlangValue> {
      *             not supported
      */
     public double doubleValue() throws ClassCastException {
-        return ((OtpErlangDouble) value).doubleValue();
+        return ((OtpErlangDouble) value()).doubleValue();
     }
 
     /**
@@ -314,7 +356,7 @@ public class ErlangValue implements Comparable<ErlangValue> {
      *             not supported
      */
     public String stringValue() throws ClassCastException {
-        return otpObjectToString(value);
+        return otpObjectToString(value());
     }
 
     /**
@@ -327,7 +369,7 @@ public class ErlangValue implements Comparable<ErlangValue> {
      *             not supported
      */
     public byte[] binaryValue() throws ClassCastException {
-        return ((OtpErlangBinary) value).binaryValue();
+        return ((OtpErlangBinary) value()).binaryValue();
     }
 
     /**
@@ -348,7 +390,7 @@ public class ErlangValue implements Comparable<ErlangValue> {
          *
          * first term must be an object!
          */
-        final OtpErlangTuple value_tpl = (OtpErlangTuple) value;
+        final OtpErlangTuple value_tpl = (OtpErlangTuple) value();
         if ((value_tpl.arity() == 2)
                 && value_tpl.elementAt(0).equals(CommonErlangObjects.structAtom)) {
             final ErlangValueJSONToMap json_converter = new ErlangValueJSONToMap();
@@ -382,7 +424,7 @@ public class ErlangValue implements Comparable<ErlangValue> {
          *
          * first term must be an object!
          */
-        final OtpErlangTuple value_tpl = (OtpErlangTuple) value;
+        final OtpErlangTuple value_tpl = (OtpErlangTuple) value();
         if ((value_tpl.arity() == 2)
                 && value_tpl.elementAt(0).equals(CommonErlangObjects.structAtom)) {
             final ErlangValueJSONToBean<T> json_converter = new ErlangValueJSONToBean<T>(c);
@@ -411,6 +453,8 @@ public class ErlangValue implements Comparable<ErlangValue> {
         if (value instanceof OtpErlangString) {
             final OtpErlangString value_string = (OtpErlangString) value;
             return new OtpErlangList(value_string.stringValue());
+        } else if (value instanceof PrimitiveErlangList) {
+            return ((PrimitiveErlangList) value).toList();
         } else {
             return (OtpErlangList) value;
         }
@@ -467,7 +511,7 @@ public class ErlangValue implements Comparable<ErlangValue> {
      *             not supported
      */
     public <T> List<T> listValue(final ListElementConverter<T> converter) throws ClassCastException {
-        final OtpErlangList list = otpObjectToOtpList(value);
+        final OtpErlangList list = otpObjectToOtpList(value());
         final ArrayList<T> result = new ArrayList<T>(list.arity());
         for (int i = 0; i < list.arity(); ++i) {
             result.add(converter.convert(i, new ErlangValue(list.elementAt(i))));
@@ -497,7 +541,7 @@ public class ErlangValue implements Comparable<ErlangValue> {
     public <T> Collection<T> listCollectionValue(
             final Class<? extends Collection<T>> clazz,
             final ListElementConverter<T> converter) throws ClassCastException {
-        final OtpErlangList list = otpObjectToOtpList(value);
+        final OtpErlangList list = otpObjectToOtpList(value());
         Collection<T> result;
         try {
             result = clazz.newInstance();
@@ -645,15 +689,235 @@ public class ErlangValue implements Comparable<ErlangValue> {
         });
     }
 
+    /**
+     * Decodes a lazily read list value directly from its encoded form.
+     *
+     * @param kind
+     *            the type of the list's elements (see
+     *            {@link ValueCodec#decodePrimitiveList(byte[], int)})
+     *
+     * @return the array or <tt>null</tt> if not available
+     */
+    private Object decodePrimitiveList(final int kind) {
+        final OtpErlangBinary enc = encoded;
+        if (enc != null) {
+            try {
+                return ValueCodec.decodePrimitiveList(enc.binaryValue(), kind);
+            } catch (final OtpErlangDecodeException e) {
+                // fall back to the generic decoding (reporting the error)
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns an array of <tt>long</tt> values of the wrapped erlang value
+     * without creating a wrapper object per element (unlike
+     * {@link #longListValue()}).
+     *
+     * @return the converted value
+     *
+     * @throws ClassCastException
+     *             if thrown if a conversion is not possible, i.e. the type is
+     *             not supported or a value is too big
+     *
+     * @since 3.21
+     */
+    public long[] longArrayValue() throws ClassCastException {
+        final long[] decoded = (long[]) decodePrimitiveList(ValueCodec.LIST_OF_LONGS);
+        if (decoded != null) {
+            return decoded;
+        }
+        final OtpErlangObject v = value();
+        if (v instanceof PrimitiveErlangList) {
+            return ((PrimitiveErlangList) v).longArrayValue();
+        } else if (v instanceof OtpErlangString) {
+            final String str = ((OtpErlangString) v).stringValue();
+            final int[] codePoints = OtpErlangString.stringToCodePoints(str);
+            final long[] result = new long[codePoints.length];
+            for (int i = 0; i < codePoints.length; ++i) {
+                result[i] = codePoints[i];
+            }
+            return result;
+        }
+        final OtpErlangList list = (OtpErlangList) v;
+        final long[] result = new long[list.arity()];
+        for (int i = 0; i < result.length; ++i) {
+            final OtpErlangLong elem = (OtpErlangLong) list.elementAt(i);
+            if (!elem.isLong()) {
+                throw new ClassCastException("Value too big for long: " + elem);
+            }
+            result[i] = elem.longValue();
+        }
+        return result;
+    }
+
+    /**
+     * Returns an array of <tt>int</tt> values of the wrapped erlang value
+     * without creating a wrapper object per element.
+     *
+     * @return the converted value
+     *
+     * @throws ClassCastException
+     *             if thrown if a conversion is not possible, i.e. the type is
+     *             not supported or a value is too big
+     *
+     * @since 3.21
+     */
+    public int[] intArrayValue() throws ClassCastException {
+        final long[] longs = longArrayValue();
+        final int[] result = new int[longs.length];
+        for (int i = 0; i < longs.length; ++i) {
+            final long l = longs[i];
+            if (l < Integer.MIN_VALUE || l > Integer.MAX_VALUE) {
+                throw new ClassCastException("Value too big for int: " + l);
+            }
+            result[i] = (int) l;
+        }
+        return result;
+    }
+
+    /**
+     * Returns an array of <tt>double</tt> values of the wrapped erlang value
+     * without creating a wrapper object per element (unlike
+     * {@link #doubleListValue()}).
+     *
+     * @return the converted value
+     *
+     * @throws ClassCastException
+     *             if thrown if a conversion is not possible, i.e. the type is
+     *             not supported
+     *
+     * @since 3.21
+     */
+    public double[] doubleArrayValue() throws ClassCastException {
+        final double[] decoded = (double[]) decodePrimitiveList(ValueCodec.LIST_OF_DOUBLES);
+        if (decoded != null) {
+            return decoded;
+        }
+        final OtpErlangObject v = value();
+        if (v instanceof PrimitiveErlangList) {
+            return ((PrimitiveErlangList) v).doubleArrayValue();
+        }
+        final OtpErlangList list = otpObjectToOtpList(v);
+        final double[] result = new double[list.arity()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = ((OtpErlangDouble) list.elementAt(i)).doubleValue();
+        }
+        return result;
+    }
+
+    /**
+     * Returns an array of <tt>byte[]</tt> values of the wrapped erlang value
+     * without creating an {@link ErlangValue} per element (unlike
+     * {@link #binaryListValue()}).
+     *
+     * @return the converted value
+     *
+     * @throws ClassCastException
+     *             if thrown if a conversion is not possible, i.e. the type is
+     *             not supported
+     *
+     * @since 3.21
+     */
+    public byte[][] binaryArrayValue() throws ClassCastException {
+        final byte[][] decoded = (byte[][]) decodePrimitiveList(ValueCodec.LIST_OF_BINARIES);
+        if (decoded != null) {
+            return decoded;
+        }
+        final OtpErlangObject v = value();
+        if (v instanceof PrimitiveErlangList) {
+            return ((PrimitiveErlangList) v).binaryArrayValue();
+        }
+        final OtpErlangList list = otpObjectToOtpList(v);
+        final byte[][] result = new byte[list.arity()][];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = ((OtpErlangBinary) list.elementAt(i)).binaryValue();
+        }
+        return result;
+    }
+
     /**
      * Gets the original erlang value.
      *
      * @return the value as reported by erlang
+     *
+     * @throws ClassCastException
+     *             if the value was created by
+     *             {@link #fromEncoded(OtpErlangObject)} and cannot be
+     *             decoded (since 3.21)
      */
-    public OtpErlangObject value() {
+    public OtpErlangObject value() throws ClassCastException {
+        final OtpErlangObject result = value;
+        if (result != null) {
+            return result;
+        }
+        return decode();
+    }
+
+    private synchronized OtpErlangObject decode() throws ClassCastException {
+        if (value == null) {
+            try {
+                value = CommonErlangObjects.decode(encoded);
+                encoded = null;
+            } catch (final OtpErlangDecodeException e) {
+                final ClassCastException ex = new ClassCastException(
+                        "Cannot decode value: " + e.getMessage());
+                ex.initCause(e);
+                throw ex;
+            }
+        }
         return value;
     }
 
+    /**
+     * Returns a read-only view of the Java byte[] value of the wrapped erlang
+     * value (without copying it).
+     *
+     * @return the binary's data
+     *
+     * @throws ClassCastException
+     *             if the conversion fails
+     *
+     * @since 3.21
+     */
+    public ByteBuffer binaryBuffer() throws ClassCastException {
+        final OtpErlangBinary enc = encoded;
+        if (enc != null) {
+            final byte[] bin = enc.binaryValue();
+            if (ValueCodec.isEncodedBinary(bin)) {
+                return ByteBuffer.wrap(bin, ValueCodec.BINARY_OFFSET,
+                        bin.length - ValueCodec.BINARY_OFFSET).slice()
+                        .asReadOnlyBuffer();
+            }
+        }
+        return ByteBuffer.wrap(binaryValue()).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns a stream reading the Java byte[] value of the wrapped erlang
+     * value (without copying it), e.g. to stream large values to a file or
+     * an HTTP response.
+     *
+     * @return a stream of the binary's data
+     *
+     * @throws ClassCastException
+     *             if the conversion fails
+     *
+     * @since 3.21
+     */
+    public InputStream binaryInputStream() throws ClassCastException {
+        final OtpErlangBinary enc = encoded;
+        if (enc != null) {
+            final byte[] bin = enc.binaryValue();
+            if (ValueCodec.isEncodedBinary(bin)) {
+                return new ByteArrayInputStream(bin, ValueCodec.BINARY_OFFSET,
+                        bin.length - ValueCodec.BINARY_OFFSET);
+            }
+        }
+        return new ByteArrayInputStream(binaryValue());
+    }
+
     @Override
     public boolean equals(final Object obj) {
         if (this == obj) {
@@ -664,17 +928,43 @@ public class ErlangValue implements Comparable<ErlangValue> {
         }
 
         final ErlangValue erlValue = (ErlangValue) obj;
-        return value.equals(erlValue.value);
+        return normalise(valueOrEncoded()).equals(
+                normalise(erlValue.valueOrEncoded()));
+    }
+
+    /**
+     * Gets the (decoded) value or, if it cannot be decoded, the raw encoded
+     * term so that {@link #equals(Object)}, {@link #hashCode()} and
+     * {@link #toString()} do not fail.
+     */
+    private OtpErlangObject valueOrEncoded() {
+        try {
+            return value();
+        } catch (final ClassCastException e) {
+            // decoding failed, i.e. the value is still encoded
+            return encoded;
+        }
+    }
+
+    /**
+     * Converts {@link PrimitiveErlangList} objects to the equivalent
+     * {@link OtpErlangList} so that equal lists compare equal.
+     */
+    private static OtpErlangObject normalise(final OtpErlangObject value) {
+        if (value instanceof PrimitiveErlangList) {
+            return ((PrimitiveErlangList) value).toList();
+        }
+        return value;
     }
 
     @Override
     public int hashCode() {
-        return value.hashCode();
+        return valueOrEncoded().hashCode();
     }
 
     @Override
     public String toString() {
-        return value.toString();
+        return valueOrEncoded().toString();
     }
 
     /**
@@ -684,6 +974,6 @@ public class ErlangValue implements Comparable<ErlangValue> {
      *            another erlang value
      */
     public int compareTo(final ErlangValue o) {
-        return value.toString().compareTo(o.toString());
+        return toString().compareTo(o.toString());
     }
 }
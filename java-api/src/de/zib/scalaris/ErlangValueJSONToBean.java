@@ -15,18 +15,22 @@
  */
 package de.zib.scalaris;
 
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.ericsson.otp.erlang.OtpErlangAtom;
 import com.ericsson.otp.erlang.OtpErlangList;
@@ -57,16 +61,35 @@ import com.ericsson.otp.erlang.OtpErlangTuple;
  * Setter methods must be of the form setKey(xxx),
  * getter methods of the form getKey() or isKey().
  *
+ * The accessors of each Bean class are looked up only once and are cached
+ * (see {@link BeanMapper}).
+ *
  * @param <T> the Bean to convert to/from
  *
  * @author Nico Kruber, kruber@zib.de
+ * @version 3.21
  */
 class ErlangValueJSONToBean<T> extends ErlangValueJSONBase implements ErlangValueJSONInterface<T> {
+    /**
+     * Cached mappers of the Bean classes converted so far. Classes are
+     * referenced weakly and mappers softly, i.e. mappers survive garbage
+     * collections but are cleared before running out of memory and do not
+     * prevent classes (and their class loaders) from being unloaded
+     * afterwards.
+     */
+    private static final Map<Class<?>, SoftReference<BeanMapper>> mappers =
+            new WeakHashMap<Class<?>, SoftReference<BeanMapper>>();
+
     /**
      * The class to convert the object to.
      */
     private final Class<T> c;
 
+    /**
+     * The (cached) accessors of {@link #c}.
+     */
+    private final BeanMapper mapper;
+
     /**
      * Creates a new object converting to the given class.
      *
@@ -75,6 +98,215 @@ class ErlangValueJSONToBean<T> extends ErlangValueJSONBase implements ErlangValu
      */
     public ErlangValueJSONToBean(final Class<T> c) {
         this.c = c;
+        this.mapper = getMapper(c);
+    }
+
+    /**
+     * Gets the (cached) mapper of the given class.
+     *
+     * @param c
+     *            the class
+     *
+     * @return the mapper for <tt>c</tt>
+     *
+     * @since 3.21
+     */
+    static BeanMapper getMapper(final Class<?> c) {
+        synchronized (mappers) {
+            final SoftReference<BeanMapper> ref = mappers.get(c);
+            BeanMapper mapper = (ref == null) ? null : ref.get();
+            if (mapper == null) {
+                mapper = new BeanMapper(c);
+                mappers.put(c, new SoftReference<BeanMapper>(mapper));
+            }
+            return mapper;
+        }
+    }
+
+    /**
+     * A getter used to convert a Bean to JSON.
+     *
+     * @since 3.21
+     */
+    private static final class Getter {
+        final Method method;
+        final OtpErlangString key;
+
+        Getter(final Method method, final String key) {
+            this.method = method;
+            this.key = new OtpErlangString(key);
+        }
+    }
+
+    /**
+     * The setter for a JSON key (and the type of its value) used to convert
+     * JSON to a Bean.
+     *
+     * @since 3.21
+     */
+    private static final class Setter {
+        final Type type;
+        final Method method;
+        /**
+         * Error message if there is no such setter (or getter).
+         */
+        final String error;
+
+        Setter(final Type type, final Method method) {
+            this.type = type;
+            this.method = method;
+            this.error = null;
+        }
+
+        Setter(final String error) {
+            this.type = null;
+            this.method = null;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Pre-computed accessors of a Bean class, i.e. the reflection look-ups
+     * only happen once per class (and JSON key).
+     *
+     * Public getter methods of the form getKey() or isKey() define the JSON
+     * keys when converting a Bean to JSON and the type of the key's value when
+     * converting JSON to a Bean. Setters have to be public and of the form
+     * setKey(xxx).
+     *
+     * @since 3.21
+     */
+    static final class BeanMapper {
+        private final Class<?> c;
+        /**
+         * All declared public getters, see {@link #convertJavaToScalarisJSON_object2(Object)}.
+         */
+        private final Getter[] getters;
+        /**
+         * Public methods without parameters by name.
+         */
+        private final Map<String, Method> publicGetters = new HashMap<String, Method>();
+        /**
+         * Public methods with one parameter by name.
+         */
+        private final Map<String, List<Method>> publicSetters = new HashMap<String, List<Method>>();
+        /**
+         * Setters for all JSON keys converted so far.
+         */
+        private final ConcurrentHashMap<String, Setter> setters = new ConcurrentHashMap<String, Setter>();
+        private final Constructor<?> constructor;
+        private final String constructorError;
+
+        BeanMapper(final Class<?> c) {
+            this.c = c;
+            final List<Getter> gettersList = new ArrayList<Getter>();
+            for (final Method m : c.getDeclaredMethods()) {
+                if (!Modifier.isPublic(m.getModifiers())) {
+                    continue;
+                }
+                final String name = m.getName();
+                if (name.startsWith("get")) {
+                    gettersList.add(new Getter(m, decapFirst(name.substring(3))));
+                } else if (name.startsWith("is")) {
+                    gettersList.add(new Getter(m, decapFirst(name.substring(2))));
+                }
+            }
+            this.getters = gettersList.toArray(new Getter[gettersList.size()]);
+
+            for (final Method m : c.getMethods()) {
+                if (m.isBridge()) {
+                    continue;
+                }
+                final int params = m.getParameterTypes().length;
+                if (params == 0) {
+                    publicGetters.put(m.getName(), m);
+                } else if (params == 1) {
+                    List<Method> methods = publicSetters.get(m.getName());
+                    if (methods == null) {
+                        methods = new ArrayList<Method>(1);
+                        publicSetters.put(m.getName(), methods);
+                    }
+                    methods.add(m);
+                }
+            }
+
+            Constructor<?> constructor0 = null;
+            String constructorError0 = null;
+            try {
+                constructor0 = c.getConstructor();
+            } catch (final Exception e) {
+                constructorError0 = e.getMessage();
+            }
+            this.constructor = constructor0;
+            this.constructorError = constructorError0;
+        }
+
+        /**
+         * Gets the setter (and value type) of the given JSON key.
+         *
+         * @param key
+         *            the JSON key
+         *
+         * @return the setter
+         *
+         * @throws ClassCastException
+         *             if there is no public getter or setter method for
+         *             <tt>key</tt>
+         */
+        Setter getSetter(final String key) throws ClassCastException {
+            Setter setter = setters.get(key);
+            if (setter == null) {
+                setter = findSetter(key);
+                setters.putIfAbsent(key, setter);
+            }
+            if (setter.error != null) {
+                throw new ClassCastException(setter.error);
+            }
+            return setter;
+        }
+
+        private Setter findSetter(final String key) {
+            final String keyCap1st = capFirst(key);
+            Method getter = publicGetters.get("get" + keyCap1st);
+            if (getter == null) {
+                getter = publicGetters.get("is" + keyCap1st);
+            }
+            if (getter == null) {
+                return new Setter("no getter [get|is]" + keyCap1st + ": "
+                        + c.getName() + ".is" + keyCap1st + "()");
+            }
+            final Type type = getter.getGenericReturnType();
+            final Class<?> class_ = getRawType(type);
+            final String setMethod = "set" + keyCap1st;
+            final List<Method> candidates = publicSetters.get(setMethod);
+            if (candidates != null) {
+                for (final Method m : candidates) {
+                    if (m.getParameterTypes()[0].equals(class_)) {
+                        return new Setter(type, m);
+                    }
+                }
+            }
+            return new Setter("no setter " + setMethod + "("
+                    + class_.getSimpleName() + "): " + c.getName() + "."
+                    + setMethod + "(" + class_.getName() + ")");
+        }
+
+        /**
+         * Creates a new Bean.
+         *
+         * @throws ClassCastException
+         *             if there is no public constructor without parameters
+         */
+        Object newInstance(final OtpErlangList value) throws ClassCastException {
+            if (constructor == null) {
+                throw new ClassCastException("Cannot store value to JSON object (value: " + value.toString() + "): " + constructorError);
+            }
+            try {
+                return constructor.newInstance();
+            } catch (final Exception e) {
+                throw new ClassCastException("Cannot store value to JSON object (value: " + value.toString() + "): " + e.getMessage());
+            }
+        }
     }
 
     /**
@@ -169,58 +401,6 @@ class ErlangValueJSONToBean<T> extends ErlangValueJSONBase implements ErlangValu
         }
     }
 
-    /**
-     * Uses introspection to get the setter method for the given key of class
-     * {@link #c}.
-     * Setter methods must be of the form setKey(xxx),
-     * getter methods of the form getKey() or isKey().
-     *
-     * @param key
-     *            the key to get the setter for
-     *
-     * @return the setter method
-     *
-     * @throws ClassCastException
-     *             if there is no public setter method for <tt>key</tt>
-     */
-    private Method getSetterFor(final String key, final Type type) {
-        final String keyCap1st = capFirst(key);
-        final String setMethod = "set" + keyCap1st;
-        final Class<?> class_ = getRawType(type);
-        try {
-            return c.getMethod(setMethod, class_);
-        } catch (final Exception e) {
-            throw new ClassCastException("no setter " + setMethod + "(" + class_.getSimpleName() + "): " + e.getMessage());
-        }
-    }
-
-    /**
-     * Uses introspection to get the type of the given key of class {@link #c}.
-     * Assumes there is a getter of the form getKey() or isKey().
-     *
-     * @param key
-     *            the key to get the type for
-     *
-     * @return the {@link Class} of the type.
-     *
-     * @throws ClassCastException
-     *             if there is no public getter method for <tt>key</tt>
-     */
-    private Type getTypeOf(final String key) throws ClassCastException {
-        final String keyCap1st = capFirst(key);
-        try {
-            try {
-                return c.getMethod("get" + keyCap1st).getGenericReturnType();
-            } catch (final NoSuchMethodException e) {
-                return c.getMethod("is" + keyCap1st).getGenericReturnType();
-            }
-        } catch (final Exception e) {
-            throw new ClassCastException("no getter [get|is]" + keyCap1st + ": " + e.getMessage());
-        }
-    }
-
-    private final Pattern getMatcher = java.util.regex.Pattern.compile("^get|is");
-
     /**
      * Converts a Java Map to a JSON object as expected by Scalaris.
      *
@@ -276,30 +456,25 @@ class ErlangValueJSONToBean<T> extends ErlangValueJSONBase implements ErlangValu
                 final
                 T value = (T) value_;
 
-                // get all getters:
-                final Method[] methods = c.getDeclaredMethods();
-                final List<OtpErlangObject> resultList = new LinkedList<OtpErlangObject>();
-
-                for (int j = 0; j < methods.length; ++j) {
-                    final String methodName = methods[j].getName();
-                    if (getMatcher.matcher(methodName).lookingAt()) {
-                        final String key_j = decapFirst(getMatcher.matcher(methodName).replaceFirst(""));
-                        try {
-                            final OtpErlangObject value_j = convertJavaToScalarisJSON_value(methods[j].invoke(value));
-                            resultList.add(new OtpErlangTuple(new OtpErlangObject[] {new OtpErlangString(key_j), value_j}));
-                        } catch (final IllegalArgumentException e) {
-                            e.printStackTrace();
-                            throw new ClassCastException("cannot access getter " + methodName + "() of class " + c.getSimpleName() + ": " + e.getMessage());
-                        } catch (final IllegalAccessException e) {
-                            throw new ClassCastException("cannot access getter " + methodName + "() of class " + c.getSimpleName() + ": " + e.getMessage());
-                        } catch (final InvocationTargetException e) {
-                            throw new ClassCastException("cannot access getter " + methodName + "() of class " + c.getSimpleName() + ": " + e.getMessage());
-                        }
+                final Getter[] getters = mapper.getters;
+                final OtpErlangObject[] resultList = new OtpErlangObject[getters.length];
+                for (int j = 0; j < getters.length; ++j) {
+                    final Method method = getters[j].method;
+                    try {
+                        final OtpErlangObject value_j = convertJavaToScalarisJSON_value(method.invoke(value));
+                        resultList[j] = new OtpErlangTuple(new OtpErlangObject[] {getters[j].key, value_j});
+                    } catch (final IllegalArgumentException e) {
+                        e.printStackTrace();
+                        throw new ClassCastException("cannot access getter " + method.getName() + "() of class " + c.getSimpleName() + ": " + e.getMessage());
+                    } catch (final IllegalAccessException e) {
+                        throw new ClassCastException("cannot access getter " + method.getName() + "() of class " + c.getSimpleName() + ": " + e.getMessage());
+                    } catch (final InvocationTargetException e) {
+                        throw new ClassCastException("cannot access getter " + method.getName() + "() of class " + c.getSimpleName() + ": " + e.getMessage());
                     }
                 }
                 final OtpErlangTuple resultTpl = new OtpErlangTuple(new OtpErlangObject[] {
                         CommonErlangObjects.structAtom,
-                        new OtpErlangList(resultList.toArray(new OtpErlangObject[0])) });
+                        new OtpErlangList(resultList) });
                 return resultTpl;
             }
         } catch (final ClassCastException e) {
@@ -351,12 +526,7 @@ class ErlangValueJSONToBean<T> extends ErlangValueJSONBase implements ErlangValu
             return result;
         } else {
             // target type is a bean:
-            T result;
-            try {
-                result = c.getConstructor().newInstance();
-            } catch (final Exception e) {
-                throw new ClassCastException("Cannot store value to JSON object (value: " + value.toString() + "): " + e.getMessage());
-            }
+            final Object result = mapper.newInstance(value);
             for (final OtpErlangObject iter : value) {
                 final OtpErlangTuple iter_tpl = (OtpErlangTuple) iter;
                 if (iter_tpl.arity() == 2) {
@@ -371,11 +541,10 @@ class ErlangValueJSONToBean<T> extends ErlangValueJSONBase implements ErlangValu
                             throw new ClassCastException("Unsupported JSON type (value: " + value.toString() + ")");
                         }
                     }
-                    final Type elementType = getTypeOf(key);
-                    final Method setter = getSetterFor(key, elementType);
-                    final Object myValue = convertScalarisJSONtoJava_value2(iter_tpl.elementAt(1), elementType);
+                    final Setter setter = mapper.getSetter(key);
+                    final Object myValue = convertScalarisJSONtoJava_value2(iter_tpl.elementAt(1), setter.type);
                     try {
-                        setter.invoke(result, myValue);
+                        setter.method.invoke(result, myValue);
                     } catch (final Exception e) {
                         throw new ClassCastException("Cannot store value to JSON object (key: " + key + ", value: "  + myValue + ", complete object: "+ value.toString() + "): " + e.getMessage());
                     }
@@ -0,0 +1,442 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads single keys (see {@link TransactionSingleOp#read(String)}) and sends a
+ * duplicate ("hedged") request to a second node if the first one does not
+ * answer within a certain delay. The first reply is used, the other one is
+ * ignored.
+ *
+ * The delay is the configured percentile (see {@link #setPercentile(double)})
+ * of the latencies of recent reads so that only the slowest requests are
+ * hedged. Until enough latency samples have been collected, no hedged
+ * requests are sent.
+ *
+ * Connections are taken from the given {@link ConnectionPool}; the hedged
+ * request uses a connection to a different node from the pool's
+ * {@link ConnectionFactory}. A request which lost the race keeps its
+ * connection until its reply arrives and then returns it to the pool.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.21
+ * @since 3.21
+ */
+public class HedgedReader {
+    /**
+     * Pool to get connections from.
+     */
+    protected final ConnectionPool cPool;
+
+    /**
+     * Maximum time (in milliseconds) to wait for a connection from the pool.
+     */
+    private volatile long connectionTimeout = 10000;
+
+    /**
+     * Percentile of recent latencies to use as the hedge delay.
+     */
+    private volatile double percentile = 0.95;
+
+    /**
+     * Lower bound of the hedge delay (in nanoseconds).
+     */
+    private volatile long minDelay = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Recent read latencies (in nanoseconds), used as a ring buffer.
+     */
+    private final long[] samples;
+    private int nextSample = 0;
+    private int sampleCount = 0;
+
+    /**
+     * Minimum number of samples before hedging starts.
+     */
+    private final int minSamples;
+
+    private final AtomicLong reads = new AtomicLong(0);
+    private final AtomicLong hedgedReads = new AtomicLong(0);
+    private final AtomicLong hedgeWins = new AtomicLong(0);
+
+    private final Random random = new Random();
+
+    /**
+     * Executor for the (possibly parallel) read requests.
+     */
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(final Runnable r) {
+            final Thread t = new Thread(r, "HedgedReader worker");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /**
+     * Creates a new hedged reader using connections from the given pool and
+     * the latencies of the last 128 reads.
+     *
+     * @param cPool
+     *            the connection pool to use
+     */
+    public HedgedReader(final ConnectionPool cPool) {
+        this(cPool, 128);
+    }
+
+    /**
+     * Creates a new hedged reader using connections from the given pool.
+     *
+     * @param cPool
+     *            the connection pool to use
+     * @param window
+     *            number of recent reads to derive the hedge delay from
+     *            (hedging starts after a tenth of these reads)
+     */
+    public HedgedReader(final ConnectionPool cPool, final int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("window must be > 0");
+        }
+        this.cPool = cPool;
+        this.samples = new long[window];
+        this.minSamples = Math.max(1, window / 10);
+    }
+
+    /**
+     * Gets the value stored under the given <code>key</code>.
+     *
+     * @param key
+     *            the key to look up
+     *
+     * @return the value stored under the given <code>key</code>
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie or no
+     *             connection was available in the pool
+     * @throws NotFoundException
+     *             if the requested key does not exist
+     * @throws UnknownException
+     *             if any other error occurs
+     *
+     * @see TransactionSingleOp#read(String)
+     */
+    public ErlangValue read(final String key) throws ConnectionException,
+            NotFoundException, UnknownException {
+        reads.incrementAndGet();
+        final CompletionService<ErlangValue> cs =
+                new ExecutorCompletionService<ErlangValue>(executor);
+        final Connection primary = cPool.getConnection(connectionTimeout);
+        if (primary == null) {
+            throw new ConnectionException("no connection available in the pool");
+        }
+        // the connection may already be re-used when the hedge is sent
+        final PeerNode primaryNode = primary.getRemote();
+        cs.submit(new ReadTask(primary, key));
+        final long start = System.nanoTime();
+        int outstanding = 1;
+        boolean hedged = false;
+        Future<ErlangValue> hedge = null;
+
+        final long delay = getHedgeDelay();
+        Throwable lastError = null;
+        try {
+            while (outstanding > 0) {
+                Future<ErlangValue> done;
+                if (!hedged && delay >= 0) {
+                    done = cs.poll(delay - (System.nanoTime() - start), TimeUnit.NANOSECONDS);
+                } else {
+                    done = cs.take();
+                }
+                if (done == null) {
+                    // no reply within the hedge delay
+                    hedged = true;
+                    hedge = submitHedge(cs, primaryNode, key);
+                    if (hedge != null) {
+                        ++outstanding;
+                    }
+                    continue;
+                }
+                --outstanding;
+                try {
+                    final ErlangValue result = done.get();
+                    if (result != null) {
+                        if (done == hedge) {
+                            hedgeWins.incrementAndGet();
+                        }
+                        return result;
+                    }
+                    // hedge skipped
+                } catch (final ExecutionException e) {
+                    if (e.getCause() instanceof NotFoundException) {
+                        // this is a valid reply
+                        throw (NotFoundException) e.getCause();
+                    }
+                    lastError = e.getCause();
+                    if (!hedged) {
+                        // try another node right away
+                        hedged = true;
+                        hedge = submitHedge(cs, primaryNode, key);
+                        if (hedge != null) {
+                            ++outstanding;
+                        }
+                    }
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectionException(e);
+        }
+        if (lastError instanceof ConnectionException) {
+            throw (ConnectionException) lastError;
+        } else if (lastError instanceof UnknownException) {
+            throw (UnknownException) lastError;
+        }
+        throw new UnknownException(lastError);
+    }
+
+    /**
+     * Sends a hedged request to a node other than the given one.
+     *
+     * @return the future of the hedged request or <tt>null</tt> if there is
+     *         no other node
+     */
+    private Future<ErlangValue> submitHedge(final CompletionService<ErlangValue> cs,
+            final PeerNode exclude, final String key) {
+        final PeerNode node = selectOtherNode(exclude);
+        if (node == null) {
+            return null;
+        }
+        hedgedReads.incrementAndGet();
+        return cs.submit(new HedgeTask(node, exclude, key));
+    }
+
+    /**
+     * Selects a random node from the connection factory other than the given
+     * one.
+     *
+     * @param exclude
+     *            the node to exclude
+     *
+     * @return a node or <tt>null</tt> if there is no other node
+     */
+    private PeerNode selectOtherNode(final PeerNode exclude) {
+        final List<PeerNode> nodes = cPool.getConnectionFactory().getNodes();
+        nodes.remove(exclude);
+        if (nodes.isEmpty()) {
+            return null;
+        }
+        synchronized (random) {
+            return nodes.get(random.nextInt(nodes.size()));
+        }
+    }
+
+    /**
+     * Adds a latency sample of a successful read.
+     *
+     * @param latency
+     *            the latency in nanoseconds
+     */
+    protected void addSample(final long latency) {
+        synchronized (samples) {
+            samples[nextSample] = latency;
+            nextSample = (nextSample + 1) % samples.length;
+            if (sampleCount < samples.length) {
+                ++sampleCount;
+            }
+        }
+    }
+
+    /**
+     * Gets the current hedge delay, i.e. the configured percentile of the
+     * recent read latencies.
+     *
+     * @return the delay in nanoseconds or <tt>-1</tt> if there are not enough
+     *         samples yet
+     */
+    public long getHedgeDelay() {
+        final long[] sorted;
+        synchronized (samples) {
+            if (sampleCount < minSamples) {
+                return -1;
+            }
+            sorted = Arrays.copyOf(samples, sampleCount);
+        }
+        Arrays.sort(sorted);
+        final int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return Math.max(minDelay, sorted[Math.max(0, index)]);
+    }
+
+    /**
+     * Gets the percentile of recent latencies used as the hedge delay.
+     *
+     * @return the percentile (between <tt>0</tt> and <tt>1</tt>)
+     */
+    public double getPercentile() {
+        return percentile;
+    }
+
+    /**
+     * Sets the percentile of recent latencies to use as the hedge delay,
+     * e.g. <tt>0.95</tt> to hedge the slowest 5% of the reads.
+     *
+     * @param percentile
+     *            the percentile (<tt>0 &lt; percentile &lt;= 1</tt>)
+     */
+    public void setPercentile(final double percentile) {
+        if (percentile <= 0.0 || percentile > 1.0) {
+            throw new IllegalArgumentException("percentile must be in (0, 1]");
+        }
+        this.percentile = percentile;
+    }
+
+    /**
+     * Gets the lower bound of the hedge delay.
+     *
+     * @return the minimum delay in milliseconds
+     */
+    public long getMinDelay() {
+        return TimeUnit.NANOSECONDS.toMillis(minDelay);
+    }
+
+    /**
+     * Sets the lower bound of the hedge delay.
+     *
+     * @param minDelay
+     *            the minimum delay in milliseconds
+     */
+    public void setMinDelay(final long minDelay) {
+        this.minDelay = TimeUnit.MILLISECONDS.toNanos(minDelay);
+    }
+
+    /**
+     * Gets the maximum time to wait for a connection from the pool.
+     *
+     * @return the timeout in milliseconds
+     */
+    public long getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    /**
+     * Sets the maximum time to wait for a connection from the pool.
+     *
+     * @param connectionTimeout
+     *            the timeout in milliseconds (<tt>0</tt> to wait forever)
+     */
+    public void setConnectionTimeout(final long connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+    }
+
+    /**
+     * Gets the number of reads issued so far.
+     *
+     * @return number of reads
+     */
+    public long getReads() {
+        return reads.get();
+    }
+
+    /**
+     * Gets the number of reads for which a hedged request has been sent.
+     *
+     * @return number of hedged reads
+     */
+    public long getHedgedReads() {
+        return hedgedReads.get();
+    }
+
+    /**
+     * Gets the number of hedged requests which replied before the original
+     * request.
+     *
+     * @return number of hedged requests winning the race
+     */
+    public long getHedgeWins() {
+        return hedgeWins.get();
+    }
+
+    /**
+     * Reads a key with a given connection and returns the connection to the
+     * pool afterwards.
+     */
+    private class ReadTask implements Callable<ErlangValue> {
+        private final Connection conn;
+        private final String key;
+
+        ReadTask(final Connection conn, final String key) {
+            this.conn = conn;
+            this.key = key;
+        }
+
+        public ErlangValue call() throws Exception {
+            final long start = System.nanoTime();
+            try {
+                final ErlangValue result = new TransactionSingleOp(conn).read(key);
+                addSample(System.nanoTime() - start);
+                return result;
+            } catch (final NotFoundException e) {
+                addSample(System.nanoTime() - start);
+                throw e;
+            } finally {
+                cPool.releaseConnection(conn);
+            }
+        }
+    }
+
+    /**
+     * Gets a connection to the given node and reads the key. Returns
+     * <tt>null</tt> if no connection to a node other than the original one
+     * is available.
+     */
+    private class HedgeTask implements Callable<ErlangValue> {
+        private final PeerNode node;
+        private final PeerNode exclude;
+        private final String key;
+
+        HedgeTask(final PeerNode node, final PeerNode exclude, final String key) {
+            this.node = node;
+            this.exclude = exclude;
+            this.key = key;
+        }
+
+        public ErlangValue call() throws Exception {
+            final Connection conn = cPool.getConnection(node, connectionTimeout);
+            if (conn == null) {
+                return null;
+            }
+            if (conn.getRemote().equals(exclude)) {
+                cPool.releaseConnection(conn);
+                return null;
+            }
+            return new ReadTask(conn, key).call();
+        }
+    }
+}
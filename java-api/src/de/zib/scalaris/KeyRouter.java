@@ -0,0 +1,727 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.ericsson.otp.erlang.OtpErlangString;
+
+import de.zib.scalaris.RoutingTable.KeyRange;
+import de.zib.scalaris.operations.Operation;
+import de.zib.scalaris.operations.ReadOp;
+import de.zib.scalaris.operations.TransactionSingleOpOperation;
+import de.zib.scalaris.operations.WriteOp;
+
+/**
+ * Routes requests to the Erlang VM which is responsible for their keys in
+ * order to save overlay hops inside Scalaris.
+ *
+ * The router keeps a view of the ring, i.e. the key ranges of all nodes in the
+ * {@link ConnectionFactory} of the given {@link ConnectionPool} (see
+ * {@link RoutingTable#getLocalRanges()}), which needs to be refreshed
+ * periodically (see {@link #refresh()} and
+ * {@link #startWithFixedDelay(long, long, TimeUnit)}). Keys are hashed locally
+ * after verifying that the local hash function matches
+ * {@link RoutingTable#hashKey(String)}.
+ *
+ * {@link #req_list(TransactionSingleOp.RequestList)} splits a request list
+ * into one request list per responsible node and executes these in parallel
+ * using connections to these nodes from the pool. Requests whose keys are not
+ * covered by the view or whose node fails are executed using any connection
+ * from the pool. If the view is older than {@link #getMaxAge()}, no routing is
+ * done at all.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.21
+ * @since 3.21
+ */
+public class KeyRouter implements Runnable {
+    /**
+     * Pool to get connections from.
+     */
+    protected final ConnectionPool cPool;
+
+    /**
+     * Maximum time (in milliseconds) to wait for a connection from the pool.
+     */
+    protected long connectionTimeout = 10000;
+
+    /**
+     * Maximum number of operations per request of bulk operations.
+     */
+    private volatile int bulkChunkSize = 100;
+
+    /**
+     * Maximum number of requests of a bulk operation executed in parallel.
+     */
+    private volatile int bulkParallelism = 4;
+
+    /**
+     * Current view of the ring (non-wrapping ranges by their left border).
+     */
+    private volatile TreeMap<BigInteger, RangeOwner> view =
+            new TreeMap<BigInteger, RangeOwner>();
+
+    /**
+     * Time (see {@link System#currentTimeMillis()}) the view has been
+     * refreshed at.
+     */
+    private volatile long lastRefresh = 0;
+
+    /**
+     * Maximum age (in milliseconds) of the view before it is not used anymore.
+     */
+    private volatile long maxAge = 60000;
+
+    /**
+     * Whether the local hash function matches the one of the Scalaris nodes.
+     */
+    private volatile boolean localHashing = false;
+
+    /**
+     * Executor for sending parts of a request list in parallel.
+     */
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(final Runnable r) {
+            final Thread t = new Thread(r, "KeyRouter worker");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private static final BigInteger maxKey = BigInteger.ONE.shiftLeft(128).subtract(BigInteger.ONE);
+
+    /**
+     * Creates a new router using connections from the given pool.
+     *
+     * @param cPool
+     *            the connection pool to use
+     */
+    public KeyRouter(final ConnectionPool cPool) {
+        this.cPool = cPool;
+    }
+
+    /**
+     * Starts refreshing the view at the given fixed delay.
+     *
+     * @param initialDelay
+     *            the time to delay first execution
+     * @param delay
+     *            the delay between the termination of one execution and the
+     *            commencement of the next
+     * @param unit
+     *            the time unit of the initialDelay and delay parameters
+     */
+    public void startWithFixedDelay(final long initialDelay,
+            final long delay,
+            final TimeUnit unit) {
+        final ScheduledExecutorService ses = Executors.newScheduledThreadPool(1);
+        ses.scheduleWithFixedDelay(this, initialDelay, delay, unit);
+    }
+
+    /**
+     * Refreshes the view of the ring (see {@link #refresh()}).
+     */
+    public void run() {
+        try {
+            refresh();
+        } catch (final ConnectionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Collects the key ranges of all nodes in the connection factory and
+     * replaces the current view with them. Nodes which can not be contacted
+     * are left out.
+     *
+     * @throws ConnectionException
+     *             if no connection could be taken from the pool
+     */
+    public void refresh() throws ConnectionException {
+        final TreeMap<BigInteger, RangeOwner> newView = new TreeMap<BigInteger, RangeOwner>();
+        boolean hashingVerified = localHashing;
+        for (final PeerNode node : cPool.getConnectionFactory().getNodes()) {
+            final Connection conn = cPool.getConnection(node, connectionTimeout);
+            if (conn == null) {
+                throw new ConnectionException("no connection available in the pool");
+            }
+            try {
+                if (!node.equals(conn.getRemote())) {
+                    // node not reachable
+                    continue;
+                }
+                final RoutingTable rt = new RoutingTable(conn);
+                if (!hashingVerified) {
+                    final String probe = "_KeyRouter_\u00e4\u00f6\u00fc_" + System.currentTimeMillis();
+                    final BigInteger expected = rt.hashKey(probe);
+                    if (!expected.equals(hashKey(probe))) {
+                        // unknown hash function -> no routing possible
+                        localHashing = false;
+                        view = newView;
+                        return;
+                    }
+                    hashingVerified = true;
+                }
+                for (final KeyRange range : rt.getLocalRanges()) {
+                    addRange(newView, range, node);
+                }
+            } catch (final ConnectionException e) {
+                // node failed -> leave it out
+            } catch (final UnknownException e) {
+                // unexpected result -> leave it out
+            } finally {
+                cPool.releaseConnection(conn);
+            }
+        }
+        localHashing = hashingVerified;
+        view = newView;
+        lastRefresh = System.currentTimeMillis();
+    }
+
+    private static void addRange(final TreeMap<BigInteger, RangeOwner> view,
+            final KeyRange range, final PeerNode node) {
+        if (range.all) {
+            view.put(BigInteger.ZERO, new RangeOwner(new KeyRange(
+                    BigInteger.ZERO, true, maxKey, true), node));
+        } else if (range.begin.compareTo(range.end) <= 0) {
+            view.put(range.begin, new RangeOwner(range, node));
+        } else {
+            // split wrapping ranges
+            view.put(range.begin, new RangeOwner(new KeyRange(range.begin,
+                    range.beginIncluded, maxKey, true), node));
+            view.put(BigInteger.ZERO, new RangeOwner(new KeyRange(
+                    BigInteger.ZERO, true, range.end, range.endIncluded), node));
+        }
+    }
+
+    /**
+     * Marks the current view as stale so that it is not used until the next
+     * {@link #refresh()}.
+     */
+    public void invalidate() {
+        lastRefresh = 0;
+    }
+
+    /**
+     * Checks whether the current view may be used for routing.
+     *
+     * @return <tt>true</tt> if the view is usable
+     */
+    public boolean isValid() {
+        return localHashing
+                && ((System.currentTimeMillis() - lastRefresh) <= maxAge);
+    }
+
+    /**
+     * Gets the node responsible for the given key according to the current
+     * view.
+     *
+     * @param key
+     *            the key
+     *
+     * @return the responsible node or <tt>null</tt> if unknown
+     */
+    public PeerNode getNode(final String key) {
+        if (!isValid()) {
+            return null;
+        }
+        final BigInteger hashedKey = hashKey(key);
+        final Map.Entry<BigInteger, RangeOwner> entry = view.floorEntry(hashedKey);
+        if (entry != null && entry.getValue().range.contains(hashedKey)) {
+            return entry.getValue().node;
+        }
+        return null;
+    }
+
+    /**
+     * Hashes the given key to the identifier space the same way Scalaris does
+     * (MD5 of the UTF-8 representation).
+     *
+     * @param key
+     *            the key to hash
+     *
+     * @return the hashed key
+     */
+    public static BigInteger hashKey(final String key) {
+        try {
+            final MessageDigest md5 = MessageDigest.getInstance("MD5");
+            return new BigInteger(1, md5.digest(key.getBytes("UTF-8")));
+        } catch (final NoSuchAlgorithmException e) {
+            throw new InternalError(e.getMessage());
+        } catch (final UnsupportedEncodingException e) {
+            throw new InternalError(e.getMessage());
+        }
+    }
+
+    /**
+     * Executes all requests in <code>req</code> and commits each one of them in
+     * a single transaction (see
+     * {@link TransactionSingleOp#req_list(TransactionSingleOp.RequestList)}).
+     * The requests are sent to the nodes responsible for their keys.
+     *
+     * NOTE: The execution order of multiple requests on the same key is
+     * undefined!
+     *
+     * @param req
+     *            the requests to issue
+     *
+     * @return results of all requests in the same order as they appear in
+     *         <code>req</code>
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    public TransactionSingleOp.ResultList req_list(final TransactionSingleOp.RequestList req)
+            throws ConnectionException, UnknownException {
+        // group requests by their nodes (null for unknown nodes):
+        final Map<PeerNode, TransactionSingleOp.RequestList> groups =
+                new LinkedHashMap<PeerNode, TransactionSingleOp.RequestList>();
+        for (final Operation op : req.getRequests()) {
+            final OtpErlangString key = op.getKey();
+            final PeerNode node = (key == null) ? null : getNode(key.stringValue());
+            TransactionSingleOp.RequestList group = groups.get(node);
+            if (group == null) {
+                group = new TransactionSingleOp.RequestList();
+                groups.put(node, group);
+            }
+            group.addOp(op);
+        }
+
+        if (groups.size() <= 1) {
+            for (final Map.Entry<PeerNode, TransactionSingleOp.RequestList> group : groups.entrySet()) {
+                execute(group.getKey(), group.getValue());
+            }
+        } else {
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>(groups.size());
+            for (final Map.Entry<PeerNode, TransactionSingleOp.RequestList> group : groups.entrySet()) {
+                futures.add(executor.submit(new java.util.concurrent.Callable<Void>() {
+                    public Void call() throws Exception {
+                        execute(group.getKey(), group.getValue());
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ConnectionException(e);
+                } catch (final ExecutionException e) {
+                    if (e.getCause() instanceof ConnectionException) {
+                        throw (ConnectionException) e.getCause();
+                    } else if (e.getCause() instanceof UnknownException) {
+                        throw (UnknownException) e.getCause();
+                    }
+                    throw new UnknownException(e.getCause());
+                }
+            }
+        }
+        return new TransactionSingleOp.ResultList(req);
+    }
+
+    /**
+     * Executes the given requests at the given node, falling back to any
+     * other node if no connection to it can be established.
+     *
+     * Note: failures after the requests have been sent are not re-tried here
+     * (the connection's policy already did) since non-idempotent operations
+     * could otherwise be applied twice.
+     */
+    private void execute(final PeerNode node, final TransactionSingleOp.RequestList req)
+            throws ConnectionException, UnknownException {
+        Connection conn = null;
+        if (node != null) {
+            try {
+                conn = cPool.getConnection(node, connectionTimeout);
+            } catch (final ConnectionException e) {
+                // could not connect (stale view?) -> nothing was sent yet,
+                // re-try at any node
+                invalidate();
+                conn = cPool.getConnection(connectionTimeout);
+            }
+        } else {
+            conn = cPool.getConnection(connectionTimeout);
+        }
+        if (conn == null) {
+            throw new ConnectionException("no connection available in the pool");
+        }
+        try {
+            new TransactionSingleOp(conn).req_list(req);
+        } catch (final ConnectionException e) {
+            // the view may be stale - do not use it for further requests
+            invalidate();
+            throw e;
+        } finally {
+            cPool.releaseConnection(conn);
+        }
+    }
+
+    /**
+     * Gets the value stored under the given <code>key</code> from the node
+     * responsible for it.
+     *
+     * @param key
+     *            the key to look up
+     *
+     * @return the value stored under the given <code>key</code>
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws NotFoundException
+     *             if the requested key does not exist
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    public ErlangValue read(final String key) throws ConnectionException,
+            NotFoundException, UnknownException {
+        return req_list(new TransactionSingleOp.RequestList().addOp(
+                new ReadOp(key))).processReadAt(0);
+    }
+
+    /**
+     * Stores the given <code>key</code>/<code>value</code> pair at the node
+     * responsible for the key.
+     *
+     * @param <T>
+     *            the type of the <tt>value</tt>
+     * @param key
+     *            the key to store the value for
+     * @param value
+     *            the value to store
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws AbortException
+     *             if the commit of the write failed
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    public <T> void write(final String key, final T value)
+            throws ConnectionException, AbortException, UnknownException {
+        req_list(new TransactionSingleOp.RequestList().addOp(
+                new WriteOp(key, value))).processWriteAt(0);
+    }
+
+    /**
+     * Reads the values of all given keys.
+     *
+     * Keys are grouped by their responsible nodes (if known) and read in
+     * requests of at most {@link #getBulkChunkSize()} keys each. Up to
+     * {@link #getBulkParallelism()} of these requests are executed in
+     * parallel on connections from the pool.
+     *
+     * Errors are reported per key, e.g. a {@link NotFoundException} for a
+     * non-existing key or a {@link ConnectionException} for all keys of a
+     * request which could not be sent.
+     *
+     * @param keys
+     *            the keys to read
+     *
+     * @return the values and errors of all keys
+     *
+     * @see TransactionSingleOp#readMany(Collection)
+     */
+    public BulkResult<ErlangValue> readMany(final Collection<String> keys) {
+        final List<ReadOp> ops = new ArrayList<ReadOp>(keys.size());
+        for (final String key : new LinkedHashSet<String>(keys)) {
+            ops.add(new ReadOp(key));
+        }
+        final BulkResult<ErlangValue> result = new BulkResult<ErlangValue>();
+        BulkResult.addReads(result, executeMany(ops, result));
+        return result;
+    }
+
+    /**
+     * Writes all given key/value pairs, each in its own transaction.
+     *
+     * Pairs are grouped by the nodes responsible for their keys (if known)
+     * and written in requests of at most {@link #getBulkChunkSize()} pairs
+     * each. Up to {@link #getBulkParallelism()} of these requests are
+     * executed in parallel on connections from the pool.
+     *
+     * Errors are reported per key, e.g. an {@link AbortException} for a
+     * failed commit or a {@link ConnectionException} for all keys of a
+     * request which could not be sent.
+     *
+     * @param <T>
+     *            the type of the values
+     * @param values
+     *            the key/value pairs to write
+     *
+     * @return the errors of all keys (successfully written keys map to
+     *         <tt>null</tt> in {@link BulkResult#getValues()})
+     *
+     * @see TransactionSingleOp#writeMany(Map)
+     */
+    public <T> BulkResult<Object> writeMany(final Map<String, T> values) {
+        final List<WriteOp> ops = new ArrayList<WriteOp>(values.size());
+        for (final Map.Entry<String, T> entry : values.entrySet()) {
+            ops.add(new WriteOp(entry.getKey(), entry.getValue()));
+        }
+        final BulkResult<Object> result = new BulkResult<Object>();
+        BulkResult.addWrites(result, executeMany(ops, result));
+        return result;
+    }
+
+    /**
+     * Executes the given operations grouped by node and split into chunks.
+     * Failed chunks are reported as errors of their operations' keys.
+     *
+     * @param ops
+     *            the operations to execute
+     * @param result
+     *            the result to add errors to
+     *
+     * @return all operations of successfully executed chunks
+     */
+    private <O extends TransactionSingleOpOperation> List<O> executeMany(
+            final List<O> ops, final BulkResult<?> result) {
+        final int chunkSize = bulkChunkSize;
+        final Map<PeerNode, List<O>> groups = new LinkedHashMap<PeerNode, List<O>>();
+        for (final O op : ops) {
+            final PeerNode node = getNode(op.getKey().stringValue());
+            List<O> group = groups.get(node);
+            if (group == null) {
+                group = new ArrayList<O>();
+                groups.put(node, group);
+            }
+            group.add(op);
+        }
+        final List<BulkChunk<O>> chunks = new ArrayList<BulkChunk<O>>();
+        for (final Map.Entry<PeerNode, List<O>> group : groups.entrySet()) {
+            final List<O> groupOps = group.getValue();
+            for (int i = 0; i < groupOps.size(); i += chunkSize) {
+                chunks.add(new BulkChunk<O>(group.getKey(), groupOps.subList(i,
+                        Math.min(i + chunkSize, groupOps.size()))));
+            }
+        }
+
+        final ConcurrentLinkedQueue<BulkChunk<O>> queue = new ConcurrentLinkedQueue<BulkChunk<O>>(chunks);
+        final int workers = Math.min(chunks.size(), bulkParallelism);
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>(workers);
+        for (int i = 0; i < workers; ++i) {
+            futures.add(executor.submit(new java.util.concurrent.Callable<Void>() {
+                public Void call() {
+                    BulkChunk<O> chunk;
+                    while ((chunk = queue.poll()) != null) {
+                        chunk.execute();
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (final Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                queue.clear();
+                for (final Future<Void> f : futures) {
+                    f.cancel(true);
+                }
+                for (final BulkChunk<O> chunk : chunks) {
+                    chunk.fail(new ConnectionException(e));
+                }
+                break;
+            } catch (final ExecutionException e) {
+                // should not occur (errors are stored in the chunks)
+            }
+        }
+
+        final List<O> succeeded = new ArrayList<O>(ops.size());
+        for (final BulkChunk<O> chunk : chunks) {
+            final Exception error = chunk.getError();
+            if (error == null) {
+                succeeded.addAll(chunk.ops);
+            } else {
+                result.addErrors(chunk.ops, error);
+            }
+        }
+        return succeeded;
+    }
+
+    /**
+     * A part of a bulk operation which is sent in a single request.
+     */
+    private class BulkChunk<O extends TransactionSingleOpOperation> {
+        final PeerNode node;
+        final List<O> ops;
+        private boolean done = false;
+        private Exception error = null;
+
+        BulkChunk(final PeerNode node, final List<O> ops) {
+            this.node = node;
+            this.ops = ops;
+        }
+
+        void execute() {
+            final TransactionSingleOp.RequestList req = new TransactionSingleOp.RequestList();
+            for (final O op : ops) {
+                req.addOp(op);
+            }
+            Exception error = null;
+            try {
+                KeyRouter.this.execute(node, req);
+            } catch (final ConnectionException e) {
+                error = e;
+            } catch (final UnknownException e) {
+                error = e;
+            }
+            synchronized (this) {
+                if (!done) {
+                    done = true;
+                    this.error = error;
+                }
+            }
+        }
+
+        synchronized void fail(final Exception error) {
+            if (!done) {
+                done = true;
+                this.error = error;
+            }
+        }
+
+        synchronized Exception getError() {
+            return error;
+        }
+    }
+
+    /**
+     * Gets the maximum age of the view before it is not used anymore.
+     *
+     * @return the maximum age in milliseconds
+     */
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Sets the maximum age of the view before it is not used anymore.
+     *
+     * @param maxAge
+     *            the maximum age in milliseconds
+     */
+    public void setMaxAge(final long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Gets the maximum time to wait for a connection from the pool.
+     *
+     * @return the timeout in milliseconds
+     */
+    public long getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    /**
+     * Sets the maximum time to wait for a connection from the pool.
+     *
+     * @param connectionTimeout
+     *            the timeout in milliseconds (<tt>0</tt> to wait forever)
+     */
+    public void setConnectionTimeout(final long connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+    }
+
+    /**
+     * Gets the maximum number of operations per request of bulk operations.
+     *
+     * @return the chunk size
+     */
+    public int getBulkChunkSize() {
+        return bulkChunkSize;
+    }
+
+    /**
+     * Sets the maximum number of operations per request of bulk operations.
+     *
+     * @param bulkChunkSize
+     *            the chunk size (&gt; 0)
+     */
+    public void setBulkChunkSize(final int bulkChunkSize) {
+        if (bulkChunkSize <= 0) {
+            throw new IllegalArgumentException("bulkChunkSize must be > 0");
+        }
+        this.bulkChunkSize = bulkChunkSize;
+    }
+
+    /**
+     * Gets the maximum number of requests of a bulk operation executed in
+     * parallel.
+     *
+     * @return the maximum number of parallel requests
+     */
+    public int getBulkParallelism() {
+        return bulkParallelism;
+    }
+
+    /**
+     * Sets the maximum number of requests of a bulk operation executed in
+     * parallel.
+     *
+     * @param bulkParallelism
+     *            the maximum number of parallel requests (&gt; 0)
+     */
+    public void setBulkParallelism(final int bulkParallelism) {
+        if (bulkParallelism <= 0) {
+            throw new IllegalArgumentException("bulkParallelism must be > 0");
+        }
+        this.bulkParallelism = bulkParallelism;
+    }
+
+    /**
+     * A key range and the node responsible for it.
+     */
+    private static class RangeOwner {
+        final KeyRange range;
+        final PeerNode node;
+
+        RangeOwner(final KeyRange range, final PeerNode node) {
+            this.range = range;
+            this.node = node;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Implements a {@link ConnectionPolicy} by choosing nodes based on their
+ * recent RPC latencies.
+ *
+ * This implementation is based on {@link DefaultConnectionPolicy} and thus
+ * also differentiates good and bad nodes. Among the good nodes, two nodes are
+ * chosen randomly and the one with the lower cost is selected
+ * ("power of two choices"). The cost of a node is its exponentially weighted
+ * moving average (EWMA) RPC latency multiplied by the number of its
+ * outstanding requests (plus one). Latencies and outstanding requests are
+ * reported by {@link Connection#doRPC(String, String, com.ericsson.otp.erlang.OtpErlangList)}
+ * through {@link #nodeRequestStarted(PeerNode)} and
+ * {@link #nodeRequestFinished(PeerNode, long, boolean)}.
+ *
+ * The EWMA is time-based: the older a sample is, the less it counts. A
+ * latency above the current average replaces it immediately ("peak EWMA") so
+ * that a node which suddenly becomes slow, e.g. during garbage collection, is
+ * avoided right away. If a node did not receive any requests for a while, its
+ * average decays towards <tt>0</tt> so that slow nodes will eventually be tried
+ * again. Nodes without any samples are preferred.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.21
+ * @since 3.21
+ *
+ * @see DefaultConnectionPolicy
+ */
+public class LatencyAwareConnectionPolicy extends DefaultConnectionPolicy {
+    /**
+     * Latency statistics of all nodes.
+     */
+    protected final ConcurrentHashMap<PeerNode, NodeStats> stats =
+            new ConcurrentHashMap<PeerNode, NodeStats>();
+
+    /**
+     * Random number generator for selecting the two candidate nodes.
+     */
+    private final Random random = new Random();
+
+    /**
+     * Time (in nanoseconds) after which a sample's weight dropped to
+     * <tt>1/e</tt>.
+     */
+    private volatile long decayTime = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * Creates a new connection policy working with the given remote node.
+     *
+     * Provided for convenience.
+     *
+     * Attention: This method also synchronises on the node.
+     *
+     * @param remoteNode the (only) available remote node
+     */
+    public LatencyAwareConnectionPolicy(final PeerNode remoteNode) {
+        super(remoteNode);
+    }
+
+    /**
+     * Creates a new connection policy with the given remote nodes.
+     *
+     * Attention: This method synchronises on {@code availableRemoteNodes}.
+     *
+     * Any time this list is changed, the according methods in this class should
+     * be called, i.e. {@link #availableNodeAdded(PeerNode)},
+     * {@link #availableNodeRemoved(PeerNode)}, {@link #availableNodesReset()}
+     * to update the good and bad nodes lists.
+     *
+     * @param availableRemoteNodes
+     *            the remote nodes available for connections
+     */
+    public LatencyAwareConnectionPolicy(final List<PeerNode> availableRemoteNodes) {
+        super(availableRemoteNodes);
+    }
+
+    /**
+     * Removes the node from the good and bad nodes lists and drops its
+     * latency statistics.
+     *
+     * @param removedNode the removed node
+     */
+    @Override
+    public synchronized void availableNodeRemoved(final PeerNode removedNode) {
+        super.availableNodeRemoved(removedNode);
+        stats.remove(removedNode);
+    }
+
+    /**
+     * Counts an outstanding request at the given node.
+     *
+     * @param node the node
+     */
+    @Override
+    public void nodeRequestStarted(final PeerNode node) {
+        getStats(node).outstanding.incrementAndGet();
+    }
+
+    /**
+     * Adds the latency of a successful request to the node's moving average
+     * and removes the request from its outstanding requests.
+     *
+     * @param node the node
+     * @param latency the time (in nanoseconds) the RPC took
+     * @param success whether a result has been received
+     */
+    @Override
+    public void nodeRequestFinished(final PeerNode node, final long latency,
+            final boolean success) {
+        final NodeStats s = getStats(node);
+        s.outstanding.decrementAndGet();
+        if (success) {
+            s.addSample(latency, System.nanoTime(), decayTime);
+        }
+    }
+
+    /**
+     * Selects the better one of two random good nodes.
+     */
+    @Override
+    protected synchronized PeerNode getGoodNode() {
+        final int size = goodNodes.size();
+        if (size == 1) {
+            return goodNodes.get(0);
+        }
+        final int i = random.nextInt(size);
+        // second node, different from the first one:
+        final int j = (i + 1 + random.nextInt(size - 1)) % size;
+        final PeerNode node1 = goodNodes.get(i);
+        final PeerNode node2 = goodNodes.get(j);
+        final long now = System.nanoTime();
+        return (getCost(node1, now) <= getCost(node2, now)) ? node1 : node2;
+    }
+
+    /**
+     * Gets the current cost of a node, i.e. its (decayed) average latency
+     * times its outstanding requests plus one.
+     *
+     * @param node the node
+     * @param now the current time (see {@link System#nanoTime()})
+     *
+     * @return the cost of the node (lower is better)
+     */
+    protected double getCost(final PeerNode node, final long now) {
+        final NodeStats s = stats.get(node);
+        if (s == null) {
+            return 0.0;
+        }
+        // +1ns: compare outstanding requests of nodes without samples, too
+        return (s.getLatency(now, decayTime) + 1.0) * (s.outstanding.get() + 1);
+    }
+
+    /**
+     * Gets the current (decayed) moving average of the node's RPC latencies.
+     *
+     * @param node the node
+     *
+     * @return the average latency in milliseconds
+     */
+    public double getLatency(final PeerNode node) {
+        final NodeStats s = stats.get(node);
+        if (s == null) {
+            return 0.0;
+        }
+        return s.getLatency(System.nanoTime(), decayTime) / 1000000.0;
+    }
+
+    /**
+     * Gets the number of outstanding requests at the given node.
+     *
+     * @param node the node
+     *
+     * @return the number of outstanding requests
+     */
+    public int getOutstandingRequests(final PeerNode node) {
+        final NodeStats s = stats.get(node);
+        return (s == null) ? 0 : s.outstanding.get();
+    }
+
+    /**
+     * Gets the time after which a latency sample's weight drops to
+     * <tt>1/e</tt>.
+     *
+     * @return the decay time in milliseconds
+     */
+    public long getDecayTime() {
+        return TimeUnit.NANOSECONDS.toMillis(decayTime);
+    }
+
+    /**
+     * Sets the time after which a latency sample's weight drops to
+     * <tt>1/e</tt>. Lower values react faster to latency changes.
+     *
+     * @param decayTime the decay time in milliseconds (&gt; 0)
+     */
+    public void setDecayTime(final long decayTime) {
+        if (decayTime <= 0) {
+            throw new IllegalArgumentException("decayTime must be > 0");
+        }
+        this.decayTime = TimeUnit.MILLISECONDS.toNanos(decayTime);
+    }
+
+    private NodeStats getStats(final PeerNode node) {
+        NodeStats s = stats.get(node);
+        if (s == null) {
+            final NodeStats newStats = new NodeStats();
+            s = stats.putIfAbsent(node, newStats);
+            if (s == null) {
+                s = newStats;
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Latency statistics of a single node.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.21
+     * @since 3.21
+     */
+    protected static class NodeStats {
+        /**
+         * Number of outstanding requests.
+         */
+        final AtomicInteger outstanding = new AtomicInteger(0);
+        private double ewma = 0.0;
+        private long lastUpdate = 0;
+        private boolean hasSamples = false;
+
+        /**
+         * Adds a latency sample.
+         *
+         * @param latency the latency in nanoseconds
+         * @param now the current time (see {@link System#nanoTime()})
+         * @param decayTime the decay time in nanoseconds
+         */
+        synchronized void addSample(final long latency, final long now,
+                final long decayTime) {
+            if (!hasSamples || (latency > ewma)) {
+                // react to latency peaks immediately
+                ewma = latency;
+                hasSamples = true;
+            } else {
+                final double w = Math.exp(-((double) Math.max(0, now - lastUpdate)) / decayTime);
+                ewma = (ewma * w) + (latency * (1.0 - w));
+            }
+            lastUpdate = now;
+        }
+
+        /**
+         * Gets the moving average, decayed by the time since the last sample.
+         *
+         * @param now the current time (see {@link System#nanoTime()})
+         * @param decayTime the decay time in nanoseconds
+         *
+         * @return the average latency in nanoseconds
+         */
+        synchronized double getLatency(final long now, final long decayTime) {
+            if (!hasSamples) {
+                return 0.0;
+            }
+            return ewma * Math.exp(-((double) Math.max(0, now - lastUpdate)) / decayTime);
+        }
+    }
+}
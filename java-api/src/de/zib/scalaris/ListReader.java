@@ -0,0 +1,439 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.zib.scalaris.operations.ReadSublistOp;
+
+/**
+ * Reads a list value in chunks using {@link ReadSublistOp} operations, e.g.
+ * to process lists with millions of elements without holding the whole list
+ * in memory.
+ *
+ * The first chunk contains {@link #getInitialChunkSize()} elements, each
+ * following chunk doubles the size up to {@link #getMaxChunkSize()}, i.e.
+ * short reads stay cheap while long scans need few requests. If prefetching
+ * is enabled (the default), the next chunk is requested while the current one
+ * is being processed. No more chunks are requested after {@link #close()}.
+ *
+ * Each chunk is read in a separate request and reflects the list at that
+ * time, i.e. concurrent modifications of the list may lead to skipped or
+ * repeated elements. The reader ends if a chunk is empty or the end of the
+ * list (as reported by the last chunk) has been reached.
+ *
+ * Elements can either be retrieved chunk-wise with {@link #nextChunk()} or
+ * one-by-one with the {@link Iterator} methods. Since {@link #hasNext()} and
+ * {@link #next()} cannot throw checked exceptions, errors are wrapped into an
+ * {@link UnknownException} there - its cause is the original exception, e.g.
+ * a {@link NotFoundException}. Objects of this class are not thread-safe.
+ *
+ * <h3>Example:</h3>
+ * <pre>
+ * <code style="white-space:pre;">
+ *   ListReader reader = new ListReader(pool, key);
+ *   try {
+ *       while (reader.hasNext()) {
+ *           ErlangValue element = reader.next();
+ *           ...
+ *       }
+ *   } finally {
+ *       reader.close();
+ *   }
+ * </code>
+ * </pre>
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.21
+ * @since 3.21
+ */
+public class ListReader implements Iterator<ErlangValue> {
+    /**
+     * Executor for prefetching chunks (shared by all readers).
+     */
+    private static final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(final Runnable r) {
+            final Thread t = new Thread(r, "ListReader prefetch");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /**
+     * Pool to get connections from.
+     */
+    protected final ConnectionPool cPool;
+
+    /**
+     * The key of the list to read.
+     */
+    protected final String key;
+
+    private int initialChunkSize = 100;
+    private int maxChunkSize = 10000;
+    private boolean prefetch = true;
+    private long connectionTimeout = 10000;
+
+    /**
+     * Start (1-based) and length of the next chunk to read
+     * (<tt>chunkSize == 0</tt> if nothing has been read yet).
+     */
+    private int nextStart = 1;
+    private int chunkSize = 0;
+    private int listLength = -1;
+    private boolean finished = false;
+    private boolean closed = false;
+
+    /**
+     * The next chunk if it is being prefetched.
+     */
+    private Future<ReadSublistOp.Result> pending = null;
+    private Iterator<ErlangValue> current = Collections.<ErlangValue>emptyList().iterator();
+
+    private final AtomicLong chunks = new AtomicLong(0);
+
+    /**
+     * Creates a reader for the list stored at the given key.
+     *
+     * @param cPool
+     *            the connection pool to use
+     * @param key
+     *            the key of the list
+     */
+    public ListReader(final ConnectionPool cPool, final String key) {
+        this.cPool = cPool;
+        this.key = key;
+    }
+
+    /**
+     * Reads the next chunk of the list. If a chunk cannot be read, the
+     * exception is thrown and the next call tries to read the same chunk
+     * again. Elements of the current chunk which have not been retrieved by
+     * {@link #next()} are skipped.
+     *
+     * @return the next chunk (not empty) or <tt>null</tt> if the end of the
+     *         list has been reached or the reader has been closed
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws NotFoundException
+     *             if the list does not exist
+     * @throws NotAListException
+     *             if the value is no list
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    public List<ErlangValue> nextChunk() throws ConnectionException,
+            NotFoundException, NotAListException, UnknownException {
+        current = Collections.<ErlangValue>emptyList().iterator();
+        if (closed || finished) {
+            return null;
+        }
+        if (chunkSize == 0) {
+            chunkSize = initialChunkSize;
+        }
+        final ReadSublistOp.Result result;
+        if (pending != null) {
+            final Future<ReadSublistOp.Result> future = pending;
+            pending = null;
+            result = getResult(future);
+        } else {
+            result = fetch(nextStart, chunkSize);
+        }
+        final List<ErlangValue> chunk = result.subList.listValue();
+        listLength = result.listLength;
+        nextStart += chunkSize;
+        if (chunk.isEmpty() || nextStart > listLength) {
+            finished = true;
+            if (chunk.isEmpty()) {
+                return null;
+            }
+        } else {
+            final int grown = chunkSize > maxChunkSize / 2 ? Math.max(
+                    chunkSize, maxChunkSize) : chunkSize * 2;
+            chunkSize = Math.min(grown, listLength - nextStart + 1);
+            if (prefetch) {
+                final int start = nextStart;
+                final int length = chunkSize;
+                pending = executor.submit(new Callable<ReadSublistOp.Result>() {
+                    public ReadSublistOp.Result call() throws Exception {
+                        return fetch(start, length);
+                    }
+                });
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Reads the given part of the list.
+     *
+     * @param start
+     *            the start of the sublist (1-based)
+     * @param length
+     *            the length of the sublist
+     *
+     * @return the sublist and the current length of the list
+     *
+     * @throws ConnectionException
+     *             if no connection was available or the request failed
+     * @throws NotFoundException
+     *             if the list does not exist
+     * @throws NotAListException
+     *             if the value is no list
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    protected ReadSublistOp.Result fetch(final int start, final int length)
+            throws ConnectionException, NotFoundException, NotAListException,
+            UnknownException {
+        final ReadSublistOp op = new ReadSublistOp(key, start, length);
+        final TransactionSingleOp.RequestList req = new TransactionSingleOp.RequestList();
+        req.addOp(op);
+        final Connection conn = cPool.getConnection(connectionTimeout);
+        if (conn == null) {
+            throw new ConnectionException("no connection available in the pool");
+        }
+        try {
+            new TransactionSingleOp(conn).req_list(req);
+        } finally {
+            cPool.releaseConnection(conn);
+        }
+        chunks.incrementAndGet();
+        return op.processResultSingle();
+    }
+
+    private static ReadSublistOp.Result getResult(
+            final Future<ReadSublistOp.Result> future)
+            throws ConnectionException, NotFoundException, NotAListException,
+            UnknownException {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectionException(e);
+        } catch (final CancellationException e) {
+            throw new ConnectionException(e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof ConnectionException) {
+                throw (ConnectionException) e.getCause();
+            } else if (e.getCause() instanceof NotFoundException) {
+                throw (NotFoundException) e.getCause();
+            } else if (e.getCause() instanceof NotAListException) {
+                throw (NotAListException) e.getCause();
+            } else if (e.getCause() instanceof UnknownException) {
+                throw (UnknownException) e.getCause();
+            }
+            throw new UnknownException(e.getCause());
+        }
+    }
+
+    /**
+     * Checks whether there are more elements, reading the next chunk if
+     * necessary.
+     *
+     * @return <tt>true</tt> if {@link #next()} returns another element
+     *
+     * @throws UnknownException
+     *             if reading the next chunk failed (the cause contains the
+     *             original exception)
+     */
+    public boolean hasNext() throws UnknownException {
+        while (!current.hasNext()) {
+            final List<ErlangValue> chunk;
+            try {
+                chunk = nextChunk();
+            } catch (final ConnectionException e) {
+                throw wrap(e);
+            } catch (final NotFoundException e) {
+                throw wrap(e);
+            } catch (final NotAListException e) {
+                throw wrap(e);
+            }
+            if (chunk == null) {
+                return false;
+            }
+            current = chunk.iterator();
+        }
+        return true;
+    }
+
+    private static UnknownException wrap(final Exception e) {
+        final UnknownException result = new UnknownException(e);
+        result.initCause(e);
+        return result;
+    }
+
+    /**
+     * Gets the next element of the list.
+     *
+     * @return the next element
+     *
+     * @throws NoSuchElementException
+     *             if there are no more elements
+     * @throws UnknownException
+     *             if reading the next chunk failed (the cause contains the
+     *             original exception)
+     */
+    public ErlangValue next() throws NoSuchElementException, UnknownException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    /**
+     * Throws an {@link UnsupportedOperationException} as the list cannot be
+     * modified by the reader.
+     *
+     * @throws UnsupportedOperationException
+     *             always thrown in this class
+     */
+    public void remove() throws UnsupportedOperationException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stops reading the list. A prefetched chunk is discarded and no further
+     * chunks will be requested.
+     */
+    public void close() {
+        closed = true;
+        current = Collections.<ErlangValue>emptyList().iterator();
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    /**
+     * Gets the length of the list as reported by the last chunk.
+     *
+     * @return the list length or <tt>-1</tt> if no chunk has been read yet
+     */
+    public int getListLength() {
+        return listLength;
+    }
+
+    /**
+     * Gets the number of chunks which have been read (including a
+     * prefetched chunk).
+     *
+     * @return number of requests
+     */
+    public long getChunks() {
+        return chunks.get();
+    }
+
+    /**
+     * Gets the number of elements in the first chunk.
+     *
+     * @return the initial chunk size
+     */
+    public int getInitialChunkSize() {
+        return initialChunkSize;
+    }
+
+    /**
+     * Sets the number of elements in the first chunk (only effective before
+     * the first chunk has been read).
+     *
+     * @param initialChunkSize
+     *            the initial chunk size (&gt; 0)
+     */
+    public void setInitialChunkSize(final int initialChunkSize) {
+        if (initialChunkSize <= 0) {
+            throw new IllegalArgumentException("initialChunkSize must be > 0");
+        }
+        this.initialChunkSize = initialChunkSize;
+    }
+
+    /**
+     * Gets the maximum number of elements in a chunk.
+     *
+     * @return the maximum chunk size
+     */
+    public int getMaxChunkSize() {
+        return maxChunkSize;
+    }
+
+    /**
+     * Sets the maximum number of elements in a chunk. Chunks never get
+     * smaller than the initial chunk size, though.
+     *
+     * @param maxChunkSize
+     *            the maximum chunk size (&gt; 0)
+     */
+    public void setMaxChunkSize(final int maxChunkSize) {
+        if (maxChunkSize <= 0) {
+            throw new IllegalArgumentException("maxChunkSize must be > 0");
+        }
+        this.maxChunkSize = maxChunkSize;
+    }
+
+    /**
+     * Checks whether the next chunk is requested while the current one is
+     * being processed.
+     *
+     * @return <tt>true</tt> if prefetching is enabled
+     */
+    public boolean isPrefetch() {
+        return prefetch;
+    }
+
+    /**
+     * Sets whether the next chunk is requested while the current one is
+     * being processed.
+     *
+     * @param prefetch
+     *            <tt>true</tt> to enable prefetching
+     */
+    public void setPrefetch(final boolean prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * Gets the maximum time to wait for a connection from the pool.
+     *
+     * @return the timeout in milliseconds
+     */
+    public long getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    /**
+     * Sets the maximum time to wait for a connection from the pool.
+     *
+     * @param connectionTimeout
+     *            the timeout in milliseconds (<tt>0</tt> to wait forever)
+     */
+    public void setConnectionTimeout(final long connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+    }
+}
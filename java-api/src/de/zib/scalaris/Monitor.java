@@ -31,7 +31,7 @@ import de.zib.scalaris.ErlangValue.ListElementConverter;
  * Provides methods to monitor a specific Scalaris (Erlang) VM.
  *
  * @author Nico Kruber, kruber@zib.de
- * @version 3.11
+ * @version 3.21
  * @since 3.11
  */
 public class Monitor {
@@ -108,8 +108,38 @@ public class Monitor {
      */
     public GetNodeInfoResult getNodeInfo()
             throws ConnectionException, UnknownException {
+        try {
+            return getNodeInfo(0);
+        } catch (final TimeoutException e) {
+            // this should not happen without a timeout
+            throw new InternalError();
+        }
+    }
+
+    /**
+     * Gets some information about the VM and Scalaris.
+     *
+     * @param timeout
+     *            the maximum time (in milliseconds) to wait for the result
+     *            (<tt>0</tt> to wait forever)
+     *
+     * @return VM information
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws TimeoutException
+     *             if no result was received within the given time
+     * @throws UnknownException
+     *             if any other error occurs
+     *
+     * @since 3.21
+     */
+    public GetNodeInfoResult getNodeInfo(final long timeout)
+            throws ConnectionException, TimeoutException, UnknownException {
         final OtpErlangObject received_raw = connection.doRPC("api_monitor", "get_node_info",
-                    new OtpErlangObject[] {});
+                    new OtpErlangObject[] {}, timeout);
         try {
             final OtpErlangList received = (OtpErlangList) received_raw;
             final Map<String, OtpErlangObject> result = new LinkedHashMap<String, OtpErlangObject>(
@@ -182,8 +212,38 @@ public class Monitor {
      */
     public GetNodePerformanceResult getNodePerformance()
             throws ConnectionException, UnknownException {
+        try {
+            return getNodePerformance(0);
+        } catch (final TimeoutException e) {
+            // this should not happen without a timeout
+            throw new InternalError();
+        }
+    }
+
+    /**
+     * Gets some information about the VM and Scalaris.
+     *
+     * @param timeout
+     *            the maximum time (in milliseconds) to wait for the result
+     *            (<tt>0</tt> to wait forever)
+     *
+     * @return VM information
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws TimeoutException
+     *             if no result was received within the given time
+     * @throws UnknownException
+     *             if any other error occurs
+     *
+     * @since 3.21
+     */
+    public GetNodePerformanceResult getNodePerformance(final long timeout)
+            throws ConnectionException, TimeoutException, UnknownException {
         final OtpErlangObject received_raw = connection.doRPC("api_monitor", "get_node_performance",
-                    new OtpErlangObject[] {});
+                    new OtpErlangObject[] {}, timeout);
         try {
             final OtpErlangList received = (OtpErlangList) received_raw;
             final Map<String, OtpErlangObject> result = new LinkedHashMap<String, OtpErlangObject>(
@@ -252,8 +312,38 @@ public class Monitor {
      */
     public GetServiceInfoResult getServiceInfo()
             throws ConnectionException, UnknownException {
+        try {
+            return getServiceInfo(0);
+        } catch (final TimeoutException e) {
+            // this should not happen without a timeout
+            throw new InternalError();
+        }
+    }
+
+    /**
+     * Gets some information about the Scalaris ring.
+     *
+     * @param timeout
+     *            the maximum time (in milliseconds) to wait for the result
+     *            (<tt>0</tt> to wait forever)
+     *
+     * @return Scalaris ring information
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws TimeoutException
+     *             if no result was received within the given time
+     * @throws UnknownException
+     *             if any other error occurs
+     *
+     * @since 3.21
+     */
+    public GetServiceInfoResult getServiceInfo(final long timeout)
+            throws ConnectionException, TimeoutException, UnknownException {
         final OtpErlangObject received_raw = connection.doRPC("api_monitor", "get_service_info",
-                    new OtpErlangObject[] {});
+                    new OtpErlangObject[] {}, timeout);
         try {
             final OtpErlangList received = (OtpErlangList) received_raw;
             final Map<String, OtpErlangObject> result = new LinkedHashMap<String, OtpErlangObject>(
@@ -325,8 +415,38 @@ public class Monitor {
      */
     public GetServicePerformanceResult getServicePerformance()
             throws ConnectionException, UnknownException {
+        try {
+            return getServicePerformance(0);
+        } catch (final TimeoutException e) {
+            // this should not happen without a timeout
+            throw new InternalError();
+        }
+    }
+
+    /**
+     * Gets some information about the Scalaris ring.
+     *
+     * @param timeout
+     *            the maximum time (in milliseconds) to wait for the result
+     *            (<tt>0</tt> to wait forever)
+     *
+     * @return Scalaris ring information
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws TimeoutException
+     *             if no result was received within the given time
+     * @throws UnknownException
+     *             if any other error occurs
+     *
+     * @since 3.21
+     */
+    public GetServicePerformanceResult getServicePerformance(final long timeout)
+            throws ConnectionException, TimeoutException, UnknownException {
         final OtpErlangObject received_raw = connection.doRPC("api_monitor", "get_service_performance",
-                    new OtpErlangObject[] {});
+                    new OtpErlangObject[] {}, timeout);
         try {
             final OtpErlangList received = (OtpErlangList) received_raw;
             final Map<String, OtpErlangObject> result = new LinkedHashMap<String, OtpErlangObject>(
@@ -20,8 +20,11 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -33,8 +36,13 @@ import java.util.concurrent.TimeUnit;
  * then be added to the given {@link ConnectionFactory} where old nodes with
  * connection failures will be removed in favour of newly discovered nodes.
  *
+ * Alternatively, {@link #startAdaptive(long, long, TimeUnit)} runs the
+ * discovery more often while nodes are joining. New nodes are probed in
+ * parallel before being added and pooled connections are rebalanced across
+ * the new set of nodes.
+ *
  * @author Nico Kruber, kruber@zib.de
- * @version 3.16
+ * @version 3.21
  * @since 3.16
  */
 public class NodeDiscovery implements Runnable {
@@ -77,6 +85,12 @@ public class NodeDiscovery implements Runnable {
      */
     protected int minAgeToRemove = 60;
 
+    /**
+     * Maximum time in milliseconds to wait for probing new nodes and for new
+     * pooled connections to them.
+     */
+    protected long probeTimeout = 5000;
+
     /**
      * Constructor
      *
@@ -129,12 +143,63 @@ public class NodeDiscovery implements Runnable {
         ses.scheduleWithFixedDelay(this, initialDelay, delay, unit);
     }
 
+    /**
+     * Starts the node discovery service with an adaptive delay: while the set
+     * of nodes is changing, discovery runs every <tt>minDelay</tt>. Each run
+     * without any change doubles the delay up to <tt>maxDelay</tt>.
+     *
+     * @param minDelay
+     *            the delay between two runs while nodes are changing
+     * @param maxDelay
+     *            the maximum delay between two runs
+     * @param unit
+     *            the time unit of the minDelay and maxDelay parameters
+     *
+     * @since 3.21
+     */
+    public void startAdaptive(final long minDelay, final long maxDelay,
+            final TimeUnit unit) {
+        final ScheduledExecutorService ses = Executors.newScheduledThreadPool(1);
+        ses.schedule(new Runnable() {
+            private long delay = minDelay;
+
+            public void run() {
+                try {
+                    if (discover()) {
+                        delay = minDelay;
+                    } else {
+                        delay = Math.min(maxDelay, Math.max(1, delay * 2));
+                    }
+                } finally {
+                    ses.schedule(this, delay, unit);
+                }
+            }
+        }, 0, unit);
+    }
+
     /**
      * Executed a single call to a known Scalaris node asking for other known
      * nodes. These nodes will then be added to the {@link ConnectionFactory}
      * {@link #cf}.
+     *
+     * @see #discover()
      */
     public void run() {
+        discover();
+    }
+
+    /**
+     * Asks a known Scalaris node for other known nodes, probes them in
+     * parallel and adds the reachable ones to the {@link ConnectionFactory}
+     * {@link #cf}. If a {@link ConnectionPool} has been given, connections to
+     * removed nodes are closed and the remaining idle connections are spread
+     * across the new set of nodes (see {@link ConnectionPool#rebalance(long)}).
+     *
+     * @return whether the set of nodes has changed
+     *
+     * @since 3.21
+     */
+    public boolean discover() {
         try {
             final ScalarisVM vm = new ScalarisVM(cf.getConnectionPolicy().selectNode());
             final List<String> otherVms = vm.getOtherVMs(maxNodes);
@@ -153,18 +218,69 @@ public class NodeDiscovery implements Runnable {
                 }
             }
 
+            // only consider reachable nodes:
+            otherVms.retainAll(probeNodes(otherVms));
             if (otherVms.isEmpty()) {
                 // no new nodes found...
-                return;
+                return false;
             }
 
             final int remainingNodes = removeFailedNodes(existingNodes, otherVms);
             addNewNodes(existingNodes, otherVms, remainingNodes);
             if (cPool != null) {
                 cPool.closeAllBut(new HashSet<PeerNode>(existingNodes));
+                cPool.rebalance(probeTimeout);
             }
+            return true;
         } catch (final ConnectionException e) {
             e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Tries to connect to each of the given nodes in parallel.
+     *
+     * @param nodes
+     *            names of the nodes to probe
+     *
+     * @return the names of the nodes which could be connected to within
+     *         {@link #probeTimeout} milliseconds
+     *
+     * @since 3.21
+     */
+    protected Set<String> probeNodes(final List<String> nodes) {
+        final Set<String> reachable = Collections.synchronizedSet(new HashSet<String>());
+        if (nodes.isEmpty()) {
+            return reachable;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(nodes.size(), 32), new ThreadFactory() {
+                    public Thread newThread(final Runnable r) {
+                        final Thread t = new Thread(r, "NodeDiscovery probe");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        for (final String node : nodes) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        cf.createConnection(new FixedNodeConnectionPolicy(node)).close();
+                        reachable.add(node);
+                    } catch (final ConnectionException e) {
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(probeTimeout, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (reachable) {
+            return new HashSet<String>(reachable);
         }
     }
 
@@ -284,6 +400,31 @@ public class NodeDiscovery implements Runnable {
         this.minAgeToRemove = minAgeToRemove;
     }
 
+    /**
+     * Gets the maximum time in milliseconds to wait for probing new nodes and
+     * for new pooled connections to them.
+     *
+     * @return the probeTimeout member
+     *
+     * @since 3.21
+     */
+    public final long getProbeTimeout() {
+        return probeTimeout;
+    }
+
+    /**
+     * Sets the maximum time in milliseconds to wait for probing new nodes and
+     * for new pooled connections to them.
+     *
+     * @param probeTimeout
+     *            the probeTimeout to set
+     *
+     * @since 3.21
+     */
+    public final void setProbeTimeout(final long probeTimeout) {
+        this.probeTimeout = probeTimeout;
+    }
+
     /**
      * Gets the {@link ConnectionFactory} to work with.
      *
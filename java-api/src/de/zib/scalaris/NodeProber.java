@@ -0,0 +1,196 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.ericsson.otp.erlang.OtpErlangObject;
+
+/**
+ * Probes nodes whose circuit is open (see
+ * {@link DefaultConnectionPolicy#isCircuitOpen(PeerNode)}) in the background.
+ *
+ * When started with {@link #startWithFixedDelay(long)} or
+ * {@link #startWithFixedDelay(long, long, TimeUnit)}, periodically tries to
+ * connect to each of these nodes of the given {@link ConnectionFactory} and
+ * issues a cheap RPC (api_vm:get_version). If this succeeds, the successful
+ * connection is reported to the factory's connection policy which closes the
+ * node's circuit again. Thus, requests never pay for connection attempts to
+ * known-dead nodes.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.21
+ * @since 3.21
+ */
+public class NodeProber implements Runnable {
+    /**
+     * {@link ConnectionFactory} to work with.
+     */
+    protected final ConnectionFactory cf;
+
+    /**
+     * Maximum time (in milliseconds) to wait for the reply of a probe.
+     */
+    protected long probeTimeout = 1000;
+
+    /**
+     * Constructor
+     *
+     * @param cf
+     *            the {@link ConnectionFactory} whose nodes to probe (its
+     *            connection policy should be a {@link DefaultConnectionPolicy}
+     *            with an enabled circuit breaker)
+     */
+    public NodeProber(final ConnectionFactory cf) {
+        this.cf = cf;
+    }
+
+    /**
+     * Starts the prober at the given fixed delay.
+     *
+     * @param delay
+     *            the delay (in seconds) between the termination of one
+     *            execution and the commencement of the next
+     */
+    public void startWithFixedDelay(final long delay) {
+        startWithFixedDelay(0, delay, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Starts the prober at the given fixed delay.
+     *
+     * @param initialDelay
+     *            the time to delay first execution
+     * @param delay
+     *            the delay between the termination of one execution and the
+     *            commencement of the next
+     * @param unit
+     *            the time unit of the initialDelay and delay parameters
+     */
+    public void startWithFixedDelay(final long initialDelay,
+            final long delay,
+            final TimeUnit unit) {
+        final ScheduledExecutorService ses = Executors.newScheduledThreadPool(1);
+        ses.scheduleWithFixedDelay(this, initialDelay, delay, unit);
+    }
+
+    /**
+     * Probes all nodes of the {@link ConnectionFactory} {@link #cf} whose
+     * circuit is open.
+     */
+    public void run() {
+        final ConnectionPolicy policy = cf.getConnectionPolicy();
+        if (!(policy instanceof DefaultConnectionPolicy)) {
+            return;
+        }
+        final DefaultConnectionPolicy defaultPolicy = (DefaultConnectionPolicy) policy;
+        for (final PeerNode node : cf.getNodes()) {
+            if (defaultPolicy.isCircuitOpen(node) && probe(node, policy)) {
+                // half-open -> closed
+                policy.nodeConnectSuccess(node);
+            }
+        }
+    }
+
+    /**
+     * Connects to the given node and checks it with a cheap RPC.
+     *
+     * @param node
+     *            the node to probe
+     * @param policy
+     *            the policy to report failures to
+     *
+     * @return whether the node is alive
+     */
+    protected boolean probe(final PeerNode node, final ConnectionPolicy policy) {
+        Connection conn = null;
+        try {
+            conn = cf.createConnection(new ProbeConnectionPolicy(node, policy));
+            final OtpErlangObject version = conn.doRPC("api_vm", "get_version",
+                    new OtpErlangObject[] {}, probeTimeout);
+            new ErlangValue(version).stringValue();
+            return true;
+        } catch (final ConnectionException e) {
+            return false;
+        } catch (final TimeoutException e) {
+            return false;
+        } catch (final ClassCastException e) {
+            return false;
+        } finally {
+            if (conn != null) {
+                conn.close();
+            }
+        }
+    }
+
+    /**
+     * Gets the maximum time to wait for the reply of a probe.
+     *
+     * @return the timeout in milliseconds
+     */
+    public long getProbeTimeout() {
+        return probeTimeout;
+    }
+
+    /**
+     * Sets the maximum time to wait for the reply of a probe.
+     *
+     * @param probeTimeout
+     *            the timeout in milliseconds
+     */
+    public void setProbeTimeout(final long probeTimeout) {
+        this.probeTimeout = probeTimeout;
+    }
+
+    /**
+     * Connects to a single node without any re-connects. Failures are
+     * forwarded to another policy, a successful connection is not reported
+     * since the node still needs to answer the probe.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.21
+     * @since 3.21
+     */
+    private static class ProbeConnectionPolicy extends ConnectionPolicy {
+        private final ConnectionPolicy policy;
+
+        ProbeConnectionPolicy(final PeerNode node, final ConnectionPolicy policy) {
+            super(node);
+            this.policy = policy;
+        }
+
+        @Override
+        public void nodeFailed(final PeerNode node) {
+            policy.nodeFailed(node);
+        }
+
+        @Override
+        public void nodeConnectSuccess(final PeerNode node) {
+        }
+
+        @Override
+        public <E extends Exception> PeerNode selectNode(final int retry,
+                final PeerNode failedNode, final E e) throws E,
+                UnsupportedOperationException {
+            if (retry == 0) {
+                return availableRemoteNodes.get(0);
+            }
+            throw e;
+        }
+    }
+}
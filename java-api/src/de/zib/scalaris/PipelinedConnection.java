@@ -0,0 +1,730 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ericsson.otp.erlang.OtpAuthException;
+import com.ericsson.otp.erlang.OtpConnection;
+import com.ericsson.otp.erlang.OtpErlangAtom;
+import com.ericsson.otp.erlang.OtpErlangExit;
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangLong;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangTuple;
+import com.ericsson.otp.erlang.OtpSelf;
+
+/**
+ * Connection which allows multiple outstanding RPCs on a single
+ * {@link OtpConnection}.
+ *
+ * Instead of the strict request/response cycle of
+ * {@link Connection#doRPC(String, String, OtpErlangList)}, each request is sent
+ * to the remote <tt>rex</tt> server using the <tt>gen_server</tt> call
+ * protocol with a unique tag, i.e.
+ * <tt>{'$gen_call', {Self, Tag}, {call, Mod, Fun, Args, user}}</tt>. Replies
+ * (<tt>{Tag, Result}</tt>) may thus arrive in any order and are matched to
+ * their requests by this tag.
+ * {@link #doRPCAsync(String, String, OtpErlangList)} returns immediately with
+ * a {@link Future} for the result.
+ *
+ * There is no dedicated thread reading from the connection. Instead, a thread
+ * waiting for a result reads replies and hands them to the appropriate
+ * futures (possibly of other threads) until its own reply has arrived.
+ *
+ * Connection errors are handled by the {@link ConnectionPolicy} the same way
+ * as in {@link Connection}: the failed node is reported, a new node is
+ * selected and, after re-connecting, all outstanding requests are sent again.
+ * If the policy does not allow any more retries, all outstanding requests fail
+ * with a {@link ConnectionException}.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.21
+ * @since 3.21
+ */
+public class PipelinedConnection extends Connection {
+    private static final OtpErlangAtom genCallAtom = new OtpErlangAtom("$gen_call");
+    private static final OtpErlangAtom callAtom = new OtpErlangAtom("call");
+    private static final OtpErlangAtom userAtom = new OtpErlangAtom("user");
+    private static final String rexServer = "rex";
+    /**
+     * Maximum time (in milliseconds) the receiving thread blocks on the
+     * connection before checking whether its own request is done, e.g. after
+     * it has been cancelled or completed by a failover.
+     */
+    private static final long RECEIVE_SLICE_MS = 100;
+
+    /**
+     * Tag of the next request.
+     */
+    private final AtomicLong nextTag = new AtomicLong(0);
+    /**
+     * Outstanding requests by their tags (in the order they were sent).
+     */
+    protected final ConcurrentSkipListMap<Long, PendingRPC> pending =
+            new ConcurrentSkipListMap<Long, PendingRPC>();
+    /**
+     * Lock for sending requests and for replacing the {@link #connection}
+     * on failures.
+     */
+    protected final Object sendLock = new Object();
+    /**
+     * Monitor of threads waiting for results, guards {@link #receiving}.
+     */
+    private final Object receiveMonitor = new Object();
+    /**
+     * Whether a thread is currently reading replies from the connection.
+     */
+    private boolean receiving = false;
+
+    /**
+     * Creates a new connection using the given nodes and a default connection
+     * policy.
+     *
+     * Provided for convenience.
+     *
+     * @param self
+     *            the local node
+     * @param remote
+     *            the remote node to connect to
+     *
+     * @throws UnknownHostException
+     *             if the remote host could not be found
+     * @throws IOException
+     *             if it was not possible to connect to the remote node
+     * @throws OtpAuthException
+     *             if the connection was refused by the remote node
+     */
+    public PipelinedConnection(final OtpSelf self, final PeerNode remote)
+            throws UnknownHostException, IOException, OtpAuthException {
+        super(self, remote);
+    }
+
+    /**
+     * Creates a new connection between the a <tt>self</tt> node and one of the
+     * <tt>remoteNodes</tt>, selected by the <tt>connectionPolicy</tt>.
+     *
+     * @param self
+     *            the local node
+     * @param connectionPolicy
+     *            the connection policy to use
+     *
+     * @throws UnknownHostException
+     *             if the remote host could not be found
+     * @throws IOException
+     *             if it was not possible to connect to the remote node
+     * @throws OtpAuthException
+     *             if the connection was refused by the remote node
+     */
+    public PipelinedConnection(final OtpSelf self,
+            final ConnectionPolicy connectionPolicy)
+            throws UnknownHostException, IOException, OtpAuthException {
+        super(self, connectionPolicy);
+    }
+
+    /**
+     * Sends the given RPC and returns a future for its result.
+     *
+     * Communication errors are not thrown here but handed to the connection
+     * policy. If no more retries are allowed, the returned future fails with
+     * a {@link ConnectionException}.
+     *
+     * @param mod
+     *            the module of the function to call
+     * @param fun
+     *            the function to call
+     * @param args
+     *            the function's arguments
+     *
+     * @return the (future) result of the call
+     */
+    public Future<OtpErlangObject> doRPCAsync(final String mod,
+            final String fun, final OtpErlangList args) {
+        final long tag = nextTag.getAndIncrement();
+        final PendingRPC rpc = new PendingRPC(tag, mod, fun, args);
+        OtpConnection conn;
+        boolean isConnected;
+        IOException error;
+        synchronized (sendLock) {
+            // register and send atomically - a failover (holding the lock)
+            // re-sends all pending requests and must not see unsent ones
+            pending.put(tag, rpc);
+            conn = connection;
+            isConnected = conn.isConnected();
+            try {
+                conn.send(rexServer, rpc.request);
+                return rpc;
+            } catch (final IOException e) {
+                error = e;
+            }
+        }
+        try {
+            // don't count RPC requests on closed connections as a failing node:
+            failover(conn, error, isConnected);
+        } catch (final ConnectionException e) {
+            // the future has failed with this exception
+        }
+        return rpc;
+    }
+
+    /**
+     * Sends the given RPC and returns a future for its result.
+     *
+     * Provided for convenience.
+     *
+     * @param mod
+     *            the module of the function to call
+     * @param fun
+     *            the function to call
+     * @param args
+     *            the function's arguments
+     *
+     * @return the (future) result of the call
+     */
+    public Future<OtpErlangObject> doRPCAsync(final String mod,
+            final String fun, final OtpErlangObject[] args) {
+        return doRPCAsync(mod, fun, new OtpErlangList(args));
+    }
+
+    /**
+     * Sends the given RPC and waits for a result.
+     *
+     * Other RPCs may be outstanding on this connection at the same time.
+     *
+     * @param mod
+     *            the module of the function to call
+     * @param fun
+     *            the function to call
+     * @param args
+     *            the function's arguments
+     *
+     * @return the result of the call
+     *
+     * @throws ConnectionException
+     *             if the connection is not active, a communication error
+     *             occurs, an exit signal is received from a process on the
+     *             peer node, the remote node sends a message containing an
+     *             invalid cookie or the current thread was interrupted
+     */
+    @Override
+    public OtpErlangObject doRPC(final String mod, final String fun,
+            final OtpErlangList args) throws ConnectionException {
+        return getResult(doRPCAsync(mod, fun, args));
+    }
+
+    /**
+     * Sends the given RPC and waits at most <tt>timeout</tt> milliseconds for
+     * a result.
+     *
+     * Other RPCs may be outstanding on this connection at the same time. On
+     * timeout, the request is cancelled, i.e. a late reply will be dropped,
+     * but the connection stays open for the other requests.
+     *
+     * @param mod
+     *            the module of the function to call
+     * @param fun
+     *            the function to call
+     * @param args
+     *            the function's arguments
+     * @param timeout
+     *            the maximum time (in milliseconds) to wait for the result
+     *            (<tt>0</tt> to wait forever)
+     *
+     * @return the result of the call
+     *
+     * @throws ConnectionException
+     *             if the connection is not active, a communication error
+     *             occurs, an exit signal is received from a process on the
+     *             peer node, the remote node sends a message containing an
+     *             invalid cookie or the current thread was interrupted
+     * @throws TimeoutException
+     *             if no result was received within the given time
+     */
+    @Override
+    public OtpErlangObject doRPC(final String mod, final String fun,
+            final OtpErlangList args, final long timeout)
+            throws ConnectionException, TimeoutException {
+        if (timeout <= 0) {
+            return doRPC(mod, fun, args);
+        }
+        final Future<OtpErlangObject> future = doRPCAsync(mod, fun, args);
+        try {
+            future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (final java.util.concurrent.TimeoutException e) {
+            future.cancel(false);
+            throw new TimeoutException("no reply from " + remote + " within "
+                    + timeout + "ms");
+        } catch (final InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new ConnectionException(e);
+        } catch (final ExecutionException e) {
+            // handled by getResult() below
+        } catch (final CancellationException e) {
+            // handled by getResult() below
+        }
+        // the future is done now:
+        return getResult(future);
+    }
+
+    /**
+     * Sends the given RPC and returns immediately.
+     *
+     * The reply will be discarded.
+     *
+     * @param mod
+     *            the module of the function to call
+     * @param fun
+     *            the function to call
+     * @param args
+     *            the function's arguments
+     *
+     * @throws ConnectionException
+     *             if the connection is not active, a communication error
+     *             occurs, an exit signal is received from a process on the
+     *             peer node or the remote node sends a message containing an
+     *             invalid cookie
+     */
+    @Override
+    public void sendRPC(final String mod, final String fun,
+            final OtpErlangList args) throws ConnectionException {
+        // plain rex request - replies ({rex, Result}) are dropped by dispatch()
+        final OtpErlangTuple request = new OtpErlangTuple(new OtpErlangObject[] {
+                self.pid(), createCall(mod, fun, args) });
+        while (true) {
+            OtpConnection conn;
+            IOException error;
+            synchronized (sendLock) {
+                conn = connection;
+                try {
+                    conn.send(rexServer, request);
+                    return;
+                } catch (final IOException e) {
+                    error = e;
+                }
+            }
+            failover(conn, error, true);
+        }
+    }
+
+    /**
+     * Waits for the result of the given future and converts any error to a
+     * {@link ConnectionException}.
+     *
+     * @param future
+     *            a future as returned by
+     *            {@link #doRPCAsync(String, String, OtpErlangList)}
+     *
+     * @return the result of the call
+     *
+     * @throws ConnectionException
+     *             if the RPC failed or the current thread was interrupted
+     */
+    public static OtpErlangObject getResult(final Future<OtpErlangObject> future)
+            throws ConnectionException {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new ConnectionException(e);
+        } catch (final CancellationException e) {
+            throw new ConnectionException(e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof ConnectionException) {
+                throw (ConnectionException) e.getCause();
+            }
+            throw new ConnectionException(e.getCause());
+        }
+    }
+
+    /**
+     * Gets the number of requests waiting for a reply.
+     *
+     * @return number of outstanding requests
+     */
+    public int getPendingRequests() {
+        return pending.size();
+    }
+
+    /**
+     * Closes the connection to the remote node. All outstanding requests
+     * fail with a {@link ConnectionException}.
+     */
+    @Override
+    public void close() {
+        synchronized (sendLock) {
+            super.close();
+        }
+        failAll(new ConnectionException("connection closed"));
+    }
+
+    /**
+     * Creates the <tt>{call, Mod, Fun, Args, user}</tt> tuple the
+     * <tt>rex</tt> server expects.
+     */
+    private static OtpErlangTuple createCall(final String mod,
+            final String fun, final OtpErlangList args) {
+        return new OtpErlangTuple(new OtpErlangObject[] { callAtom,
+                new OtpErlangAtom(mod), new OtpErlangAtom(fun), args, userAtom });
+    }
+
+    /**
+     * Waits until the given request is done, reading replies from the
+     * connection if no other thread is doing so.
+     *
+     * @param rpc
+     *            the request to wait for
+     * @param timeoutNanos
+     *            maximum time to wait (a negative value waits forever)
+     *
+     * @throws InterruptedException
+     *             if the current thread was interrupted
+     * @throws java.util.concurrent.TimeoutException
+     *             if the timeout expired
+     */
+    protected void awaitResult(final PendingRPC rpc, final long timeoutNanos)
+            throws InterruptedException, java.util.concurrent.TimeoutException {
+        final long deadline = System.nanoTime() + timeoutNanos;
+        while (!rpc.isDone()) {
+            synchronized (receiveMonitor) {
+                while (receiving && !rpc.isDone()) {
+                    if (timeoutNanos < 0) {
+                        receiveMonitor.wait();
+                    } else {
+                        final long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            throw new java.util.concurrent.TimeoutException();
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(receiveMonitor, remaining);
+                    }
+                }
+                if (rpc.isDone()) {
+                    return;
+                }
+                receiving = true;
+            }
+            try {
+                // receive in bounded slices so that the receiver role is
+                // handed over once this request is done, even if no more
+                // messages arrive
+                while (!rpc.isDone()) {
+                    long timeoutMs = RECEIVE_SLICE_MS;
+                    if (timeoutNanos >= 0) {
+                        final long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            throw new java.util.concurrent.TimeoutException();
+                        }
+                        timeoutMs = Math.min(timeoutMs,
+                                Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+                    }
+                    try {
+                        receiveReply(timeoutMs);
+                    } catch (final java.util.concurrent.TimeoutException e) {
+                        // slice expired -> re-check the request (and deadline)
+                    }
+                }
+            } finally {
+                synchronized (receiveMonitor) {
+                    receiving = false;
+                    receiveMonitor.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a single message from the connection and dispatches it.
+     *
+     * @param timeoutMs
+     *            maximum time to wait for a message (<tt>0</tt> to wait
+     *            forever)
+     *
+     * @throws InterruptedException
+     *             if the current thread was interrupted
+     * @throws java.util.concurrent.TimeoutException
+     *             if no message arrived within the timeout
+     */
+    protected void receiveReply(final long timeoutMs) throws InterruptedException,
+            java.util.concurrent.TimeoutException {
+        final OtpConnection conn;
+        synchronized (sendLock) {
+            conn = connection;
+        }
+        OtpErlangObject msg;
+        Exception error;
+        try {
+            if (timeoutMs > 0) {
+                try {
+                    msg = conn.receive(timeoutMs);
+                } catch (final InterruptedException e) {
+                    // OtpConnection signals a timeout with this exception
+                    if (Thread.interrupted()) {
+                        throw e;
+                    }
+                    throw new java.util.concurrent.TimeoutException();
+                }
+            } else {
+                msg = conn.receive();
+            }
+            if (msg != null) {
+                dispatch(msg);
+                return;
+            }
+            error = new IOException("connection closed");
+        } catch (final OtpErlangExit e) {
+            error = e;
+        } catch (final OtpAuthException e) {
+            error = e;
+        } catch (final IOException e) {
+            error = e;
+        }
+        if (pending.isEmpty()) {
+            // nothing to re-send - re-connect with the next request
+            return;
+        }
+        try {
+            failover(conn, error, true);
+        } catch (final ConnectionException e) {
+            // all pending requests have failed with this exception
+        }
+    }
+
+    /**
+     * Hands a reply to the request with the matching tag. Messages without a
+     * matching request, e.g. replies to cancelled requests, are dropped.
+     *
+     * @param msg
+     *            the received message
+     */
+    protected void dispatch(final OtpErlangObject msg) {
+        // expected reply: {Tag, Result}
+        if (msg instanceof OtpErlangTuple) {
+            final OtpErlangTuple reply = (OtpErlangTuple) msg;
+            if (reply.arity() == 2 && reply.elementAt(0) instanceof OtpErlangLong) {
+                final long tag = ((OtpErlangLong) reply.elementAt(0)).longValue();
+                final PendingRPC rpc = pending.remove(tag);
+                if (rpc != null && rpc.complete(reply.elementAt(1), null, false)) {
+                    notifyWaiters();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reports the failed connection to the {@link #connectionPolicy},
+     * re-connects to the node it selects and re-sends all outstanding
+     * requests. Does nothing if the connection has already been replaced.
+     *
+     * @param failed
+     *            the connection the error occurred on
+     * @param e
+     *            the error
+     * @param nodeFailed
+     *            whether to report the {@link #remote} node as failed
+     *
+     * @throws ConnectionException
+     *             if the connection policy does not allow any more retries
+     *             (all outstanding requests fail with this exception, too)
+     */
+    protected void failover(final OtpConnection failed, final Exception e,
+            boolean nodeFailed) throws ConnectionException {
+        synchronized (sendLock) {
+            if (failed != connection) {
+                return;
+            }
+            Exception lastError = e;
+            int retry = 0;
+            while (true) {
+                if (nodeFailed) {
+                    connectionPolicy.nodeFailed(remote);
+                }
+                try {
+                    remote = connectionPolicy.selectNode(++retry, remote, lastError);
+                    // reconnect (and then re-send) if no exception was thrown:
+                    reconnect();
+                } catch (final Exception e1) {
+                    final ConnectionException ce = new ConnectionException(e1);
+                    failAll(ce);
+                    throw ce;
+                }
+                try {
+                    for (final PendingRPC rpc : pending.values()) {
+                        connection.send(rexServer, rpc.request);
+                    }
+                    return;
+                } catch (final IOException e1) {
+                    lastError = e1;
+                    nodeFailed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Lets all outstanding requests fail with the given exception.
+     *
+     * @param e
+     *            the exception to fail with
+     */
+    protected void failAll(final ConnectionException e) {
+        boolean notify = false;
+        while (!pending.isEmpty()) {
+            final java.util.Map.Entry<Long, PendingRPC> entry = pending.pollFirstEntry();
+            if (entry != null) {
+                notify |= entry.getValue().complete(null, e, false);
+            }
+        }
+        if (notify) {
+            notifyWaiters();
+        }
+    }
+
+    private void notifyWaiters() {
+        synchronized (receiveMonitor) {
+            receiveMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * An outstanding RPC and its (future) result.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.21
+     * @since 3.21
+     */
+    protected class PendingRPC implements Future<OtpErlangObject> {
+        /**
+         * The tag identifying the request and its reply.
+         */
+        final long tag;
+        /**
+         * The message to send to the <tt>rex</tt> server.
+         */
+        final OtpErlangTuple request;
+        /**
+         * The node the request has been sent to (first).
+         */
+        final PeerNode node;
+        /**
+         * Time the request has been created at (see {@link System#nanoTime()}).
+         */
+        final long start;
+        private OtpErlangObject result = null;
+        private ConnectionException error = null;
+        private boolean cancelled = false;
+        private boolean done = false;
+
+        /**
+         * Creates a new request.
+         *
+         * @param tag
+         *            the tag identifying the request
+         * @param mod
+         *            the module of the function to call
+         * @param fun
+         *            the function to call
+         * @param args
+         *            the function's arguments
+         */
+        PendingRPC(final long tag, final String mod, final String fun,
+                final OtpErlangList args) {
+            this.tag = tag;
+            final OtpErlangTuple from = new OtpErlangTuple(new OtpErlangObject[] {
+                    self.pid(), new OtpErlangLong(tag) });
+            this.request = new OtpErlangTuple(new OtpErlangObject[] {
+                    genCallAtom, from, createCall(mod, fun, args) });
+            this.node = remote;
+            this.start = System.nanoTime();
+            connectionPolicy.nodeRequestStarted(node);
+        }
+
+        /**
+         * Sets the result of the request (if it is not done yet).
+         *
+         * @return <tt>true</tt> if the request has been completed by this
+         *         call, <tt>false</tt> if it was done before
+         */
+        boolean complete(final OtpErlangObject result,
+                final ConnectionException error, final boolean cancelled) {
+            synchronized (this) {
+                if (done) {
+                    return false;
+                }
+                this.result = result;
+                this.error = error;
+                this.cancelled = cancelled;
+                this.done = true;
+                notifyAll();
+            }
+            connectionPolicy.nodeRequestFinished(node, System.nanoTime() - start,
+                    result != null);
+            return true;
+        }
+
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            pending.remove(tag);
+            if (complete(null, null, true)) {
+                notifyWaiters();
+                return true;
+            }
+            return false;
+        }
+
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        public synchronized boolean isDone() {
+            return done;
+        }
+
+        public OtpErlangObject get() throws InterruptedException,
+                ExecutionException {
+            try {
+                awaitResult(this, -1);
+            } catch (final java.util.concurrent.TimeoutException e) {
+                // this should not happen without a timeout
+                throw new InternalError();
+            }
+            return getNow();
+        }
+
+        public OtpErlangObject get(final long timeout, final TimeUnit unit)
+                throws InterruptedException, ExecutionException,
+                java.util.concurrent.TimeoutException {
+            awaitResult(this, Math.max(0, unit.toNanos(timeout)));
+            return getNow();
+        }
+
+        private synchronized OtpErlangObject getNow() throws ExecutionException {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            if (error != null) {
+                throw new ExecutionException(error);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+/**
+ * Implements a {@link ConnectionPolicy} which initially connects to a given
+ * node and uses another connection policy for any re-connect.
+ *
+ * All notifications are forwarded to the other policy.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.21
+ * @since 3.21
+ *
+ * @see FixedNodeConnectionPolicy
+ */
+public class PreferredNodeConnectionPolicy extends ConnectionPolicy {
+    /**
+     * The policy to use for re-connects.
+     */
+    protected final ConnectionPolicy fallback;
+
+    /**
+     * Creates a new connection policy preferring the given remote node.
+     *
+     * @param preferredNode
+     *            the node to connect to first
+     * @param fallback
+     *            the policy to select nodes with on failures
+     */
+    public PreferredNodeConnectionPolicy(final PeerNode preferredNode,
+            final ConnectionPolicy fallback) {
+        super(preferredNode);
+        this.fallback = fallback;
+    }
+
+    @Override
+    public void availableNodeAdded(final PeerNode newNode) {
+        fallback.availableNodeAdded(newNode);
+    }
+
+    @Override
+    public void availableNodeRemoved(final PeerNode removedNode) {
+        fallback.availableNodeRemoved(removedNode);
+    }
+
+    @Override
+    public void availableNodesReset() {
+        fallback.availableNodesReset();
+    }
+
+    @Override
+    public void nodeFailed(final PeerNode node) {
+        fallback.nodeFailed(node);
+    }
+
+    @Override
+    public void nodeFailReset(final PeerNode node) {
+        fallback.nodeFailReset(node);
+    }
+
+    @Override
+    public void nodeConnectSuccess(final PeerNode node) {
+        fallback.nodeConnectSuccess(node);
+    }
+
+    @Override
+    public void nodeRequestStarted(final PeerNode node) {
+        fallback.nodeRequestStarted(node);
+    }
+
+    @Override
+    public void nodeRequestFinished(final PeerNode node, final long latency,
+            final boolean success) {
+        fallback.nodeRequestFinished(node, latency, success);
+    }
+
+    /**
+     * Selects the preferred node for the initial connect, otherwise lets the
+     * fallback policy decide.
+     */
+    @Override
+    public <E extends Exception> PeerNode selectNode(final int retry,
+            final PeerNode failedNode, final E e) throws E, UnsupportedOperationException {
+        if (retry == 0 && e == null) {
+            return availableRemoteNodes.get(0);
+        }
+        return fallback.selectNode(retry, failedNode, e);
+    }
+}
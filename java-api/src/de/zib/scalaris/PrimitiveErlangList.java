@@ -0,0 +1,248 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.util.Arrays;
+
+import com.ericsson.otp.erlang.OtpErlangBinary;
+import com.ericsson.otp.erlang.OtpErlangDouble;
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangLong;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpOutputStream;
+
+/**
+ * An Erlang list of integers, floats or binaries backed by a Java array.
+ *
+ * Encoding this object writes the elements directly, i.e. without creating
+ * an {@link OtpErlangLong}, {@link OtpErlangDouble} or
+ * {@link OtpErlangBinary} object per element. An equivalent
+ * {@link OtpErlangList} is only created by {@link #toList()}.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.21
+ * @since 3.21
+ */
+public class PrimitiveErlangList extends OtpErlangObject {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The elements if this is a list of integers (otherwise <tt>null</tt>).
+     */
+    private final long[] longs;
+
+    /**
+     * The elements if this is a list of floats (otherwise <tt>null</tt>).
+     */
+    private final double[] doubles;
+
+    /**
+     * The elements if this is a list of binaries (otherwise <tt>null</tt>).
+     */
+    private final byte[][] binaries;
+
+    /**
+     * Creates a list of integers.
+     *
+     * @param values
+     *            the elements (will not be copied!)
+     */
+    public PrimitiveErlangList(final long[] values) {
+        this.longs = values;
+        this.doubles = null;
+        this.binaries = null;
+    }
+
+    /**
+     * Creates a list of integers.
+     *
+     * @param values
+     *            the elements
+     */
+    public PrimitiveErlangList(final int[] values) {
+        this.longs = new long[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            this.longs[i] = values[i];
+        }
+        this.doubles = null;
+        this.binaries = null;
+    }
+
+    /**
+     * Creates a list of floats.
+     *
+     * @param values
+     *            the elements (will not be copied!)
+     */
+    public PrimitiveErlangList(final double[] values) {
+        this.longs = null;
+        this.doubles = values;
+        this.binaries = null;
+    }
+
+    /**
+     * Creates a list of binaries.
+     *
+     * @param values
+     *            the elements (will not be copied!)
+     */
+    public PrimitiveErlangList(final byte[][] values) {
+        this.longs = null;
+        this.doubles = null;
+        this.binaries = values;
+    }
+
+    /**
+     * Gets the number of elements.
+     *
+     * @return the length of the list
+     */
+    public int arity() {
+        if (longs != null) {
+            return longs.length;
+        } else if (doubles != null) {
+            return doubles.length;
+        } else {
+            return binaries.length;
+        }
+    }
+
+    /**
+     * Gets a copy of the elements as <tt>long</tt> values.
+     *
+     * @return the elements
+     *
+     * @throws ClassCastException
+     *             if this is not a list of integers
+     */
+    public long[] longArrayValue() throws ClassCastException {
+        if (longs == null) {
+            throw new ClassCastException("not a list of integers");
+        }
+        return longs.clone();
+    }
+
+    /**
+     * Gets a copy of the elements as <tt>double</tt> values.
+     *
+     * @return the elements
+     *
+     * @throws ClassCastException
+     *             if this is not a list of floats
+     */
+    public double[] doubleArrayValue() throws ClassCastException {
+        if (doubles == null) {
+            throw new ClassCastException("not a list of floats");
+        }
+        return doubles.clone();
+    }
+
+    /**
+     * Gets a (shallow) copy of the elements as <tt>byte[]</tt> values.
+     *
+     * @return the elements
+     *
+     * @throws ClassCastException
+     *             if this is not a list of binaries
+     */
+    public byte[][] binaryArrayValue() throws ClassCastException {
+        if (binaries == null) {
+            throw new ClassCastException("not a list of binaries");
+        }
+        return binaries.clone();
+    }
+
+    /**
+     * Converts this object to an {@link OtpErlangList} (creates an object for
+     * each element).
+     *
+     * @return an equivalent list
+     */
+    public OtpErlangList toList() {
+        final OtpErlangObject[] elems = new OtpErlangObject[arity()];
+        if (longs != null) {
+            for (int i = 0; i < longs.length; ++i) {
+                elems[i] = new OtpErlangLong(longs[i]);
+            }
+        } else if (doubles != null) {
+            for (int i = 0; i < doubles.length; ++i) {
+                elems[i] = new OtpErlangDouble(doubles[i]);
+            }
+        } else {
+            for (int i = 0; i < binaries.length; ++i) {
+                elems[i] = new OtpErlangBinary(binaries[i]);
+            }
+        }
+        return new OtpErlangList(elems);
+    }
+
+    @Override
+    public void encode(final OtpOutputStream buf) {
+        final int arity = arity();
+        if (arity > 0) {
+            buf.write_list_head(arity);
+            if (longs != null) {
+                for (final long l : longs) {
+                    buf.write_long(l);
+                }
+            } else if (doubles != null) {
+                for (final double d : doubles) {
+                    buf.write_double(d);
+                }
+            } else {
+                for (final byte[] b : binaries) {
+                    buf.write_binary(b);
+                }
+            }
+        }
+        buf.write_nil();
+    }
+
+    /**
+     * Compares this list with another {@link PrimitiveErlangList} or an
+     * {@link OtpErlangList}.
+     *
+     * @param o
+     *            the object to compare to
+     *
+     * @return <tt>true</tt> if both lists contain the same elements
+     */
+    @Override
+    public boolean equals(final Object o) {
+        // note: not equal to an OtpErlangList with the same elements since
+        // equals() needs to be symmetric (see ErlangValue#equals(Object))
+        if (o instanceof PrimitiveErlangList) {
+            final PrimitiveErlangList other = (PrimitiveErlangList) o;
+            if (arity() == 0 && other.arity() == 0) {
+                return true;
+            }
+            return Arrays.equals(longs, other.longs)
+                    && Arrays.equals(doubles, other.doubles)
+                    && Arrays.deepEquals(binaries, other.binaries);
+        }
+        return false;
+    }
+
+    @Override
+    protected int doHashCode() {
+        return toList().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return toList().toString();
+    }
+}
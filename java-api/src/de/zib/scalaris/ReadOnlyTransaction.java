@@ -0,0 +1,297 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangString;
+import com.ericsson.otp.erlang.OtpErlangTuple;
+
+import de.zib.scalaris.operations.ReadOp;
+
+/**
+ * Reads several keys at once without keeping a transaction log.
+ *
+ * In contrast to {@link Transaction}, this class never stores or re-sends a
+ * transaction log. All keys of a {@link #readMany(Collection)} call are read
+ * in a single request (<tt>api_tx:req_list/1</tt>) so that only one
+ * round-trip is needed.
+ *
+ * Note: each read is a quorum read, i.e. returns the latest committed value.
+ * By default, the reads are not validated by a commit, i.e. a transaction
+ * which commits while the request is being executed may be visible to some
+ * of the keys only. With {@link #setValidated(boolean)}, a commit is
+ * appended to the same request which validates the reads as a consistent
+ * snapshot (and fails with an {@link AbortException} otherwise) - still in a
+ * single round-trip.
+ *
+ * <h3>Example:</h3>
+ * <pre>
+ * <code style="white-space:pre;">
+ *   ReadOnlyTransaction tx = new ReadOnlyTransaction(conn);
+ *   BulkResult&lt;ErlangValue&gt; result = tx.readMany(keys);
+ *   for (Map.Entry&lt;String, ErlangValue&gt; entry : result.getValues().entrySet()) {
+ *       ...
+ *   }
+ * </code>
+ * </pre>
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.21
+ * @since 3.21
+ */
+public class ReadOnlyTransaction {
+    /**
+     * Connection to a Scalaris node.
+     */
+    protected final Connection connection;
+
+    /**
+     * Whether to compress the transfer of values or not.
+     */
+    protected boolean compressed = true;
+
+    /**
+     * Whether to validate the reads with a commit or not.
+     */
+    protected boolean validated = false;
+
+    /**
+     * Constructor, uses the default connection returned by
+     * {@link ConnectionFactory#createConnection()}.
+     *
+     * @throws ConnectionException
+     *             if the connection fails
+     */
+    public ReadOnlyTransaction() throws ConnectionException {
+        connection = ConnectionFactory.getInstance().createConnection();
+    }
+
+    /**
+     * Constructor, uses the given connection to an erlang node.
+     *
+     * @param conn
+     *            connection to use for the transaction
+     */
+    public ReadOnlyTransaction(final Connection conn) {
+        connection = conn;
+    }
+
+    /**
+     * Gets the value stored under the given <code>key</code>.
+     *
+     * @param key
+     *            the key to look up
+     *
+     * @return the value stored under the given <code>key</code>
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws NotFoundException
+     *             if the requested key does not exist
+     * @throws AbortException
+     *             if the read could not be validated (only if
+     *             {@link #isValidated()})
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    public ErlangValue read(final OtpErlangString key)
+            throws ConnectionException, NotFoundException, AbortException,
+            UnknownException {
+        final ReadOp op = new ReadOp(key);
+        final Transaction.RequestList req = new Transaction.RequestList();
+        req.addOp(op);
+        execute(req);
+        return op.processResult();
+    }
+
+    /**
+     * Gets the value stored under the given <code>key</code>.
+     *
+     * @param key
+     *            the key to look up
+     *
+     * @return the value stored under the given <code>key</code>
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws NotFoundException
+     *             if the requested key does not exist
+     * @throws AbortException
+     *             if the read could not be validated (only if
+     *             {@link #isValidated()})
+     * @throws UnknownException
+     *             if any other error occurs
+     *
+     * @see #read(OtpErlangString)
+     */
+    public ErlangValue read(final String key) throws ConnectionException,
+            NotFoundException, AbortException, UnknownException {
+        return read(new OtpErlangString(key));
+    }
+
+    /**
+     * Reads the values of all given keys in a single request.
+     *
+     * Errors are reported per key, e.g. a {@link NotFoundException} for a
+     * non-existing key or a {@link ConnectionException} for all keys if the
+     * request could not be sent. If the reads are validated and the
+     * validation fails, an {@link AbortException} is reported for all keys.
+     *
+     * @param keys
+     *            the keys to read
+     *
+     * @return the values and errors of all keys
+     */
+    public BulkResult<ErlangValue> readMany(final Collection<String> keys) {
+        final BulkResult<ErlangValue> result = new BulkResult<ErlangValue>();
+        final List<ReadOp> ops = new ArrayList<ReadOp>(keys.size());
+        final Transaction.RequestList req = new Transaction.RequestList();
+        for (final String key : new LinkedHashSet<String>(keys)) {
+            final ReadOp op = new ReadOp(key);
+            ops.add(op);
+            req.addOp(op);
+        }
+        if (ops.isEmpty()) {
+            return result;
+        }
+        try {
+            execute(req);
+            BulkResult.addReads(result, ops);
+        } catch (final ConnectionException e) {
+            result.addErrors(ops, e);
+        } catch (final AbortException e) {
+            result.addErrors(ops, e);
+        } catch (final UnknownException e) {
+            result.addErrors(ops, e);
+        }
+        return result;
+    }
+
+    /**
+     * Sends the given read requests (followed by a commit if
+     * {@link #validated}) and assigns the results to the operations. The
+     * returned transaction log is ignored.
+     *
+     * @param req
+     *            the request list (only reads)
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws AbortException
+     *             if the commit validating the reads failed
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    private void execute(final Transaction.RequestList req)
+            throws ConnectionException, AbortException, UnknownException {
+        if (validated) {
+            req.addCommit();
+        }
+        final OtpErlangObject received_raw = connection.doRPC(module(),
+                "req_list",
+                new OtpErlangObject[] { req.getErlangReqList(compressed) });
+        try {
+            /*
+             * possible return values:
+             *  {tx_tlog:tlog(), [{ok, Value} | {fail, not_found} | CommitResult]}
+             */
+            final OtpErlangTuple received = (OtpErlangTuple) received_raw;
+            if (received.arity() == 2) {
+                new Transaction.ResultList(
+                        (OtpErlangList) received.elementAt(1), compressed, req);
+                if (req.isCommit()) {
+                    req.getCommit().processResult();
+                }
+                return;
+            }
+            throw new UnknownException(received_raw);
+        } catch (final ClassCastException e) {
+            // e.printStackTrace();
+            throw new UnknownException(e, received_raw);
+        }
+    }
+
+    /**
+     * Gets the name of the module to call.
+     *
+     * @return the erlang module
+     */
+    protected String module() {
+        return compressed ? "api_txc" : "api_tx";
+    }
+
+    /**
+     * Closes the transaction's connection to a scalaris node.
+     *
+     * Note: Subsequent calls to the other methods will throw
+     * {@link ConnectionException}s!
+     */
+    public void closeConnection() {
+        connection.close();
+    }
+
+    /**
+     * Checks whether the transfer of values is compressed or not.
+     *
+     * @return <tt>true</tt> if compressed, otherwise <tt>false</tt>
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Sets whether to compress the transfer of values or not.
+     *
+     * @param compressed
+     *            <tt>true</tt> if compressed, otherwise <tt>false</tt>
+     */
+    public void setCompressed(final boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    /**
+     * Checks whether the reads are validated by a commit or not.
+     *
+     * @return <tt>true</tt> if validated, otherwise <tt>false</tt>
+     */
+    public boolean isValidated() {
+        return validated;
+    }
+
+    /**
+     * Sets whether to validate the reads by a commit in the same request or
+     * not. Validated reads form a consistent snapshot of all keys read by
+     * one request but are more expensive for the Scalaris nodes.
+     *
+     * @param validated
+     *            <tt>true</tt> if validated, otherwise <tt>false</tt>
+     */
+    public void setValidated(final boolean validated) {
+        this.validated = validated;
+    }
+}
@@ -59,7 +59,7 @@ import com.ericsson.otp.erlang.OtpErlangTuple;
  * number of automatic retries is adjustable (default: 3).
  *
  * @author Nico Kruber, kruber@zib.de
- * @version 3.19
+ * @version 3.21
  * @since 2.6
  */
 public class ReplicatedDHT {
@@ -75,6 +75,12 @@ public class ReplicatedDHT {
      */
     private final Connection connection;
 
+    /**
+     * Time (in milliseconds) to wait for the result of a delete in addition
+     * to its timeout before the RPC is considered as failed.
+     */
+    private static final long DELETE_RPC_GRACE_TIME = 1000;
+
     /**
      * Constructor, uses the default connection returned by
      * {@link ConnectionFactory#createConnection()}.
@@ -117,7 +123,8 @@ public class ReplicatedDHT {
      *             occurs or an exit signal was received or the remote node
      *             sends a message containing an invalid cookie
      * @throws TimeoutException
-     *             if a timeout occurred while trying to delete the value
+     *             if a timeout occurred while trying to delete the value or
+     *             no reply was received from the node
      * @throws UnknownException
      *             if any other error occurs
      *
@@ -140,7 +147,9 @@ public class ReplicatedDHT {
      * @param key
      *            the key to delete
      * @param timeout
-     *            the time (in milliseconds) to wait for results
+     *            the time (in milliseconds) to wait for results (the RPC
+     *            itself is aborted if there is no reply shortly after this
+     *            time)
      *
      * @return a delete result object
      *
@@ -149,7 +158,8 @@ public class ReplicatedDHT {
      *             occurs or an exit signal was received or the remote node
      *             sends a message containing an invalid cookie
      * @throws TimeoutException
-     *             if a timeout occurred while trying to delete the value
+     *             if a timeout occurred while trying to delete the value or
+     *             no reply was received from the node
      * @throws UnknownException
      *             if any other error occurs
      *
@@ -158,8 +168,10 @@ public class ReplicatedDHT {
     public DeleteResult delete(final OtpErlangString key, final int timeout) throws ConnectionException,
     TimeoutException, UnknownException {
         lastDeleteResult = null;
+        // give the node some time to report partial results on timeouts
         final OtpErlangObject received_raw = connection.doRPC("api_rdht", "delete",
-                new OtpErlangObject[] { key, new OtpErlangInt(timeout) });
+                new OtpErlangObject[] { key, new OtpErlangInt(timeout) },
+                (long) timeout + DELETE_RPC_GRACE_TIME);
         try {
             final OtpErlangTuple received = (OtpErlangTuple) received_raw;
             final OtpErlangAtom state = (OtpErlangAtom) received.elementAt(0);
@@ -213,7 +225,8 @@ public class ReplicatedDHT {
      *             occurs or an exit signal was received or the remote node
      *             sends a message containing an invalid cookie
      * @throws TimeoutException
-     *             if a timeout occurred while trying to delete the value
+     *             if a timeout occurred while trying to delete the value or
+     *             no reply was received from the node
      * @throws UnknownException
      *             if any other error occurs
      *
@@ -236,7 +249,9 @@ public class ReplicatedDHT {
      * @param key
      *            the key to delete
      * @param timeout
-     *            the time (in milliseconds) to wait for results
+     *            the time (in milliseconds) to wait for results (the RPC
+     *            itself is aborted if there is no reply shortly after this
+     *            time)
      *
      * @return a delete result object
      *
@@ -245,7 +260,8 @@ public class ReplicatedDHT {
      *             occurs or an exit signal was received or the remote node
      *             sends a message containing an invalid cookie
      * @throws TimeoutException
-     *             if a timeout occurred while trying to delete the value
+     *             if a timeout occurred while trying to delete the value or
+     *             no reply was received from the node
      * @throws UnknownException
      *             if any other error occurs
      *
@@ -24,6 +24,7 @@ import com.ericsson.otp.erlang.OtpErlangList;
 import com.ericsson.otp.erlang.OtpErlangLong;
 import com.ericsson.otp.erlang.OtpErlangObject;
 import com.ericsson.otp.erlang.OtpErlangString;
+import com.ericsson.otp.erlang.OtpOutputStream;
 
 import de.zib.scalaris.operations.AddDelOnListOp;
 import de.zib.scalaris.operations.AddOnNrOp;
@@ -37,12 +38,14 @@ import de.zib.scalaris.operations.WriteOp;
  * Generic request list.
  *
  * @author Nico Kruber, kruber@zib.de
- * @version 3.18
+ * @version 3.21
  * @since 3.5
  */
 public abstract class RequestList {
     protected final List<Operation> requests = new ArrayList<Operation>(5);
     private CommitOp commitOp = null;
+    private ErlangReqList erlangReqListCompressed = null;
+    private ErlangReqList erlangReqListUncompressed = null;
 
     /**
      * Default constructor.
@@ -387,7 +390,9 @@ public abstract class RequestList {
     /**
      * Gets the whole request list as erlang terms as required by
      * <code>api_tx:req_list/2</code>
-     * Note: this parses through the requests to create the erlang objects.
+     * Note: the returned term is a view on this request list which creates
+     * the erlang objects of the requests when it is encoded. It is re-used
+     * for further calls and reflects any changes to the request list.
      *
      * @param compressed
      *            whether the value part in the term should be encoded, i.e.
@@ -395,13 +400,97 @@ public abstract class RequestList {
      *
      * @return an erlang list of requests
      */
-    OtpErlangList getErlangReqList(final boolean compressed) {
-        final OtpErlangObject[] result = new OtpErlangObject[requests.size()];
-        int i = 0;
-        for (final Operation op : requests) {
-            result[i++] = op.getErlang(compressed);
+    OtpErlangObject getErlangReqList(final boolean compressed) {
+        if (compressed) {
+            if (erlangReqListCompressed == null) {
+                erlangReqListCompressed = new ErlangReqList(requests, true);
+            }
+            return erlangReqListCompressed;
+        } else {
+            if (erlangReqListUncompressed == null) {
+                erlangReqListUncompressed = new ErlangReqList(requests, false);
+            }
+            return erlangReqListUncompressed;
         }
-        return new OtpErlangList(result);
+    }
+
+    /**
+     * Erlang list of requests which is encoded directly from the operations
+     * without creating an intermediate {@link OtpErlangList}.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.21
+     * @since 3.21
+     */
+    private static final class ErlangReqList extends OtpErlangObject {
+        private static final long serialVersionUID = 1L;
+        private final List<Operation> requests;
+        private final boolean compressed;
+
+        ErlangReqList(final List<Operation> requests, final boolean compressed) {
+            this.requests = requests;
+            this.compressed = compressed;
+        }
+
+        OtpErlangList toList() {
+            final OtpErlangObject[] result = new OtpErlangObject[requests.size()];
+            for (int i = 0; i < result.length; ++i) {
+                result[i] = requests.get(i).getErlang(compressed);
+            }
+            return new OtpErlangList(result);
+        }
+
+        @Override
+        public void encode(final OtpOutputStream buf) {
+            final int size = requests.size();
+            if (size > 0) {
+                buf.write_list_head(size);
+                for (int i = 0; i < size; ++i) {
+                    buf.write_any(requests.get(i).getErlang(compressed));
+                }
+            }
+            buf.write_nil();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (o instanceof ErlangReqList) {
+                return toList().equals(((ErlangReqList) o).toList());
+            }
+            return false;
+        }
+
+        /**
+         * Computes the hash code of the current requests (the view changes
+         * with the request list, i.e. the hash code must not be cached).
+         */
+        @Override
+        public int hashCode() {
+            return doHashCode();
+        }
+
+        @Override
+        protected int doHashCode() {
+            return toList().hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return toList().toString();
+        }
+    }
+
+    /**
+     * Removes all requests so that the request list can be re-used.
+     *
+     * Note: result lists created for this request list refer to its
+     * operations, i.e. process their results before clearing the list.
+     *
+     * @since 3.21
+     */
+    public void clear() {
+        requests.clear();
+        commitOp = null;
     }
 
     /**
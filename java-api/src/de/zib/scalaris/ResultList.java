@@ -62,6 +62,19 @@ public abstract class ResultList {
         }
     }
 
+    /**
+     * Creates a result list for operations whose results have already been
+     * set, e.g. by executing parts of the request list separately.
+     *
+     * @param requests
+     *            request list whose operations contain the results
+     *
+     * @since 3.21
+     */
+    protected ResultList(final RequestList requests) {
+        this.operations = requests.getRequests();
+    }
+
     /**
      * Gets the number of results in the list.
      *
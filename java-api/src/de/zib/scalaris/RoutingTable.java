@@ -15,15 +15,23 @@
  */
 package de.zib.scalaris;
 
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ericsson.otp.erlang.OtpErlangAtom;
+import com.ericsson.otp.erlang.OtpErlangList;
 import com.ericsson.otp.erlang.OtpErlangLong;
 import com.ericsson.otp.erlang.OtpErlangObject;
 import com.ericsson.otp.erlang.OtpErlangRangeException;
+import com.ericsson.otp.erlang.OtpErlangString;
+import com.ericsson.otp.erlang.OtpErlangTuple;
 
 /**
  * Scalaris interface to basic routing table information.
  *
  * @author Thorsten Schuett, schuett@zib.de
- * @version 3.20
+ * @version 3.21
  * @since 3.20
  */
 public class RoutingTable {
@@ -81,4 +89,192 @@ public class RoutingTable {
             throw new UnknownException(e, received_raw);
         }
     }
+
+    /**
+     * Returns the key ranges the Scalaris nodes inside the VM connected to are
+     * responsible for.
+     *
+     * @return a list of key ranges
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws UnknownException
+     *             if any other error occurs
+     *
+     * @since 3.21
+     */
+    public List<KeyRange> getLocalRanges() throws ConnectionException, UnknownException {
+        final OtpErlangObject received_raw = connection.doRPC("api_rt", "get_local_ranges",
+                new OtpErlangObject[] { });
+        try {
+            final OtpErlangList received = ErlangValue.otpObjectToOtpList(received_raw);
+            final List<KeyRange> result = new ArrayList<KeyRange>(received.arity());
+            for (final OtpErlangObject range : received) {
+                result.add(KeyRange.fromErlang(range));
+            }
+            return result;
+        } catch (final ClassCastException e) {
+            // e.printStackTrace();
+            throw new UnknownException(e, received_raw);
+        }
+    }
+
+    /**
+     * Hashes the given key to the identifier space, i.e. the position of the
+     * key in the ring.
+     *
+     * @param key
+     *            the key to hash
+     *
+     * @return the hashed key
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws UnknownException
+     *             if any other error occurs
+     *
+     * @since 3.21
+     */
+    public BigInteger hashKey(final String key) throws ConnectionException, UnknownException {
+        final OtpErlangObject received_raw = connection.doRPC("api_dht", "hash_key",
+                new OtpErlangObject[] { new OtpErlangString(key) });
+        try {
+            return ((OtpErlangLong) received_raw).bigIntegerValue();
+        } catch (final ClassCastException e) {
+            // e.printStackTrace();
+            throw new UnknownException(e, received_raw);
+        }
+    }
+
+    /**
+     * A (non-empty) range of keys in the identifier space.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.21
+     * @since 3.21
+     */
+    public static class KeyRange {
+        /**
+         * Left border of the range.
+         */
+        public final BigInteger begin;
+        /**
+         * Whether {@link #begin} is part of the range.
+         */
+        public final boolean beginIncluded;
+        /**
+         * Right border of the range.
+         */
+        public final BigInteger end;
+        /**
+         * Whether {@link #end} is part of the range.
+         */
+        public final boolean endIncluded;
+        /**
+         * Whether the range covers the whole identifier space (the borders
+         * are meaningless then).
+         */
+        public final boolean all;
+
+        /**
+         * Creates a new key range.
+         *
+         * @param begin
+         *            left border of the range
+         * @param beginIncluded
+         *            whether <tt>begin</tt> is part of the range
+         * @param end
+         *            right border of the range
+         * @param endIncluded
+         *            whether <tt>end</tt> is part of the range
+         */
+        public KeyRange(final BigInteger begin, final boolean beginIncluded,
+                final BigInteger end, final boolean endIncluded) {
+            this.begin = begin;
+            this.beginIncluded = beginIncluded;
+            this.end = end;
+            this.endIncluded = endIncluded;
+            this.all = false;
+        }
+
+        private KeyRange() {
+            this.begin = BigInteger.ZERO;
+            this.beginIncluded = true;
+            this.end = BigInteger.ZERO;
+            this.endIncluded = true;
+            this.all = true;
+        }
+
+        /**
+         * Converts an Erlang simple interval, i.e.
+         * <tt>{LBr, Begin, End, RBr}</tt>, <tt>{Key}</tt> or <tt>all</tt>,
+         * to a key range.
+         *
+         * @param range
+         *            the erlang representation of the range
+         *
+         * @return a key range
+         *
+         * @throws ClassCastException
+         *             if the range has an unexpected format
+         */
+        static KeyRange fromErlang(final OtpErlangObject range) throws ClassCastException {
+            if (range instanceof OtpErlangAtom) {
+                if (((OtpErlangAtom) range).atomValue().equals("all")) {
+                    return new KeyRange();
+                }
+            } else {
+                final OtpErlangTuple tuple = (OtpErlangTuple) range;
+                if (tuple.arity() == 1) {
+                    final BigInteger key = ((OtpErlangLong) tuple.elementAt(0)).bigIntegerValue();
+                    return new KeyRange(key, true, key, true);
+                } else if (tuple.arity() == 4) {
+                    return new KeyRange(
+                            ((OtpErlangLong) tuple.elementAt(1)).bigIntegerValue(),
+                            ((OtpErlangAtom) tuple.elementAt(0)).atomValue().equals("["),
+                            ((OtpErlangLong) tuple.elementAt(2)).bigIntegerValue(),
+                            ((OtpErlangAtom) tuple.elementAt(3)).atomValue().equals("]"));
+                }
+            }
+            throw new ClassCastException("unexpected range: " + range);
+        }
+
+        /**
+         * Checks whether the given (hashed) key is part of the range.
+         *
+         * @param key
+         *            the key to check
+         *
+         * @return <tt>true</tt> if the key is in the range
+         */
+        public boolean contains(final BigInteger key) {
+            if (all) {
+                return true;
+            }
+            final int cmpBegin = key.compareTo(begin);
+            final int cmpEnd = key.compareTo(end);
+            if ((cmpBegin == 0 && beginIncluded) || (cmpEnd == 0 && endIncluded)) {
+                return true;
+            }
+            if (begin.compareTo(end) <= 0) {
+                return cmpBegin > 0 && cmpEnd < 0;
+            } else {
+                // wrapping range
+                return cmpBegin > 0 || cmpEnd < 0;
+            }
+        }
+
+        @Override
+        public String toString() {
+            if (all) {
+                return "all";
+            }
+            return (beginIncluded ? "[" : "(") + begin + ", " + end
+                    + (endIncluded ? "]" : ")");
+        }
+    }
 }
@@ -0,0 +1,246 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+
+import com.ericsson.otp.erlang.OtpAuthException;
+import com.ericsson.otp.erlang.OtpConnection;
+import com.ericsson.otp.erlang.OtpSelf;
+
+/**
+ * Thread-safe connection which can be shared by many concurrent users, e.g.
+ * several {@link Transaction} or {@link TransactionSingleOp} objects in
+ * different threads, over a single distribution link to the Scalaris node.
+ *
+ * Requests are pipelined (see {@link PipelinedConnection}) and a dedicated
+ * dispatcher thread routes all replies to the waiting threads.
+ *
+ * The connection is reference-counted: it is created with one reference,
+ * each {@link #acquire()} adds another one and each {@link #close()} (e.g.
+ * through {@link AbstractTransaction#closeConnection()}) removes one. The
+ * distribution link and the dispatcher thread are shut down when the last
+ * reference is removed. Use {@link ConnectionFactory#getSharedConnection()}
+ * to share a single connection per connection factory.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.21
+ * @since 3.21
+ */
+public class SharedConnection extends PipelinedConnection {
+    /**
+     * Number of users of this connection.
+     */
+    private int references = 1;
+    /**
+     * Set once the last reference has been removed.
+     */
+    private volatile boolean closed = false;
+    /**
+     * The thread reading replies from the connection.
+     */
+    private final Thread dispatcher;
+
+    /**
+     * Creates a new connection using the given nodes and a default connection
+     * policy.
+     *
+     * Provided for convenience.
+     *
+     * @param self
+     *            the local node
+     * @param remote
+     *            the remote node to connect to
+     *
+     * @throws UnknownHostException
+     *             if the remote host could not be found
+     * @throws IOException
+     *             if it was not possible to connect to the remote node
+     * @throws OtpAuthException
+     *             if the connection was refused by the remote node
+     */
+    public SharedConnection(final OtpSelf self, final PeerNode remote)
+            throws UnknownHostException, IOException, OtpAuthException {
+        super(self, remote);
+        dispatcher = startDispatcher();
+    }
+
+    /**
+     * Creates a new connection between the a <tt>self</tt> node and one of the
+     * <tt>remoteNodes</tt>, selected by the <tt>connectionPolicy</tt>.
+     *
+     * @param self
+     *            the local node
+     * @param connectionPolicy
+     *            the connection policy to use
+     *
+     * @throws UnknownHostException
+     *             if the remote host could not be found
+     * @throws IOException
+     *             if it was not possible to connect to the remote node
+     * @throws OtpAuthException
+     *             if the connection was refused by the remote node
+     */
+    public SharedConnection(final OtpSelf self,
+            final ConnectionPolicy connectionPolicy)
+            throws UnknownHostException, IOException, OtpAuthException {
+        super(self, connectionPolicy);
+        dispatcher = startDispatcher();
+    }
+
+    private Thread startDispatcher() {
+        final Thread t = new Thread(new Runnable() {
+            public void run() {
+                runDispatcher();
+            }
+        }, "SharedConnection dispatcher " + self.node());
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    /**
+     * Adds a reference to this connection.
+     *
+     * @return this connection
+     *
+     * @throws IllegalStateException
+     *             if the connection has already been closed
+     */
+    public synchronized SharedConnection acquire() throws IllegalStateException {
+        if (closed) {
+            throw new IllegalStateException("connection closed");
+        }
+        ++references;
+        return this;
+    }
+
+    /**
+     * Adds a reference to this connection unless it has already been closed.
+     *
+     * @return whether a reference has been added
+     */
+    synchronized boolean tryAcquire() {
+        if (closed) {
+            return false;
+        }
+        ++references;
+        return true;
+    }
+
+    /**
+     * Gets the number of users of this connection.
+     *
+     * @return the number of references
+     */
+    public synchronized int getReferences() {
+        return references;
+    }
+
+    /**
+     * Checks whether the last reference to this connection has been removed
+     * and the connection is closed.
+     *
+     * @return whether the connection is closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Removes a reference to this connection and closes it if this was the
+     * last one. Outstanding requests of other users are not affected unless
+     * the connection is closed.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed || (--references > 0)) {
+                return;
+            }
+            closed = true;
+        }
+        super.close();
+        synchronized (sendLock) {
+            sendLock.notifyAll();
+        }
+        dispatcher.interrupt();
+    }
+
+    /**
+     * Re-connects and wakes up the dispatcher thread if it is waiting for a
+     * new connection.
+     */
+    @Override
+    protected void reconnect() throws UnknownHostException, IOException,
+            OtpAuthException {
+        super.reconnect();
+        synchronized (sendLock) {
+            sendLock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits for the dispatcher thread to complete the given request.
+     */
+    @Override
+    protected void awaitResult(final PendingRPC rpc, final long timeoutNanos)
+            throws InterruptedException, java.util.concurrent.TimeoutException {
+        final long deadline = System.nanoTime() + timeoutNanos;
+        synchronized (rpc) {
+            while (!rpc.isDone()) {
+                if (timeoutNanos < 0) {
+                    rpc.wait();
+                } else {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw new java.util.concurrent.TimeoutException();
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(rpc, remaining);
+                }
+            }
+        }
+    }
+
+    /**
+     * Main loop of the dispatcher thread.
+     */
+    private void runDispatcher() {
+        while (!closed) {
+            try {
+                OtpConnection conn;
+                synchronized (sendLock) {
+                    conn = connection;
+                    // idle connection failed -> wait for the next request to
+                    // re-connect (see PipelinedConnection#failover)
+                    while (!closed && !conn.isConnected() && pending.isEmpty()) {
+                        sendLock.wait(1000);
+                        conn = connection;
+                    }
+                }
+                if (!closed) {
+                    receiveReply(0);
+                }
+            } catch (final InterruptedException e) {
+                // closed
+            } catch (final java.util.concurrent.TimeoutException e) {
+                // this should not happen without a timeout
+            }
+        }
+    }
+}
@@ -15,10 +15,17 @@
  */
 package de.zib.scalaris;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.ericsson.otp.erlang.OtpErlangAtom;
+import com.ericsson.otp.erlang.OtpErlangDecodeException;
 import com.ericsson.otp.erlang.OtpErlangDouble;
 import com.ericsson.otp.erlang.OtpErlangList;
 import com.ericsson.otp.erlang.OtpErlangLong;
@@ -30,6 +37,7 @@ import de.zib.scalaris.operations.AddDelOnListOp;
 import de.zib.scalaris.operations.AddOnNrOp;
 import de.zib.scalaris.operations.CommitOp;
 import de.zib.scalaris.operations.Operation;
+import de.zib.scalaris.operations.ReadOp;
 import de.zib.scalaris.operations.TestAndSetOp;
 import de.zib.scalaris.operations.TransactionOperation;
 import de.zib.scalaris.operations.WriteOp;
@@ -106,8 +114,17 @@ import de.zib.scalaris.operations.WriteOp;
  * by classifying nodes as good or bad depending on their previous state. The
  * number of automatic retries is adjustable (default: 3).
  *
+ * <h3>Repeated reads</h3>
+ *
+ * Reads of keys which have already been read or written in the current
+ * transaction are answered locally from the values the transaction log
+ * already provides, i.e. without an RPC (see {@link #getSavedRPCs()}). Such a
+ * read returns the same value the previous read returned or the value the
+ * transaction wrote last. Whether the key was changed by some other
+ * transaction in the meantime is checked during the commit, just as before.
+ *
  * @author Nico Kruber, kruber@zib.de
- * @version 3.18
+ * @version 3.21
  * @since 2.0
  */
 public class Transaction extends
@@ -117,6 +134,17 @@ public class Transaction extends
      */
     protected final Translog transLog = getTranslogImpl();
 
+    /**
+     * Results of reads (in the form Scalaris returns them) for keys in the
+     * {@link #transLog} whose value is known locally.
+     */
+    protected final HashMap<OtpErlangString, LocalRead> localReads = new HashMap<OtpErlangString, LocalRead>();
+
+    /**
+     * Number of RPCs saved by answering reads locally.
+     */
+    private final AtomicLong savedRPCs = new AtomicLong(0);
+
     /**
      * Gets the {@link Translog} implementation to use for {@link #transLog}.
      * Will be executed only once during construction of the object!
@@ -143,6 +171,10 @@ public class Transaction extends
     /**
      * Constructor, uses the given connection to an erlang node.
      *
+     * The connection may also be a {@link SharedConnection} which is used by
+     * other objects in other threads at the same time (see
+     * {@link ConnectionFactory#getSharedConnection()}).
+     *
      * @param conn
      *            connection to use for the transaction
      */
@@ -421,12 +453,16 @@ public class Transaction extends
      * TransLog abstraction layer only sending the subset of the tlog that is
      * actually required for a request, tightly coupled with <tt>tx_tlog</tt>.
      *
+     * Entries are kept in their encoded form so that they are not serialised
+     * again for each request (entries which did not change are not even
+     * re-encoded after a request).
+     *
      * @author Nico Kruber, kruber@zib.de
-     * @version 3.17
+     * @version 3.21
      * @since 3.17
      */
     protected static class FilteringTransLog implements Translog {
-        protected LinkedHashMap<OtpErlangString, OtpErlangTuple> entries = new LinkedHashMap<OtpErlangString, OtpErlangTuple>();
+        protected LinkedHashMap<OtpErlangString, EncodedErlangObject> entries = new LinkedHashMap<OtpErlangString, EncodedErlangObject>();
 
         /* (non-Javadoc)
          * @see de.zib.scalaris.Translog#merge(com.ericsson.otp.erlang.OtpErlangObject)
@@ -437,7 +473,10 @@ public class Transaction extends
                 for (int i = 0; i < newTLogL.arity(); ++i) {
                     final OtpErlangTuple entry = (OtpErlangTuple) newTLogL.elementAt(i);
                     final OtpErlangString key = ErlangValue.otpObjectToOtpString(entry.elementAt(1));
-                    entries.put(key, entry);
+                    final EncodedErlangObject oldEntry = entries.get(key);
+                    if (oldEntry == null || !isEqual(oldEntry, entry)) {
+                        entries.put(key, new EncodedErlangObject(entry));
+                    }
                 }
             } catch (final ClassCastException e) {
                 throw new UnknownException(newTLog);
@@ -445,6 +484,15 @@ public class Transaction extends
             return this;
         }
 
+        private static boolean isEqual(final EncodedErlangObject oldEntry,
+                final OtpErlangTuple newEntry) {
+            try {
+                return newEntry.equals(oldEntry.getTerm());
+            } catch (final OtpErlangDecodeException e) {
+                return false;
+            }
+        }
+
         /* (non-Javadoc)
          * @see de.zib.scalaris.Translog#isEmpty()
          */
@@ -465,21 +513,182 @@ public class Transaction extends
         public OtpErlangObject filter(final RequestList req) {
             OtpErlangList result;
             if (req.isCommit()) {
-                result = new OtpErlangList(entries.values().toArray(new OtpErlangTuple[0]));
+                result = new OtpErlangList(entries.values().toArray(new EncodedErlangObject[0]));
             } else {
-                final HashSet<OtpErlangTuple> resultJ = new HashSet<OtpErlangTuple>(req.size());
+                final HashMap<OtpErlangString, EncodedErlangObject> resultJ = new HashMap<OtpErlangString, EncodedErlangObject>(req.size());
                 for (final Operation op : req.getRequests()) {
-                    final OtpErlangTuple entry = entries.get(op.getKey());
+                    final EncodedErlangObject entry = entries.get(op.getKey());
                     if (entry != null) {
-                        resultJ.add(entry);
+                        resultJ.put(op.getKey(), entry);
                     }
                 }
-                result = new OtpErlangList(resultJ.toArray(new OtpErlangTuple[0]));
+                result = new OtpErlangList(resultJ.values().toArray(new EncodedErlangObject[0]));
             }
             return result;
         }
     }
 
+    /**
+     * The result of a read which can be answered locally.
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.21
+     * @since 3.21
+     */
+    protected static class LocalRead {
+        private static final OtpErlangTuple notFoundResult = new OtpErlangTuple(
+                new OtpErlangObject[] { CommonErlangObjects.failAtom,
+                        CommonErlangObjects.notFoundAtom });
+
+        /**
+         * The result as returned by Scalaris, i.e. <tt>{ok, Value}</tt> or
+         * <tt>{fail, not_found}</tt>.
+         */
+        protected final OtpErlangTuple result;
+        /**
+         * Whether the value in {@link #result} is encoded.
+         */
+        protected final boolean compressed;
+
+        /**
+         * Creates a new local read result.
+         *
+         * @param result
+         *            the result as returned by Scalaris
+         * @param compressed
+         *            whether the value in the result is encoded
+         */
+        protected LocalRead(final OtpErlangTuple result, final boolean compressed) {
+            this.result = result;
+            this.compressed = compressed;
+        }
+
+        /**
+         * Creates a local read result from the raw result of a read operation
+         * if the result is a value or <tt>{fail, not_found}</tt>.
+         *
+         * @param resultRaw
+         *            the raw result of a {@link ReadOp}
+         * @param compressed
+         *            whether the value in the result is encoded
+         *
+         * @return a local read result or <tt>null</tt> if the result can not
+         *         be re-used
+         */
+        protected static LocalRead fromReadResult(
+                final OtpErlangObject resultRaw, final boolean compressed) {
+            if (resultRaw instanceof OtpErlangTuple) {
+                final OtpErlangTuple result = (OtpErlangTuple) resultRaw;
+                if (result.arity() == 2
+                        && (result.elementAt(0).equals(CommonErlangObjects.okAtom) || result
+                                .equals(notFoundResult))) {
+                    return new LocalRead(result, compressed);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Gets the result with the value encoded as requested.
+         *
+         * @param compressed
+         *            whether the value should be encoded
+         *
+         * @return the raw read result or <tt>null</tt> if the value could not
+         *         be converted
+         */
+        protected OtpErlangTuple getResult(final boolean compressed) {
+            if (this.compressed == compressed
+                    || !result.elementAt(0).equals(CommonErlangObjects.okAtom)) {
+                return result;
+            }
+            try {
+                final OtpErlangObject value = compressed ? CommonErlangObjects
+                        .encode(result.elementAt(1)) : CommonErlangObjects
+                        .decode(result.elementAt(1));
+                return new OtpErlangTuple(new OtpErlangObject[] {
+                        CommonErlangObjects.okAtom, value });
+            } catch (final OtpErlangDecodeException e) {
+                return null;
+            }
+        }
+    }
+
+    // tx_tlog entry elements, see atom_ext.hrl (as integers or atoms)
+    private static final OtpErlangObject[] tlogWrite = {
+            new OtpErlangLong(77), CommonErlangObjects.writeAtom };
+    private static final OtpErlangObject[] tlogOk = {
+            new OtpErlangLong(84), CommonErlangObjects.okAtom };
+    private static final OtpErlangObject[] tlogValue = {
+            new OtpErlangLong(75), new OtpErlangAtom("value") };
+
+    private static boolean tlogIs(final OtpErlangObject value,
+            final OtpErlangObject[] expected) {
+        return expected[0].equals(value) || expected[1].equals(value);
+    }
+
+    /**
+     * Updates the {@link #localReads} with the new tlog entries from Scalaris
+     * after executing <tt>req</tt>.
+     *
+     * Written keys provide their (encoded) value in the tlog, the values of
+     * read keys are taken from the read operations' results. Keys of failed
+     * entries can not be read locally any more.
+     *
+     * @param newTLog
+     *            new tlog entries from Scalaris
+     * @param req
+     *            the executed requests
+     */
+    protected void updateLocalReads(final OtpErlangObject newTLog,
+            final RequestList req) {
+        final HashMap<OtpErlangString, ReadOp> reads = new HashMap<OtpErlangString, ReadOp>();
+        for (final Operation op : req.getRequests()) {
+            if (op.getClass() == ReadOp.class) {
+                reads.put(op.getKey(), (ReadOp) op);
+            }
+        }
+        final OtpErlangList newTLogL = (OtpErlangList) newTLog;
+        for (int i = 0; i < newTLogL.arity(); ++i) {
+            final OtpErlangTuple entry = (OtpErlangTuple) newTLogL.elementAt(i);
+            final OtpErlangString key = ErlangValue.otpObjectToOtpString(entry.elementAt(1));
+            if (entry.arity() != 7 || !tlogIs(entry.elementAt(3), tlogOk)) {
+                localReads.remove(key);
+            } else if (tlogIs(entry.elementAt(0), tlogWrite)) {
+                if (tlogIs(entry.elementAt(5), tlogValue)) {
+                    localReads.put(key, new LocalRead(new OtpErlangTuple(
+                            new OtpErlangObject[] { CommonErlangObjects.okAtom,
+                                    entry.elementAt(6) }), true));
+                } else {
+                    localReads.remove(key);
+                }
+            } else {
+                final ReadOp read = reads.get(key);
+                if (read != null) {
+                    final LocalRead localRead = LocalRead.fromReadResult(
+                            read.getResult(), read.getResultCompressed());
+                    if (localRead != null) {
+                        localReads.put(key, localRead);
+                    } else {
+                        localReads.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the number of RPCs saved by answering all reads of a request list
+     * locally.
+     *
+     * @return number of saved RPCs
+     *
+     * @since 3.21
+     */
+    public long getSavedRPCs() {
+        return savedRPCs.get();
+    }
+
     /**
      * Executes the given operation.
      *
@@ -534,17 +743,102 @@ public class Transaction extends
     @Override
     public ResultList req_list(final RequestList req)
             throws ConnectionException, AbortException, UnknownException {
+        try {
+            return req_list(req, 0);
+        } catch (final TimeoutException e) {
+            // this should not happen without a timeout
+            throw new InternalError();
+        }
+    }
+
+    /**
+     * Executes all requests in <code>req</code> and waits at most
+     * <tt>timeout</tt> milliseconds for the results.
+     *
+     * <p>
+     * The transaction's log is reset if a commit in the request list was
+     * successful, otherwise it still retains in the transaction which must be
+     * successfully committed, aborted or reset in order to be (re-)used for
+     * another request. If the timeout expires, the connection is closed (see
+     * {@link Connection#doRPC(String, String, OtpErlangList, long)}) and the
+     * transaction's log is left unchanged although the requests may have
+     * been executed - a commit may or may not have succeeded then.
+     * </p>
+     *
+     * @param req
+     *            the requests to issue
+     * @param timeout
+     *            the maximum time (in milliseconds) to wait for the results
+     *            (<tt>0</tt> to wait forever)
+     *
+     * @return results of all requests in the same order as they appear in
+     *         <code>req</code>
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws TimeoutException
+     *             if no results were received within the given time
+     * @throws AbortException
+     *             if the commit failed
+     * @throws UnknownException
+     *             if any other error occurs
+     *
+     * @since 3.21
+     */
+    public ResultList req_list(final RequestList req, final long timeout)
+            throws ConnectionException, TimeoutException, AbortException,
+            UnknownException {
         if (req.isEmpty()) {
             return new ResultList(new OtpErlangList(), compressed, req);
         }
+        // answer reads of keys whose value is known locally (only if the
+        // request does not change these keys):
+        OtpErlangObject[] localResults = null;
+        RequestList remoteReq = req;
+        if (!req.isCommit() && !localReads.isEmpty()) {
+            final List<Operation> ops = req.getRequests();
+            final HashSet<OtpErlangString> changedKeys = new HashSet<OtpErlangString>();
+            for (final Operation op : ops) {
+                if (op.getClass() != ReadOp.class) {
+                    changedKeys.add(op.getKey());
+                }
+            }
+            for (int i = 0; i < ops.size(); ++i) {
+                final Operation op = ops.get(i);
+                final LocalRead localRead = localReads.get(op.getKey());
+                if (localRead != null && op.getClass() == ReadOp.class
+                        && !changedKeys.contains(op.getKey())) {
+                    if (localResults == null) {
+                        localResults = new OtpErlangObject[ops.size()];
+                    }
+                    localResults[i] = localRead.getResult(compressed);
+                }
+            }
+            if (localResults != null) {
+                remoteReq = new RequestList();
+                for (int i = 0; i < ops.size(); ++i) {
+                    if (localResults[i] == null) {
+                        remoteReq.addOp(ops.get(i));
+                    }
+                }
+                if (remoteReq.isEmpty()) {
+                    savedRPCs.incrementAndGet();
+                    return new ResultList(new OtpErlangList(localResults), compressed, req);
+                }
+            }
+        }
         OtpErlangObject received_raw = null;
-        final OtpErlangList erlangReqList = req.getErlangReqList(compressed);
+        final OtpErlangObject erlangReqList = remoteReq.getErlangReqList(compressed);
         if (transLog.isEmpty()) {
             received_raw = connection.doRPC(module(), "req_list",
-                    new OtpErlangObject[] { erlangReqList });
+                    new OtpErlangObject[] { erlangReqList },
+                    timeout);
         } else {
             received_raw = connection.doRPC(module(), "req_list",
-                    new OtpErlangObject[] { transLog.filter(req), erlangReqList });
+                    new OtpErlangObject[] { transLog.filter(remoteReq), erlangReqList },
+                    timeout);
         }
         try {
             /*
@@ -554,11 +848,25 @@ public class Transaction extends
             final OtpErlangTuple received = (OtpErlangTuple) received_raw;
             transLog.merge(received.elementAt(0));
             if (received.arity() == 2) {
-                final ResultList result = new ResultList((OtpErlangList) received.elementAt(1), compressed, req);
+                OtpErlangList results = (OtpErlangList) received.elementAt(1);
+                if (localResults != null) {
+                    if (results.arity() != remoteReq.size()) {
+                        throw new UnknownException(received_raw);
+                    }
+                    for (int i = 0, j = 0; i < localResults.length; ++i) {
+                        if (localResults[i] == null) {
+                            localResults[i] = results.elementAt(j++);
+                        }
+                    }
+                    results = new OtpErlangList(localResults);
+                }
+                final ResultList result = new ResultList(results, compressed, req);
+                updateLocalReads(received.elementAt(0), remoteReq);
                 if (req.isCommit()) {
                     req.getCommit().processResult();
                     // transaction was successful: reset transaction log
                     transLog.reset();
+                    localReads.clear();
                 }
                 return result;
             }
@@ -609,6 +917,58 @@ public class Transaction extends
      */
     public void abort() {
         transLog.reset();
+        localReads.clear();
+    }
+
+    /**
+     * Reads the values of all given keys inside this transaction (without
+     * committing). Keys are read in requests of at most
+     * {@link #getBulkChunkSize()} keys each.
+     *
+     * Errors are reported per key, e.g. a {@link NotFoundException} for a
+     * non-existing key or a {@link ConnectionException} for all keys of a
+     * request which could not be sent (these keys are not part of the
+     * transaction then).
+     *
+     * @param keys
+     *            the keys to read
+     *
+     * @return the values and errors of all keys
+     *
+     * @since 3.21
+     */
+    public BulkResult<ErlangValue> readMany(final Collection<String> keys) {
+        final BulkResult<ErlangValue> result = new BulkResult<ErlangValue>();
+        final List<ReadOp> chunk = new ArrayList<ReadOp>(Math.min(keys.size(), bulkChunkSize));
+        for (final String key : new LinkedHashSet<String>(keys)) {
+            chunk.add(new ReadOp(key));
+            if (chunk.size() >= bulkChunkSize) {
+                readChunk(chunk, result);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            readChunk(chunk, result);
+        }
+        return result;
+    }
+
+    private void readChunk(final List<ReadOp> chunk, final BulkResult<ErlangValue> result) {
+        final RequestList req = new RequestList();
+        for (final ReadOp op : chunk) {
+            req.addOp(op);
+        }
+        try {
+            req_list(req);
+            BulkResult.addReads(result, chunk);
+        } catch (final ConnectionException e) {
+            result.addErrors(chunk, e);
+        } catch (final AbortException e) {
+            // should not occur (we did not commit anything)
+            result.addErrors(chunk, new UnknownException(e));
+        } catch (final UnknownException e) {
+            result.addErrors(chunk, e);
+        }
     }
 
     @Override
@@ -0,0 +1,615 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.ericsson.otp.erlang.OtpErlangException;
+
+/**
+ * Runs transactions and retries them if they abort.
+ *
+ * Each attempt executes the given {@link TransactionBody} in a new
+ * {@link Transaction} on a connection from the given {@link ConnectionPool}
+ * and commits it afterwards. If the transaction aborts, it is retried after a
+ * random delay between <tt>0</tt> and
+ * <tt>min(maxBackoff, baseBackoff * 2^attempt)</tt> milliseconds, i.e. an
+ * exponential backoff with full jitter.
+ *
+ * The keys responsible for aborts (see {@link AbortException#getFailedKeys()})
+ * are counted across all transactions of a runner. Keys with at least
+ * {@link #getHotKeyThreshold()} conflicts are <em>hot</em>: before an
+ * attempt involving hot keys (the keys given to
+ * {@link #run(Collection, TransactionBody)} and the keys responsible for
+ * previous aborts of the same call), the runner acquires local locks for
+ * these keys so that conflicting transactions of the same JVM are executed
+ * one after another instead of aborting each other. Locks are striped, i.e.
+ * different keys may share a lock.
+ *
+ * Conflict counters decay: every {@link #getConflictDecayInterval()}
+ * attempts, all counters are halved and keys without conflicts are
+ * forgotten, i.e. keys cool down again once their conflicts stop. At most
+ * {@link #getMaxConflictKeys()} keys are tracked at the same time.
+ *
+ * <h3>Example:</h3>
+ * <pre>
+ * <code style="white-space:pre;">
+ *   TransactionRunner runner = new TransactionRunner(pool);
+ *   runner.run(Arrays.asList(key), new TransactionRunner.TransactionBody&lt;Void&gt;() {
+ *       public Void run(Transaction tx) throws OtpErlangException {
+ *           tx.addOnNr(key, 1);
+ *           return null;
+ *       }
+ *   });
+ * </code>
+ * </pre>
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.21
+ * @since 3.21
+ */
+public class TransactionRunner {
+    /**
+     * The work to do inside a transaction.
+     *
+     * @param <T>
+     *            the type of the result
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.21
+     * @since 3.21
+     */
+    public static interface TransactionBody<T> {
+        /**
+         * Executes the work inside the given transaction. The transaction is
+         * committed by the runner afterwards. This method may be executed
+         * multiple times, i.e. once per attempt.
+         *
+         * @param tx
+         *            the transaction to use
+         *
+         * @return the result
+         *
+         * @throws OtpErlangException
+         *             if an operation fails (an {@link AbortException} leads
+         *             to a retry, any other exception is forwarded)
+         */
+        public abstract T run(Transaction tx) throws OtpErlangException;
+    }
+
+    /**
+     * Pool to get connections from.
+     */
+    protected final ConnectionPool cPool;
+
+    private final ReentrantLock[] stripes;
+
+    private final ConcurrentHashMap<String, AtomicLong> conflicts = new ConcurrentHashMap<String, AtomicLong>();
+
+    private final Random random = new Random();
+
+    private volatile int maxRetries = 10;
+    private volatile long baseBackoff = 10;
+    private volatile long maxBackoff = 1000;
+    private volatile int hotKeyThreshold = 3;
+    private volatile int conflictDecayInterval = 1000;
+    private volatile int maxConflictKeys = 10000;
+    private volatile long connectionTimeout = 10000;
+
+    private final AtomicLong commits = new AtomicLong(0);
+    private final AtomicLong aborts = new AtomicLong(0);
+    private final AtomicLong attemptsSinceDecay = new AtomicLong(0);
+
+    /**
+     * Creates a runner with 64 lock stripes.
+     *
+     * @param cPool
+     *            the connection pool to use
+     */
+    public TransactionRunner(final ConnectionPool cPool) {
+        this(cPool, 64);
+    }
+
+    /**
+     * Creates a runner.
+     *
+     * @param cPool
+     *            the connection pool to use
+     * @param lockStripes
+     *            the number of locks for hot keys (&gt; 0)
+     */
+    public TransactionRunner(final ConnectionPool cPool, final int lockStripes) {
+        if (lockStripes <= 0) {
+            throw new IllegalArgumentException("lockStripes must be > 0");
+        }
+        this.cPool = cPool;
+        this.stripes = new ReentrantLock[lockStripes];
+        for (int i = 0; i < lockStripes; ++i) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Executes the given body in a transaction and commits it, retrying
+     * aborted transactions.
+     *
+     * @param <T>
+     *            the type of the result
+     * @param body
+     *            the work to do
+     *
+     * @return the result of the body in the committed attempt
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws AbortException
+     *             if the transaction still aborted after
+     *             {@link #getMaxRetries()} retries
+     * @throws OtpErlangException
+     *             if the body failed with any other error
+     * @throws UnknownException
+     *             if any other error occurs
+     *
+     * @see #run(Collection, TransactionBody)
+     */
+    public <T> T run(final TransactionBody<T> body) throws ConnectionException,
+            AbortException, OtpErlangException, UnknownException {
+        return run(Collections.<String>emptyList(), body);
+    }
+
+    /**
+     * Executes the given body in a transaction and commits it, retrying
+     * aborted transactions. Hot keys among the given keys are locked locally
+     * before each attempt.
+     *
+     * @param <T>
+     *            the type of the result
+     * @param keys
+     *            (some of) the keys the body works on
+     * @param body
+     *            the work to do
+     *
+     * @return the result of the body in the committed attempt
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws AbortException
+     *             if the transaction still aborted after
+     *             {@link #getMaxRetries()} retries
+     * @throws OtpErlangException
+     *             if the body failed with any other error
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    public <T> T run(final Collection<String> keys, final TransactionBody<T> body)
+            throws ConnectionException, AbortException, OtpErlangException,
+            UnknownException {
+        final Set<String> involvedKeys = new HashSet<String>(keys);
+        for (int attempt = 0;; ++attempt) {
+            final ReentrantLock[] locks = lockHotKeys(involvedKeys);
+            if (attemptsSinceDecay.incrementAndGet() >= conflictDecayInterval) {
+                attemptsSinceDecay.set(0);
+                decayConflicts();
+            }
+            try {
+                final T result = runOnce(body);
+                commits.incrementAndGet();
+                return result;
+            } catch (final AbortException e) {
+                aborts.incrementAndGet();
+                addConflicts(e.getFailedKeys());
+                if (attempt >= maxRetries) {
+                    throw e;
+                }
+                involvedKeys.addAll(e.getFailedKeys());
+                // back off without holding any locks:
+                unlock(locks);
+                try {
+                    Thread.sleep(getBackoff(attempt));
+                } catch (final InterruptedException e1) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            } finally {
+                unlock(locks);
+            }
+        }
+    }
+
+    /**
+     * Executes a single attempt.
+     */
+    private <T> T runOnce(final TransactionBody<T> body)
+            throws ConnectionException, AbortException, OtpErlangException,
+            UnknownException {
+        final Connection conn = cPool.getConnection(connectionTimeout);
+        if (conn == null) {
+            throw new ConnectionException("no connection available in the pool");
+        }
+        try {
+            final Transaction tx = new Transaction(conn);
+            boolean committed = false;
+            try {
+                final T result = body.run(tx);
+                tx.commit();
+                committed = true;
+                return result;
+            } finally {
+                if (!committed) {
+                    tx.abort();
+                }
+            }
+        } finally {
+            cPool.releaseConnection(conn);
+        }
+    }
+
+    /**
+     * Gets the time to wait before the next attempt.
+     *
+     * @param attempt
+     *            the number of the failed attempt (starting at 0)
+     *
+     * @return the backoff in milliseconds
+     */
+    protected long getBackoff(final int attempt) {
+        final long maxBackoff = this.maxBackoff;
+        long max = baseBackoff;
+        for (int i = 0; i < attempt && max < maxBackoff; ++i) {
+            max <<= 1;
+        }
+        max = Math.min(max, maxBackoff);
+        if (max <= 0) {
+            return 0;
+        }
+        synchronized (random) {
+            return (long) (random.nextDouble() * (max + 1));
+        }
+    }
+
+    /**
+     * Records the given keys as responsible for an abort.
+     *
+     * @param keys
+     *            the keys responsible for an abort
+     */
+    protected void addConflicts(final Collection<String> keys) {
+        for (final String key : keys) {
+            AtomicLong count = conflicts.get(key);
+            if (count == null) {
+                if (conflicts.size() >= maxConflictKeys) {
+                    decayConflicts();
+                    if (conflicts.size() >= maxConflictKeys) {
+                        // do not track any more keys
+                        continue;
+                    }
+                }
+                final AtomicLong newCount = new AtomicLong(0);
+                count = conflicts.putIfAbsent(key, newCount);
+                if (count == null) {
+                    count = newCount;
+                }
+            }
+            count.incrementAndGet();
+        }
+    }
+
+    /**
+     * Checks whether the given key is hot, i.e. was responsible for at least
+     * {@link #getHotKeyThreshold()} aborts.
+     *
+     * @param key
+     *            the key to check
+     *
+     * @return <tt>true</tt> if the key is hot and should be locked
+     */
+    public boolean isHot(final String key) {
+        final int threshold = hotKeyThreshold;
+        if (threshold <= 0) {
+            return false;
+        }
+        final AtomicLong count = conflicts.get(key);
+        return count != null && count.get() >= threshold;
+    }
+
+    /**
+     * Locks the stripes of all hot keys among the given keys (in ascending
+     * stripe order to avoid deadlocks).
+     *
+     * @param keys
+     *            the keys to lock
+     *
+     * @return the acquired locks
+     */
+    private ReentrantLock[] lockHotKeys(final Set<String> keys) {
+        final TreeSet<Integer> indices = new TreeSet<Integer>();
+        for (final String key : keys) {
+            if (isHot(key)) {
+                indices.add(getStripe(key));
+            }
+        }
+        final ReentrantLock[] locks = new ReentrantLock[indices.size()];
+        int i = 0;
+        for (final Integer index : indices) {
+            locks[i] = stripes[index];
+            locks[i].lock();
+            ++i;
+        }
+        return locks;
+    }
+
+    /**
+     * Releases all still held locks (in reverse order) and marks them as
+     * released.
+     *
+     * @param locks
+     *            the locks as returned by {@link #lockHotKeys(Set)}
+     */
+    private static void unlock(final ReentrantLock[] locks) {
+        for (int i = locks.length - 1; i >= 0; --i) {
+            if (locks[i] != null) {
+                locks[i].unlock();
+                locks[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Gets the index of the lock stripe of the given key.
+     *
+     * @param key
+     *            the key
+     *
+     * @return the stripe's index
+     */
+    protected int getStripe(final String key) {
+        return (key.hashCode() & 0x7fffffff) % stripes.length;
+    }
+
+    /**
+     * Gets the number of aborts caused by the given key.
+     *
+     * @param key
+     *            the key
+     *
+     * @return number of conflicts
+     */
+    public long getConflicts(final String key) {
+        final AtomicLong count = conflicts.get(key);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Gets the number of aborts caused by each key.
+     *
+     * @return a snapshot of all conflict counters
+     */
+    public Map<String, Long> getConflicts() {
+        final HashMap<String, Long> result = new HashMap<String, Long>(conflicts.size());
+        for (final Map.Entry<String, AtomicLong> entry : conflicts.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    /**
+     * Halves all conflict counters and forgets keys without conflicts. This
+     * is done automatically every {@link #getConflictDecayInterval()}
+     * attempts.
+     */
+    public void decayConflicts() {
+        for (final Map.Entry<String, AtomicLong> entry : conflicts.entrySet()) {
+            final AtomicLong count = entry.getValue();
+            long old;
+            do {
+                old = count.get();
+            } while (!count.compareAndSet(old, old / 2));
+            if (old / 2 == 0) {
+                conflicts.remove(entry.getKey(), count);
+            }
+        }
+    }
+
+    /**
+     * Forgets all conflict counters, i.e. no key is hot anymore.
+     */
+    public void resetConflicts() {
+        conflicts.clear();
+    }
+
+    /**
+     * Gets the number of committed transactions.
+     *
+     * @return number of commits
+     */
+    public long getCommits() {
+        return commits.get();
+    }
+
+    /**
+     * Gets the number of aborted attempts.
+     *
+     * @return number of aborts
+     */
+    public long getAborts() {
+        return aborts.get();
+    }
+
+    /**
+     * Gets the maximum number of retries after an abort.
+     *
+     * @return the maximum number of retries
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Sets the maximum number of retries after an abort.
+     *
+     * @param maxRetries
+     *            the maximum number of retries (&gt;= 0)
+     */
+    public void setMaxRetries(final int maxRetries) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries must be >= 0");
+        }
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Gets the backoff limit after the first abort.
+     *
+     * @return the base backoff in milliseconds
+     */
+    public long getBaseBackoff() {
+        return baseBackoff;
+    }
+
+    /**
+     * Sets the backoff limit after the first abort (it is doubled with each
+     * further abort).
+     *
+     * @param baseBackoff
+     *            the base backoff in milliseconds (&gt;= 0)
+     */
+    public void setBaseBackoff(final long baseBackoff) {
+        if (baseBackoff < 0) {
+            throw new IllegalArgumentException("baseBackoff must be >= 0");
+        }
+        this.baseBackoff = baseBackoff;
+    }
+
+    /**
+     * Gets the maximum backoff limit.
+     *
+     * @return the maximum backoff in milliseconds
+     */
+    public long getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    /**
+     * Sets the maximum backoff limit.
+     *
+     * @param maxBackoff
+     *            the maximum backoff in milliseconds (&gt;= 0)
+     */
+    public void setMaxBackoff(final long maxBackoff) {
+        if (maxBackoff < 0) {
+            throw new IllegalArgumentException("maxBackoff must be >= 0");
+        }
+        this.maxBackoff = maxBackoff;
+    }
+
+    /**
+     * Gets the number of conflicts after which a key is locked locally.
+     *
+     * @return the threshold (<tt>0</tt> if locking is disabled)
+     */
+    public int getHotKeyThreshold() {
+        return hotKeyThreshold;
+    }
+
+    /**
+     * Sets the number of conflicts after which a key is locked locally.
+     *
+     * @param hotKeyThreshold
+     *            the threshold (<tt>0</tt> to disable locking)
+     */
+    public void setHotKeyThreshold(final int hotKeyThreshold) {
+        this.hotKeyThreshold = hotKeyThreshold;
+    }
+
+    /**
+     * Gets the number of attempts after which all conflict counters are
+     * halved (see {@link #decayConflicts()}).
+     *
+     * @return the decay interval
+     */
+    public int getConflictDecayInterval() {
+        return conflictDecayInterval;
+    }
+
+    /**
+     * Sets the number of attempts after which all conflict counters are
+     * halved (see {@link #decayConflicts()}).
+     *
+     * @param conflictDecayInterval
+     *            the decay interval (&gt; 0)
+     */
+    public void setConflictDecayInterval(final int conflictDecayInterval) {
+        if (conflictDecayInterval <= 0) {
+            throw new IllegalArgumentException("conflictDecayInterval must be > 0");
+        }
+        this.conflictDecayInterval = conflictDecayInterval;
+    }
+
+    /**
+     * Gets the maximum number of keys whose conflicts are counted.
+     *
+     * @return the maximum number of keys
+     */
+    public int getMaxConflictKeys() {
+        return maxConflictKeys;
+    }
+
+    /**
+     * Sets the maximum number of keys whose conflicts are counted.
+     *
+     * @param maxConflictKeys
+     *            the maximum number of keys (&gt;= 0)
+     */
+    public void setMaxConflictKeys(final int maxConflictKeys) {
+        if (maxConflictKeys < 0) {
+            throw new IllegalArgumentException("maxConflictKeys must be >= 0");
+        }
+        this.maxConflictKeys = maxConflictKeys;
+    }
+
+    /**
+     * Gets the maximum time to wait for a connection from the pool.
+     *
+     * @return the timeout in milliseconds
+     */
+    public long getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    /**
+     * Sets the maximum time to wait for a connection from the pool.
+     *
+     * @param connectionTimeout
+     *            the timeout in milliseconds (<tt>0</tt> to wait forever)
+     */
+    public void setConnectionTimeout(final long connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+    }
+}
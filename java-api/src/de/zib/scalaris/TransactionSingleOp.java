@@ -15,6 +15,12 @@
  */
 package de.zib.scalaris;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
 import com.ericsson.otp.erlang.OtpErlangList;
 import com.ericsson.otp.erlang.OtpErlangObject;
 import com.ericsson.otp.erlang.OtpErlangString;
@@ -22,6 +28,7 @@ import com.ericsson.otp.erlang.OtpErlangString;
 import de.zib.scalaris.operations.AddDelOnListOp;
 import de.zib.scalaris.operations.AddOnNrOp;
 import de.zib.scalaris.operations.Operation;
+import de.zib.scalaris.operations.ReadOp;
 import de.zib.scalaris.operations.TestAndSetOp;
 import de.zib.scalaris.operations.TransactionSingleOpOperation;
 import de.zib.scalaris.operations.WriteOp;
@@ -106,7 +113,7 @@ import de.zib.scalaris.operations.WriteOp;
  * state. The number of automatic retries is adjustable (default: 3).
  *
  * @author Nico Kruber, kruber@zib.de
- * @version 3.18
+ * @version 3.21
  * @since 2.0
  */
 public class TransactionSingleOp extends
@@ -126,6 +133,10 @@ public class TransactionSingleOp extends
     /**
      * Constructor, uses the given connection to an erlang node.
      *
+     * The connection may also be a {@link SharedConnection} which is used by
+     * other objects in other threads at the same time (see
+     * {@link ConnectionFactory#getSharedConnection()}).
+     *
      * @param conn
      *            connection to use for the transaction
      */
@@ -232,6 +243,19 @@ public class TransactionSingleOp extends
             super(results, compressed, requests);
         }
 
+        /**
+         * Creates a result list for operations whose results have already
+         * been set, e.g. by executing parts of the request list separately.
+         *
+         * @param requests
+         *            request list whose operations contain the results
+         *
+         * @since 3.21
+         */
+        ResultList(final RequestList requests) {
+            super(requests);
+        }
+
         /**
          * Processes the result at the given position which originated from
          * a write request.
@@ -372,11 +396,51 @@ public class TransactionSingleOp extends
     @Override
     public ResultList req_list(final RequestList req)
             throws ConnectionException, UnknownException {
+        try {
+            return req_list(req, 0);
+        } catch (final TimeoutException e) {
+            // this should not happen without a timeout
+            throw new InternalError();
+        }
+    }
+
+    /**
+     * Executes all requests in <code>req</code> and commits each one of them in
+     * a single transaction. Waits at most <tt>timeout</tt> milliseconds for
+     * the results.
+     *
+     * NOTE: The execution order of multiple requests on the same key is
+     * undefined! If the timeout expires, the connection is closed (see
+     * {@link Connection#doRPC(String, String, OtpErlangList, long)}) and any
+     * of the requests may or may not have been executed.
+     *
+     * @param req
+     *            the requests to issue
+     * @param timeout
+     *            the maximum time (in milliseconds) to wait for the results
+     *            (<tt>0</tt> to wait forever)
+     *
+     * @return results of all requests in the same order as they appear in
+     *         <code>req</code>
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws TimeoutException
+     *             if no results were received within the given time
+     * @throws UnknownException
+     *             if any other error occurs
+     *
+     * @since 3.21
+     */
+    public ResultList req_list(final RequestList req, final long timeout)
+            throws ConnectionException, TimeoutException, UnknownException {
         if (req.isEmpty()) {
             return new ResultList(new OtpErlangList(), compressed, req);
         }
         final OtpErlangObject received_raw = connection.doRPC(module(), "req_list_commit_each",
-                    new OtpErlangObject[] { req.getErlangReqList(compressed) });
+                    new OtpErlangObject[] { req.getErlangReqList(compressed) }, timeout);
         try {
             /*
              * possible return values:
@@ -389,6 +453,106 @@ public class TransactionSingleOp extends
         }
     }
 
+    /**
+     * Reads the values of all given keys. Keys are read in requests of at most
+     * {@link #getBulkChunkSize()} keys each.
+     *
+     * Errors are reported per key, e.g. a {@link NotFoundException} for a
+     * non-existing key or a {@link ConnectionException} for all keys of a
+     * request which could not be sent.
+     *
+     * @param keys
+     *            the keys to read
+     *
+     * @return the values and errors of all keys
+     *
+     * @see KeyRouter#readMany(Collection)
+     * @since 3.21
+     */
+    public BulkResult<ErlangValue> readMany(final Collection<String> keys) {
+        final BulkResult<ErlangValue> result = new BulkResult<ErlangValue>();
+        final List<ReadOp> chunk = new ArrayList<ReadOp>(Math.min(keys.size(), bulkChunkSize));
+        for (final String key : new LinkedHashSet<String>(keys)) {
+            chunk.add(new ReadOp(key));
+            if (chunk.size() >= bulkChunkSize) {
+                if (executeChunk(chunk, result)) {
+                    BulkResult.addReads(result, chunk);
+                }
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty() && executeChunk(chunk, result)) {
+            BulkResult.addReads(result, chunk);
+        }
+        return result;
+    }
+
+    /**
+     * Writes all given key/value pairs, each in its own transaction. Pairs
+     * are written in requests of at most {@link #getBulkChunkSize()} pairs
+     * each.
+     *
+     * Errors are reported per key, e.g. an {@link AbortException} for a
+     * failed commit or a {@link ConnectionException} for all keys of a
+     * request which could not be sent.
+     *
+     * @param <T>
+     *            the type of the values
+     * @param values
+     *            the key/value pairs to write
+     *
+     * @return the errors of all keys (successfully written keys map to
+     *         <tt>null</tt> in {@link BulkResult#getValues()})
+     *
+     * @see KeyRouter#writeMany(Map)
+     * @since 3.21
+     */
+    public <T> BulkResult<Object> writeMany(final Map<String, T> values) {
+        final BulkResult<Object> result = new BulkResult<Object>();
+        final List<WriteOp> chunk = new ArrayList<WriteOp>(Math.min(values.size(), bulkChunkSize));
+        for (final Map.Entry<String, T> entry : values.entrySet()) {
+            chunk.add(new WriteOp(entry.getKey(), entry.getValue()));
+            if (chunk.size() >= bulkChunkSize) {
+                if (executeChunk(chunk, result)) {
+                    BulkResult.addWrites(result, chunk);
+                }
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty() && executeChunk(chunk, result)) {
+            BulkResult.addWrites(result, chunk);
+        }
+        return result;
+    }
+
+    /**
+     * Executes the given operations in a single request and reports a failed
+     * request as an error of each of the operations' keys.
+     *
+     * @param chunk
+     *            the operations to execute
+     * @param result
+     *            the result to add errors to
+     *
+     * @return whether the request was successful
+     */
+    private boolean executeChunk(final List<? extends TransactionSingleOpOperation> chunk,
+            final BulkResult<?> result) {
+        final RequestList req = new RequestList();
+        for (final TransactionSingleOpOperation op : chunk) {
+            req.addOp(op);
+        }
+        try {
+            req_list(req);
+            return true;
+        } catch (final ConnectionException e) {
+            result.addErrors(chunk, e);
+        } catch (final UnknownException e) {
+            result.addErrors(chunk, e);
+        }
+        return false;
+    }
+
     @Override
     protected RequestList newReqList() {
         return new RequestList();
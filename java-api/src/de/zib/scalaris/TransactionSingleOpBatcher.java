@@ -0,0 +1,462 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.zib.scalaris.operations.ReadOp;
+import de.zib.scalaris.operations.TransactionSingleOpOperation;
+import de.zib.scalaris.operations.WriteOp;
+
+/**
+ * Collects single operations from many threads and sends them to Scalaris in
+ * batches, i.e. as a single
+ * {@link TransactionSingleOp#req_list(TransactionSingleOp.RequestList)} call
+ * (<tt>api_tx:req_list_commit_each/1</tt>). Each operation is still committed
+ * in its own transaction.
+ *
+ * A batch is sent as soon as it contains {@link #getMaxBatchSize()} operations
+ * or {@link #getMaxDelay()} milliseconds after its first operation has been
+ * submitted. Batches are executed on connections from the given
+ * {@link ConnectionPool}, so multiple batches may be in flight at the same
+ * time.
+ *
+ * NOTE: The execution order of multiple operations on the same key in a
+ * batch is undefined!
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.21
+ * @since 3.21
+ */
+public class TransactionSingleOpBatcher {
+    /**
+     * Pool to get connections from.
+     */
+    protected final ConnectionPool cPool;
+
+    /**
+     * Maximum number of operations in a batch.
+     */
+    private volatile int maxBatchSize = 100;
+
+    /**
+     * Maximum time (in nanoseconds) an operation waits for other operations.
+     */
+    private volatile long maxDelay = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Maximum time (in milliseconds) to wait for a connection from the pool.
+     */
+    private volatile long connectionTimeout = 10000;
+
+    private final LinkedBlockingQueue<OpFuture<?>> queue = new LinkedBlockingQueue<OpFuture<?>>();
+
+    private final Thread collector;
+
+    private volatile boolean closed = false;
+
+    private final AtomicLong batches = new AtomicLong(0);
+    private final AtomicLong operations = new AtomicLong(0);
+
+    /**
+     * Executor for sending batches.
+     */
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(final Runnable r) {
+            final Thread t = new Thread(r, "TransactionSingleOpBatcher worker");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /**
+     * Creates a new batcher using connections from the given pool.
+     *
+     * @param cPool
+     *            the connection pool to use
+     */
+    public TransactionSingleOpBatcher(final ConnectionPool cPool) {
+        this.cPool = cPool;
+        collector = new Thread(new Runnable() {
+            public void run() {
+                collect();
+            }
+        }, "TransactionSingleOpBatcher collector");
+        collector.setDaemon(true);
+        collector.start();
+    }
+
+    /**
+     * Adds the given operation to the next batch.
+     *
+     * The returned future provides the operation once its result has been
+     * set. Process the result with
+     * {@link TransactionSingleOpOperation#processResultSingle()}.
+     *
+     * @param <T>
+     *            the type of the operation
+     * @param op
+     *            the operation to execute
+     *
+     * @return the (future) operation with its result
+     *
+     * @throws IllegalStateException
+     *             if the batcher has been closed
+     */
+    public <T extends TransactionSingleOpOperation> Future<T> submit(final T op) {
+        if (closed) {
+            throw new IllegalStateException("batcher has been closed");
+        }
+        final OpFuture<T> future = new OpFuture<T>(op);
+        queue.add(future);
+        if (closed) {
+            // close() may have drained the queue before the future was added
+            failQueued();
+        }
+        return future;
+    }
+
+    /**
+     * Gets the value stored under the given <code>key</code> using the next
+     * batch.
+     *
+     * @param key
+     *            the key to look up
+     *
+     * @return the value stored under the given <code>key</code>
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws NotFoundException
+     *             if the requested key does not exist
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    public ErlangValue read(final String key) throws ConnectionException,
+            NotFoundException, UnknownException {
+        return getOp(submit(new ReadOp(key))).processResult();
+    }
+
+    /**
+     * Stores the given <code>key</code>/<code>value</code> pair using the next
+     * batch.
+     *
+     * @param <T>
+     *            the type of the <tt>value</tt>
+     * @param key
+     *            the key to store the value for
+     * @param value
+     *            the value to store
+     *
+     * @throws ConnectionException
+     *             if the connection is not active or a communication error
+     *             occurs or an exit signal was received or the remote node
+     *             sends a message containing an invalid cookie
+     * @throws AbortException
+     *             if the commit of the write failed
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    public <T> void write(final String key, final T value)
+            throws ConnectionException, AbortException, UnknownException {
+        getOp(submit(new WriteOp(key, value))).processResultSingle();
+    }
+
+    /**
+     * Waits for the given future and converts any error to a
+     * {@link ConnectionException}.
+     *
+     * @param <T>
+     *            the type of the operation
+     * @param future
+     *            a future as returned by
+     *            {@link #submit(TransactionSingleOpOperation)}
+     *
+     * @return the operation with its result
+     *
+     * @throws ConnectionException
+     *             if sending the batch failed or the current thread was
+     *             interrupted
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    public static <T extends TransactionSingleOpOperation> T getOp(
+            final Future<T> future) throws ConnectionException, UnknownException {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectionException(e);
+        } catch (final CancellationException e) {
+            throw new ConnectionException(e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof ConnectionException) {
+                throw (ConnectionException) e.getCause();
+            } else if (e.getCause() instanceof UnknownException) {
+                throw (UnknownException) e.getCause();
+            }
+            throw new UnknownException(e.getCause());
+        }
+    }
+
+    /**
+     * Stops collecting operations. Operations which have not been sent yet
+     * fail with a {@link ConnectionException}.
+     */
+    public void close() {
+        closed = true;
+        collector.interrupt();
+        failQueued();
+    }
+
+    /**
+     * Collects operations into batches until the batcher is closed.
+     */
+    private void collect() {
+        final List<OpFuture<?>> batch = new ArrayList<OpFuture<?>>();
+        try {
+            while (!closed) {
+                batch.add(queue.take());
+                final int maxSize = maxBatchSize;
+                final long deadline = System.nanoTime() + maxDelay;
+                while (batch.size() < maxSize) {
+                    queue.drainTo(batch, maxSize - batch.size());
+                    final long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxSize || remaining <= 0) {
+                        break;
+                    }
+                    final OpFuture<?> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                final List<OpFuture<?>> toSend = new ArrayList<OpFuture<?>>(batch);
+                batch.clear();
+                executor.execute(new Runnable() {
+                    public void run() {
+                        send(toSend);
+                    }
+                });
+            }
+        } catch (final InterruptedException e) {
+            // closed
+        }
+        final ConnectionException e = new ConnectionException("batcher has been closed");
+        for (final OpFuture<?> future : batch) {
+            future.complete(e);
+        }
+        failQueued();
+    }
+
+    private void failQueued() {
+        final ConnectionException e = new ConnectionException("batcher has been closed");
+        OpFuture<?> future;
+        while ((future = queue.poll()) != null) {
+            future.complete(e);
+        }
+    }
+
+    /**
+     * Sends a batch and completes the futures of its operations.
+     */
+    private void send(final List<OpFuture<?>> batch) {
+        final TransactionSingleOp.RequestList req = new TransactionSingleOp.RequestList();
+        for (final OpFuture<?> future : batch) {
+            req.addOp(future.op);
+        }
+        Exception error = null;
+        try {
+            final Connection conn = cPool.getConnection(connectionTimeout);
+            if (conn == null) {
+                throw new ConnectionException("no connection available in the pool");
+            }
+            try {
+                new TransactionSingleOp(conn).req_list(req);
+            } finally {
+                cPool.releaseConnection(conn);
+            }
+            batches.incrementAndGet();
+            operations.addAndGet(batch.size());
+        } catch (final ConnectionException e) {
+            error = e;
+        } catch (final UnknownException e) {
+            error = e;
+        } catch (final RuntimeException e) {
+            error = new UnknownException(e);
+        }
+        for (final OpFuture<?> future : batch) {
+            future.complete(error);
+        }
+    }
+
+    /**
+     * Gets the maximum number of operations in a batch.
+     *
+     * @return the maximum batch size
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Sets the maximum number of operations in a batch.
+     *
+     * @param maxBatchSize
+     *            the maximum batch size (&gt; 0)
+     */
+    public void setMaxBatchSize(final int maxBatchSize) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize must be > 0");
+        }
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Gets the maximum time an operation waits for further operations to
+     * join its batch.
+     *
+     * @return the maximum delay in microseconds
+     */
+    public long getMaxDelay() {
+        return TimeUnit.NANOSECONDS.toMicros(maxDelay);
+    }
+
+    /**
+     * Sets the maximum time an operation waits for further operations to
+     * join its batch.
+     *
+     * @param maxDelay
+     *            the maximum delay in microseconds (&gt;= 0)
+     */
+    public void setMaxDelay(final long maxDelay) {
+        if (maxDelay < 0) {
+            throw new IllegalArgumentException("maxDelay must be >= 0");
+        }
+        this.maxDelay = TimeUnit.MICROSECONDS.toNanos(maxDelay);
+    }
+
+    /**
+     * Gets the maximum time to wait for a connection from the pool.
+     *
+     * @return the timeout in milliseconds
+     */
+    public long getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    /**
+     * Sets the maximum time to wait for a connection from the pool.
+     *
+     * @param connectionTimeout
+     *            the timeout in milliseconds (<tt>0</tt> to wait forever)
+     */
+    public void setConnectionTimeout(final long connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+    }
+
+    /**
+     * Gets the number of batches successfully sent so far.
+     *
+     * @return number of batches
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * Gets the number of operations successfully sent so far.
+     *
+     * @return number of operations
+     */
+    public long getOperations() {
+        return operations.get();
+    }
+
+    /**
+     * An operation waiting for its result.
+     *
+     * @param <T>
+     *            the type of the operation
+     *
+     * @author Nico Kruber, kruber@zib.de
+     * @version 3.21
+     * @since 3.21
+     */
+    private static class OpFuture<T extends TransactionSingleOpOperation> implements Future<T> {
+        final T op;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Exception error = null;
+
+        OpFuture(final T op) {
+            this.op = op;
+        }
+
+        void complete(final Exception error) {
+            if (done.getCount() > 0) {
+                this.error = error;
+                done.countDown();
+            }
+        }
+
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            // operations can not be removed from a batch
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        public T get() throws InterruptedException, ExecutionException {
+            done.await();
+            return getNow();
+        }
+
+        public T get(final long timeout, final TimeUnit unit)
+                throws InterruptedException, ExecutionException,
+                java.util.concurrent.TimeoutException {
+            if (!done.await(timeout, unit)) {
+                throw new java.util.concurrent.TimeoutException();
+            }
+            return getNow();
+        }
+
+        private T getNow() throws ExecutionException {
+            if (error != null) {
+                throw new ExecutionException(error);
+            }
+            return op;
+        }
+    }
+}
@@ -0,0 +1,544 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.ericsson.otp.erlang.OtpErlangBinary;
+import com.ericsson.otp.erlang.OtpErlangDecodeException;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpExternal;
+import com.ericsson.otp.erlang.OtpInputStream;
+import com.ericsson.otp.erlang.OtpOutputStream;
+
+/**
+ * Encodes and decodes values the same way as
+ * <tt>rdht_tx:encode_value/1</tt> and <tt>rdht_tx:decode_value/1</tt> (see
+ * {@link CommonErlangObjects#encode(OtpErlangObject)} and
+ * {@link CommonErlangObjects#decode(OtpErlangObject)}).
+ *
+ * Each thread re-uses its own buffers, {@link Deflater} and {@link Inflater}
+ * so that encoding a value only allocates the resulting binary and decoding
+ * only allocates the decoded term. Binaries are encoded directly into an
+ * array of the exact size. Decoding reads straight from the received binary
+ * without copying it. Buffers larger than {@link #MAX_RETAINED_BUFFER_SIZE}
+ * are not kept after use.
+ *
+ * The {@link ValueCompression} settings define how terms are compressed.
+ * With the default settings, the produced binaries are byte-for-byte the same
+ * as the ones created by
+ * {@link OtpOutputStream#write_compressed(OtpErlangObject)}.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.21
+ * @since 3.21
+ */
+final class ValueCodec {
+    /**
+     * Maximum size (in bytes) of a buffer which is kept for further calls.
+     */
+    static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Terms smaller than this (encoded) are not compressed (same as in
+     * {@link OtpOutputStream#write_compressed(OtpErlangObject)}).
+     */
+    private static final int MIN_COMPRESS_SIZE = 5;
+
+    /**
+     * Index of the first data byte of an encoded binary (see
+     * {@link #encodeBinary(OtpErlangBinary)}).
+     */
+    static final int BINARY_OFFSET = 6;
+
+    /**
+     * List types for {@link #decodePrimitiveList(byte[], int)}.
+     */
+    static final int LIST_OF_LONGS = 0;
+    static final int LIST_OF_DOUBLES = 1;
+    static final int LIST_OF_BINARIES = 2;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final ThreadLocal<State> states = new ThreadLocal<State>() {
+        @Override
+        protected State initialValue() {
+            return new State(false);
+        }
+    };
+
+    private ValueCodec() {
+    }
+
+    /**
+     * Output stream providing access to its buffer without copying it.
+     */
+    private static final class Buffer extends OtpOutputStream {
+        Buffer() {
+            super();
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+
+    /**
+     * Binary using the given array without copying it.
+     */
+    private static final class Binary extends OtpErlangBinary {
+        private static final long serialVersionUID = 1L;
+
+        Binary(final byte[] bin) {
+            super(EMPTY);
+            this.bin = bin;
+        }
+    }
+
+    /**
+     * Re-usable per-thread objects.
+     *
+     * The {@link Deflater} and {@link Inflater} hold native (zlib) memory
+     * and are thus only created when needed and ended by {@link #end()}.
+     */
+    private static final class State {
+        Buffer term = new Buffer();
+        byte[] out = new byte[2048];
+        private Deflater deflater = null;
+        private Inflater inflater = null;
+        byte[] inflated = new byte[2048];
+        boolean inUse = false;
+        /**
+         * Whether this is a temporary state (not stored in {@link #states})
+         * which is ended on {@link #release()}.
+         */
+        final boolean temporary;
+
+        State(final boolean temporary) {
+            this.temporary = temporary;
+        }
+
+        Deflater deflater() {
+            if (deflater == null) {
+                deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+            } else {
+                deflater.reset();
+            }
+            return deflater;
+        }
+
+        Inflater inflater() {
+            if (inflater == null) {
+                inflater = new Inflater();
+            } else {
+                inflater.reset();
+            }
+            return inflater;
+        }
+
+        /**
+         * Frees the native memory of the {@link Deflater} and
+         * {@link Inflater} (they are re-created if needed again).
+         */
+        void end() {
+            if (deflater != null) {
+                deflater.end();
+                deflater = null;
+            }
+            if (inflater != null) {
+                inflater.end();
+                inflater = null;
+            }
+        }
+
+        void release() {
+            if (temporary) {
+                end();
+                return;
+            }
+            if (term.buffer().length > MAX_RETAINED_BUFFER_SIZE) {
+                term = new Buffer();
+            } else {
+                term.reset();
+            }
+            if (out.length > MAX_RETAINED_BUFFER_SIZE) {
+                out = new byte[2048];
+            }
+            if (inflated.length > MAX_RETAINED_BUFFER_SIZE) {
+                inflated = new byte[2048];
+            }
+            inUse = false;
+        }
+    }
+
+    /**
+     * Gets the state of the current thread (or a new one if it is already
+     * being used, e.g. by a custom {@link OtpErlangObject#encode(OtpOutputStream)}
+     * which encodes another value).
+     *
+     * @return a state which is not in use
+     */
+    private static State acquire() {
+        State state = states.get();
+        if (state.inUse) {
+            state = new State(true);
+        }
+        state.inUse = true;
+        return state;
+    }
+
+    /**
+     * Frees the resources of the current thread, i.e. its buffers and the
+     * native memory of its {@link Deflater} and {@link Inflater}. They are
+     * re-created when the thread encodes or decodes values again.
+     */
+    static void releaseThreadResources() {
+        final State state = states.get();
+        if (!state.inUse) {
+            state.end();
+            states.remove();
+        }
+    }
+
+    /**
+     * Encodes a binary into an array of the exact size.
+     *
+     * @param value
+     *            the binary to encode
+     *
+     * @return the encoded value
+     */
+    static OtpErlangBinary encodeBinary(final OtpErlangBinary value) {
+        final byte[] bin = value.binaryValue();
+        final byte[] result = new byte[bin.length + BINARY_OFFSET];
+        result[0] = (byte) OtpExternal.versionTag;
+        result[1] = (byte) OtpExternal.binTag;
+        put4BE(result, 2, bin.length);
+        System.arraycopy(bin, 0, result, BINARY_OFFSET, bin.length);
+        return new Binary(result);
+    }
+
+    /**
+     * Checks whether the given encoded value is an (uncompressed) binary
+     * whose data starts at {@link #BINARY_OFFSET}.
+     *
+     * @param bin
+     *            the encoded value
+     *
+     * @return <tt>true</tt> if the value is a binary
+     */
+    static boolean isEncodedBinary(final byte[] bin) {
+        return (bin.length >= BINARY_OFFSET)
+                && ((bin[0] & 0xff) == OtpExternal.versionTag)
+                && ((bin[1] & 0xff) == OtpExternal.binTag)
+                && (get4BE(bin, 2) == bin.length - BINARY_OFFSET);
+    }
+
+    /**
+     * Encodes the given term as a (compressed) binary according to the
+     * current {@link ValueCompression} settings. By default, this is the same
+     * as <tt>term_to_binary(Value, [compressed])</tt>.
+     *
+     * @param value
+     *            the term to encode
+     *
+     * @return the encoded value
+     */
+    static OtpErlangBinary encodeCompressed(final OtpErlangObject value) {
+        final ValueCompression compression = ValueCompression.getDefault();
+        final State state = acquire();
+        try {
+            final Buffer term = state.term;
+            term.write_any(value);
+            final int size = term.size();
+            final String codec = compression.getCodec();
+            if ((size < MIN_COMPRESS_SIZE) || (size < compression.getThreshold())
+                    || (codec == ValueCompression.CODEC_NONE)) {
+                return uncompressed(term, size);
+            }
+            final Deflater deflater = state.deflater();
+            deflater.setLevel(compression.getLevel());
+            deflater.setInput(term.buffer(), 0, size);
+            deflater.finish();
+            // like Jinterface, only compress if this does not increase the size:
+            final int maxLen = size - 5;
+            int len = 0;
+            while (!deflater.finished()) {
+                if (len > maxLen) {
+                    return uncompressed(term, size);
+                }
+                if (len == state.out.length) {
+                    final byte[] newOut = new byte[state.out.length * 2];
+                    System.arraycopy(state.out, 0, newOut, 0, len);
+                    state.out = newOut;
+                }
+                len += deflater.deflate(state.out, len, state.out.length - len);
+            }
+            if (len > maxLen) {
+                return uncompressed(term, size);
+            }
+            final byte[] result = new byte[len + 6];
+            result[0] = (byte) OtpExternal.versionTag;
+            result[1] = (byte) OtpExternal.compressedTag;
+            put4BE(result, 2, size);
+            System.arraycopy(state.out, 0, result, 6, len);
+            return new Binary(result);
+        } finally {
+            state.release();
+        }
+    }
+
+    /**
+     * Copies the (uncompressed) encoded term into a new binary.
+     *
+     * @param term
+     *            the buffer with the encoded term
+     * @param size
+     *            the size of the encoded term
+     *
+     * @return the encoded term including the version tag
+     */
+    private static OtpErlangBinary uncompressed(final Buffer term, final int size) {
+        final byte[] result = new byte[size + 1];
+        result[0] = (byte) OtpExternal.versionTag;
+        System.arraycopy(term.buffer(), 0, result, 1, size);
+        return new Binary(result);
+    }
+
+    /**
+     * Decodes the given binary (compressed or not).
+     *
+     * @param value
+     *            the binary to decode
+     *
+     * @return the decoded term
+     *
+     * @throws OtpErlangDecodeException
+     *             if decoding fails
+     */
+    static OtpErlangObject decodeBinary(final OtpErlangBinary value)
+            throws OtpErlangDecodeException {
+        final byte[] bin = value.binaryValue();
+        if (bin.length < 6 || (bin[0] & 0xff) != OtpExternal.versionTag
+                || (bin[1] & 0xff) != OtpExternal.compressedTag) {
+            return new OtpInputStream(bin).read_any();
+        }
+        final int size = get4BE(bin, 2);
+        final State state = acquire();
+        try {
+            inflate(state, bin, size);
+            return new OtpInputStream(state.inflated, 0, size, 0).read_any();
+        } finally {
+            state.release();
+        }
+    }
+
+    /**
+     * Inflates the compressed term in the given binary into the state's
+     * {@link State#inflated} buffer.
+     *
+     * @param state
+     *            the current thread's state
+     * @param bin
+     *            an encoded compressed term
+     * @param size
+     *            the size of the uncompressed term
+     *
+     * @throws OtpErlangDecodeException
+     *             if the data cannot be inflated
+     */
+    private static void inflate(final State state, final byte[] bin,
+            final int size) throws OtpErlangDecodeException {
+        if (size < 0) {
+            throw new OtpErlangDecodeException("Invalid uncompressed size " + size);
+        }
+        if (state.inflated.length < size) {
+            state.inflated = new byte[Math.max(size, state.inflated.length * 2)];
+        }
+        final Inflater inflater = state.inflater();
+        inflater.setInput(bin, 6, bin.length - 6);
+        int len = 0;
+        try {
+            while (len < size && !inflater.finished()) {
+                final int n = inflater.inflate(state.inflated, len, size - len);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                len += n;
+            }
+        } catch (final DataFormatException e) {
+            throw new OtpErlangDecodeException("Cannot inflate: " + e.getMessage());
+        }
+        if (len != size) {
+            throw new OtpErlangDecodeException("Decompression gave " + len
+                    + " bytes, not " + size);
+        }
+    }
+
+    /**
+     * Decodes an encoded list of integers, floats or binaries directly into
+     * an array, i.e. without creating Erlang objects for its elements.
+     *
+     * @param bin
+     *            the encoded value
+     * @param kind
+     *            the type of the list ({@link #LIST_OF_LONGS},
+     *            {@link #LIST_OF_DOUBLES} or {@link #LIST_OF_BINARIES})
+     *
+     * @return a <tt>long[]</tt>, <tt>double[]</tt> or <tt>byte[][]</tt> or
+     *         <tt>null</tt> if the value is not such a list (or contains too
+     *         big integers)
+     *
+     * @throws OtpErlangDecodeException
+     *             if a compressed value cannot be inflated
+     */
+    static Object decodePrimitiveList(final byte[] bin, final int kind)
+            throws OtpErlangDecodeException {
+        if (bin.length < 2 || (bin[0] & 0xff) != OtpExternal.versionTag) {
+            return null;
+        } else if ((bin[1] & 0xff) != OtpExternal.compressedTag) {
+            return parsePrimitiveList(bin, 1, bin.length, kind);
+        } else if (bin.length < 6) {
+            return null;
+        }
+        final int size = get4BE(bin, 2);
+        final State state = acquire();
+        try {
+            inflate(state, bin, size);
+            return parsePrimitiveList(state.inflated, 0, size, kind);
+        } finally {
+            state.release();
+        }
+    }
+
+    private static Object parsePrimitiveList(final byte[] buf, int pos,
+            final int end, final int kind) {
+        if (pos >= end) {
+            return null;
+        }
+        final int tag = buf[pos++] & 0xff;
+        if (tag == OtpExternal.nilTag) {
+            return newArray(kind, 0);
+        } else if (tag == OtpExternal.stringTag) {
+            // list of integers 0..255
+            if (kind != LIST_OF_LONGS || pos + 2 > end) {
+                return null;
+            }
+            final int len = ((buf[pos] & 0xff) << 8) | (buf[pos + 1] & 0xff);
+            pos += 2;
+            if (pos + len > end) {
+                return null;
+            }
+            final long[] result = new long[len];
+            for (int i = 0; i < len; ++i) {
+                result[i] = buf[pos + i] & 0xff;
+            }
+            return result;
+        } else if (tag != OtpExternal.listTag || pos + 4 > end) {
+            return null;
+        }
+        final int len = get4BE(buf, pos);
+        pos += 4;
+        // each element needs at least 2 bytes
+        if (len < 0 || len > (end - pos) / 2) {
+            return null;
+        }
+        final Object result = newArray(kind, len);
+        final long[] longs = (kind == LIST_OF_LONGS) ? (long[]) result : null;
+        for (int i = 0; i < len; ++i) {
+            final int elemTag = buf[pos++] & 0xff;
+            if (kind == LIST_OF_DOUBLES) {
+                if (elemTag != OtpExternal.newFloatTag || pos + 8 > end) {
+                    return null;
+                }
+                ((double[]) result)[i] = Double.longBitsToDouble(
+                        ((long) get4BE(buf, pos) << 32) | (get4BE(buf, pos + 4) & 0xffffffffL));
+                pos += 8;
+            } else if (kind == LIST_OF_BINARIES) {
+                if (elemTag != OtpExternal.binTag || pos + 4 > end) {
+                    return null;
+                }
+                final int binLen = get4BE(buf, pos);
+                pos += 4;
+                if (binLen < 0 || binLen > end - pos) {
+                    return null;
+                }
+                final byte[] elem = new byte[binLen];
+                System.arraycopy(buf, pos, elem, 0, binLen);
+                ((byte[][]) result)[i] = elem;
+                pos += binLen;
+            } else if (elemTag == OtpExternal.smallIntTag && pos + 1 <= end) {
+                longs[i] = buf[pos++] & 0xff;
+            } else if (elemTag == OtpExternal.intTag && pos + 4 <= end) {
+                longs[i] = get4BE(buf, pos);
+                pos += 4;
+            } else if (elemTag == OtpExternal.smallBigTag && pos + 2 <= end) {
+                final int digits = buf[pos] & 0xff;
+                final boolean negative = buf[pos + 1] != 0;
+                pos += 2;
+                if (digits > 8 || pos + digits > end) {
+                    return null;
+                }
+                long value = 0;
+                for (int d = digits - 1; d >= 0; --d) {
+                    value = (value << 8) | (buf[pos + d] & 0xff);
+                }
+                pos += digits;
+                if (value < 0) {
+                    // magnitude does not fit into a long (except for MIN_VALUE)
+                    if (!(negative && value == Long.MIN_VALUE)) {
+                        return null;
+                    }
+                    longs[i] = Long.MIN_VALUE;
+                } else {
+                    longs[i] = negative ? -value : value;
+                }
+            } else {
+                return null;
+            }
+        }
+        // only proper lists
+        if (pos >= end || (buf[pos] & 0xff) != OtpExternal.nilTag) {
+            return null;
+        }
+        return result;
+    }
+
+    private static Object newArray(final int kind, final int len) {
+        switch (kind) {
+        case LIST_OF_LONGS:
+            return new long[len];
+        case LIST_OF_DOUBLES:
+            return new double[len];
+        default:
+            return new byte[len][];
+        }
+    }
+
+    private static int get4BE(final byte[] buf, final int pos) {
+        return ((buf[pos] & 0xff) << 24) | ((buf[pos + 1] & 0xff) << 16)
+                | ((buf[pos + 2] & 0xff) << 8) | (buf[pos + 3] & 0xff);
+    }
+
+    private static void put4BE(final byte[] buf, final int pos, final int n) {
+        buf[pos] = (byte) (n >>> 24);
+        buf[pos + 1] = (byte) (n >>> 16);
+        buf[pos + 2] = (byte) (n >>> 8);
+        buf[pos + 3] = (byte) n;
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import java.util.Properties;
+import java.util.zip.Deflater;
+
+import com.ericsson.otp.erlang.OtpErlangObject;
+
+/**
+ * Settings for the (client-side) compression of values, see
+ * {@link CommonErlangObjects#encode(OtpErlangObject)}.
+ *
+ * The following codecs are available:
+ * <ul>
+ * <li>{@link #CODEC_DEFLATE}: the Erlang compressed term format (zlib) with
+ * the given compression level - can be read by any client and by the
+ * Scalaris nodes,</li>
+ * <li>{@link #CODEC_NONE}: values are not compressed.</li>
+ * </ul>
+ * Values whose encoded size is smaller than the threshold are never
+ * compressed. Reads always decompress values, independent of the current
+ * settings.
+ *
+ * These settings apply to all values encoded in this JVM and can only be
+ * changed with {@link #setDefault(ValueCompression)}. They can be read from
+ * the following properties with {@link #fromProperties(Properties)} or
+ * {@link ConnectionFactory#getValueCompression()} (default values as
+ * shown):
+ * <ul>
+ * <li><tt>scalaris.compression.codec = "deflate"</tt> (<tt>deflate</tt> or
+ * <tt>none</tt>)</li>
+ * <li><tt>scalaris.compression.level = "-1"</tt> (<tt>-1</tt> for the default
+ * level, or <tt>0</tt>-<tt>9</tt>)</li>
+ * <li><tt>scalaris.compression.threshold = "0"</tt> (in bytes)</li>
+ * </ul>
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.21
+ * @since 3.21
+ */
+public final class ValueCompression {
+    /**
+     * Compress values with deflate (Erlang compressed term format).
+     */
+    public static final String CODEC_DEFLATE = "deflate";
+    /**
+     * Do not compress values.
+     */
+    public static final String CODEC_NONE = "none";
+
+    /**
+     * Default settings, i.e. the same compression as
+     * <tt>term_to_binary(Value, [compressed])</tt>.
+     */
+    public static final ValueCompression DEFAULT = new ValueCompression(
+            CODEC_DEFLATE, Deflater.DEFAULT_COMPRESSION, 0);
+
+    private static volatile ValueCompression current = DEFAULT;
+
+    private final String codec;
+    private final int level;
+    private final int threshold;
+
+    /**
+     * Creates new compression settings.
+     *
+     * @param codec
+     *            the codec to use ({@link #CODEC_DEFLATE} or
+     *            {@link #CODEC_NONE})
+     * @param level
+     *            the deflate compression level (<tt>-1</tt> for the default
+     *            level, or <tt>0</tt>-<tt>9</tt>)
+     * @param threshold
+     *            minimum size (in bytes) of an encoded value to be compressed
+     *
+     * @throws IllegalArgumentException
+     *             if any of the parameters is invalid
+     */
+    public ValueCompression(final String codec, final int level,
+            final int threshold) throws IllegalArgumentException {
+        if (CODEC_DEFLATE.equals(codec)) {
+            this.codec = CODEC_DEFLATE;
+        } else if (CODEC_NONE.equals(codec)) {
+            this.codec = CODEC_NONE;
+        } else {
+            throw new IllegalArgumentException("unknown codec: " + codec);
+        }
+        if ((level < Deflater.DEFAULT_COMPRESSION)
+                || (level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("invalid level: " + level);
+        }
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold must be >= 0");
+        }
+        this.level = level;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Creates compression settings from the given properties (see
+     * {@link ValueCompression}), using default values for missing
+     * properties.
+     *
+     * @param properties
+     *            the properties to read
+     *
+     * @return compression settings
+     *
+     * @throws IllegalArgumentException
+     *             if any of the properties is invalid
+     */
+    public static ValueCompression fromProperties(final Properties properties)
+            throws IllegalArgumentException {
+        return new ValueCompression(
+                properties.getProperty("scalaris.compression.codec", CODEC_DEFLATE),
+                Integer.parseInt(properties.getProperty("scalaris.compression.level", "-1")),
+                Integer.parseInt(properties.getProperty("scalaris.compression.threshold", "0")));
+    }
+
+    /**
+     * Gets the settings currently used to encode values.
+     *
+     * @return compression settings
+     */
+    public static ValueCompression getDefault() {
+        return current;
+    }
+
+    /**
+     * Sets the settings to use for encoding values (in this JVM).
+     *
+     * @param compression
+     *            compression settings
+     */
+    public static void setDefault(final ValueCompression compression) {
+        if (compression == null) {
+            throw new NullPointerException();
+        }
+        current = compression;
+    }
+
+    /**
+     * Gets the codec to use.
+     *
+     * @return the codec ({@link #CODEC_DEFLATE} or {@link #CODEC_NONE})
+     */
+    public String getCodec() {
+        return codec;
+    }
+
+    /**
+     * Gets the deflate compression level.
+     *
+     * @return the level (<tt>-1</tt> for the default level, or
+     *         <tt>0</tt>-<tt>9</tt>)
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Gets the minimum size of an encoded value to be compressed.
+     *
+     * @return the threshold in bytes
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (!(obj instanceof ValueCompression)) {
+            return false;
+        }
+        final ValueCompression other = (ValueCompression) obj;
+        return codec.equals(other.codec) && (level == other.level)
+                && (threshold == other.threshold);
+    }
+
+    @Override
+    public int hashCode() {
+        return (((codec.hashCode() * 31) + level) * 31) + threshold;
+    }
+
+    @Override
+    public String toString() {
+        return codec + " (level " + level + ", threshold " + threshold + ")";
+    }
+}
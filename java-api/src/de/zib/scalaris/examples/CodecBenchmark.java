@@ -0,0 +1,198 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris.examples;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.Random;
+
+import com.ericsson.otp.erlang.OtpErlangBinary;
+import com.ericsson.otp.erlang.OtpErlangDecodeException;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangString;
+import com.ericsson.otp.erlang.OtpExternal;
+import com.ericsson.otp.erlang.OtpInputStream;
+import com.ericsson.otp.erlang.OtpOutputStream;
+
+import de.zib.scalaris.CommonErlangObjects;
+
+/**
+ * Micro benchmark of the value encoding and decoding of
+ * {@link CommonErlangObjects#encode(OtpErlangObject)} and
+ * {@link CommonErlangObjects#decode(OtpErlangObject)} compared to the plain
+ * Jinterface implementation (a new {@link OtpOutputStream} and
+ * {@link OtpInputStream} per value). Does not need a Scalaris node.
+ *
+ * Prints the time and, if supported by the JVM
+ * (<tt>com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)</tt>),
+ * the number of bytes allocated per operation.
+ *
+ * <p>
+ * Run the benchmark with
+ * <code>java -cp scalaris-examples.jar de.zib.scalaris.examples.CodecBenchmark [operations]</code>
+ * </p>
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.21
+ * @since 3.21
+ */
+public class CodecBenchmark {
+    private static abstract class Codec {
+        abstract OtpErlangObject encode(OtpErlangObject value);
+        abstract OtpErlangObject decode(OtpErlangObject value)
+                throws OtpErlangDecodeException;
+    }
+
+    private static final Codec jinterface = new Codec() {
+        @Override
+        OtpErlangObject encode(final OtpErlangObject value) {
+            final OtpOutputStream oos = new OtpOutputStream();
+            oos.write1(OtpExternal.versionTag);
+            if (value instanceof OtpErlangBinary) {
+                oos.write_any(value);
+            } else {
+                oos.write_compressed(value);
+            }
+            return new OtpErlangBinary(oos.toByteArray());
+        }
+
+        @Override
+        OtpErlangObject decode(final OtpErlangObject value)
+                throws OtpErlangDecodeException {
+            return new OtpInputStream(((OtpErlangBinary) value).binaryValue())
+                    .read_any();
+        }
+    };
+
+    private static final Codec scalaris = new Codec() {
+        @Override
+        OtpErlangObject encode(final OtpErlangObject value) {
+            return CommonErlangObjects.encode(value);
+        }
+
+        @Override
+        OtpErlangObject decode(final OtpErlangObject value)
+                throws OtpErlangDecodeException {
+            return CommonErlangObjects.decode(value);
+        }
+    };
+
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private static Method getThreadAllocatedBytes = null;
+
+    static {
+        try {
+            final Method m = Class.forName("com.sun.management.ThreadMXBean")
+                    .getMethod("getThreadAllocatedBytes", long.class);
+            m.invoke(threadBean, Thread.currentThread().getId());
+            getThreadAllocatedBytes = m;
+        } catch (final Exception e) {
+            // not supported by this JVM
+        }
+    }
+
+    /**
+     * Gets the number of bytes allocated by the current thread so far.
+     *
+     * @return allocated bytes or <tt>-1</tt> if not supported
+     */
+    private static long allocatedBytes() {
+        if (getThreadAllocatedBytes == null) {
+            return -1;
+        }
+        try {
+            return (Long) getThreadAllocatedBytes.invoke(threadBean,
+                    Thread.currentThread().getId());
+        } catch (final Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args
+     *            command line arguments (optional: the number of operations
+     *            per test, default: 2000)
+     *
+     * @throws OtpErlangDecodeException
+     *             if decoding fails
+     */
+    public static void main(final String[] args) throws OtpErlangDecodeException {
+        int operations = 2000;
+        if ((args != null) && (args.length >= 1)) {
+            operations = Integer.parseInt(args[0]);
+        }
+        final Random random = new Random(0);
+        final String[] names = new String[] { "string, 10kB", "string, 60kB",
+                "binary, 10kB", "binary, 100kB" };
+        final OtpErlangObject[] values = new OtpErlangObject[] {
+                new OtpErlangString(randomString(random, 10000)),
+                new OtpErlangString(randomString(random, 60000)),
+                new OtpErlangBinary(randomBytes(random, 10000)),
+                new OtpErlangBinary(randomBytes(random, 100000)) };
+
+        System.out.println("value            codec       encode ns/op   encode B/op   decode ns/op   decode B/op");
+        for (int i = 0; i < values.length; ++i) {
+            run(names[i], "jinterface", jinterface, values[i], operations);
+            run(names[i], "scalaris", scalaris, values[i], operations);
+        }
+    }
+
+    private static void run(final String name, final String codecName,
+            final Codec codec, final OtpErlangObject value, final int operations)
+            throws OtpErlangDecodeException {
+        // warm-up:
+        for (int i = 0; i < operations; ++i) {
+            codec.decode(codec.encode(value));
+        }
+
+        OtpErlangObject encoded = null;
+        long bytes = allocatedBytes();
+        long time = System.nanoTime();
+        for (int i = 0; i < operations; ++i) {
+            encoded = codec.encode(value);
+        }
+        final long encodeTime = (System.nanoTime() - time) / operations;
+        final long encodeBytes = bytes < 0 ? -1 : (allocatedBytes() - bytes) / operations;
+
+        bytes = allocatedBytes();
+        time = System.nanoTime();
+        for (int i = 0; i < operations; ++i) {
+            codec.decode(encoded);
+        }
+        final long decodeTime = (System.nanoTime() - time) / operations;
+        final long decodeBytes = bytes < 0 ? -1 : (allocatedBytes() - bytes) / operations;
+
+        System.out.println(String.format("%-16s %-10s %13d %13d %14d %13d",
+                name, codecName, encodeTime, encodeBytes, decodeTime, decodeBytes));
+    }
+
+    private static String randomString(final Random random, final int length) {
+        final StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; ++i) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] randomBytes(final Random random, final int length) {
+        final byte[] result = new byte[length];
+        random.nextBytes(result);
+        return result;
+    }
+}
@@ -0,0 +1,356 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris.examples;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import com.ericsson.otp.erlang.OtpErlangAtom;
+import com.ericsson.otp.erlang.OtpErlangInt;
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangLong;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangString;
+import com.ericsson.otp.erlang.OtpErlangTuple;
+
+import de.zib.scalaris.CommonErlangObjects;
+import de.zib.scalaris.ErlangValue;
+
+/**
+ * Micro benchmark of the conversion of Java Beans to Scalaris-JSON
+ * ({@link ErlangValue#ErlangValue(Object)}) and back
+ * ({@link ErlangValue#jsonValue(Class)}). Does not need a Scalaris node.
+ *
+ * <p>
+ * As a baseline, the same conversions are measured with
+ * {@link UncachedConverter} which looks up the accessors via reflection for
+ * each conversion (like {@link ErlangValue} did before caching them).
+ * </p>
+ *
+ * <p>
+ * Run the benchmark with
+ * <code>java -cp scalaris-examples.jar de.zib.scalaris.examples.JSONBeanBenchmark [operations]</code>
+ * </p>
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.21
+ * @since 3.21
+ */
+public class JSONBeanBenchmark {
+    /**
+     * Sample bean (similar to a wiki page).
+     */
+    public static class Page {
+        private String title = "";
+        private int id = 0;
+        private long timestamp = 0;
+        private boolean redirect = false;
+        private List<String> categories = new ArrayList<String>();
+        private Map<String, Integer> stats = new LinkedHashMap<String, Integer>();
+        private Revision revision = new Revision();
+
+        /** @return the title */
+        public String getTitle() { return title; }
+        /** @param title the title to set */
+        public void setTitle(final String title) { this.title = title; }
+        /** @return the id */
+        public int getId() { return id; }
+        /** @param id the id to set */
+        public void setId(final int id) { this.id = id; }
+        /** @return the timestamp */
+        public long getTimestamp() { return timestamp; }
+        /** @param timestamp the timestamp to set */
+        public void setTimestamp(final long timestamp) { this.timestamp = timestamp; }
+        /** @return whether the page is a redirect */
+        public boolean isRedirect() { return redirect; }
+        /** @param redirect whether the page is a redirect */
+        public void setRedirect(final boolean redirect) { this.redirect = redirect; }
+        /** @return the categories */
+        public List<String> getCategories() { return categories; }
+        /** @param categories the categories to set */
+        public void setCategories(final List<String> categories) { this.categories = categories; }
+        /** @return the stats */
+        public Map<String, Integer> getStats() { return stats; }
+        /** @param stats the stats to set */
+        public void setStats(final Map<String, Integer> stats) { this.stats = stats; }
+        /** @return the current revision */
+        public Revision getRevision() { return revision; }
+        /** @param revision the current revision to set */
+        public void setRevision(final Revision revision) { this.revision = revision; }
+    }
+
+    /**
+     * Sample bean (similar to a wiki revision).
+     */
+    public static class Revision {
+        private int id = 0;
+        private long timestamp = 0;
+        private String author = "";
+        private String comment = "";
+        private boolean minor = false;
+
+        /** @return the id */
+        public int getId() { return id; }
+        /** @param id the id to set */
+        public void setId(final int id) { this.id = id; }
+        /** @return the timestamp */
+        public long getTimestamp() { return timestamp; }
+        /** @param timestamp the timestamp to set */
+        public void setTimestamp(final long timestamp) { this.timestamp = timestamp; }
+        /** @return the author */
+        public String getAuthor() { return author; }
+        /** @param author the author to set */
+        public void setAuthor(final String author) { this.author = author; }
+        /** @return the comment */
+        public String getComment() { return comment; }
+        /** @param comment the comment to set */
+        public void setComment(final String comment) { this.comment = comment; }
+        /** @return whether this is a minor edit */
+        public boolean isMinor() { return minor; }
+        /** @param minor whether this is a minor edit */
+        public void setMinor(final boolean minor) { this.minor = minor; }
+    }
+
+    /**
+     * Baseline converter looking up the accessors of a bean for each
+     * conversion (supports the types used by {@link Page} and
+     * {@link Revision} only).
+     */
+    public static class UncachedConverter {
+        private static final Pattern getMatcher = Pattern.compile("^get|is");
+
+        private static String capFirst(final String key) {
+            return key.substring(0, 1).toUpperCase() + key.substring(1);
+        }
+
+        private static String decapFirst(final String key) {
+            return key.substring(0, 1).toLowerCase() + key.substring(1);
+        }
+
+        private static Class<?> getRawType(final Type type) {
+            if (type instanceof ParameterizedType) {
+                return (Class<?>) ((ParameterizedType) type).getRawType();
+            } else {
+                return (Class<?>) type;
+            }
+        }
+
+        /**
+         * Converts a bean to Scalaris-JSON.
+         *
+         * @param bean
+         *            the bean to convert
+         *
+         * @return a JSON object
+         *
+         * @throws Exception
+         *             if a getter cannot be invoked
+         */
+        public static OtpErlangTuple toJson(final Object bean) throws Exception {
+            final Method[] methods = bean.getClass().getDeclaredMethods();
+            final List<OtpErlangObject> result = new LinkedList<OtpErlangObject>();
+            for (final Method method : methods) {
+                final String name = method.getName();
+                if (getMatcher.matcher(name).lookingAt()) {
+                    final String key = decapFirst(getMatcher.matcher(name).replaceFirst(""));
+                    result.add(new OtpErlangTuple(new OtpErlangObject[] {
+                            new OtpErlangString(key), toJsonValue(method.invoke(bean)) }));
+                }
+            }
+            return new OtpErlangTuple(new OtpErlangObject[] {
+                    CommonErlangObjects.structAtom,
+                    new OtpErlangList(result.toArray(new OtpErlangObject[0])) });
+        }
+
+        private static OtpErlangObject toJsonValue(final Object value) throws Exception {
+            if (value instanceof Integer) {
+                return new OtpErlangInt((Integer) value);
+            } else if (value instanceof Long) {
+                return new OtpErlangLong((Long) value);
+            } else if (value instanceof String) {
+                return new OtpErlangString((String) value);
+            } else if (value instanceof Boolean) {
+                return ((Boolean) value) ? CommonErlangObjects.trueAtom
+                        : CommonErlangObjects.falseAtom;
+            } else if (value instanceof List<?>) {
+                final List<?> list = (List<?>) value;
+                final OtpErlangObject[] result = new OtpErlangObject[list.size()];
+                int i = 0;
+                for (final Object element : list) {
+                    result[i++] = toJsonValue(element);
+                }
+                return new OtpErlangTuple(new OtpErlangObject[] {
+                        CommonErlangObjects.arrayAtom, new OtpErlangList(result) });
+            } else if (value instanceof Map<?, ?>) {
+                final Map<?, ?> map = (Map<?, ?>) value;
+                final OtpErlangObject[] result = new OtpErlangObject[map.size()];
+                int i = 0;
+                for (final Map.Entry<?, ?> entry : map.entrySet()) {
+                    result[i++] = new OtpErlangTuple(new OtpErlangObject[] {
+                            new OtpErlangString((String) entry.getKey()),
+                            toJsonValue(entry.getValue()) });
+                }
+                return new OtpErlangTuple(new OtpErlangObject[] {
+                        CommonErlangObjects.structAtom, new OtpErlangList(result) });
+            } else {
+                return toJson(value);
+            }
+        }
+
+        /**
+         * Converts a Scalaris-JSON object to a bean.
+         *
+         * @param <T>
+         *            the type of the bean
+         * @param value
+         *            the JSON object
+         * @param c
+         *            the class of the bean
+         *
+         * @return the bean
+         *
+         * @throws Exception
+         *             if an accessor cannot be found or invoked
+         */
+        public static <T> T fromJson(final OtpErlangTuple value, final Class<T> c)
+                throws Exception {
+            final T result = c.getConstructor().newInstance();
+            for (final OtpErlangObject iter : (OtpErlangList) value.elementAt(1)) {
+                final OtpErlangTuple entry = (OtpErlangTuple) iter;
+                final String key = toString(entry.elementAt(0));
+                final String keyCap1st = capFirst(key);
+                Type type;
+                try {
+                    type = c.getMethod("get" + keyCap1st).getGenericReturnType();
+                } catch (final NoSuchMethodException e) {
+                    type = c.getMethod("is" + keyCap1st).getGenericReturnType();
+                }
+                c.getMethod("set" + keyCap1st, getRawType(type)).invoke(result,
+                        fromJsonValue(entry.elementAt(1), type));
+            }
+            return result;
+        }
+
+        private static String toString(final OtpErlangObject value) {
+            if (value instanceof OtpErlangString) {
+                return ((OtpErlangString) value).stringValue();
+            }
+            return new ErlangValue(value).stringValue();
+        }
+
+        private static Object fromJsonValue(final OtpErlangObject value,
+                final Type type) throws Exception {
+            final Class<?> c = getRawType(type);
+            if (c.equals(int.class) || c.equals(Integer.class)) {
+                return ((OtpErlangLong) value).intValue();
+            } else if (c.equals(long.class) || c.equals(Long.class)) {
+                return ((OtpErlangLong) value).longValue();
+            } else if (c.equals(String.class)) {
+                return toString(value);
+            } else if (c.equals(boolean.class) || c.equals(Boolean.class)) {
+                return ((OtpErlangAtom) value).equals(CommonErlangObjects.trueAtom);
+            } else if (c.equals(List.class)) {
+                final Type element = ((ParameterizedType) type).getActualTypeArguments()[0];
+                final OtpErlangList list = (OtpErlangList) ((OtpErlangTuple) value).elementAt(1);
+                final List<Object> result = new ArrayList<Object>(list.arity());
+                for (final OtpErlangObject iter : list) {
+                    result.add(fromJsonValue(iter, element));
+                }
+                return result;
+            } else if (c.equals(Map.class)) {
+                final Type element = ((ParameterizedType) type).getActualTypeArguments()[1];
+                final OtpErlangList list = (OtpErlangList) ((OtpErlangTuple) value).elementAt(1);
+                final Map<String, Object> result = new LinkedHashMap<String, Object>(list.arity());
+                for (final OtpErlangObject iter : list) {
+                    final OtpErlangTuple entry = (OtpErlangTuple) iter;
+                    result.put(toString(entry.elementAt(0)),
+                            fromJsonValue(entry.elementAt(1), element));
+                }
+                return result;
+            } else {
+                return fromJson((OtpErlangTuple) value, c);
+            }
+        }
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args
+     *            command line arguments (optional: the number of operations
+     *            per round, default: 20000)
+     *
+     * @throws Exception
+     *             if the baseline conversion fails
+     */
+    public static void main(final String[] args) throws Exception {
+        int operations = 20000;
+        if ((args != null) && (args.length >= 1)) {
+            operations = Integer.parseInt(args[0]);
+        }
+        final Page page = new Page();
+        page.setTitle("Main Page");
+        page.setId(4711);
+        page.setTimestamp(System.currentTimeMillis());
+        for (int i = 0; i < 5; ++i) {
+            page.getCategories().add("Category " + i);
+            page.getStats().put("stat" + i, i);
+        }
+        page.getRevision().setId(42);
+        page.getRevision().setAuthor("author");
+        page.getRevision().setComment("some comment");
+        final ErlangValue json = new ErlangValue(page);
+
+        final OtpErlangTuple jsonTuple = (OtpErlangTuple) json.value();
+
+        System.out.println("                  Bean->JSON ns/op        JSON->Bean ns/op");
+        System.out.println("round          baseline     cached     baseline     cached");
+        for (int round = 1; round <= 5; ++round) {
+            long time = System.nanoTime();
+            for (int i = 0; i < operations; ++i) {
+                UncachedConverter.toJson(page);
+            }
+            final long toJsonBaseline = (System.nanoTime() - time) / operations;
+
+            time = System.nanoTime();
+            for (int i = 0; i < operations; ++i) {
+                new ErlangValue(page);
+            }
+            final long toJson = (System.nanoTime() - time) / operations;
+
+            time = System.nanoTime();
+            for (int i = 0; i < operations; ++i) {
+                UncachedConverter.fromJson(jsonTuple, Page.class);
+            }
+            final long fromJsonBaseline = (System.nanoTime() - time) / operations;
+
+            time = System.nanoTime();
+            for (int i = 0; i < operations; ++i) {
+                json.jsonValue(Page.class);
+            }
+            final long fromJson = (System.nanoTime() - time) / operations;
+            System.out.println(String.format("%5d %16d %10d %12d %10d", round,
+                    toJsonBaseline, toJson, fromJsonBaseline, fromJson));
+        }
+    }
+}
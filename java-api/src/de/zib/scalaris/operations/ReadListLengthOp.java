@@ -0,0 +1,79 @@
+/**
+ *  Copyright 2012 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris.operations;
+
+import com.ericsson.otp.erlang.OtpErlangInt;
+import com.ericsson.otp.erlang.OtpErlangString;
+
+import de.zib.scalaris.NotAListException;
+import de.zib.scalaris.NotFoundException;
+import de.zib.scalaris.UnknownException;
+
+/**
+ * Operation reading the length of a list value.
+ *
+ * Reads an empty sublist (<tt>sublist(L, 1, 0)</tt>), i.e. only the length is
+ * transferred, not the list itself.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.21
+ * @since 3.21
+ */
+public class ReadListLengthOp extends ReadSublistOp {
+    private static final OtpErlangInt ONE = new OtpErlangInt(1);
+    private static final OtpErlangInt ZERO = new OtpErlangInt(0);
+
+    /**
+     * Constructor
+     *
+     * @param key
+     *            the key to read
+     */
+    public ReadListLengthOp(final OtpErlangString key) {
+        super(key, ONE, ZERO);
+    }
+    /**
+     * Constructor
+     *
+     * @param key
+     *            the key to read
+     */
+    public ReadListLengthOp(final String key) {
+        super(key, 1, 0);
+    }
+
+    /**
+     * Processes the result and extracts the list length.
+     *
+     * @return the length of the list
+     *
+     * @throws NotFoundException
+     *             if the requested key does not exist
+     * @throws NotAListException
+     *             if the value is no list
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+    public int processLength() throws NotFoundException, NotAListException,
+            UnknownException {
+        return processResult().listLength;
+    }
+
+    @Override
+    public String toString() {
+        return "readListLength(" + key + ")";
+    }
+}
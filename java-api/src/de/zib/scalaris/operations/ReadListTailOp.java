@@ -0,0 +1,62 @@
+/**
+ *  Copyright 2012 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris.operations;
+
+import com.ericsson.otp.erlang.OtpErlangInt;
+import com.ericsson.otp.erlang.OtpErlangString;
+
+/**
+ * Operation reading the last entries of a list value.
+ *
+ * Reads the sublist <tt>sublist(L, -Count, Count)</tt>, i.e. at most
+ * <tt>Count</tt> entries (less if the list is shorter) in the order of the
+ * list.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ * @version 3.21
+ * @since 3.21
+ */
+public class ReadListTailOp extends ReadSublistOp {
+    /**
+     * Constructor
+     *
+     * @param key
+     *            the key to read
+     * @param count
+     *            the (maximum) number of entries to read (&gt; 0)
+     */
+    public ReadListTailOp(final OtpErlangString key, final int count) {
+        super(key, new OtpErlangInt(-count), new OtpErlangInt(count));
+        assert(count > 0);
+    }
+    /**
+     * Constructor
+     *
+     * @param key
+     *            the key to read
+     * @param count
+     *            the (maximum) number of entries to read (&gt; 0)
+     */
+    public ReadListTailOp(final String key, final int count) {
+        super(key, -count, count);
+        assert(count > 0);
+    }
+
+    @Override
+    public String toString() {
+        return "readListTail(" + key + "," + length + ")";
+    }
+}
@@ -15,7 +15,6 @@
  */
 package de.zib.scalaris.operations;
 
-import com.ericsson.otp.erlang.OtpErlangDecodeException;
 import com.ericsson.otp.erlang.OtpErlangObject;
 import com.ericsson.otp.erlang.OtpErlangString;
 import com.ericsson.otp.erlang.OtpErlangTuple;
@@ -33,13 +32,18 @@ import de.zib.scalaris.UnknownException;
  * Operation reading a value.
  *
  * @author Nico Kruber, kruber@zib.de
- * @version 3.14
+ * @version 3.21
  * @since 3.14
  */
 public class ReadOp implements TransactionOperation, TransactionSingleOpOperation {
     final protected OtpErlangString key;
     protected OtpErlangObject resultRaw = null;
     protected boolean resultCompressed = false;
+    /**
+     * The request term (the same for compressed and uncompressed requests),
+     * created once and re-used for each request.
+     */
+    private OtpErlangTuple erlang = null;
 
     /**
      * Constructor
@@ -61,8 +65,11 @@ public class ReadOp implements TransactionOperation, TransactionSingleOpOperatio
     }
 
     public OtpErlangObject getErlang(final boolean compressed) {
-        return new OtpErlangTuple(new OtpErlangObject[] {
-                CommonErlangObjects.readAtom, key });
+        if (erlang == null) {
+            erlang = new OtpErlangTuple(new OtpErlangObject[] {
+                    CommonErlangObjects.readAtom, key });
+        }
+        return erlang;
     }
 
     public OtpErlangString getKey() {
@@ -82,7 +89,24 @@ public class ReadOp implements TransactionOperation, TransactionSingleOpOperatio
         return this.resultCompressed;
     }
 
-    public ErlangValue processResult() throws NotFoundException,
+    /**
+     * Processes the result of the read.
+     *
+     * Note: since 3.21, values of compressed requests are decoded lazily on
+     * first access (see {@link ErlangValue#fromEncoded(OtpErlangObject)}). A
+     * value which cannot be decoded is therefore not reported by an
+     * {@link UnknownException} here but by a {@link ClassCastException} of
+     * the accessors of the returned {@link ErlangValue}, e.g.
+     * {@link ErlangValue#value()}.
+     *
+     * @return the value read
+     *
+     * @throws NotFoundException
+     *             if the requested key does not exist
+     * @throws UnknownException
+     *             if any other error occurs
+     */
+        public ErlangValue processResult() throws NotFoundException,
             UnknownException {
         /*
          * possible return values:
@@ -95,9 +119,10 @@ public class ReadOp implements TransactionOperation, TransactionSingleOpOperatio
                 throw new UnknownException(resultRaw);
             }
             if (state.equals(CommonErlangObjects.okAtom)) {
-                OtpErlangObject result = received.elementAt(1);
+                final OtpErlangObject result = received.elementAt(1);
                 if (resultCompressed) {
-                    result = CommonErlangObjects.decode(result);
+                    // decoded on first access
+                    return ErlangValue.fromEncoded(result);
                 }
                 return new ErlangValue(result);
             } else if (state.equals(CommonErlangObjects.failAtom)) {
@@ -110,9 +135,6 @@ public class ReadOp implements TransactionOperation, TransactionSingleOpOperatio
         } catch (final ClassCastException e) {
             // e.printStackTrace();
             throw new UnknownException(e, resultRaw);
-        } catch (final OtpErlangDecodeException e) {
-            // e.printStackTrace();
-            throw new UnknownException(e, resultRaw);
         }
     }
 
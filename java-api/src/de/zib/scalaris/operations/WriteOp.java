@@ -28,7 +28,7 @@ import de.zib.scalaris.UnknownException;
  * An operation writing a value.
  *
  * @author Nico Kruber, kruber@zib.de
- * @version 3.14
+ * @version 3.21
  * @since 3.14
  */
 public class WriteOp implements TransactionOperation, TransactionSingleOpOperation {
@@ -36,6 +36,12 @@ public class WriteOp implements TransactionOperation, TransactionSingleOpOperati
     final protected OtpErlangObject value;
     protected OtpErlangObject resultRaw = null;
     protected boolean resultCompressed = false;
+    /**
+     * The request terms, created once and re-used for each request (the
+     * compressed one encodes the value which is expensive).
+     */
+    private OtpErlangTuple erlangCompressed = null;
+    private OtpErlangTuple erlangUncompressed = null;
 
     /**
      * Constructor
@@ -63,9 +69,20 @@ public class WriteOp implements TransactionOperation, TransactionSingleOpOperati
     }
 
     public OtpErlangObject getErlang(final boolean compressed) {
-        return new OtpErlangTuple(new OtpErlangObject[] {
-                CommonErlangObjects.writeAtom, key,
-                compressed ? CommonErlangObjects.encode(value) : value });
+        if (compressed) {
+            if (erlangCompressed == null) {
+                erlangCompressed = new OtpErlangTuple(new OtpErlangObject[] {
+                        CommonErlangObjects.writeAtom, key,
+                        CommonErlangObjects.encode(value) });
+            }
+            return erlangCompressed;
+        } else {
+            if (erlangUncompressed == null) {
+                erlangUncompressed = new OtpErlangTuple(new OtpErlangObject[] {
+                        CommonErlangObjects.writeAtom, key, value });
+            }
+            return erlangUncompressed;
+        }
     }
 
     public OtpErlangString getKey() {
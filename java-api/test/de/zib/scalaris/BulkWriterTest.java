@@ -0,0 +1,112 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link BulkWriter} class.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.21
+ * @since 3.21
+ */
+public class BulkWriterTest {
+    private final static long testTime = System.currentTimeMillis();
+
+    /**
+     * Test method for {@link BulkWriter#write(String, Object)} if no node is
+     * available, i.e. all writes fail after their retries.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    @Test
+    public final void testWriteFailures() throws InterruptedException {
+        final ConnectionFactory cf = new ConnectionFactory();
+        cf.setNode("nonexisting@localhost");
+        ((DefaultConnectionPolicy) cf.getConnectionPolicy()).setMaxRetries(0);
+        final BulkWriter writer = new BulkWriter(new ConnectionPool(cf, 2), 2);
+        writer.setBatchSize(2);
+        writer.setMaxRetries(1);
+        writer.setRetryDelay(0);
+        writer.setConnectionTimeout(1000);
+        for (int i = 0; i < 5; ++i) {
+            writer.write("testWriteFailures" + i, i);
+        }
+        writer.close();
+        assertEquals(0, writer.getWritten());
+        assertEquals(5, writer.getFailed());
+        assertEquals(5, writer.getRetried());
+        assertEquals(5, writer.getFailures().size());
+        for (final Exception e : writer.getFailures().values()) {
+            assertTrue(e.toString(), e instanceof ConnectionException);
+        }
+    }
+
+    /**
+     * Test method for {@link BulkWriter#close()}.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    @Test(expected = IllegalStateException.class)
+    public final void testWriteClosed() throws InterruptedException {
+        final BulkWriter writer = new BulkWriter(new ConnectionPool(
+                ConnectionFactory.getInstance(), 1), 1);
+        writer.close();
+        writer.write("testWriteClosed", 1);
+    }
+
+    /**
+     * Test method for {@link BulkWriter#write(String, Object)} and
+     * {@link BulkWriter#flush()}.
+     *
+     * @throws Exception
+     *             if a test with a connection to Scalaris fails
+     */
+    @Test
+    public final void testWrite() throws Exception {
+        final String key = "_testBulkWrite_" + testTime + "_";
+        final ConnectionPool pool = new ConnectionPool(ConnectionFactory.getInstance(), 4);
+        final BulkWriter writer = new BulkWriter(pool, 4);
+        writer.setBatchSize(7);
+        try {
+            for (int i = 0; i < 100; ++i) {
+                writer.write(key + i, i);
+            }
+            writer.flush();
+            assertEquals(writer.getFailures().toString(), 100, writer.getWritten());
+            assertEquals(0, writer.getFailed());
+
+            final TransactionSingleOp sc = new TransactionSingleOp();
+            try {
+                for (int i = 0; i < 100; ++i) {
+                    assertEquals(i, sc.read(key + i).intValue());
+                }
+            } finally {
+                sc.closeConnection();
+            }
+        } finally {
+            writer.close();
+            pool.closeAll();
+        }
+    }
+}
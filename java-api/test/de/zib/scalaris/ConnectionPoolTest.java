@@ -0,0 +1,123 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link ConnectionPool} class.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.21
+ * @since 3.21
+ */
+public class ConnectionPoolTest {
+    /**
+     * Test method for {@link ConnectionPool#warmUp(int, long)}.
+     *
+     * @throws ConnectionException
+     *             if the connection fails
+     */
+    @Test
+    public final void testWarmUp() throws ConnectionException {
+        final ConnectionFactory cf = ConnectionFactory.getInstance();
+        final ConnectionPool pool = new ConnectionPool(cf, 2 * cf.getNodes().size());
+        try {
+            final int added = pool.warmUp(2, 10000);
+            assertTrue("no connections added", added > 0);
+            int available = 0;
+            for (final PeerNode node : cf.getNodes()) {
+                available += pool.getAvailable(node);
+            }
+            assertEquals(added, available);
+            assertEquals(0, pool.getCheckedOut());
+
+            // connections are taken from the warm pool:
+            final Connection conn = pool.getConnection();
+            assertNotNull(conn);
+            assertEquals(1, pool.getCheckedOut());
+            pool.releaseConnection(conn);
+            assertEquals(0, pool.getCheckedOut());
+
+            if (added == 2 * cf.getNodes().size()) {
+                // no more capacity:
+                assertEquals(0, pool.warmUp(1, 10000));
+            }
+        } finally {
+            pool.closeAll();
+        }
+    }
+
+    /**
+     * Test method for {@link ConnectionPool#rebalance(long)} with connections
+     * which are already balanced.
+     *
+     * @throws ConnectionException
+     *             if the connection fails
+     */
+    @Test
+    public final void testRebalance() throws ConnectionException {
+        final ConnectionFactory cf = ConnectionFactory.getInstance();
+        final ConnectionPool pool = new ConnectionPool(cf, 2 * cf.getNodes().size());
+        try {
+            final int added = pool.warmUp(2, 10000);
+            if (added == 2 * cf.getNodes().size()) {
+                assertEquals(0, pool.rebalance(10000));
+            }
+            int available = 0;
+            for (final PeerNode node : cf.getNodes()) {
+                available += pool.getAvailable(node);
+            }
+            assertEquals(added, available);
+        } finally {
+            pool.closeAll();
+        }
+    }
+
+    /**
+     * Test method for {@link ConnectionPool#closeAllBut(java.util.Collection)}
+     * with a checked out connection to a removed node.
+     *
+     * @throws ConnectionException
+     *             if the connection fails
+     */
+    @Test
+    public final void testCloseAllButCheckedOut() throws ConnectionException {
+        final ConnectionFactory cf = ConnectionFactory.getInstance();
+        final ConnectionPool pool = new ConnectionPool(cf, 2 * cf.getNodes().size());
+        try {
+            final Connection conn = pool.getConnection();
+            assertNotNull(conn);
+            final PeerNode node = conn.getRemote();
+            pool.closeAllBut(new HashSet<PeerNode>());
+            assertEquals(1, pool.getCheckedOut());
+            pool.releaseConnection(conn);
+            assertEquals(0, pool.getCheckedOut());
+            assertEquals(0, pool.getAvailable(node));
+            assertFalse(conn.getConnection().isConnected());
+        } finally {
+            pool.closeAll();
+        }
+    }
+}
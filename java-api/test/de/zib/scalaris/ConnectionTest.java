@@ -425,4 +425,58 @@ public class ConnectionTest {
         }
     }
 
+    /**
+     * Test method for
+     * {@link Connection#doRPC(String, String, OtpErlangList, long)} with a
+     * failed connection whose re-connect would exceed the timeout.
+     *
+     * @throws ConnectionException
+     *             if the connection fails
+     * @throws IOException
+     *             if the connection is not active or a communication error
+     *             occurs
+     * @throws OtpAuthException
+     *             if the remote node sends a message containing an invalid
+     *             cookie
+     */
+    @Test
+    public final void testDoRPCTimeoutBeforeReconnect()
+            throws ConnectionException, IOException, OtpAuthException {
+        final OtpSelf self = new OtpSelf("testDoRPCTimeoutBeforeReconnect@" + ConnectionFactory.getLocalhostName(),
+                ConnectionFactory.getInstance().getCookie());
+        final PeerNode remote = new PeerNode(scalarisNode);
+        final DefaultConnectionPolicy connectionPolicy = new DefaultConnectionPolicy(remote) {
+            @Override
+            public synchronized <E extends Exception> PeerNode selectNode(
+                    final int retry, final PeerNode failedNode, final E e)
+                    throws E {
+                if (retry > 0) {
+                    // slow node selection -> no time left for re-connecting
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(200);
+                    } catch (final InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.selectNode(retry, failedNode, e);
+            }
+        };
+        final Connection c = new Connection(self, connectionPolicy);
+
+        c.getConnection().close();
+
+        try {
+            c.doRPC("lists", "sum",
+                    new OtpErlangList(new OtpErlangList(new OtpErlangObject[] {
+                            new OtpErlangInt(1), new OtpErlangInt(2),
+                            new OtpErlangInt(3) })), 100);
+            // this should have failed!
+            fail();
+        } catch (final TimeoutException e) {
+            // did not re-connect:
+            assertFalse(c.getConnection().isConnected());
+        } finally {
+            c.close();
+        }
+    }
 }
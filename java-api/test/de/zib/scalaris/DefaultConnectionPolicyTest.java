@@ -1092,4 +1092,66 @@ public class DefaultConnectionPolicyTest {
         } while (false);
     }
 
+    /**
+     * Test method for
+     * {@link DefaultConnectionPolicy#setCircuitBreakerThreshold(int)} and
+     * {@link DefaultConnectionPolicy#isCircuitOpen(PeerNode)}.
+     *
+     * @throws Exception
+     *             if the selection fails unexpectedly
+     *
+     * @since 3.21
+     */
+    @Test
+    public final void testCircuitBreaker() throws Exception {
+        final PeerNode n1 = new PeerNode("test1@localhost");
+        final PeerNode n2 = new PeerNode("test2@localhost");
+        final List<PeerNode> nodes = new ArrayList<PeerNode>();
+        nodes.add(n1);
+        nodes.add(n2);
+        final DefaultConnectionPolicy p = new DefaultConnectionPolicy(nodes);
+        assertEquals(0, p.getCircuitBreakerThreshold());
+        p.setCircuitBreakerThreshold(2);
+
+        p.nodeFailed(n1);
+        assertFalse(p.isCircuitOpen(n1));
+        p.nodeFailed(n1);
+        assertTrue(p.isCircuitOpen(n1));
+        // n2 is the only good node
+        for (int i = 0; i < 10; ++i) {
+            assertEquals(n2, p.selectNode());
+        }
+
+        TimeUnit.MILLISECONDS.sleep(10);
+        p.nodeFailed(n2);
+        // n2 is still half-way good, n1 is open
+        for (int i = 0; i < 10; ++i) {
+            assertEquals(n2, p.selectNode());
+        }
+        p.nodeFailed(n2);
+        assertTrue(p.isCircuitOpen(n2));
+
+        // all circuits open -> fail fast
+        final Exception e = new Exception("test");
+        try {
+            p.selectNode(1, n2, e);
+            fail();
+        } catch (final Exception e1) {
+            assertEquals(e, e1);
+        }
+        try {
+            p.selectNode();
+            fail();
+        } catch (final UnsupportedOperationException e1) {
+        }
+
+        // successful probe closes the circuit
+        p.nodeConnectSuccess(n1);
+        assertFalse(p.isCircuitOpen(n1));
+        assertEquals(n1, p.selectNode());
+
+        // disabling the circuit breaker selects open nodes again
+        p.setCircuitBreakerThreshold(0);
+        assertFalse(p.isCircuitOpen(n2));
+    }
 }
@@ -0,0 +1,94 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.ericsson.otp.erlang.OtpErlangAtom;
+import com.ericsson.otp.erlang.OtpErlangBinary;
+import com.ericsson.otp.erlang.OtpErlangDecodeException;
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangLong;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangString;
+import com.ericsson.otp.erlang.OtpErlangTuple;
+import com.ericsson.otp.erlang.OtpInputStream;
+import com.ericsson.otp.erlang.OtpOutputStream;
+
+/**
+ * Test cases for the {@link EncodedErlangObject} class.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.21
+ * @since 3.21
+ */
+public class EncodedErlangObjectTest {
+    private static OtpErlangTuple tlogEntry(final String key) {
+        return new OtpErlangTuple(new OtpErlangObject[] {
+                new OtpErlangLong(77), new OtpErlangString(key),
+                new OtpErlangLong(3), new OtpErlangLong(84),
+                new OtpErlangLong(1), new OtpErlangLong(75),
+                new OtpErlangBinary(new byte[] { 1, 2, 3 }) });
+    }
+
+    /**
+     * Tests that terms containing {@link EncodedErlangObject} objects are
+     * encoded the same way as the original terms.
+     *
+     * @throws OtpErlangDecodeException
+     *             if decoding fails
+     */
+    @Test
+    public final void testEncode() throws OtpErlangDecodeException {
+        final OtpErlangList plain = new OtpErlangList(new OtpErlangObject[] {
+                tlogEntry("a"), tlogEntry("b") });
+        final OtpErlangList preEncoded = new OtpErlangList(new OtpErlangObject[] {
+                new EncodedErlangObject(tlogEntry("a")),
+                new EncodedErlangObject(tlogEntry("b")) });
+        final OtpErlangTuple msg1 = new OtpErlangTuple(new OtpErlangObject[] {
+                new OtpErlangAtom("req_list"), plain });
+        final OtpErlangTuple msg2 = new OtpErlangTuple(new OtpErlangObject[] {
+                new OtpErlangAtom("req_list"), preEncoded });
+
+        final byte[] bytes1 = new OtpOutputStream(msg1).toByteArray();
+        final byte[] bytes2 = new OtpOutputStream(msg2).toByteArray();
+        assertArrayEquals(bytes1, bytes2);
+        assertEquals(msg1, new OtpInputStream(bytes2).read_any());
+    }
+
+    /**
+     * Test method for {@link EncodedErlangObject#getTerm()} and
+     * {@link EncodedErlangObject#equals(Object)}.
+     *
+     * @throws OtpErlangDecodeException
+     *             if decoding fails
+     */
+    @Test
+    public final void testGetTerm() throws OtpErlangDecodeException {
+        final EncodedErlangObject enc1 = new EncodedErlangObject(tlogEntry("a"));
+        final EncodedErlangObject enc2 = new EncodedErlangObject(
+                new OtpOutputStream(tlogEntry("a")).toByteArray());
+        assertEquals(tlogEntry("a"), enc1.getTerm());
+        assertEquals(tlogEntry("a"), enc2.getTerm());
+        assertEquals(enc1, enc2);
+        assertEquals(enc1.hashCode(), enc2.hashCode());
+        assertEquals(enc1.size(), enc2.size());
+    }
+}
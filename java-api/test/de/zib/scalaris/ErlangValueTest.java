@@ -17,7 +17,9 @@ package de.zib.scalaris;
 
 import static org.junit.Assert.*;
 
+import java.io.InputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -31,6 +33,7 @@ import org.junit.Test;
 
 import com.ericsson.otp.erlang.OtpErlangBinary;
 import com.ericsson.otp.erlang.OtpErlangBoolean;
+import com.ericsson.otp.erlang.OtpErlangDecodeException;
 import com.ericsson.otp.erlang.OtpErlangDouble;
 import com.ericsson.otp.erlang.OtpErlangInt;
 import com.ericsson.otp.erlang.OtpErlangList;
@@ -373,6 +376,193 @@ public class ErlangValueTest {
         assertEquals(eValOtp, eVal);
     }
 
+    /**
+     * Test method for {@link de.zib.scalaris.ErlangValue#binaryBuffer()} and
+     * {@link de.zib.scalaris.ErlangValue#binaryInputStream()}.
+     *
+     * @throws Exception if a test with a random byte array failed
+     */
+    @Test
+    public final void testBinaryViews() throws Exception {
+        final Random random = new Random();
+        for (int i = 0; i < 100; ++i) {
+            final byte[] value = getRandomBytes(random, random.nextInt(10000));
+            final ErlangValue lazy = ErlangValue.fromEncoded(CommonErlangObjects
+                    .encode(new OtpErlangBinary(value)));
+            for (final ErlangValue eVal : new ErlangValue[] {
+                    new ErlangValue(value), lazy }) {
+                final ByteBuffer buffer = eVal.binaryBuffer();
+                assertTrue(buffer.isReadOnly());
+                final byte[] fromBuffer = new byte[buffer.remaining()];
+                buffer.get(fromBuffer);
+                assertArrayEquals(value, fromBuffer);
+
+                final InputStream stream = eVal.binaryInputStream();
+                final byte[] fromStream = new byte[value.length];
+                int read = 0;
+                while (read < value.length) {
+                    read += stream.read(fromStream, read, value.length - read);
+                }
+                assertEquals(-1, stream.read());
+                assertArrayEquals(value, fromStream);
+            }
+            assertArrayEquals(value, lazy.binaryValue());
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link de.zib.scalaris.ErlangValue#fromEncoded(OtpErlangObject)}.
+     */
+    @Test
+    public final void testFromEncoded() {
+        final OtpErlangObject[] values = new OtpErlangObject[] {
+                new OtpErlangLong(42), new OtpErlangString("a string"),
+                new OtpErlangList(new OtpErlangObject[] {
+                        new OtpErlangLong(1), new OtpErlangDouble(2.5) }),
+                new OtpErlangTuple(new OtpErlangObject[] {
+                        CommonErlangObjects.structAtom, new OtpErlangList() }) };
+        for (final OtpErlangObject value : values) {
+            final ErlangValue eVal = ErlangValue.fromEncoded(CommonErlangObjects.encode(value));
+            assertEquals(value, eVal.value());
+            assertEquals(new ErlangValue(value), eVal);
+        }
+        assertEquals("a string", ErlangValue.fromEncoded(
+                CommonErlangObjects.encode(new OtpErlangString("a string"))).stringValue());
+
+        // decoding errors are reported on first access
+        final ErlangValue invalid = ErlangValue.fromEncoded(new OtpErlangBinary(
+                new byte[] { (byte) 131, 80, 0, 0, 1, 0, 1, 2, 3 }));
+        try {
+            invalid.stringValue();
+            fail();
+        } catch (final ClassCastException e) {
+            assertTrue(e.getCause() instanceof OtpErlangDecodeException);
+        }
+        // ...but not by equals(), hashCode() and toString():
+        final OtpErlangBinary raw = new OtpErlangBinary(
+                new byte[] { (byte) 131, 80, 0, 0, 1, 0, 1, 2, 3 });
+        assertEquals(raw.toString(), invalid.toString());
+        assertEquals(raw.hashCode(), invalid.hashCode());
+        assertEquals(ErlangValue.fromEncoded(raw), invalid);
+        assertFalse(invalid.equals(new ErlangValue(new OtpErlangLong(42))));
+    }
+
+    /**
+     * Test method for {@link ErlangValue#longArrayValue()},
+     * {@link ErlangValue#intArrayValue()},
+     * {@link ErlangValue#doubleArrayValue()} and
+     * {@link ErlangValue#binaryArrayValue()} with values converted from
+     * primitive arrays, directly and after encoding them.
+     */
+    @Test
+    public final void testPrimitiveArrays() {
+        final long[][] longs = new long[][] { {}, { 0, 1, 255 },
+                { -1, 256, Integer.MIN_VALUE, Integer.MAX_VALUE,
+                        Integer.MAX_VALUE + 1L, Long.MIN_VALUE, Long.MAX_VALUE },
+                new long[5000] };
+        for (final long[] value : longs) {
+            final ErlangValue eVal = new ErlangValue(value);
+            final ErlangValue decoded = ErlangValue.fromEncoded(
+                    CommonErlangObjects.encode(eVal.value()));
+            assertArrayEquals(value, eVal.longArrayValue());
+            assertArrayEquals(value, decoded.longArrayValue());
+            assertEquals(eVal.longListValue(), decoded.longListValue());
+            assertEquals(eVal, decoded);
+            assertEquals(eVal.hashCode(), decoded.hashCode());
+        }
+
+        final int[] ints = new int[] { 1, -1, Integer.MIN_VALUE, Integer.MAX_VALUE };
+        assertArrayEquals(ints, new ErlangValue(ints).intArrayValue());
+        assertArrayEquals(ints, ErlangValue.fromEncoded(CommonErlangObjects.encode(
+                new ErlangValue(ints).value())).intArrayValue());
+        try {
+            new ErlangValue(new long[] { Long.MAX_VALUE }).intArrayValue();
+            fail();
+        } catch (final ClassCastException e) {
+        }
+
+        final double[][] doubles = new double[][] { {},
+                { 0.0, -1.5, Double.MAX_VALUE, Double.MIN_VALUE },
+                new double[5000] };
+        for (final double[] value : doubles) {
+            final ErlangValue eVal = new ErlangValue(value);
+            final ErlangValue decoded = ErlangValue.fromEncoded(
+                    CommonErlangObjects.encode(eVal.value()));
+            assertArrayEquals(value, eVal.doubleArrayValue(), 0.0);
+            assertArrayEquals(value, decoded.doubleArrayValue(), 0.0);
+            assertEquals(eVal.doubleListValue(), decoded.doubleListValue());
+            assertEquals(eVal, decoded);
+        }
+
+        final byte[][] binaries = new byte[][] { {}, { 1, 2, 3 }, new byte[1000] };
+        final ErlangValue eVal = new ErlangValue(binaries);
+        final ErlangValue decoded = ErlangValue.fromEncoded(
+                CommonErlangObjects.encode(eVal.value()));
+        assertArrayEquals(binaries, eVal.binaryArrayValue());
+        assertArrayEquals(binaries, decoded.binaryArrayValue());
+        assertEquals(eVal, decoded);
+
+        // wrong element types
+        try {
+            new ErlangValue(new double[] { 1.0 }).longArrayValue();
+            fail();
+        } catch (final ClassCastException e) {
+        }
+        try {
+            ErlangValue.fromEncoded(CommonErlangObjects.encode(
+                    new OtpErlangString("a string"))).doubleArrayValue();
+            fail();
+        } catch (final ClassCastException e) {
+        }
+    }
+
+    /**
+     * Test method for {@link ErlangValue#longArrayValue()} and
+     * {@link ErlangValue#doubleArrayValue()} with values created from Erlang
+     * lists.
+     */
+    @Test
+    public final void testPrimitiveArraysFromLists() {
+        final OtpErlangList longList = new OtpErlangList(new OtpErlangObject[] {
+                new OtpErlangLong(1), new OtpErlangLong(Long.MIN_VALUE),
+                new OtpErlangLong(300) });
+        final long[] longs = new long[] { 1, Long.MIN_VALUE, 300 };
+        assertArrayEquals(longs, new ErlangValue(longList).longArrayValue());
+        assertArrayEquals(longs, ErlangValue.fromEncoded(
+                CommonErlangObjects.encode(longList)).longArrayValue());
+        assertEquals(new ErlangValue(longList), new ErlangValue(longs));
+        // PrimitiveErlangList#equals is symmetric, i.e. only ErlangValue
+        // compares it to other lists:
+        assertFalse(new PrimitiveErlangList(longs).equals(longList));
+        assertFalse(longList.equals(new PrimitiveErlangList(longs)));
+        assertEquals(new PrimitiveErlangList(new long[0]),
+                new PrimitiveErlangList(new double[0]));
+        assertEquals(new ErlangValue(longList).hashCode(),
+                new ErlangValue(longs).hashCode());
+        assertArrayEquals(new long[] { 'a', 'b' },
+                new ErlangValue("ab").longArrayValue());
+
+        final OtpErlangList doubleList = new OtpErlangList(new OtpErlangObject[] {
+                new OtpErlangDouble(1.5), new OtpErlangDouble(-2.0) });
+        assertArrayEquals(new double[] { 1.5, -2.0 },
+                new ErlangValue(doubleList).doubleArrayValue(), 0.0);
+
+        try {
+            new ErlangValue(new OtpErlangList(new OtpErlangObject[] {
+                    new OtpErlangLong(BigInteger.ONE.shiftLeft(64)) })).longArrayValue();
+            fail();
+        } catch (final ClassCastException e) {
+        }
+        try {
+            ErlangValue.fromEncoded(CommonErlangObjects.encode(new OtpErlangList(
+                    new OtpErlangObject[] { new OtpErlangLong(BigInteger.ONE.shiftLeft(64)) })))
+                    .longArrayValue();
+            fail();
+        } catch (final ClassCastException e) {
+        }
+    }
+
     /**
      * Test method for {@link de.zib.scalaris.ErlangValue#listValue()}.
      *
@@ -680,6 +870,75 @@ public class ErlangValueTest {
         public void setF(final String f_) { this.f = f_; }
     }
 
+    private static class JSONBeanTestNoSetter {
+        public JSONBeanTestNoSetter() {}
+
+        public int getA() { return 0; }
+    }
+
+    private static class JSONBeanTestNonPublic {
+        private int a = 1;
+        private int b = 2;
+        public JSONBeanTestNonPublic() {}
+
+        public int getA() { return a; }
+        @SuppressWarnings("unused")
+        private int getB() { return b; }
+
+        public void setA(final int a_) { this.a = a_; }
+        protected void setB(final int b_) { this.b = b_; }
+    }
+
+    /**
+     * Test method for {@link de.zib.scalaris.ErlangValue#jsonValue(Class)}
+     * and {@link ErlangValue#ErlangValue(Object)} with a bean with
+     * non-public accessors (which must be ignored).
+     */
+    @Test
+    public final void testJsonValueBeanNonPublic() {
+        final Map<String, Object> json = new ErlangValue(new JSONBeanTestNonPublic()).jsonValue();
+        assertEquals(1, json.size());
+        assertEquals(1, ((Number) json.get("a")).intValue());
+
+        final Map<String, Object> withB = new HashMap<String, Object>();
+        withB.put("b", 5);
+        try {
+            new ErlangValue(withB).jsonValue(JSONBeanTestNonPublic.class);
+            fail();
+        } catch (final ClassCastException e) {
+            assertTrue(e.getMessage().contains("[get|is]B"));
+        }
+    }
+
+    /**
+     * Test method for {@link de.zib.scalaris.ErlangValue#jsonValue(Class)}
+     * reading beans with missing setters or getters (also when repeated, i.e.
+     * using the cached accessors).
+     */
+    @Test
+    public final void testJsonValueBeanErrors() {
+        assertSame(ErlangValueJSONToBean.getMapper(JSONBeanTest1.class),
+                ErlangValueJSONToBean.getMapper(JSONBeanTest1.class));
+        final Map<String, Object> noSetter = new HashMap<String, Object>();
+        noSetter.put("a", 1);
+        final Map<String, Object> noGetter = new HashMap<String, Object>();
+        noGetter.put("x", 1);
+        for (int i = 0; i < 2; ++i) {
+            try {
+                new ErlangValue(noSetter).jsonValue(JSONBeanTestNoSetter.class);
+                fail();
+            } catch (final ClassCastException e) {
+                assertTrue(e.getMessage().contains("setA"));
+            }
+            try {
+                new ErlangValue(noGetter).jsonValue(JSONBeanTest1.class);
+                fail();
+            } catch (final ClassCastException e) {
+                assertTrue(e.getMessage().contains("[get|is]X"));
+            }
+        }
+    }
+
     /**
      * Test method for {@link de.zib.scalaris.ErlangValue#jsonValue(Class)}
      * writing a {@link Map} and reading a {@link JSONBeanTest1}.
@@ -0,0 +1,74 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link HedgedReader} class.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.21
+ * @since 3.21
+ */
+public class HedgedReaderTest {
+    /**
+     * Test method for {@link HedgedReader#getHedgeDelay()}.
+     */
+    @Test
+    public final void testHedgeDelay() {
+        final HedgedReader r = new HedgedReader(new ConnectionPool(
+                ConnectionFactory.getInstance(), 1), 100);
+        r.setMinDelay(0);
+        // not enough samples yet:
+        assertEquals(-1, r.getHedgeDelay());
+        for (int i = 1; i <= 100; ++i) {
+            r.addSample(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        r.setPercentile(0.95);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(95), r.getHedgeDelay());
+        r.setPercentile(0.5);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(50), r.getHedgeDelay());
+        r.setPercentile(1.0);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), r.getHedgeDelay());
+
+        // old samples are replaced by new ones:
+        for (int i = 1; i <= 100; ++i) {
+            r.addSample(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1), r.getHedgeDelay());
+
+        // lower bound
+        r.setMinDelay(5);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(5), r.getHedgeDelay());
+    }
+
+    /**
+     * Test method for {@link HedgedReader#setPercentile(double)} with an
+     * invalid value.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public final void testSetPercentileInvalid() {
+        final HedgedReader r = new HedgedReader(new ConnectionPool(
+                ConnectionFactory.getInstance(), 1));
+        r.setPercentile(0.0);
+    }
+}
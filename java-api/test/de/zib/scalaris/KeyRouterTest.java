@@ -0,0 +1,123 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.ericsson.otp.erlang.OtpErlangAtom;
+import com.ericsson.otp.erlang.OtpErlangLong;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangTuple;
+
+import de.zib.scalaris.RoutingTable.KeyRange;
+
+/**
+ * Test cases for the {@link KeyRouter} class and
+ * {@link RoutingTable.KeyRange}.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.21
+ * @since 3.21
+ */
+public class KeyRouterTest {
+    private static KeyRange interval(final String lBr, final long begin,
+            final long end, final String rBr) {
+        return KeyRange.fromErlang(new OtpErlangTuple(new OtpErlangObject[] {
+                new OtpErlangAtom(lBr), new OtpErlangLong(begin),
+                new OtpErlangLong(end), new OtpErlangAtom(rBr) }));
+    }
+
+    /**
+     * Test method for {@link KeyRouter#hashKey(String)}.
+     */
+    @Test
+    public final void testHashKey() {
+        // md5("") = d41d8cd98f00b204e9800998ecf8427e
+        assertEquals(new BigInteger("d41d8cd98f00b204e9800998ecf8427e", 16),
+                KeyRouter.hashKey(""));
+        // md5("abc") = 900150983cd24fb0d6963f7d28e17f72
+        assertEquals(new BigInteger("900150983cd24fb0d6963f7d28e17f72", 16),
+                KeyRouter.hashKey("abc"));
+    }
+
+    /**
+     * Test method for {@link RoutingTable.KeyRange#contains(BigInteger)} with
+     * a non-wrapping range.
+     */
+    @Test
+    public final void testKeyRangeContains() {
+        final KeyRange range = interval("(", 10, 20, "]");
+        assertFalse(range.contains(BigInteger.valueOf(9)));
+        assertFalse(range.contains(BigInteger.valueOf(10)));
+        assertTrue(range.contains(BigInteger.valueOf(11)));
+        assertTrue(range.contains(BigInteger.valueOf(20)));
+        assertFalse(range.contains(BigInteger.valueOf(21)));
+    }
+
+    /**
+     * Test method for {@link RoutingTable.KeyRange#contains(BigInteger)} with
+     * a wrapping range, a single key and the whole key space.
+     */
+    @Test
+    public final void testKeyRangeContainsWrapping() {
+        final KeyRange range = interval("[", 20, 10, ")");
+        assertTrue(range.contains(BigInteger.valueOf(5)));
+        assertFalse(range.contains(BigInteger.valueOf(10)));
+        assertFalse(range.contains(BigInteger.valueOf(15)));
+        assertTrue(range.contains(BigInteger.valueOf(20)));
+        assertTrue(range.contains(BigInteger.valueOf(25)));
+
+        final KeyRange single = KeyRange.fromErlang(new OtpErlangTuple(
+                new OtpErlangLong(42)));
+        assertTrue(single.contains(BigInteger.valueOf(42)));
+        assertFalse(single.contains(BigInteger.valueOf(43)));
+
+        final KeyRange all = KeyRange.fromErlang(new OtpErlangAtom("all"));
+        assertTrue(all.all);
+        assertTrue(all.contains(BigInteger.valueOf(12345)));
+    }
+
+    /**
+     * Test method for {@link KeyRouter#readMany(java.util.Collection)} if no
+     * node is available, i.e. each key reports a connection error.
+     */
+    @Test
+    public final void testReadManyErrors() {
+        final ConnectionFactory cf = new ConnectionFactory();
+        cf.setNode("nonexisting@localhost");
+        ((DefaultConnectionPolicy) cf.getConnectionPolicy()).setMaxRetries(0);
+        final ConnectionPool pool = new ConnectionPool(cf, 2);
+        final KeyRouter router = new KeyRouter(pool);
+        router.setBulkChunkSize(2);
+        router.setConnectionTimeout(1000);
+        final BulkResult<ErlangValue> result = router.readMany(Arrays.asList(
+                "a", "b", "c", "d", "e", "a"));
+        assertFalse(result.isSuccessful());
+        assertEquals(5, result.size());
+        assertTrue(result.getValues().isEmpty());
+        for (final Exception e : result.getErrors().values()) {
+            assertTrue(e.toString(), e instanceof ConnectionException);
+        }
+    }
+}
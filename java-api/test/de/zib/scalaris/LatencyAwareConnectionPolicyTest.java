@@ -0,0 +1,131 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link LatencyAwareConnectionPolicy} class.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.21
+ * @since 3.21
+ */
+public class LatencyAwareConnectionPolicyTest {
+    /**
+     * Test method for
+     * {@link LatencyAwareConnectionPolicy#nodeRequestStarted(PeerNode)} and
+     * {@link LatencyAwareConnectionPolicy#nodeRequestFinished(PeerNode, long, boolean)}.
+     */
+    @Test
+    public final void testRequestStatistics() {
+        final PeerNode node = new PeerNode("test@localhost");
+        final LatencyAwareConnectionPolicy p = new LatencyAwareConnectionPolicy(node);
+        assertEquals(0, p.getOutstandingRequests(node));
+        assertEquals(0.0, p.getLatency(node), 0.0);
+
+        p.nodeRequestStarted(node);
+        p.nodeRequestStarted(node);
+        assertEquals(2, p.getOutstandingRequests(node));
+
+        p.nodeRequestFinished(node, TimeUnit.MILLISECONDS.toNanos(10), true);
+        assertEquals(1, p.getOutstandingRequests(node));
+        assertEquals(10.0, p.getLatency(node), 0.1);
+
+        // failed requests do not change the latency
+        p.nodeRequestFinished(node, TimeUnit.MILLISECONDS.toNanos(1000), false);
+        assertEquals(0, p.getOutstandingRequests(node));
+        assertEquals(10.0, p.getLatency(node), 0.1);
+
+        // peaks are adopted immediately
+        p.nodeRequestStarted(node);
+        p.nodeRequestFinished(node, TimeUnit.MILLISECONDS.toNanos(100), true);
+        assertEquals(100.0, p.getLatency(node), 0.1);
+    }
+
+    /**
+     * Test method for
+     * {@link LatencyAwareConnectionPolicy#selectNode(int, PeerNode, Exception)}
+     * with one slow node and one fast node.
+     */
+    @Test
+    public final void testSelectNodeLatency() {
+        final List<PeerNode> nodes = new ArrayList<PeerNode>();
+        final PeerNode slow = new PeerNode("slow@localhost");
+        final PeerNode fast = new PeerNode("fast@localhost");
+        nodes.add(slow);
+        nodes.add(fast);
+        final LatencyAwareConnectionPolicy p = new LatencyAwareConnectionPolicy(nodes);
+        p.nodeRequestStarted(slow);
+        p.nodeRequestFinished(slow, TimeUnit.MILLISECONDS.toNanos(500), true);
+        p.nodeRequestStarted(fast);
+        p.nodeRequestFinished(fast, TimeUnit.MILLISECONDS.toNanos(1), true);
+
+        for (int i = 0; i < 100; ++i) {
+            assertSame(fast, p.selectNode());
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link LatencyAwareConnectionPolicy#selectNode(int, PeerNode, Exception)}
+     * with nodes of equal latency but different numbers of outstanding
+     * requests.
+     */
+    @Test
+    public final void testSelectNodeOutstanding() {
+        final List<PeerNode> nodes = new ArrayList<PeerNode>();
+        final PeerNode busy = new PeerNode("busy@localhost");
+        final PeerNode idle = new PeerNode("idle@localhost");
+        nodes.add(busy);
+        nodes.add(idle);
+        final LatencyAwareConnectionPolicy p = new LatencyAwareConnectionPolicy(nodes);
+        for (int i = 0; i < 10; ++i) {
+            p.nodeRequestStarted(busy);
+        }
+
+        for (int i = 0; i < 100; ++i) {
+            assertSame(idle, p.selectNode());
+        }
+    }
+
+    /**
+     * Test method for {@link LatencyAwareConnectionPolicy#setDecayTime(long)}.
+     *
+     * @throws InterruptedException
+     *             if the sleep is interrupted
+     */
+    @Test
+    public final void testDecay() throws InterruptedException {
+        final PeerNode node = new PeerNode("test@localhost");
+        final LatencyAwareConnectionPolicy p = new LatencyAwareConnectionPolicy(node);
+        p.setDecayTime(10);
+        assertEquals(10, p.getDecayTime());
+        p.nodeRequestStarted(node);
+        p.nodeRequestFinished(node, TimeUnit.MILLISECONDS.toNanos(100), true);
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertTrue(p.getLatency(node) < 1.0);
+    }
+}
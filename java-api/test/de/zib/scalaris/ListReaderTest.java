@@ -0,0 +1,139 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link ListReader} class.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.21
+ * @since 3.21
+ */
+public class ListReaderTest {
+    private final static long testTime = System.currentTimeMillis();
+
+    /**
+     * Test method for {@link ListReader#setInitialChunkSize(int)} and
+     * {@link ListReader#setMaxChunkSize(int)} with invalid values.
+     */
+    @Test
+    public final void testSetChunkSizeInvalid() {
+        final ListReader reader = new ListReader(new ConnectionPool(
+                ConnectionFactory.getInstance(), 1), "key");
+        try {
+            reader.setInitialChunkSize(0);
+            assertTrue(false);
+        } catch (final IllegalArgumentException e) {
+        }
+        try {
+            reader.setMaxChunkSize(-1);
+            assertTrue(false);
+        } catch (final IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * Test method for {@link ListReader#hasNext()} if no node is available,
+     * i.e. the connection error is wrapped into an {@link UnknownException}.
+     */
+    @Test
+    public final void testNoNode() {
+        final ConnectionFactory cf = new ConnectionFactory();
+        cf.setNode("nonexisting@localhost");
+        ((DefaultConnectionPolicy) cf.getConnectionPolicy()).setMaxRetries(0);
+        final ListReader reader = new ListReader(new ConnectionPool(cf, 1), "key");
+        reader.setConnectionTimeout(1000);
+        try {
+            reader.hasNext();
+            assertTrue(false);
+        } catch (final UnknownException e) {
+            assertTrue(e.toString(), e.getCause() instanceof ConnectionException);
+        }
+        reader.close();
+        assertFalse(reader.hasNext());
+    }
+
+    /**
+     * Test method for reading a list in chunks of different sizes, with and
+     * without prefetching.
+     *
+     * @throws Exception
+     *             if a test with a connection to Scalaris fails
+     */
+    @Test
+    public final void testReadList() throws Exception {
+        final String key = "_testReadList_" + testTime;
+        final ConnectionPool pool = new ConnectionPool(ConnectionFactory.getInstance(), 2);
+        final Connection conn = pool.getConnection();
+        try {
+            final List<Integer> list = new ArrayList<Integer>();
+            for (int i = 0; i < 1000; ++i) {
+                list.add(i);
+            }
+            new TransactionSingleOp(conn).write(key, list);
+            new TransactionSingleOp(conn).write(key + "_empty", new ArrayList<Integer>());
+
+            for (final boolean prefetch : new boolean[] { true, false }) {
+                final ListReader reader = new ListReader(pool, key);
+                reader.setInitialChunkSize(7);
+                reader.setMaxChunkSize(100);
+                reader.setPrefetch(prefetch);
+                int i = 0;
+                while (reader.hasNext()) {
+                    assertEquals(i++, reader.next().intValue());
+                }
+                assertEquals(list.size(), i);
+                assertEquals(list.size(), reader.getListLength());
+                reader.close();
+
+                final ListReader emptyReader = new ListReader(pool, key + "_empty");
+                emptyReader.setPrefetch(prefetch);
+                assertFalse(emptyReader.hasNext());
+                assertNull(emptyReader.nextChunk());
+                emptyReader.close();
+            }
+
+            // stop early:
+            final ListReader reader = new ListReader(pool, key);
+            reader.setInitialChunkSize(10);
+            assertEquals(10, reader.nextChunk().size());
+            reader.close();
+            assertNull(reader.nextChunk());
+            assertTrue(reader.getChunks() <= 2);
+
+            final ListReader notFound = new ListReader(pool, key + "_nonexisting");
+            try {
+                notFound.nextChunk();
+                assertTrue(false);
+            } catch (final NotFoundException e) {
+            }
+        } finally {
+            pool.releaseConnection(conn);
+            pool.closeAll();
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.ericsson.otp.erlang.OtpAuthException;
+import com.ericsson.otp.erlang.OtpErlangInt;
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangLong;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangRangeException;
+import com.ericsson.otp.erlang.OtpSelf;
+
+/**
+ * Test cases for the {@link PipelinedConnection} class.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.21
+ * @since 3.21
+ */
+public class PipelinedConnectionTest {
+
+    final static String scalarisNode;
+
+    static {
+        // determine good/bad nodes:
+        final ConnectionFactory cf = ConnectionFactory.getInstance();
+        cf.testAllNodes();
+        // set not to automatically try reconnects (auto-retries prevent ConnectionException tests from working):
+        final DefaultConnectionPolicy cp = ((DefaultConnectionPolicy) cf.getConnectionPolicy());
+        cp.setMaxRetries(0);
+        scalarisNode = cp.selectNode().toString();
+    }
+
+    private static OtpErlangList sumArgs(final int... values) {
+        final OtpErlangObject[] list = new OtpErlangObject[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            list[i] = new OtpErlangInt(values[i]);
+        }
+        return new OtpErlangList(new OtpErlangList(list));
+    }
+
+    /**
+     * Test method for
+     * {@link PipelinedConnection#doRPC(String, String, OtpErlangList)}.
+     *
+     * @throws ConnectionException
+     *             if the connection fails
+     * @throws IOException
+     *             if the connection is not active or a communication error
+     *             occurs
+     * @throws OtpAuthException
+     *             if the remote node sends a message containing an invalid
+     *             cookie
+     * @throws OtpErlangRangeException
+     *             if the result is out of range
+     */
+    @Test
+    public final void testDoRPC() throws ConnectionException,
+            OtpAuthException, IOException, OtpErlangRangeException {
+        final OtpSelf self = new OtpSelf("testPipelinedDoRPC@" + ConnectionFactory.getLocalhostName(),
+                ConnectionFactory.getInstance().getCookie());
+        final PeerNode remote = new PeerNode(scalarisNode);
+        final PipelinedConnection c = new PipelinedConnection(self, remote);
+
+        final OtpErlangLong result = (OtpErlangLong) c.doRPC("lists", "sum", sumArgs(1, 2, 3));
+
+        assertEquals(6, result.intValue());
+        assertEquals(0, c.getPendingRequests());
+        assertEquals(0, remote.getFailureCount());
+        assertNull(remote.getLastFailedConnect());
+
+        c.close();
+    }
+
+    /**
+     * Test method for
+     * {@link PipelinedConnection#doRPCAsync(String, String, OtpErlangList)}
+     * with several outstanding requests whose results are fetched in reverse
+     * order.
+     *
+     * @throws ConnectionException
+     *             if the connection fails
+     * @throws IOException
+     *             if the connection is not active or a communication error
+     *             occurs
+     * @throws OtpAuthException
+     *             if the remote node sends a message containing an invalid
+     *             cookie
+     * @throws OtpErlangRangeException
+     *             if a result is out of range
+     * @throws ExecutionException
+     *             if a request fails
+     * @throws InterruptedException
+     *             if waiting for a result is interrupted
+     */
+    @Test
+    public final void testDoRPCAsync() throws ConnectionException,
+            OtpAuthException, IOException, OtpErlangRangeException,
+            InterruptedException, ExecutionException {
+        final OtpSelf self = new OtpSelf("testPipelinedDoRPCAsync@" + ConnectionFactory.getLocalhostName(),
+                ConnectionFactory.getInstance().getCookie());
+        final PeerNode remote = new PeerNode(scalarisNode);
+        final PipelinedConnection c = new PipelinedConnection(self, remote);
+
+        final List<Future<OtpErlangObject>> futures = new ArrayList<Future<OtpErlangObject>>(100);
+        for (int i = 0; i < 100; ++i) {
+            futures.add(c.doRPCAsync("lists", "sum", sumArgs(i, i)));
+        }
+        for (int i = futures.size() - 1; i >= 0; --i) {
+            final OtpErlangLong result = (OtpErlangLong) futures.get(i).get();
+            assertEquals(2 * i, result.intValue());
+        }
+        assertEquals(0, c.getPendingRequests());
+
+        c.close();
+    }
+
+    /**
+     * Test method for
+     * {@link PipelinedConnection#doRPC(String, String, OtpErlangList)} with a
+     * closed connection.
+     *
+     * @throws ConnectionException
+     *             if the connection fails (expected)
+     * @throws IOException
+     *             if the connection is not active or a communication error
+     *             occurs
+     * @throws OtpAuthException
+     *             if the remote node sends a message containing an invalid
+     *             cookie
+     */
+    @Test(expected=ConnectionException.class)
+    public final void testDoRPC_fail() throws ConnectionException,
+            OtpAuthException, IOException {
+        final OtpSelf self = new OtpSelf("testPipelinedDoRPC_fail@" + ConnectionFactory.getLocalhostName(),
+                ConnectionFactory.getInstance().getCookie());
+        final PeerNode remote = new PeerNode(scalarisNode);
+        final DefaultConnectionPolicy connectionPolicy = new DefaultConnectionPolicy(remote);
+        connectionPolicy.setMaxRetries(0);
+        final PipelinedConnection c = new PipelinedConnection(self, connectionPolicy);
+
+        c.close();
+
+        try {
+            c.doRPC("lists", "sum", sumArgs(1, 2, 3));
+            c.close();
+            // this should have failed!
+            fail();
+        } catch (final ConnectionException e) {
+            assertEquals(0, remote.getFailureCount());
+            assertNull(remote.getLastFailedConnect());
+            assertEquals(0, c.getPendingRequests());
+            throw e;
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link PipelinedConnection#doRPCAsync(String, String, OtpErlangList)}
+     * with a failover while another thread is about to send a request, i.e.
+     * the failover must not re-send the request which has not been sent yet
+     * (it would be executed twice otherwise).
+     *
+     * @throws Exception
+     *             if the connection fails
+     */
+    @Test
+    public final void testDoRPCAsyncDuringFailover() throws Exception {
+        final OtpSelf self = new OtpSelf("testPipelinedDoRPCAsyncDuringFailover@" + ConnectionFactory.getLocalhostName(),
+                ConnectionFactory.getInstance().getCookie());
+        final PeerNode remote = new PeerNode(scalarisNode);
+        final PipelinedConnection c = new PipelinedConnection(self, remote);
+
+        final List<Future<OtpErlangObject>> result = new ArrayList<Future<OtpErlangObject>>(1);
+        final Thread sender = new Thread() {
+            @Override
+            public void run() {
+                result.add(c.doRPCAsync("lists", "sum", sumArgs(1, 2, 3)));
+            }
+        };
+        synchronized (c.sendLock) {
+            sender.start();
+            // wait until the sender blocks on the send lock:
+            while (sender.getState() != Thread.State.BLOCKED) {
+                assertTrue(sender.isAlive());
+                Thread.sleep(1);
+            }
+            // the request must not be visible to a failover yet:
+            assertEquals(0, c.getPendingRequests());
+            c.failover(c.connection, new IOException("test"), false);
+        }
+        sender.join();
+
+        assertEquals(6, ((OtpErlangLong) result.get(0).get()).intValue());
+        assertEquals(0, c.getPendingRequests());
+        c.close();
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link ReadOnlyTransaction} class.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.21
+ * @since 3.21
+ */
+public class ReadOnlyTransactionTest {
+    private final static long testTime = System.currentTimeMillis();
+
+    private final static String[] testData = { "ahz2ieSh", "wooPhu8u",
+            "quai9ooK", "Oquae4ee", "Airier1a" };
+
+    /**
+     * Test method for {@link ReadOnlyTransaction#read(String)}.
+     *
+     * @throws Exception
+     *             if a test with a connection to Scalaris fails
+     */
+    @Test
+    public final void testRead() throws Exception {
+        final String key = "_testRead_" + testTime;
+        final TransactionSingleOp writer = new TransactionSingleOp();
+        final ReadOnlyTransaction t = new ReadOnlyTransaction();
+        try {
+            try {
+                t.read(key);
+                // a not found exception must be thrown
+                assertTrue(false);
+            } catch (final NotFoundException e) {
+            }
+            writer.write(key, testData[0]);
+            assertEquals(testData[0], t.read(key).stringValue());
+        } finally {
+            writer.closeConnection();
+            t.closeConnection();
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link ReadOnlyTransaction#readMany(java.util.Collection)}.
+     *
+     * @throws Exception
+     *             if a test with a connection to Scalaris fails
+     */
+    @Test
+    public final void testReadMany() throws Exception {
+        final String key = "_testReadMany_" + testTime;
+        final TransactionSingleOp writer = new TransactionSingleOp();
+        final ReadOnlyTransaction t = new ReadOnlyTransaction();
+        try {
+            final List<String> keys = new ArrayList<String>();
+            for (int i = 0; i < testData.length; ++i) {
+                writer.write(key + i, testData[i]);
+                keys.add(key + i);
+            }
+            keys.add(key + "nonexisting");
+            for (final boolean compressed : new boolean[] { true, false }) {
+                t.setCompressed(compressed);
+                final BulkResult<ErlangValue> result = t.readMany(keys);
+                assertEquals(keys.size(), result.size());
+                for (int i = 0; i < testData.length; ++i) {
+                    assertEquals(testData[i], result.getValues().get(key + i).stringValue());
+                }
+                assertTrue(result.getErrors().get(key + "nonexisting") instanceof NotFoundException);
+            }
+        } finally {
+            writer.closeConnection();
+            t.closeConnection();
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link ReadOnlyTransaction#readMany(java.util.Collection)} with
+     * validated reads.
+     *
+     * @throws Exception
+     *             if a test with a connection to Scalaris fails
+     */
+    @Test
+    public final void testReadManyValidated() throws Exception {
+        final String key = "_testReadManyValidated_" + testTime;
+        final TransactionSingleOp writer = new TransactionSingleOp();
+        final ReadOnlyTransaction t = new ReadOnlyTransaction();
+        try {
+            final List<String> keys = new ArrayList<String>();
+            for (int i = 0; i < testData.length; ++i) {
+                writer.write(key + i, testData[i]);
+                keys.add(key + i);
+            }
+            keys.add(key + "nonexisting");
+            t.setValidated(true);
+            assertTrue(t.isValidated());
+            for (final boolean compressed : new boolean[] { true, false }) {
+                t.setCompressed(compressed);
+                final BulkResult<ErlangValue> result = t.readMany(keys);
+                assertEquals(keys.size(), result.size());
+                for (int i = 0; i < testData.length; ++i) {
+                    assertEquals(testData[i], result.getValues().get(key + i).stringValue());
+                }
+                assertTrue(result.getErrors().get(key + "nonexisting") instanceof NotFoundException);
+            }
+            assertEquals(testData[0], t.read(key + 0).stringValue());
+        } finally {
+            writer.closeConnection();
+            t.closeConnection();
+        }
+    }
+}
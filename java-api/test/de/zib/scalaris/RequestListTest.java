@@ -0,0 +1,129 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpOutputStream;
+
+import de.zib.scalaris.operations.AddOnNrOp;
+import de.zib.scalaris.operations.Operation;
+import de.zib.scalaris.operations.ReadOp;
+import de.zib.scalaris.operations.WriteOp;
+
+/**
+ * Test cases for the {@link RequestList} class.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.21
+ * @since 3.21
+ */
+public class RequestListTest {
+    private static OtpErlangList toList(final RequestList req,
+            final boolean compressed) {
+        final OtpErlangObject[] result = new OtpErlangObject[req.size()];
+        int i = 0;
+        for (final Operation op : req.getRequests()) {
+            result[i++] = op.getErlang(compressed);
+        }
+        return new OtpErlangList(result);
+    }
+
+    private static void assertEncodedEquals(final OtpErlangObject expected,
+            final OtpErlangObject actual) {
+        assertArrayEquals(new OtpOutputStream(expected).toByteArray(),
+                new OtpOutputStream(actual).toByteArray());
+    }
+
+    /**
+     * Tests that the request list is encoded like an {@link OtpErlangList} of
+     * its operations (also if empty).
+     */
+    @Test
+    public final void testGetErlangReqList() {
+        final Transaction.RequestList req = new Transaction.RequestList();
+        for (final boolean compressed : new boolean[] { true, false }) {
+            assertEncodedEquals(new OtpErlangList(),
+                    req.getErlangReqList(compressed));
+        }
+        req.addOp(new ReadOp("a")).addOp(new WriteOp("b", "value"))
+                .addOp(new AddOnNrOp("c", 1)).addOp(new WriteOp("d", 2))
+                .addCommit();
+        for (final boolean compressed : new boolean[] { true, false }) {
+            final OtpErlangObject erlangReqList = req.getErlangReqList(compressed);
+            assertEncodedEquals(toList(req, compressed), erlangReqList);
+            // only equal to other request lists (symmetric):
+            assertFalse(erlangReqList.equals(toList(req, compressed)));
+            assertFalse(toList(req, compressed).equals(erlangReqList));
+            final Transaction.RequestList copy = new Transaction.RequestList();
+            for (final Operation op : req.getRequests()) {
+                copy.addOp(op);
+            }
+            assertEquals(erlangReqList, copy.getErlangReqList(compressed));
+            assertEquals(erlangReqList.hashCode(), copy.getErlangReqList(compressed).hashCode());
+            assertEquals(toList(req, compressed).toString(), erlangReqList.toString());
+        }
+    }
+
+    /**
+     * Tests that the erlang terms of requests are created only once.
+     */
+    @Test
+    public final void testGetErlangReused() {
+        final Transaction.RequestList req = new Transaction.RequestList();
+        req.addOp(new ReadOp("a")).addOp(new WriteOp("b", "value"));
+        for (final boolean compressed : new boolean[] { true, false }) {
+            assertSame(req.getErlangReqList(compressed),
+                    req.getErlangReqList(compressed));
+            for (final Operation op : req.getRequests()) {
+                assertSame(op.getErlang(compressed), op.getErlang(compressed));
+            }
+        }
+    }
+
+    /**
+     * Tests that a request list can be re-used after
+     * {@link RequestList#clear()}.
+     */
+    @Test
+    public final void testClear() {
+        final Transaction.RequestList req = new Transaction.RequestList();
+        final OtpErlangObject erlangReqList = req.getErlangReqList(true);
+        assertEquals(new OtpErlangList().hashCode(), erlangReqList.hashCode());
+        req.addOp(new ReadOp("a")).addCommit();
+        assertTrue(req.isCommit());
+        req.clear();
+        assertTrue(req.isEmpty());
+        assertFalse(req.isCommit());
+        assertEncodedEquals(new OtpErlangList(), erlangReqList);
+
+        req.addOp(new WriteOp("b", "value")).addCommit();
+        assertEquals(2, req.size());
+        assertTrue(req.isCommit());
+        assertEncodedEquals(toList(req, true), erlangReqList);
+        // the hash code reflects the changed requests:
+        assertEquals(toList(req, true).hashCode(), erlangReqList.hashCode());
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Test cases for the {@link SharedConnection} class.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.21
+ * @since 3.21
+ */
+public class SharedConnectionTest {
+    private final static long testTime = System.currentTimeMillis();
+
+    static {
+        // determine good/bad nodes:
+        final ConnectionFactory cf = ConnectionFactory.getInstance();
+        cf.testAllNodes();
+    }
+
+    /**
+     * Test method for {@link ConnectionFactory#getSharedConnection()} and
+     * {@link SharedConnection#close()}.
+     *
+     * @throws ConnectionException
+     *             if the connection fails
+     */
+    @Test
+    public final void testReferences() throws ConnectionException {
+        final ConnectionFactory cf = new ConnectionFactory();
+        final SharedConnection c1 = cf.getSharedConnection();
+        final SharedConnection c2 = cf.getSharedConnection();
+        assertSame(c1, c2);
+        assertEquals(2, c1.getReferences());
+
+        c1.close();
+        assertFalse(c1.isClosed());
+        assertTrue(c1.getConnection().isConnected());
+        c2.close();
+        assertTrue(c1.isClosed());
+
+        final SharedConnection c3 = cf.getSharedConnection();
+        assertNotSame(c1, c3);
+        assertFalse(c3.isClosed());
+        c3.close();
+    }
+
+    /**
+     * Writes and reads values with several {@link TransactionSingleOp} objects
+     * in different threads using the same {@link SharedConnection}.
+     *
+     * @throws Exception
+     *             if any operation fails
+     */
+    @Test
+    public final void testConcurrentTransactions() throws Exception {
+        final String key = "_SharedConnectionConcurrent_";
+        final ConnectionFactory cf = new ConnectionFactory();
+        final SharedConnection conn = cf.getSharedConnection();
+        final AtomicReference<Exception> error = new AtomicReference<Exception>(null);
+        final Thread[] threads = new Thread[10];
+        try {
+            for (int t = 0; t < threads.length; ++t) {
+                final int threadNr = t;
+                threads[t] = new Thread() {
+                    @Override
+                    public void run() {
+                        final TransactionSingleOp sc = new TransactionSingleOp(conn.acquire());
+                        try {
+                            for (int i = 0; i < 20; ++i) {
+                                final String k = testTime + key + threadNr + "_" + i;
+                                sc.write(k, i);
+                                if (sc.read(k).intValue() != i) {
+                                    error.compareAndSet(null, new Exception("wrong value for " + k));
+                                }
+                            }
+                        } catch (final Exception e) {
+                            error.compareAndSet(null, e);
+                        } finally {
+                            sc.closeConnection();
+                        }
+                    }
+                };
+                threads[t].start();
+            }
+            for (final Thread thread : threads) {
+                thread.join();
+            }
+            if (error.get() != null) {
+                throw error.get();
+            }
+            assertEquals(1, conn.getReferences());
+            assertEquals(0, conn.getPendingRequests());
+        } finally {
+            conn.close();
+        }
+    }
+}
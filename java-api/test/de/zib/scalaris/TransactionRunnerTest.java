@@ -0,0 +1,180 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ericsson.otp.erlang.OtpErlangException;
+
+/**
+ * Test cases for the {@link TransactionRunner} class.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.21
+ * @since 3.21
+ */
+public class TransactionRunnerTest {
+    private final static long testTime = System.currentTimeMillis();
+
+    /**
+     * Test method for {@link TransactionRunner#getBackoff(int)}.
+     */
+    @Test
+    public final void testBackoff() {
+        final TransactionRunner r = new TransactionRunner(new ConnectionPool(
+                ConnectionFactory.getInstance(), 1));
+        r.setBaseBackoff(10);
+        r.setMaxBackoff(100);
+        for (int i = 0; i < 1000; ++i) {
+            final long b0 = r.getBackoff(0);
+            assertTrue(b0 >= 0 && b0 <= 10);
+            final long b2 = r.getBackoff(2);
+            assertTrue(b2 >= 0 && b2 <= 40);
+            final long b100 = r.getBackoff(100);
+            assertTrue(b100 >= 0 && b100 <= 100);
+        }
+        r.setMaxBackoff(0);
+        assertEquals(0, r.getBackoff(5));
+    }
+
+    /**
+     * Test method for {@link TransactionRunner#isHot(String)} and
+     * {@link TransactionRunner#getConflicts(String)}.
+     */
+    @Test
+    public final void testConflicts() {
+        final TransactionRunner r = new TransactionRunner(new ConnectionPool(
+                ConnectionFactory.getInstance(), 1));
+        r.setHotKeyThreshold(2);
+        r.addConflicts(Arrays.asList("a", "b"));
+        assertEquals(1, r.getConflicts("a"));
+        assertFalse(r.isHot("a"));
+        r.addConflicts(Arrays.asList("a"));
+        assertEquals(2, r.getConflicts("a"));
+        assertTrue(r.isHot("a"));
+        assertFalse(r.isHot("b"));
+        assertFalse(r.isHot("c"));
+        assertEquals(2, r.getConflicts().size());
+
+        r.setHotKeyThreshold(0);
+        assertFalse(r.isHot("a"));
+
+        r.setHotKeyThreshold(2);
+        r.resetConflicts();
+        assertFalse(r.isHot("a"));
+        assertEquals(0, r.getConflicts("a"));
+    }
+
+    /**
+     * Test method for {@link TransactionRunner#decayConflicts()} and
+     * {@link TransactionRunner#setMaxConflictKeys(int)}.
+     */
+    @Test
+    public final void testConflictDecay() {
+        final TransactionRunner r = new TransactionRunner(new ConnectionPool(
+                ConnectionFactory.getInstance(), 1));
+        r.setHotKeyThreshold(2);
+        r.addConflicts(Arrays.asList("a", "a", "a", "a", "b"));
+        assertTrue(r.isHot("a"));
+        r.decayConflicts();
+        assertEquals(2, r.getConflicts("a"));
+        assertTrue(r.isHot("a"));
+        assertEquals(1, r.getConflicts().size());
+        r.decayConflicts();
+        assertFalse(r.isHot("a"));
+        r.decayConflicts();
+        assertEquals(0, r.getConflicts().size());
+
+        r.setMaxConflictKeys(2);
+        r.addConflicts(Arrays.asList("a", "a", "b", "b", "c"));
+        assertEquals(2, r.getConflicts().size());
+        assertEquals(0, r.getConflicts("c"));
+        // decaying makes room for new keys:
+        r.addConflicts(Arrays.asList("a", "a"));
+        r.setMaxConflictKeys(1);
+        r.addConflicts(Arrays.asList("c"));
+        assertEquals(1, r.getConflicts().size());
+        assertEquals(1, r.getConflicts("a"));
+    }
+
+    /**
+     * Test method for
+     * {@link TransactionRunner#run(java.util.Collection, TransactionRunner.TransactionBody)}
+     * with concurrent increments of the same key.
+     *
+     * @throws Exception
+     *             if a test with a connection to Scalaris fails
+     */
+    @Test
+    public final void testRunConcurrentIncrements() throws Exception {
+        final String key = "_testRunConcurrentIncrements_" + testTime;
+        final ConnectionPool pool = new ConnectionPool(ConnectionFactory.getInstance(), 4);
+        final TransactionRunner r = new TransactionRunner(pool);
+        r.setMaxRetries(100);
+        r.setHotKeyThreshold(1);
+        final int threads = 4;
+        final int increments = 10;
+        final List<Thread> workers = new ArrayList<Thread>(threads);
+        final List<Exception> errors = new ArrayList<Exception>();
+        try {
+            for (int i = 0; i < threads; ++i) {
+                final Thread t = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int j = 0; j < increments; ++j) {
+                                r.run(Arrays.asList(key), new TransactionRunner.TransactionBody<Void>() {
+                                    public Void run(final Transaction tx) throws OtpErlangException {
+                                        tx.addOnNr(key, 1);
+                                        return null;
+                                    }
+                                });
+                            }
+                        } catch (final Exception e) {
+                            synchronized (errors) {
+                                errors.add(e);
+                            }
+                        }
+                    }
+                };
+                workers.add(t);
+                t.start();
+            }
+            for (final Thread t : workers) {
+                t.join();
+            }
+            assertTrue(errors.toString(), errors.isEmpty());
+            assertEquals(threads * increments, r.getCommits());
+            final Integer result = r.run(new TransactionRunner.TransactionBody<Integer>() {
+                public Integer run(final Transaction tx) throws OtpErlangException {
+                    return tx.read(key).intValue();
+                }
+            });
+            assertEquals(threads * increments, result.intValue());
+        } finally {
+            pool.closeAll();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import de.zib.scalaris.operations.ReadOp;
+import de.zib.scalaris.operations.WriteOp;
+
+/**
+ * Test cases for the {@link TransactionSingleOpBatcher} class.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.21
+ * @since 3.21
+ */
+public class TransactionSingleOpBatcherTest {
+    private final static long testTime = System.currentTimeMillis();
+
+    /**
+     * Test method for
+     * {@link TransactionSingleOpBatcher#submit(de.zib.scalaris.operations.TransactionSingleOpOperation)}
+     * after the batcher has been closed.
+     */
+    @Test(expected = IllegalStateException.class)
+    public final void testSubmitClosed() {
+        final TransactionSingleOpBatcher b = new TransactionSingleOpBatcher(
+                new ConnectionPool(ConnectionFactory.getInstance(), 1));
+        b.close();
+        b.submit(new ReadOp("testSubmitClosed"));
+    }
+
+    /**
+     * Test method for
+     * {@link TransactionSingleOpBatcher#submit(de.zib.scalaris.operations.TransactionSingleOpOperation)}
+     * concurrently with {@link TransactionSingleOpBatcher#close()}, i.e.
+     * every accepted operation must be completed.
+     *
+     * @throws Exception
+     *             if the test fails
+     */
+    @Test
+    public final void testSubmitDuringClose() throws Exception {
+        for (int round = 0; round < 20; ++round) {
+            final TransactionSingleOpBatcher b = new TransactionSingleOpBatcher(
+                    new ConnectionPool(ConnectionFactory.getInstance(), 1));
+            // nothing is sent before close():
+            b.setMaxBatchSize(Integer.MAX_VALUE);
+            b.setMaxDelay(TimeUnit.MINUTES.toMicros(1));
+            final List<Future<ReadOp>> futures = Collections
+                    .synchronizedList(new ArrayList<Future<ReadOp>>());
+            final Thread submitter = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            futures.add(b.submit(new ReadOp("testSubmitDuringClose")));
+                        }
+                    } catch (final IllegalStateException e) {
+                        // closed
+                    }
+                }
+            };
+            submitter.start();
+            Thread.sleep(1);
+            b.close();
+            submitter.join();
+            synchronized (futures) {
+                for (final Future<ReadOp> f : futures) {
+                    try {
+                        f.get(10, TimeUnit.SECONDS);
+                    } catch (final ExecutionException e) {
+                        assertTrue(e.getCause() instanceof ConnectionException);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Test method for {@link TransactionSingleOpBatcher#setMaxBatchSize(int)}
+     * with an invalid value.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public final void testSetMaxBatchSizeInvalid() {
+        final TransactionSingleOpBatcher b = new TransactionSingleOpBatcher(
+                new ConnectionPool(ConnectionFactory.getInstance(), 1));
+        try {
+            b.setMaxBatchSize(0);
+        } finally {
+            b.close();
+        }
+    }
+
+    /**
+     * Test method for
+     * {@link TransactionSingleOpBatcher#submit(de.zib.scalaris.operations.TransactionSingleOpOperation)}
+     * and {@link TransactionSingleOpBatcher#read(String)} with many
+     * concurrently submitted operations.
+     *
+     * @throws Exception
+     *             if a test with a connection to Scalaris fails
+     */
+    @Test
+    public final void testSubmitWriteRead() throws Exception {
+        final String key = "_testSubmitWriteRead_" + testTime + "_";
+        final ConnectionPool pool = new ConnectionPool(ConnectionFactory.getInstance(), 4);
+        final TransactionSingleOpBatcher b = new TransactionSingleOpBatcher(pool);
+        try {
+            b.setMaxDelay(10000);
+            final List<Future<WriteOp>> writes = new ArrayList<Future<WriteOp>>();
+            for (int i = 0; i < 50; ++i) {
+                writes.add(b.submit(new WriteOp(key + i, i)));
+            }
+            for (final Future<WriteOp> f : writes) {
+                TransactionSingleOpBatcher.getOp(f).processResultSingle();
+            }
+            for (int i = 0; i < 50; ++i) {
+                assertEquals(i, b.read(key + i).intValue());
+            }
+            assertEquals(100, b.getOperations());
+            assertTrue(b.getBatches() < 100);
+        } finally {
+            b.close();
+            pool.closeAll();
+        }
+    }
+}
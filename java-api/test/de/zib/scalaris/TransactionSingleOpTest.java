@@ -23,7 +23,9 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -34,6 +36,9 @@ import com.ericsson.otp.erlang.OtpErlangObject;
 
 import de.zib.scalaris.TransactionSingleOp.RequestList;
 import de.zib.scalaris.TransactionSingleOp.ResultList;
+import de.zib.scalaris.operations.AddIfAbsentOnListOp;
+import de.zib.scalaris.operations.ReadListLengthOp;
+import de.zib.scalaris.operations.ReadListTailOp;
 import de.zib.scalaris.operations.ReadOp;
 import de.zib.scalaris.operations.ReadRandomFromListOp;
 import de.zib.scalaris.operations.WriteOp;
@@ -898,6 +903,36 @@ public class TransactionSingleOpTest {
         }
     }
 
+    /**
+     * Test method for {@link TransactionSingleOp#req_list(RequestList, long)}
+     * with a timeout large enough to get the results.
+     *
+     * @throws ConnectionException
+     * @throws TimeoutException
+     * @throws UnknownException
+     * @throws AbortException
+     * @throws NotFoundException
+     *
+     * @since 3.21
+     */
+    @Test
+    public void testReqList_Timeout() throws ConnectionException,
+            TimeoutException, UnknownException, AbortException,
+            NotFoundException {
+        final String key = "_ReqList_Timeout";
+        final TransactionSingleOp conn = new TransactionSingleOp();
+        try {
+            ResultList results = conn.req_list(new RequestList().addOp(
+                    new WriteOp(testTime + key, testData[0])), 10000);
+            results.processWriteAt(0);
+            results = conn.req_list(new RequestList().addOp(
+                    new ReadOp(testTime + key)), 10000);
+            assertEquals(testData[0], results.processReadAt(0).stringValue());
+        } finally {
+            conn.closeConnection();
+        }
+    }
+
     /**
      * Test method for {@link TransactionSingleOp#req_list(RequestList)} with a
      * mixed request list.
@@ -1213,4 +1248,107 @@ public class TransactionSingleOpTest {
         assertEquals(op, resultList.get(0));
         op.processResultSingle();
     }
+
+    /**
+     * Test method for {@link TransactionSingleOp#writeMany(Map)} and
+     * {@link TransactionSingleOp#readMany(java.util.Collection)}.
+     *
+     * @throws ConnectionException
+     *             if the connection fails
+     *
+     * @since 3.21
+     */
+    @Test
+    public void testWriteManyReadMany() throws ConnectionException {
+        final String key = "_testWriteManyReadMany_" + testTime + "_";
+        final TransactionSingleOp conn = new TransactionSingleOp();
+        conn.setBulkChunkSize(3);
+        try {
+            final Map<String, String> values = new LinkedHashMap<String, String>();
+            for (int i = 0; i < testData.length; ++i) {
+                values.put(key + i, testData[i]);
+            }
+            final BulkResult<Object> writeResult = conn.writeMany(values);
+            assertTrue(writeResult.getErrors().toString(), writeResult.isSuccessful());
+            assertEquals(values.keySet(), writeResult.getValues().keySet());
+
+            final List<String> keys = new ArrayList<String>(values.keySet());
+            keys.add(key + "nonexisting");
+            final BulkResult<ErlangValue> readResult = conn.readMany(keys);
+            assertEquals(keys.size(), readResult.size());
+            for (int i = 0; i < testData.length; ++i) {
+                assertEquals(testData[i], readResult.getValues().get(key + i).stringValue());
+            }
+            assertTrue(readResult.getErrors().get(key + "nonexisting") instanceof NotFoundException);
+        } finally {
+            conn.closeConnection();
+        }
+    }
+
+    /**
+     * Test method for the {@link ReadListLengthOp}, {@link ReadListTailOp}
+     * and {@link AddIfAbsentOnListOp} operations.
+     *
+     * @throws ConnectionException
+     *             if the connection fails
+     * @throws UnknownException
+     *             if any other error occurs
+     * @throws NotFoundException
+     *             if a key does not exist
+     * @throws NotAListException
+     *             if a value is no list
+     * @throws AbortException
+     *             if a commit fails
+     *
+     * @since 3.21
+     */
+    @Test
+    public void testListOps() throws ConnectionException, UnknownException,
+            NotFoundException, NotAListException, AbortException {
+        final String key = "_testListOps_" + testTime;
+        final TransactionSingleOp conn = new TransactionSingleOp();
+        try {
+            final ReadListLengthOp notFound = new ReadListLengthOp(key);
+            conn.req_list(new RequestList(notFound));
+            try {
+                notFound.processLength();
+                // a not found exception must be thrown
+                assertTrue(false);
+            } catch (final NotFoundException e) {
+            }
+
+            AddIfAbsentOnListOp add = new AddIfAbsentOnListOp(key,
+                    Arrays.asList(testData[0], testData[1], testData[0]));
+            conn.req_list(new RequestList(add));
+            add.processResultSingle();
+            add = new AddIfAbsentOnListOp(key,
+                    Arrays.asList(testData[1], testData[2]));
+            conn.req_list(new RequestList(add));
+            add.processResultSingle();
+
+            final ReadListLengthOp length = new ReadListLengthOp(key);
+            final ReadListTailOp tail = new ReadListTailOp(key, 2);
+            final ReadListTailOp all = new ReadListTailOp(key, 10);
+            final RequestList req = new RequestList();
+            req.addOp(length).addOp(tail).addOp(all);
+            conn.req_list(req);
+            assertEquals(3, length.processLength());
+            assertEquals(Arrays.asList(testData[0], testData[1]),
+                    tail.processResultSingle().subList.stringListValue());
+            assertEquals(Arrays.asList(testData[2], testData[0], testData[1]),
+                    all.processResultSingle().subList.stringListValue());
+
+            conn.write(key, testData[0]);
+            add = new AddIfAbsentOnListOp(key, Arrays.asList(testData[1]));
+            conn.req_list(new RequestList(add));
+            try {
+                add.processResultSingle();
+                // a not a list exception must be thrown
+                assertTrue(false);
+            } catch (final NotAListException e) {
+            }
+        } finally {
+            conn.closeConnection();
+        }
+    }
 }
@@ -1291,6 +1291,104 @@ public class TransactionTest {
         writeSingleTest("_0:Šarplaninac:page_", testData[0]);
     }
 
+    /**
+     * Test method for {@link Transaction#getSavedRPCs()}, i.e. repeated reads
+     * answered locally.
+     *
+     * @throws ConnectionException
+     * @throws NotFoundException
+     * @throws UnknownException
+     * @throws AbortException
+     * @throws NotANumberException
+     *
+     * @since 3.21
+     */
+    @Test
+    public void testLocalReads() throws ConnectionException, UnknownException,
+            NotFoundException, AbortException, NotANumberException {
+        final String key = "_testLocalReads_";
+        final Transaction t = new Transaction();
+        try {
+            // not found:
+            try {
+                t.read(testTime + key + 0);
+                assertTrue(false);
+            } catch (final NotFoundException e) {
+            }
+            assertEquals(0, t.getSavedRPCs());
+            try {
+                t.read(testTime + key + 0);
+                assertTrue(false);
+            } catch (final NotFoundException e) {
+            }
+            assertEquals(1, t.getSavedRPCs());
+
+            // a write changes the value read locally:
+            t.write(testTime + key + 0, testData[0]);
+            assertEquals(testData[0], t.read(testTime + key + 0).stringValue());
+            assertEquals(2, t.getSavedRPCs());
+            t.addOnNr(testTime + key + 1, 5);
+            assertEquals(5, t.read(testTime + key + 1).intValue());
+            assertEquals(3, t.getSavedRPCs());
+
+            // mixed local and remote reads:
+            final Transaction.RequestList reqs = new Transaction.RequestList();
+            reqs.addOp(new ReadOp(testTime + key + 0))
+                    .addOp(new ReadOp(testTime + key + 2))
+                    .addOp(new ReadOp(testTime + key + 1));
+            final Transaction.ResultList results = t.req_list(reqs);
+            assertEquals(testData[0], results.processReadAt(0).stringValue());
+            try {
+                results.processReadAt(1);
+                assertTrue(false);
+            } catch (final NotFoundException e) {
+            }
+            assertEquals(5, results.processReadAt(2).intValue());
+            assertEquals(3, t.getSavedRPCs());
+
+            t.commit();
+            // a new transaction starts without local values:
+            assertEquals(testData[0], t.read(testTime + key + 0).stringValue());
+            assertEquals(3, t.getSavedRPCs());
+        } finally {
+            t.closeConnection();
+        }
+    }
+
+    /**
+     * Test method for {@link Transaction#readMany(java.util.Collection)}.
+     *
+     * @throws ConnectionException
+     * @throws UnknownException
+     * @throws AbortException
+     *
+     * @since 3.21
+     */
+    @Test
+    public void testReadMany() throws ConnectionException, UnknownException,
+            AbortException {
+        final String key = "_testReadMany_";
+        final Transaction t = new Transaction();
+        t.setBulkChunkSize(3);
+        try {
+            final List<String> keys = new ArrayList<String>();
+            for (int i = 0; i < testData.length; ++i) {
+                t.write(testTime + key + i, testData[i]);
+                keys.add(testTime + key + i);
+            }
+            keys.add(testTime + key + "nonexisting");
+            final BulkResult<ErlangValue> result = t.readMany(keys);
+            assertEquals(keys.size(), result.size());
+            for (int i = 0; i < testData.length; ++i) {
+                assertEquals(testData[i], result.getValues().get(testTime + key + i).stringValue());
+            }
+            assertTrue(result.getErrors().get(testTime + key + "nonexisting") instanceof NotFoundException);
+            t.commit();
+        } finally {
+            t.closeConnection();
+        }
+    }
+
     protected void writeSingleTest(final String key, final String data)
             throws ConnectionException, UnknownException, ClassCastException,
             NotFoundException, AbortException {
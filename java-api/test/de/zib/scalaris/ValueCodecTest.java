@@ -0,0 +1,217 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.ericsson.otp.erlang.OtpErlangAtom;
+import com.ericsson.otp.erlang.OtpErlangBinary;
+import com.ericsson.otp.erlang.OtpErlangDecodeException;
+import com.ericsson.otp.erlang.OtpErlangList;
+import com.ericsson.otp.erlang.OtpErlangLong;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangString;
+import com.ericsson.otp.erlang.OtpErlangTuple;
+import com.ericsson.otp.erlang.OtpExternal;
+import com.ericsson.otp.erlang.OtpOutputStream;
+
+/**
+ * Test cases for the {@link ValueCodec} class.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.21
+ * @since 3.21
+ */
+public class ValueCodecTest {
+    /**
+     * Encodes the value like {@link CommonErlangObjects#encode(OtpErlangObject)}
+     * did before using the {@link ValueCodec}.
+     */
+    private static byte[] jinterfaceEncode(final OtpErlangObject value) {
+        final OtpOutputStream oos = new OtpOutputStream();
+        oos.write1(OtpExternal.versionTag);
+        if (value instanceof OtpErlangBinary) {
+            oos.write_any(value);
+        } else {
+            oos.write_compressed(value);
+        }
+        return oos.toByteArray();
+    }
+
+    private static String randomString(final Random random, final int length) {
+        final StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; ++i) {
+            sb.append((char) ('a' + random.nextInt(8)));
+        }
+        return sb.toString();
+    }
+
+    private static OtpErlangObject[] testValues() {
+        final Random random = new Random(42);
+        final byte[] bytes = new byte[100000];
+        random.nextBytes(bytes);
+        final OtpErlangObject[] list = new OtpErlangObject[1000];
+        for (int i = 0; i < list.length; ++i) {
+            list[i] = new OtpErlangLong(random.nextLong());
+        }
+        return new OtpErlangObject[] {
+                new OtpErlangList(),
+                new OtpErlangString("a"),
+                new OtpErlangString(randomString(random, 100)),
+                new OtpErlangString(randomString(random, 60000)),
+                new OtpErlangList(list),
+                new OtpErlangTuple(new OtpErlangObject[] {
+                        new OtpErlangAtom("ok"), new OtpErlangBinary(bytes) }),
+                new OtpErlangBinary(new byte[0]),
+                new OtpErlangBinary(bytes) };
+    }
+
+    /**
+     * Tests that values are encoded the same way as by Jinterface and can be
+     * decoded again.
+     *
+     * @throws OtpErlangDecodeException
+     *             if decoding fails
+     */
+    @Test
+    public final void testEncodeDecode() throws OtpErlangDecodeException {
+        // run twice to use the re-used buffers:
+        for (int run = 0; run < 2; ++run) {
+            for (final OtpErlangObject value : testValues()) {
+                final OtpErlangObject encoded = CommonErlangObjects.encode(value);
+                assertTrue(encoded instanceof OtpErlangBinary);
+                assertArrayEquals(value.toString(), jinterfaceEncode(value),
+                        ((OtpErlangBinary) encoded).binaryValue());
+                assertEquals(value, CommonErlangObjects.decode(encoded));
+                assertEquals(value, CommonErlangObjects.decode(
+                        new OtpErlangBinary(jinterfaceEncode(value))));
+            }
+        }
+    }
+
+    /**
+     * Tests that values whose encoding encodes other values use separate
+     * buffers.
+     *
+     * @throws OtpErlangDecodeException
+     *             if decoding fails
+     */
+    @Test
+    public final void testEncodeNested() throws OtpErlangDecodeException {
+        final OtpErlangString inner = new OtpErlangString("inner value");
+        final OtpErlangObject outer = new OtpErlangObject() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void encode(final OtpOutputStream buf) {
+                buf.write_any(new OtpErlangTuple(new OtpErlangObject[] {
+                        new OtpErlangAtom("nested"),
+                        CommonErlangObjects.encode(inner) }));
+            }
+
+            @Override
+            public boolean equals(final Object o) {
+                return false;
+            }
+
+            @Override
+            public String toString() {
+                return "outer";
+            }
+        };
+        final OtpErlangTuple decoded = (OtpErlangTuple) CommonErlangObjects
+                .decode(CommonErlangObjects.encode(outer));
+        assertEquals(new OtpErlangAtom("nested"), decoded.elementAt(0));
+        assertEquals(inner, CommonErlangObjects.decode(decoded.elementAt(1)));
+    }
+
+    /**
+     * Tests that corrupt compressed values are not decoded.
+     */
+    @Test
+    public final void testDecodeInvalid() {
+        final byte[] encoded = ((OtpErlangBinary) CommonErlangObjects
+                .encode(new OtpErlangString(randomString(new Random(1), 1000))))
+                .binaryValue();
+        final byte[] truncated = new byte[encoded.length / 2];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+        try {
+            CommonErlangObjects.decode(new OtpErlangBinary(truncated));
+            assertTrue(false);
+        } catch (final OtpErlangDecodeException e) {
+        }
+    }
+
+    /**
+     * Tests that encoded lists of integers, floats and binaries are parsed
+     * directly into arrays and that other values are rejected.
+     */
+    @Test
+    public final void testDecodePrimitiveList() throws OtpErlangDecodeException {
+        final Random rand = new Random(1);
+        final long[] longs = new long[2000];
+        final double[] doubles = new double[2000];
+        for (int i = 0; i < longs.length; ++i) {
+            longs[i] = rand.nextLong() >> rand.nextInt(64);
+            doubles[i] = rand.nextDouble();
+        }
+        // compressed (small numbers) and uncompressed (random numbers) lists
+        for (final long[] value : new long[][] { longs, new long[1000], { 1, 2 } }) {
+            final byte[] encoded = encodeBytes(new PrimitiveErlangList(value));
+            assertArrayEquals(value, (long[]) ValueCodec.decodePrimitiveList(
+                    encoded, ValueCodec.LIST_OF_LONGS));
+        }
+        assertArrayEquals(doubles, (double[]) ValueCodec.decodePrimitiveList(
+                encodeBytes(new PrimitiveErlangList(doubles)),
+                ValueCodec.LIST_OF_DOUBLES), 0.0);
+        final byte[][] binaries = new byte[][] { { 1 }, {}, new byte[100] };
+        assertArrayEquals(binaries, (byte[][]) ValueCodec.decodePrimitiveList(
+                encodeBytes(new PrimitiveErlangList(binaries)),
+                ValueCodec.LIST_OF_BINARIES));
+
+        assertEquals(null, ValueCodec.decodePrimitiveList(
+                encodeBytes(new PrimitiveErlangList(longs)),
+                ValueCodec.LIST_OF_DOUBLES));
+        assertEquals(null, ValueCodec.decodePrimitiveList(
+                encodeBytes(new OtpErlangTuple(new OtpErlangAtom("atom"))),
+                ValueCodec.LIST_OF_LONGS));
+    }
+
+    /**
+     * Tests that values can still be encoded and decoded after releasing the
+     * thread's resources.
+     */
+    @Test
+    public final void testReleaseThreadResources() throws OtpErlangDecodeException {
+        final OtpErlangString value = new OtpErlangString(randomString(new Random(2), 1000));
+        final OtpErlangObject encoded = CommonErlangObjects.encode(value);
+        CommonErlangObjects.releaseThreadResources();
+        assertEquals(value, CommonErlangObjects.decode(encoded));
+        CommonErlangObjects.releaseThreadResources();
+        assertEquals(value, CommonErlangObjects.decode(CommonErlangObjects.encode(value)));
+    }
+
+    private static byte[] encodeBytes(final OtpErlangObject value) {
+        return ((OtpErlangBinary) CommonErlangObjects.encode(value)).binaryValue();
+    }
+}
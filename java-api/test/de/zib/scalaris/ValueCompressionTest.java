@@ -0,0 +1,161 @@
+/**
+ *  Copyright 2007-2011 Zuse Institute Berlin
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package de.zib.scalaris;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.ericsson.otp.erlang.OtpErlangBinary;
+import com.ericsson.otp.erlang.OtpErlangDecodeException;
+import com.ericsson.otp.erlang.OtpErlangObject;
+import com.ericsson.otp.erlang.OtpErlangString;
+import com.ericsson.otp.erlang.OtpExternal;
+import com.ericsson.otp.erlang.OtpInputStream;
+
+/**
+ * Test cases for the {@link ValueCompression} settings.
+ *
+ * @author Nico Kruber, kruber@zib.de
+ *
+ * @version 3.21
+ * @since 3.21
+ */
+public class ValueCompressionTest {
+    private static final OtpErlangString small = new OtpErlangString("small value");
+
+    /**
+     * Restores the default settings.
+     */
+    @After
+    public final void resetCompression() {
+        ValueCompression.setDefault(ValueCompression.DEFAULT);
+    }
+
+    private static OtpErlangString largeValue() {
+        final Random random = new Random(0);
+        final StringBuilder sb = new StringBuilder();
+        while (sb.length() < 20000) {
+            sb.append("word").append(random.nextInt(100)).append(' ');
+        }
+        return new OtpErlangString(sb.toString());
+    }
+
+    private static byte[] bytes(final OtpErlangObject encoded) {
+        return ((OtpErlangBinary) encoded).binaryValue();
+    }
+
+    /**
+     * Tests {@link ValueCompression#fromProperties(Properties)}.
+     */
+    @Test
+    public final void testFromProperties() {
+        final Properties properties = new Properties();
+        assertEquals(ValueCompression.DEFAULT,
+                ValueCompression.fromProperties(properties));
+        properties.setProperty("scalaris.compression.codec", "none");
+        properties.setProperty("scalaris.compression.level", "1");
+        properties.setProperty("scalaris.compression.threshold", "1024");
+        assertEquals(new ValueCompression(ValueCompression.CODEC_NONE, 1, 1024),
+                ValueCompression.fromProperties(properties));
+        properties.setProperty("scalaris.compression.codec", "gzip");
+        try {
+            ValueCompression.fromProperties(properties);
+            assertTrue(false);
+        } catch (final IllegalArgumentException e) {
+        }
+        properties.setProperty("scalaris.compression.codec", "none");
+        properties.setProperty("scalaris.compression.level", "10");
+        try {
+            ValueCompression.fromProperties(properties);
+            assertTrue(false);
+        } catch (final IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * Tests that the {@link ConnectionFactory} reads the compression settings
+     * but does not change the global settings.
+     */
+    @Test
+    public final void testConnectionFactory() {
+        final Properties properties = new Properties();
+        properties.setProperty("scalaris.node", "nonexisting@localhost");
+        properties.setProperty("scalaris.compression.threshold", "100");
+        final ConnectionFactory cf = new ConnectionFactory(properties);
+        assertEquals(new ValueCompression(ValueCompression.CODEC_DEFLATE, -1, 100),
+                cf.getValueCompression());
+        assertEquals(ValueCompression.DEFAULT, ValueCompression.getDefault());
+        properties.remove("scalaris.compression.threshold");
+        assertEquals(ValueCompression.DEFAULT,
+                new ConnectionFactory(properties).getValueCompression());
+        ValueCompression.setDefault(cf.getValueCompression());
+        assertEquals(100, ValueCompression.getDefault().getThreshold());
+    }
+
+    /**
+     * Tests that values smaller than the threshold are not compressed.
+     *
+     * @throws OtpErlangDecodeException
+     *             if decoding fails
+     */
+    @Test
+    public final void testThreshold() throws OtpErlangDecodeException {
+        ValueCompression.setDefault(new ValueCompression(
+                ValueCompression.CODEC_DEFLATE, -1, 1000));
+        final byte[] smallEnc = bytes(CommonErlangObjects.encode(small));
+        assertEquals(OtpExternal.stringTag, smallEnc[1] & 0xff);
+        assertEquals(small, CommonErlangObjects.decode(new OtpErlangBinary(smallEnc)));
+        final byte[] largeEnc = bytes(CommonErlangObjects.encode(largeValue()));
+        assertEquals(OtpExternal.compressedTag, largeEnc[1] & 0xff);
+
+        ValueCompression.setDefault(new ValueCompression(
+                ValueCompression.CODEC_NONE, -1, 0));
+        final byte[] largeNone = bytes(CommonErlangObjects.encode(largeValue()));
+        assertEquals(OtpExternal.stringTag, largeNone[1] & 0xff);
+        assertEquals(largeValue(), CommonErlangObjects.decode(new OtpErlangBinary(largeNone)));
+    }
+
+    /**
+     * Tests all deflate compression levels.
+     *
+     * @throws OtpErlangDecodeException
+     *             if decoding fails
+     */
+    @Test
+    public final void testLevels() throws OtpErlangDecodeException {
+        final OtpErlangString value = largeValue();
+        int previous = Integer.MAX_VALUE;
+        for (int level = 0; level <= 9; ++level) {
+            ValueCompression.setDefault(new ValueCompression(
+                    ValueCompression.CODEC_DEFLATE, level, 0));
+            final OtpErlangObject encoded = CommonErlangObjects.encode(value);
+            assertEquals(value, CommonErlangObjects.decode(encoded));
+            // Jinterface (and thus Erlang) can decode it, too:
+            assertEquals(value, new OtpInputStream(bytes(encoded)).read_any());
+            if (level == 1) {
+                previous = bytes(encoded).length;
+            } else if (level == 9) {
+                assertTrue(bytes(encoded).length <= previous);
+            }
+        }
+    }
+}
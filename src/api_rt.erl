@@ -21,7 +21,8 @@
 -include("scalaris.hrl").
 -include("client_types.hrl").
 
--export([get_replication_factor/0, get_evenly_spaced_keys/1, escaped_list_of_keys/1]).
+-export([get_replication_factor/0, get_evenly_spaced_keys/1, escaped_list_of_keys/1,
+         get_local_ranges/0]).
 
 -spec get_replication_factor() -> pos_integer().
 get_replication_factor() ->
@@ -54,3 +55,19 @@ escaped_list_of_keys(Keys) ->
 %
 %%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%%
 
+%% @doc Gets the key ranges the (fully joined) Scalaris nodes inside this VM
+%%      are responsible for, e.g. for clients routing requests to the VM which
+%%      hosts a key.
+-spec get_local_ranges() -> [intervals:simple_interval()].
+get_local_ranges() ->
+    DhtModule = config:read(dht_node),
+    lists:append(
+      [begin
+           comm:send_local(Pid, {get_state, comm:this(), my_range}),
+           trace_mpath:thread_yield(),
+           receive
+               ?SCALARIS_RECV({get_state_response, MyRange}, %% ->
+                   intervals:get_simple_intervals(MyRange))
+           end
+       end || Pid <- pid_groups:find_all(dht_node),
+              DhtModule:is_alive_fully_joined(gen_component:get_state(Pid))]).
@@ -16,7 +16,8 @@
 %% @author Nico Kruber <kruber@zib.de>
 %% @doc API for transactional access to replicated DHT items.
 %% For single request/single item operations, we provide read/1,
-%% write/2, test_and_set/3, add_on_nr/2 and add_del_on_list/3
+%% write/2, test_and_set/3, add_on_nr/2, add_del_on_list/3 and
+%% add_if_absent_on_list/2
 %% functions that directly commit.
 %%
 %% For compound transactions a transaction log has to be passed
@@ -35,7 +36,8 @@
               read_request/0, read_random_from_list_request/0,
               read_sublist_request/0,
               write_request/0,
-              add_del_on_list_request/0, add_on_nr_request/0,
+              add_del_on_list_request/0, add_if_absent_on_list_request/0,
+              add_on_nr_request/0,
               test_and_set_request/0]).
 -export_type([result/0, read_result/0, read_random_from_list_result/0,
               read_sublist_result/0,
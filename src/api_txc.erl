@@ -29,7 +29,8 @@
               read_request/0, read_random_from_list_request/0,
               read_sublist_request/0,
               write_request/0,
-              add_del_on_list_request/0, add_on_nr_request/0,
+              add_del_on_list_request/0, add_if_absent_on_list_request/0,
+              add_on_nr_request/0,
               test_and_set_request/0]).
 -export_type([result/0, read_result/0, read_random_from_list_result/0,
               read_sublist_result/0,
@@ -112,6 +112,7 @@ tlog_and_results_to_abort_iter(TLog, [Req | ReqListT], AccRes) ->
                       read -> {fail, not_found};
                       write -> {ok};
                       add_del_on_list -> {ok};
+                      add_if_absent_on_list -> {ok};
                       add_on_nr -> {ok};
                       test_and_set -> {ok}
                   end,
@@ -145,6 +146,7 @@ req_props(Req) ->
         test_and_set -> {true, false, true};
         add_on_nr -> {true, false, true};
         add_del_on_list -> {true, false, true};
+        add_if_absent_on_list -> {true, false, true};
         write -> {false, true, true}
     end.
 
@@ -161,6 +163,7 @@ initiate_rdht_ops(ReqList) ->
               read            -> rdht_tx_read:work_phase(self(), NewReqId, Entry);
               test_and_set    -> rdht_tx_test_and_set:work_phase(self(), NewReqId, Entry);
               add_del_on_list -> rdht_tx_add_del_on_list:work_phase(self(), NewReqId, Entry);
+              add_if_absent_on_list -> rdht_tx_add_del_on_list:work_phase(self(), NewReqId, Entry);
               add_on_nr       -> rdht_tx_add_on_nr:work_phase(self(), NewReqId, Entry)
           end,
           NewReqId
@@ -212,6 +215,9 @@ do_reqs_on_tlog_iter(TLog, [Req | ReqTail], Acc, EnDecode) ->
             {add_del_on_list, Key, ToAdd, ToDel} ->
                 Entry = tx_tlog:find_entry_by_key(TLog, Key),
                 rdht_tx_add_del_on_list:extract_from_tlog(Entry, Key, ToAdd, ToDel, EnDecode);
+            {add_if_absent_on_list, Key, ToAdd} ->
+                Entry = tx_tlog:find_entry_by_key(TLog, Key),
+                rdht_tx_add_del_on_list:extract_from_tlog_if_absent(Entry, Key, ToAdd, EnDecode);
             {add_on_nr, Key, X} ->
                 Entry = tx_tlog:find_entry_by_key(TLog, Key),
                 rdht_tx_add_on_nr:extract_from_tlog(Entry, Key, X, EnDecode);
@@ -382,7 +388,8 @@ receive_old_answers() ->
 -endif.
 
 -spec req_get_op(api_tx:request_on_key())
-                -> read | write | add_del_on_list | add_on_nr | test_and_set.
+                -> read | write | add_del_on_list | add_if_absent_on_list
+                   | add_on_nr | test_and_set.
 req_get_op(Request) -> element(1, Request).
 -spec req_get_key(api_tx:request_on_key())
                  -> api_tx:client_key().
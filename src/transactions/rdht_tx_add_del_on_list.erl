@@ -14,7 +14,7 @@
 
 %% @author Nico Kruber <kruber@zib.de>
 %% @doc Part of replicated DHT implementation.
-%%      The add_del_on_list operation.
+%%      The add_del_on_list and add_if_absent_on_list operations.
 %%      This "two-phase" operation uses rdht_tx_read to first read the value
 %%      and then alters the tlog entry so that it appears to be a write
 %%      operation from rdht_tx_write. Changes are performed in the context of
@@ -30,7 +30,7 @@
 -include("scalaris.hrl").
 -include("client_types.hrl").
 
--export([work_phase/3, extract_from_tlog/5]).
+-export([work_phase/3, extract_from_tlog/5, extract_from_tlog_if_absent/4]).
 
 % feeder for tester
 -export([extract_from_tlog_feeder/5]).
@@ -92,3 +92,52 @@ extract_from_tlog(Entry0, Key, ToAdd, ToDel, true) ->
 extract_from_tlog(Entry, Key, ToAdd, ToDel, false) ->
     % note: we can only work with decoded values here
     extract_from_tlog(Entry, Key, rdht_tx:decode_value(ToAdd), rdht_tx:decode_value(ToDel), true).
+
+%% @doc Simulate adding the elements of ToAdd which are not in the list yet
+%%      via read and write requests. Does not change the list (and thus does
+%%      not write) if all elements are already present.
+%%      Update the TLog entry accordingly.
+-spec extract_from_tlog_if_absent
+        (tx_tlog:tlog_entry(), client_key(), client_value(), EnDecode::true)
+            -> {tx_tlog:tlog_entry(), api_tx:listop_result()};
+        (tx_tlog:tlog_entry(), client_key(), rdht_tx:encoded_value(), EnDecode::false)
+            -> {tx_tlog:tlog_entry(), api_tx:listop_result()}.
+extract_from_tlog_if_absent(Entry, _Key, ToAdd, true) when
+      not erlang:is_list(ToAdd) ->
+    %% input type error
+    {tx_tlog:set_entry_status(Entry, ?fail), {fail, not_a_list}};
+extract_from_tlog_if_absent(Entry0, Key, ToAdd, true) ->
+    {Entry, Res0} = rdht_tx_read:extract_from_tlog(Entry0, Key, read, true),
+    case Res0 of
+        {ok, OldValue} when erlang:is_list(OldValue) ->
+            %% types ok
+            case absent(ToAdd, OldValue) of
+                [] -> {Entry, {ok}}; % no op
+                NewElements ->
+                    NewValue = lists:append(NewElements, OldValue),
+                    rdht_tx_write:extract_from_tlog(Entry, Key, NewValue, true)
+            end;
+        {fail, not_found} -> %% key creation
+            rdht_tx_write:extract_from_tlog(Entry, Key, absent(ToAdd, []), true);
+        {ok, _} -> %% value is not a list
+            {tx_tlog:set_entry_status(Entry, ?fail),
+             {fail, not_a_list}}
+    end;
+extract_from_tlog_if_absent(Entry, Key, ToAdd, false) ->
+    % note: we can only work with decoded values here
+    extract_from_tlog_if_absent(Entry, Key, rdht_tx:decode_value(ToAdd), true).
+
+%% @doc Gets the elements of ToAdd which are not in List (each only once and
+%%      in the order of ToAdd).
+-spec absent(ToAdd::[client_value()], List::[client_value()]) -> [client_value()].
+absent([], _List) ->
+    [];
+absent(ToAdd, List) ->
+    {NewElements, _Seen} =
+        lists:foldl(fun(X, {Acc, Seen}) ->
+                            case sets:is_element(X, Seen) of
+                                true  -> {Acc, Seen};
+                                false -> {[X | Acc], sets:add_element(X, Seen)}
+                            end
+                    end, {[], sets:from_list(List)}, ToAdd),
+    lists:reverse(NewElements).
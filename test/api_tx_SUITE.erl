@@ -48,6 +48,7 @@ groups() ->
         tester_add_del_on_list_not_existing,
         tester_add_del_on_list,
         tester_add_del_on_list_maybe_invalid,
+        tester_add_if_absent_on_list,
         tester_add_on_nr_not_existing,
         tester_add_on_nr,
         tester_add_on_nr_maybe_invalid,
@@ -388,6 +389,29 @@ prop_add_del_on_list_maybe_invalid(Key, Initial, ToAdd, ToRemove) ->
 tester_add_del_on_list_maybe_invalid(_Config) ->
     tester:test(?MODULE, prop_add_del_on_list_maybe_invalid, 4, 5000).
 
+-spec prop_add_if_absent_on_list(Key::client_key(), Initial::client_value(), ToAdd::[client_value()]) -> true | no_return().
+prop_add_if_absent_on_list(Key, Initial, ToAdd) ->
+    ?equals(api_tx:write(Key, Initial), {ok}),
+    case erlang:is_list(Initial) of
+        false ->
+            ?equals(api_tx:add_if_absent_on_list(Key, ToAdd), {fail, not_a_list}),
+            ?equals(api_tx:read(Key), {ok, Initial});
+        true ->
+            ?equals(api_tx:add_if_absent_on_list(Key, ToAdd), {ok}),
+            Result = api_tx:read(Key),
+            ?equals_pattern(Result, {ok, _List}),
+            {ok, List} = Result,
+            % new elements are added in front of the old ones (only once):
+            ?equals(lists:suffix(Initial, List), true),
+            Added = lists:sublist(List, length(List) - length(Initial)),
+            ?equals(sets:size(sets:from_list(Added)), length(Added)),
+            ?equals([X || X <- Added, lists:member(X, Initial)], []),
+            ?equals([X || X <- ToAdd, not lists:member(X, List)], [])
+    end.
+
+tester_add_if_absent_on_list(_Config) ->
+    tester:test(?MODULE, prop_add_if_absent_on_list, 3, 5000).
+
 -spec prop_add_on_nr2(Key::client_key(), Existing::boolean(), Initial::client_value(), ToAdd::client_value()) -> true | no_return().
 prop_add_on_nr2(Key, Existing, Initial, ToAdd) ->
     if (not erlang:is_number(Initial)) orelse